@@ -19,16 +19,27 @@
 
 package com.sk89q.worldedit.cli;
 
+import com.fastasyncworldedit.core.configuration.Caption;
+import com.fastasyncworldedit.core.extent.filter.CountFilter;
+import com.fastasyncworldedit.core.extent.filter.MaskFilter;
+import com.fastasyncworldedit.core.queue.Filter;
 import com.sk89q.worldedit.LocalSession;
 import com.sk89q.worldedit.WorldEdit;
+import com.sk89q.worldedit.cli.anvil.AnvilWorld;
 import com.sk89q.worldedit.extension.platform.Actor;
+import com.sk89q.worldedit.function.mask.ExistingBlockMask;
+import com.sk89q.worldedit.function.mask.Mask;
+import com.sk89q.worldedit.function.pattern.Pattern;
 import com.sk89q.worldedit.regions.selector.CuboidRegionSelector;
 import com.sk89q.worldedit.util.formatting.text.TextComponent;
 import com.sk89q.worldedit.util.task.Task;
 import com.sk89q.worldedit.world.World;
 import org.enginehub.piston.annotation.Command;
 import org.enginehub.piston.annotation.CommandContainer;
+import org.enginehub.piston.annotation.param.Arg;
 
+import javax.annotation.Nullable;
+import java.io.IOException;
 import java.util.concurrent.ExecutionException;
 
 @CommandContainer
@@ -61,4 +72,74 @@ public void await() {
         }
     }
 
+    //FAWE start - operations on entire world folders, one region file per thread
+    @Command(
+            name = "replaceall",
+            desc = "Replace all blocks in the world folder"
+    )
+    public void replaceAll(
+            Actor actor, World world,
+            @Arg(desc = "The mask of blocks to replace", def = "")
+                    Mask from,
+            @Arg(desc = "The pattern of blocks to replace with")
+                    Pattern to
+    ) {
+        if (from == null) {
+            from = new ExistingBlockMask(world);
+        }
+        MaskFilter<Pattern> result = applyToWorld(actor, world, from.toFilter(to), from.replacesAir());
+        if (result != null) {
+            actor.print(Caption.of("fawe.worldedit.visitor.visitor.block", result.getBlocksApplied()));
+        }
+    }
+
+    @Command(
+            name = "countall",
+            desc = "Count all blocks in the world folder"
+    )
+    public void countAll(
+            Actor actor, World world,
+            @Arg(desc = "The mask of blocks to match")
+                    Mask mask
+    ) {
+        MaskFilter<CountFilter> result = applyToWorld(actor, world, mask.toFilter(new CountFilter()), mask.replacesAir());
+        if (result != null) {
+            actor.print(Caption.of("fawe.worldedit.selection.selection.count", result.getParent().getTotal()));
+        }
+    }
+
+    @Command(
+            name = "trimallair",
+            desc = "Delete all chunks of the world folder which only contain air"
+    )
+    public void trimAllAir(Actor actor, World world) {
+        if (!(world instanceof AnvilWorld)) {
+            actor.print(Caption.of("worldedit.cli.not-a-world-folder"));
+            return;
+        }
+        try {
+            int deleted = ((AnvilWorld) world).deleteChunks((file, chunk) -> chunk.isEmpty());
+            actor.print(Caption.of("fawe.worldedit.anvil.chunks.deleted", deleted));
+        } catch (IOException e) {
+            WorldEdit.logger.error("Failed to process world {}", world.getName(), e);
+            actor.print(Caption.of("fawe.worldedit.anvil.failed", world.getName()));
+        }
+    }
+
+    @Nullable
+    private static <T extends Filter> T applyToWorld(Actor actor, World world, T filter, boolean full) {
+        if (!(world instanceof AnvilWorld)) {
+            actor.print(Caption.of("worldedit.cli.not-a-world-folder"));
+            return null;
+        }
+        try {
+            return ((AnvilWorld) world).apply(filter, full);
+        } catch (IOException e) {
+            WorldEdit.logger.error("Failed to process world {}", world.getName(), e);
+            actor.print(Caption.of("fawe.worldedit.anvil.failed", world.getName()));
+            return null;
+        }
+    }
+    //FAWE end
+
 }
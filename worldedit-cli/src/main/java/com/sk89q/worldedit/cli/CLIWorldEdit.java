@@ -22,6 +22,7 @@
 import com.fastasyncworldedit.core.configuration.Caption;
 import com.google.common.collect.ImmutableList;
 import com.sk89q.worldedit.WorldEdit;
+import com.sk89q.worldedit.cli.anvil.AnvilWorld;
 import com.sk89q.worldedit.cli.data.FileRegistries;
 import com.sk89q.worldedit.cli.schematic.ClipboardWorld;
 import com.sk89q.worldedit.event.platform.CommandEvent;
@@ -315,7 +316,13 @@ public static void main(String[] args) {
             }
             LOGGER.info(() -> "Loading '" + file + "'...");
             if (file.getName().endsWith("level.dat")) {
-                throw new IllegalArgumentException("level.dat file support is unfinished.");
+                //FAWE start - edit world folders in their region files
+                AnvilWorld world = new AnvilWorld(file.getAbsoluteFile().toPath().getParent());
+                app.platform.setDataVersion(world.getDataVersion());
+                app.onStarted();
+                app.platform.addWorld(world);
+                WorldEdit.getInstance().getSessionManager().get(app.commandSender).setWorldOverride(world);
+                //FAWE end
             } else {
                 ClipboardFormat format = ClipboardFormats.findByFile(file);
                 if (format != null) {
@@ -0,0 +1,505 @@
+/*
+ * WorldEdit, a Minecraft world manipulation toolkit
+ * Copyright (C) sk89q <http://www.sk89q.com>
+ * Copyright (C) WorldEdit team and contributors
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package com.sk89q.worldedit.cli.anvil;
+
+import com.fastasyncworldedit.core.Fawe;
+import com.fastasyncworldedit.core.anvil.MCAChunk;
+import com.fastasyncworldedit.core.anvil.MCAFile;
+import com.fastasyncworldedit.core.anvil.MCAQueue;
+import com.fastasyncworldedit.core.anvil.MCAWorld;
+import com.fastasyncworldedit.core.queue.Filter;
+import com.fastasyncworldedit.core.queue.IChunkCache;
+import com.fastasyncworldedit.core.queue.IChunkGet;
+import com.fastasyncworldedit.core.queue.implementation.blocks.CharSetBlocks;
+import com.fastasyncworldedit.core.queue.implementation.packet.ChunkPacket;
+import com.fastasyncworldedit.core.util.MathMan;
+import com.google.common.collect.ImmutableSet;
+import com.sk89q.jnbt.CompoundTag;
+import com.sk89q.jnbt.NBTInputStream;
+import com.sk89q.jnbt.Tag;
+import com.sk89q.worldedit.EditSession;
+import com.sk89q.worldedit.MaxChangedBlocksException;
+import com.sk89q.worldedit.WorldEditException;
+import com.sk89q.worldedit.blocks.BaseItemStack;
+import com.sk89q.worldedit.cli.CLIWorld;
+import com.sk89q.worldedit.entity.BaseEntity;
+import com.sk89q.worldedit.entity.Entity;
+import com.sk89q.worldedit.entity.Player;
+import com.sk89q.worldedit.extent.Extent;
+import com.sk89q.worldedit.internal.util.LogManagerCompat;
+import com.sk89q.worldedit.math.BlockVector3;
+import com.sk89q.worldedit.math.Vector3;
+import com.sk89q.worldedit.regions.Region;
+import com.sk89q.worldedit.util.Location;
+import com.sk89q.worldedit.util.SideEffect;
+import com.sk89q.worldedit.util.SideEffectSet;
+import com.sk89q.worldedit.util.TreeGenerator;
+import com.sk89q.worldedit.world.AbstractWorld;
+import com.sk89q.worldedit.world.RegenOptions;
+import com.sk89q.worldedit.world.biome.BiomeType;
+import com.sk89q.worldedit.world.biome.BiomeTypes;
+import com.sk89q.worldedit.world.block.BaseBlock;
+import com.sk89q.worldedit.world.block.BlockState;
+import com.sk89q.worldedit.world.block.BlockStateHolder;
+import com.sk89q.worldedit.world.block.BlockTypes;
+import org.apache.logging.log4j.Logger;
+
+import javax.annotation.Nullable;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiPredicate;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * A world folder, edited directly in its region files.
+ *
+ * <p>Edit sessions read and write the chunks through {@link #get(int, int)}, so the usual commands work on it. The
+ * {@code apply} and {@code deleteChunks} methods instead process the region files in parallel, one file per thread,
+ * which is much faster for operations on the entire world. Chunks which were never generated can't be edited, changes
+ * to them are dropped.</p>
+ */
+public class AnvilWorld extends AbstractWorld implements CLIWorld {
+
+    private static final Logger LOGGER = LogManagerCompat.getLogger();
+
+    private final Path folder;
+    private final String name;
+    private final int dataVersion;
+    private final BlockVector3 spawn;
+    private final MCAWorld regions;
+    private final Map<Long, MCAFile> files = new ConcurrentHashMap<>();
+    private final BlockVector3 minimumPoint;
+    private final BlockVector3 maximumPoint;
+    // held to keep the chunks of this world cached while it is open
+    private volatile IChunkCache<IChunkGet> chunkCache;
+
+    private volatile boolean dirty = false;
+
+    /**
+     * Open a world folder.
+     *
+     * @param folder the world folder, containing the level.dat
+     * @throws IOException if the level.dat or the region folder can't be read
+     */
+    public AnvilWorld(Path folder) throws IOException {
+        this.folder = folder;
+        Map<String, Tag> data = readLevelData(folder.resolve("level.dat"));
+        Tag version = data.get("DataVersion");
+        if (version == null) {
+            throw new IllegalArgumentException("Failed to obtain data version from level.dat.");
+        }
+        this.dataVersion = ((Number) version.getValue()).intValue();
+        Tag levelName = data.get("LevelName");
+        this.name = levelName != null ? levelName.getValue().toString() : String.valueOf(folder.getFileName());
+        this.spawn = BlockVector3.at(getInt(data, "SpawnX"), getInt(data, "SpawnY"), getInt(data, "SpawnZ"));
+        this.regions = new Regions(folder);
+
+        int minX = Integer.MAX_VALUE;
+        int minZ = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE;
+        int maxZ = Integer.MIN_VALUE;
+        for (Path path : regions.getRegionFiles()) {
+            String[] parts = path.getFileName().toString().split("\\.");
+            int regionX = Integer.parseInt(parts[1]);
+            int regionZ = Integer.parseInt(parts[2]);
+            minX = Math.min(minX, regionX);
+            minZ = Math.min(minZ, regionZ);
+            maxX = Math.max(maxX, regionX);
+            maxZ = Math.max(maxZ, regionZ);
+        }
+        if (minX > maxX) {
+            this.minimumPoint = super.getMinimumPoint();
+            this.maximumPoint = super.getMaximumPoint();
+        } else {
+            this.minimumPoint = BlockVector3.at(minX << 9, getMinY(), minZ << 9);
+            this.maximumPoint = BlockVector3.at((maxX << 9) + 511, getMaxY(), (maxZ << 9) + 511);
+        }
+    }
+
+    private static Map<String, Tag> readLevelData(Path path) throws IOException {
+        try (NBTInputStream nbt = new NBTInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(path))))) {
+            Tag root = nbt.readNamedTag().getTag();
+            if (root instanceof CompoundTag) {
+                Tag data = ((CompoundTag) root).getValue().get("Data");
+                if (data instanceof CompoundTag) {
+                    return ((CompoundTag) data).getValue();
+                }
+            }
+        }
+        throw new IOException("Missing Data tag in " + path);
+    }
+
+    private static int getInt(Map<String, Tag> data, String key) {
+        Tag tag = data.get(key);
+        return tag == null ? 0 : ((Number) tag.getValue()).intValue();
+    }
+
+    /**
+     * Get the data version the world was last saved with.
+     *
+     * @return the data version
+     */
+    public int getDataVersion() {
+        return dataVersion;
+    }
+
+    private MCAFile getFile(Path path) throws IOException {
+        try {
+            return files.computeIfAbsent(regionKey(path), key -> {
+                try {
+                    return new MCAFile(path);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static long regionKey(Path path) {
+        String[] parts = path.getFileName().toString().split("\\.");
+        return MathMan.pairInt(Integer.parseInt(parts[1]), Integer.parseInt(parts[2]));
+    }
+
+    @Nullable
+    private MCAFile getFile(int chunkX, int chunkZ) {
+        int regionX = chunkX >> 5;
+        int regionZ = chunkZ >> 5;
+        MCAFile file = files.get(MathMan.pairInt(regionX, regionZ));
+        if (file != null) {
+            return file;
+        }
+        Path path = regions.getRegionFolder().resolve("r." + regionX + "." + regionZ + ".mca");
+        if (!Files.exists(path)) {
+            return null;
+        }
+        try {
+            return getFile(path);
+        } catch (IOException e) {
+            LOGGER.warn("Skipping unreadable region file {}", path, e);
+            return null;
+        }
+    }
+
+    @Override
+    public IChunkGet get(int x, int z) {
+        MCAFile file = getFile(x, z);
+        if (file == null) {
+            return new MCAChunk(null, x, z, null);
+        }
+        dirty = true;
+        try {
+            return MCAChunk.read(file, x, z);
+        } catch (IOException e) {
+            LOGGER.warn("Skipping unreadable chunk {},{} in {}", x, z, file.getPath(), e);
+            return new MCAChunk(file, x, z, null);
+        }
+    }
+
+    /**
+     * Apply a filter to every chunk of the world, processing the region files in parallel.
+     *
+     * @param filter the filter
+     * @param full   if the filter should be applied to all blocks, or only to non air sections
+     * @param <T>    the filter type
+     * @return the filter
+     * @throws IOException if the region files can't be listed
+     */
+    public <T extends Filter> T apply(T filter, boolean full) throws IOException {
+        dirty = true;
+        return regions.apply(filter, full);
+    }
+
+    /**
+     * Delete the chunks matching a predicate, they will be generated again when loaded by a server.
+     *
+     * @param delete the predicate
+     * @return the number of deleted chunks
+     * @throws IOException if the region files can't be listed
+     */
+    public int deleteChunks(BiPredicate<MCAFile, MCAChunk> delete) throws IOException {
+        dirty = true;
+        return regions.deleteChunks(delete);
+    }
+
+    private IChunkCache<IChunkGet> getChunkCache() {
+        IChunkCache<IChunkGet> cache = chunkCache;
+        if (cache == null) {
+            cache = Fawe.get().getQueueHandler().getOrCreateWorldCache(this);
+            chunkCache = cache;
+        }
+        return cache;
+    }
+
+    /**
+     * Get a chunk from the chunk cache of the queue handler, which the queues of edit sessions use too. The same chunk
+     * instance is shared while it is in use, so it is only read once and never outdated by writes through another
+     * instance.
+     */
+    private IChunkGet getCachedChunk(int chunkX, int chunkZ) {
+        return getChunkCache().get(chunkX, chunkZ);
+    }
+
+    // Writes outside of a queue, only used when fast placement is disabled. Each of them rewrites the whole chunk, so
+    // that a queue writing the same cached chunk later can't be overtaken by buffered changes.
+    private boolean write(int x, int z, Consumer<CharSetBlocks> change) {
+        MCAChunk chunk = (MCAChunk) getCachedChunk(x >> 4, z >> 4);
+        if (!chunk.exists()) {
+            return false;
+        }
+        CharSetBlocks set = CharSetBlocks.newInstance();
+        try {
+            change.accept(set);
+            chunk.call(set, () -> {
+            });
+        } finally {
+            set.reset();
+            set.recycle();
+        }
+        return true;
+    }
+
+    @Override
+    public String getName() {
+        return this.name;
+    }
+
+    @Override
+    public String getId() {
+        return getName().replace(" ", "_").toLowerCase(Locale.ROOT);
+    }
+
+    @Override
+    public Path getStoragePath() {
+        return folder;
+    }
+
+    @Override
+    public void refreshChunk(int chunkX, int chunkZ) {
+
+    }
+
+    @Override
+    public void sendFakeChunk(@Nullable Player player, ChunkPacket packet) {
+
+    }
+
+    @Override
+    public <B extends BlockStateHolder<B>> boolean setBlock(BlockVector3 position, B block, SideEffectSet sideEffects) throws
+            WorldEditException {
+        int y = position.getY();
+        if (y < getMinY() || y > getMaxY()) {
+            return false;
+        }
+        int x = position.getX();
+        int z = position.getZ();
+        return write(x, z, set -> set.setBlock(x & 15, y, z & 15, block));
+    }
+
+    @Override
+    public Set<SideEffect> applySideEffects(BlockVector3 position, BlockState previousType, SideEffectSet sideEffectSet) throws
+            WorldEditException {
+        return ImmutableSet.of();
+    }
+
+    @Override
+    public int getBlockLightLevel(BlockVector3 position) {
+        int y = position.getY();
+        if (y < getMinY() || y > getMaxY()) {
+            return 0;
+        }
+        IChunkGet chunk = getCachedChunk(position.getX() >> 4, position.getZ() >> 4);
+        return chunk.getEmittedLight(position.getX() & 15, y, position.getZ() & 15);
+    }
+
+    @Override
+    public boolean clearContainerBlockContents(BlockVector3 position) {
+        return false;
+    }
+
+    @Override
+    public void dropItem(Vector3 position, BaseItemStack item) {
+    }
+
+    @Override
+    public void simulateBlockMine(BlockVector3 position) {
+    }
+
+    @Override
+    public boolean regenerate(Region region, Extent extent, RegenOptions options) {
+        return false;
+    }
+
+    @Override
+    public boolean generateTree(TreeGenerator.TreeType type, EditSession editSession, BlockVector3 position)
+            throws MaxChangedBlocksException {
+        return false;
+    }
+
+    @Override
+    public BlockVector3 getSpawnPosition() {
+        return spawn;
+    }
+
+    @Override
+    public List<? extends Entity> getEntities(Region region) {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public List<? extends Entity> getEntities() {
+        return Collections.emptyList();
+    }
+
+    @Nullable
+    @Override
+    public Entity createEntity(Location location, BaseEntity entity) {
+        return null;
+    }
+
+    @Override
+    public BlockState getBlock(BlockVector3 position) {
+        int y = position.getY();
+        if (y < getMinY() || y > getMaxY()) {
+            return BlockTypes.AIR.getDefaultState();
+        }
+        return getCachedChunk(position.getX() >> 4, position.getZ() >> 4).getBlock(position.getX() & 15, y, position.getZ() & 15);
+    }
+
+    @Override
+    public BaseBlock getFullBlock(BlockVector3 position) {
+        int y = position.getY();
+        if (y < getMinY() || y > getMaxY()) {
+            return BlockTypes.AIR.getDefaultState().toBaseBlock();
+        }
+        return getCachedChunk(position.getX() >> 4, position.getZ() >> 4).getFullBlock(position.getX() & 15, y, position.getZ() & 15);
+    }
+
+    @Override
+    public BiomeType getBiome(BlockVector3 position) {
+        int y = Math.max(getMinY(), Math.min(getMaxY(), position.getY()));
+        BiomeType biome = getCachedChunk(position.getX() >> 4, position.getZ() >> 4)
+                .getBiomeType(position.getX() & 15, y, position.getZ() & 15);
+        return biome == null ? BiomeTypes.PLAINS : biome;
+    }
+
+    @Override
+    public boolean setTile(int x, int y, int z, CompoundTag tile) throws WorldEditException {
+        if (y < getMinY() || y > getMaxY()) {
+            return false;
+        }
+        return write(x, z, set -> set.setTile(x & 15, y, z & 15, tile));
+    }
+
+    @Override
+    public boolean setBiome(BlockVector3 position, BiomeType biome) {
+        int y = position.getY();
+        if (y < getMinY() || y > getMaxY()) {
+            return false;
+        }
+        int x = position.getX();
+        int z = position.getZ();
+        return write(x, z, set -> set.setBiome(x & 15, y, z & 15, biome));
+    }
+
+    @Override
+    public void flush() {
+
+    }
+
+    @Override
+    public BlockVector3 getMinimumPoint() {
+        return minimumPoint;
+    }
+
+    @Override
+    public BlockVector3 getMaximumPoint() {
+        return maximumPoint;
+    }
+
+    /**
+     * Write the headers of the region files and close them. They are opened again when they are used.
+     */
+    @Override
+    public void save(boolean force) {
+        if (dirty || force) {
+            dirty = false;
+            for (MCAFile file : files.values()) {
+                try {
+                    file.close();
+                } catch (IOException e) {
+                    LOGGER.error("Failed to save region file {}", file.getPath(), e);
+                }
+            }
+        }
+    }
+
+    @Override
+    public boolean isDirty() {
+        return this.dirty;
+    }
+
+    @Override
+    public void setDirty(boolean dirty) {
+        this.dirty = dirty;
+    }
+
+    /**
+     * The region files of this world, shared with the edit sessions and read through the chunk cache of the queue
+     * handler, so every chunk has one instance at most.
+     */
+    private class Regions extends MCAWorld {
+
+        private Regions(Path folder) {
+            super(folder);
+            setProgressListener(this::progress);
+        }
+
+        @Override
+        protected MCAFile open(Path path) throws IOException {
+            return getFile(path);
+        }
+
+        @Override
+        protected MCAQueue createQueue(MCAFile file) {
+            return new MCAQueue(file, getChunkCache());
+        }
+
+        private void progress(int done, int total) {
+            // every 5 percent
+            if (done == total || done * 20 / total != (done - 1) * 20 / total) {
+                LOGGER.info("Processed {}/{} region files ({}%)", done, total, done * 100 / total);
+            }
+        }
+
+    }
+
+}
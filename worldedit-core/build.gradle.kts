@@ -56,6 +56,7 @@
     api(libs.paster)
     compileOnly(libs.lz4Java) { isTransitive = false }
     compileOnly(libs.lz4JavaStream)
+    compileOnly(libs.asm)
     compileOnly(libs.sparsebitset)
     compileOnly(libs.parallelgzip)
     antlr(libs.antlr4)
@@ -65,6 +66,7 @@
     // Tests
     testRuntimeOnly(libs.log4jCore)
     testImplementation(libs.adventureNbt)
+    testImplementation(libs.asm)
 }
 
 tasks.named<Test>("test") {
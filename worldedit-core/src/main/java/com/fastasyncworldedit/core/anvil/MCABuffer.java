@@ -0,0 +1,105 @@
+package com.fastasyncworldedit.core.anvil;
+
+import com.sk89q.worldedit.world.DataException;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * A region file read into memory at once, for region files which can only be streamed, like the ones in zipped
+ * backups. The header is only read once and chunks can be read in any order and from several threads at the same
+ * time, each thread decompressing its own chunks.
+ */
+public class MCABuffer {
+
+    private static final int SECTOR_BYTES = 4096;
+
+    private static final byte VERSION_GZIP = 1;
+    private static final byte VERSION_DEFLATE = 2;
+    private static final byte VERSION_NONE = 3;
+
+    private final byte[] data;
+    private final ByteBuffer buffer;
+
+    /**
+     * Create a new instance.
+     *
+     * @param data the contents of the region file
+     */
+    public MCABuffer(byte[] data) {
+        this.data = data;
+        this.buffer = ByteBuffer.wrap(data);
+    }
+
+    /**
+     * Read a region file into memory.
+     *
+     * @param in the stream to read the region file from, which is not closed
+     * @return the buffered region file
+     * @throws IOException if the stream can't be read
+     */
+    public static MCABuffer read(InputStream in) throws IOException {
+        return new MCABuffer(in.readAllBytes());
+    }
+
+    private int getOffset(int chunkX, int chunkZ) {
+        int index = ((chunkX & 31) + ((chunkZ & 31) << 5)) << 2;
+        return index + 4 <= data.length ? buffer.getInt(index) : 0;
+    }
+
+    /**
+     * Get whether the given chunk is stored in this file.
+     *
+     * @param chunkX the chunk x coordinate
+     * @param chunkZ the chunk z coordinate
+     * @return if the chunk exists
+     */
+    public boolean hasChunk(int chunkX, int chunkZ) {
+        return getOffset(chunkX, chunkZ) != 0;
+    }
+
+    /**
+     * Get the uncompressed data of a chunk.
+     *
+     * @param chunkX the chunk x coordinate
+     * @param chunkZ the chunk z coordinate
+     * @return an input stream of the chunk data
+     * @throws DataException if the chunk isn't generated or is corrupt
+     * @throws IOException   if the chunk can't be decompressed
+     */
+    public InputStream getChunkInputStream(int chunkX, int chunkZ) throws DataException, IOException {
+        int offset = getOffset(chunkX, chunkZ);
+        if (offset == 0) {
+            throw new DataException("The chunk at " + (chunkX & 31) + "," + (chunkZ & 31) + " is not generated");
+        }
+        long position = (long) (offset >>> 8) * SECTOR_BYTES;
+        if (position + 5 > data.length) {
+            throw new DataException("MCRegion chunk at " + (chunkX & 31) + "," + (chunkZ & 31) + " is outside of the file");
+        }
+        int length = buffer.getInt((int) position);
+        if (length <= 0 || length > (offset & 0xFF) * SECTOR_BYTES || position + 4 + length > data.length) {
+            throw new DataException("MCRegion chunk at " + (chunkX & 31) + "," + (chunkZ & 31)
+                    + " has an invalid length of " + length);
+        }
+        byte version = data[(int) position + 4];
+        // only read from, so the streams of any number of threads can share the array
+        InputStream in = new ByteArrayInputStream(data, (int) position + 5, length - 1);
+        switch (version) {
+            case VERSION_GZIP:
+                return new BufferedInputStream(new GZIPInputStream(in));
+            case VERSION_DEFLATE:
+                return new BufferedInputStream(new InflaterInputStream(in));
+            case VERSION_NONE:
+                return in;
+            default:
+                throw new DataException("MCRegion chunk at " + (chunkX & 31) + "," + (chunkZ & 31)
+                        + " has an unsupported version of " + version);
+        }
+    }
+
+}
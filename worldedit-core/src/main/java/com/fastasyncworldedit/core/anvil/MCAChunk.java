@@ -0,0 +1,645 @@
+package com.fastasyncworldedit.core.anvil;
+
+import com.fastasyncworldedit.core.FaweCache;
+import com.fastasyncworldedit.core.extent.processor.heightmap.HeightMapType;
+import com.fastasyncworldedit.core.queue.IChunkSet;
+import com.fastasyncworldedit.core.queue.implementation.blocks.CharGetBlocks;
+import com.sk89q.jnbt.ByteTag;
+import com.sk89q.jnbt.CompoundTag;
+import com.sk89q.jnbt.IntArrayTag;
+import com.sk89q.jnbt.IntTag;
+import com.sk89q.jnbt.ListTag;
+import com.sk89q.jnbt.LongArrayTag;
+import com.sk89q.jnbt.StringTag;
+import com.sk89q.jnbt.Tag;
+import com.sk89q.worldedit.extension.input.InputParseException;
+import com.sk89q.worldedit.internal.Constants;
+import com.sk89q.worldedit.internal.util.LogManagerCompat;
+import com.sk89q.worldedit.math.BlockVector3;
+import com.sk89q.worldedit.registry.state.Property;
+import com.sk89q.worldedit.world.biome.BiomeType;
+import com.sk89q.worldedit.world.biome.BiomeTypes;
+import com.sk89q.worldedit.world.block.BlockState;
+import com.sk89q.worldedit.world.block.BlockTypesCache;
+import org.apache.logging.log4j.Logger;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+
+/**
+ * A chunk stored in a {@link MCAFile}, for worlds saved by Minecraft 1.13 to 1.17.
+ * <p>
+ * Sections are decoded from their palette when first accessed. {@link #call(IChunkSet, Runnable)} merges the changes
+ * into the decoded sections, encodes the changed ones and writes the chunk back to the file. Lighting and height maps
+ * of changed chunks are left for the server to recalculate, entities are never written.
+ */
+public class MCAChunk extends CharGetBlocks {
+
+    private static final Logger LOGGER = LogManagerCompat.getLogger();
+
+    private static final Map<String, Integer> ORDINALS = new ConcurrentHashMap<>();
+    private static final Map<Integer, CompoundTag> PALETTE_ENTRIES = new ConcurrentHashMap<>();
+    private static final BiomeType[] LEGACY_BIOMES = new BiomeType[256];
+
+    private final MCAFile file;
+    private final int chunkX;
+    private final int chunkZ;
+    @Nullable
+    private CompoundTag root;
+    private final int dataVersion;
+    private Map<String, Tag> level;
+    private final CompoundTag[] sectionTags = new CompoundTag[16];
+    private final boolean[] unreadable = new boolean[16];
+    private final List<CompoundTag> otherSections = new ArrayList<>();
+    private int[] biomes;
+    private Map<BlockVector3, CompoundTag> tiles;
+    private Set<CompoundTag> entities;
+    private boolean createCopy;
+
+    /**
+     * Create a chunk from its parsed data.
+     *
+     * @param file   the file the chunk is stored in, may be null if the chunk doesn't exist
+     * @param chunkX the absolute chunk x coordinate
+     * @param chunkZ the absolute chunk z coordinate
+     * @param root   the root tag of the chunk, or null if the chunk doesn't exist
+     */
+    public MCAChunk(@Nullable MCAFile file, int chunkX, int chunkZ, @Nullable CompoundTag root) {
+        this.file = file;
+        this.chunkX = chunkX;
+        this.chunkZ = chunkZ;
+        this.root = root;
+        if (root == null) {
+            this.dataVersion = 0;
+            this.level = Collections.emptyMap();
+            return;
+        }
+        this.dataVersion = root.getInt("DataVersion");
+        Tag levelTag = root.getValue().get("Level");
+        this.level = levelTag instanceof CompoundTag ? new HashMap<>(((CompoundTag) levelTag).getValue()) : new HashMap<>();
+        Tag sections = level.get("Sections");
+        if (sections instanceof ListTag) {
+            for (Tag tag : ((ListTag) sections).getValue()) {
+                if (!(tag instanceof CompoundTag)) {
+                    continue;
+                }
+                CompoundTag section = (CompoundTag) tag;
+                int y = section.getByte("Y");
+                if (y >= 0 && y < 16 && section.containsKey("Palette")) {
+                    sectionTags[y] = section;
+                } else {
+                    // light only sections below and above the world
+                    otherSections.add(section);
+                }
+            }
+        }
+    }
+
+    /**
+     * Read a chunk from a file.
+     *
+     * @param file   the file the chunk is stored in
+     * @param chunkX the absolute chunk x coordinate
+     * @param chunkZ the absolute chunk z coordinate
+     * @return the chunk, which is empty and ignores changes if it doesn't exist
+     * @throws IOException if the chunk is corrupt
+     */
+    public static MCAChunk read(MCAFile file, int chunkX, int chunkZ) throws IOException {
+        return new MCAChunk(file, chunkX, chunkZ, file.readChunk(chunkX, chunkZ));
+    }
+
+    public int getX() {
+        return chunkX;
+    }
+
+    public int getZ() {
+        return chunkZ;
+    }
+
+    /**
+     * Get whether the chunk exists in the file.
+     *
+     * @return if the chunk exists
+     */
+    public boolean exists() {
+        return root != null;
+    }
+
+    public int getDataVersion() {
+        return dataVersion;
+    }
+
+    /**
+     * Get the number of ticks players spent in this chunk.
+     *
+     * @return the inhabited time
+     */
+    public long getInhabitedTime() {
+        Tag tag = level.get("InhabitedTime");
+        return tag == null ? 0 : ((Number) tag.getValue()).longValue();
+    }
+
+    private boolean isPadded() {
+        return dataVersion >= Constants.DATA_VERSION_MC_1_16;
+    }
+
+    @Override
+    public char[] update(int layer, char[] data, boolean aggressive) {
+        if (data == null) {
+            data = new char[4096];
+        }
+        CompoundTag section = sectionTags[layer];
+        if (section != null && decode(section, data)) {
+            return data;
+        }
+        if (section != null && !unreadable[layer]) {
+            unreadable[layer] = true;
+            LOGGER.warn("Skipping unreadable section {} of chunk {},{} in {}", layer, chunkX, chunkZ, file.getPath());
+        }
+        return super.update(layer, data, aggressive);
+    }
+
+    @Override
+    public boolean trim(boolean aggressive) {
+        // decoded sections always match the file, only drop them to free memory
+        return aggressive && super.trim(true);
+    }
+
+    @Override
+    public boolean hasSection(int layer) {
+        return sectionTags[layer] != null;
+    }
+
+    /**
+     * Get whether the chunk only contains air. Sections which can't be read are not considered air.
+     *
+     * @return if all blocks are air
+     */
+    public boolean isEmpty() {
+        for (int layer = 0; layer < 16; layer++) {
+            if (!hasSection(layer)) {
+                continue;
+            }
+            char[] blocks = load(layer);
+            if (unreadable[layer]) {
+                return false;
+            }
+            for (char ordinal : blocks) {
+                if (!BlockTypesCache.states[ordinal].isAir()) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private boolean decode(CompoundTag section, char[] data) {
+        List<CompoundTag> palette = section.getList("Palette", CompoundTag.class);
+        if (palette.isEmpty()) {
+            return false;
+        }
+        char[] ordinals = new char[palette.size()];
+        for (int i = 0; i < ordinals.length; i++) {
+            int ordinal = toOrdinal(palette.get(i));
+            if (ordinal < 0) {
+                return false;
+            }
+            ordinals[i] = (char) ordinal;
+        }
+        if (ordinals.length == 1) {
+            Arrays.fill(data, ordinals[0]);
+            return true;
+        }
+        int[] indices = FaweCache.IMP.SECTION_BLOCKS.get();
+        if (!unpack(section.getLongArray("BlockStates"), bitsFor(ordinals.length), indices, 4096, isPadded())) {
+            return false;
+        }
+        for (int i = 0; i < 4096; i++) {
+            int index = indices[i];
+            if (index >= ordinals.length) {
+                return false;
+            }
+            data[i] = ordinals[index];
+        }
+        return true;
+    }
+
+    private CompoundTag encode(int layer, char[] data) {
+        int[] blockToPalette = FaweCache.IMP.BLOCK_TO_PALETTE.get();
+        int[] paletteToBlock = FaweCache.IMP.PALETTE_TO_BLOCK.get();
+        int[] indices = FaweCache.IMP.SECTION_BLOCKS.get();
+        int size = 0;
+        for (int i = 0; i < 4096; i++) {
+            int ordinal = data[i];
+            int index = blockToPalette[ordinal];
+            if (index == Integer.MAX_VALUE) {
+                blockToPalette[ordinal] = index = size;
+                paletteToBlock[size++] = ordinal;
+            }
+            indices[i] = index;
+        }
+        List<CompoundTag> palette = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            blockToPalette[paletteToBlock[i]] = Integer.MAX_VALUE;
+            palette.add(toPaletteEntry(paletteToBlock[i]));
+        }
+        CompoundTag old = sectionTags[layer];
+        Map<String, Tag> section = old == null ? new HashMap<>() : new HashMap<>(old.getValue());
+        section.put("Y", new ByteTag((byte) layer));
+        section.put("Palette", new ListTag(CompoundTag.class, palette));
+        section.put("BlockStates", new LongArrayTag(pack(indices, 4096, bitsFor(size), isPadded())));
+        return new CompoundTag(section);
+    }
+
+    private static int toOrdinal(CompoundTag entry) {
+        String name = entry.getString("Name");
+        Tag properties = entry.getValue().get("Properties");
+        String key = name;
+        if (properties instanceof CompoundTag) {
+            StringBuilder builder = new StringBuilder(name).append('[');
+            boolean first = true;
+            for (Map.Entry<String, Tag> property : ((CompoundTag) properties).getValue().entrySet()) {
+                if (!first) {
+                    builder.append(',');
+                }
+                first = false;
+                builder.append(property.getKey()).append('=').append(property.getValue().getValue());
+            }
+            key = first ? name : builder.append(']').toString();
+        }
+        return ORDINALS.computeIfAbsent(key, state -> {
+            try {
+                return (int) BlockState.get(state).getOrdinalChar();
+            } catch (InputParseException | IllegalArgumentException e) {
+                return -1;
+            }
+        });
+    }
+
+    private static CompoundTag toPaletteEntry(int ordinal) {
+        return PALETTE_ENTRIES.computeIfAbsent(ordinal, key -> {
+            BlockState state = BlockTypesCache.states[key];
+            Map<String, Tag> map = new HashMap<>();
+            map.put("Name", new StringTag(state.getBlockType().getId()));
+            Map<Property<?>, Object> states = state.getStates();
+            if (!states.isEmpty()) {
+                Map<String, Tag> properties = new HashMap<>();
+                for (Map.Entry<Property<?>, Object> property : states.entrySet()) {
+                    String value = property.getValue().toString().toLowerCase(Locale.ROOT);
+                    properties.put(property.getKey().getName(), new StringTag(value));
+                }
+                map.put("Properties", new CompoundTag(properties));
+            }
+            return new CompoundTag(map);
+        });
+    }
+
+    static int bitsFor(int paletteSize) {
+        return Math.max(4, 32 - Integer.numberOfLeadingZeros(paletteSize - 1));
+    }
+
+    /**
+     * Unpack a long array, values span two longs before 1.16 and are padded to whole longs since.
+     */
+    static boolean unpack(long[] packed, int bits, int[] values, int size, boolean padded) {
+        long mask = (1L << bits) - 1;
+        if (padded) {
+            int perLong = 64 / bits;
+            if (packed.length < (size + perLong - 1) / perLong) {
+                return false;
+            }
+            for (int i = 0, index = 0; index < size; i++) {
+                long value = packed[i];
+                for (int j = 0; j < perLong && index < size; j++, index++) {
+                    values[index] = (int) (value & mask);
+                    value >>>= bits;
+                }
+            }
+        } else {
+            if (packed.length < (size * bits + 63) >> 6) {
+                return false;
+            }
+            for (int index = 0; index < size; index++) {
+                int bit = index * bits;
+                int i = bit >> 6;
+                int offset = bit & 63;
+                long value = packed[i] >>> offset;
+                if (offset + bits > 64) {
+                    value |= packed[i + 1] << (64 - offset);
+                }
+                values[index] = (int) (value & mask);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Pack values into a long array, the inverse of {@link #unpack(long[], int, int[], int, boolean)}.
+     */
+    static long[] pack(int[] values, int size, int bits, boolean padded) {
+        long[] packed;
+        if (padded) {
+            int perLong = 64 / bits;
+            packed = new long[(size + perLong - 1) / perLong];
+            for (int i = 0, index = 0; index < size; i++) {
+                long value = 0;
+                for (int j = 0; j < perLong && index < size; j++, index++) {
+                    value |= (long) values[index] << (j * bits);
+                }
+                packed[i] = value;
+            }
+        } else {
+            packed = new long[(size * bits + 63) >> 6];
+            for (int index = 0; index < size; index++) {
+                int bit = index * bits;
+                int i = bit >> 6;
+                int offset = bit & 63;
+                packed[i] |= (long) values[index] << offset;
+                if (offset + bits > 64) {
+                    packed[i + 1] |= (long) values[index] >>> (64 - offset);
+                }
+            }
+        }
+        return packed;
+    }
+
+    private int[] getBiomes() {
+        if (biomes == null) {
+            Tag tag = level.get("Biomes");
+            biomes = tag instanceof IntArrayTag ? ((IntArrayTag) tag).getValue() : new int[0];
+        }
+        return biomes;
+    }
+
+    private static int biomeIndex(int[] biomes, int x, int y, int z) {
+        if (biomes.length == 1024) {
+            return (Math.min(Math.max(y, 0), 255) >> 2) << 4 | (z >> 2) << 2 | x >> 2;
+        }
+        return biomes.length == 256 ? z << 4 | x : -1;
+    }
+
+    static BiomeType toBiome(int id) {
+        if (id < 0 || id >= LEGACY_BIOMES.length) {
+            return BiomeTypes.getLegacy(id);
+        }
+        BiomeType biome = LEGACY_BIOMES[id];
+        if (biome == null) {
+            LEGACY_BIOMES[id] = biome = BiomeTypes.getLegacy(id);
+        }
+        return biome;
+    }
+
+    @Override
+    public BiomeType getBiomeType(int x, int y, int z) {
+        int[] biomes = getBiomes();
+        int index = biomeIndex(biomes, x & 15, y, z & 15);
+        return index < 0 ? null : toBiome(biomes[index]);
+    }
+
+    private int getLight(String key, int x, int y, int z, int def) {
+        CompoundTag section = y < 0 || y > 255 ? null : sectionTags[y >> 4];
+        if (section == null) {
+            return def;
+        }
+        byte[] light = section.getByteArray(key);
+        if (light.length != 2048) {
+            return def;
+        }
+        int index = (y & 15) << 8 | (z & 15) << 4 | x & 15;
+        return light[index >> 1] >> ((index & 1) << 2) & 0xF;
+    }
+
+    @Override
+    public int getSkyLight(int x, int y, int z) {
+        return getLight("SkyLight", x, y, z, 15);
+    }
+
+    @Override
+    public int getEmittedLight(int x, int y, int z) {
+        return getLight("BlockLight", x, y, z, 0);
+    }
+
+    @Override
+    public int[] getHeightMap(HeightMapType type) {
+        int[] heights = new int[256];
+        Tag heightMaps = level.get("Heightmaps");
+        if (heightMaps instanceof CompoundTag) {
+            long[] packed = ((CompoundTag) heightMaps).getLongArray(type.name());
+            if (!unpack(packed, 9, heights, 256, isPadded())) {
+                Arrays.fill(heights, 0);
+            }
+        }
+        return heights;
+    }
+
+    @Override
+    public synchronized Map<BlockVector3, CompoundTag> getTiles() {
+        if (tiles == null) {
+            Map<BlockVector3, CompoundTag> map = new HashMap<>();
+            Tag tag = level.get("TileEntities");
+            if (tag instanceof ListTag) {
+                for (Tag tile : ((ListTag) tag).getValue()) {
+                    if (tile instanceof CompoundTag) {
+                        CompoundTag compound = (CompoundTag) tile;
+                        map.put(BlockVector3.at(
+                                compound.getInt("x") & 15,
+                                compound.getInt("y"),
+                                compound.getInt("z") & 15
+                        ), compound);
+                    }
+                }
+            }
+            tiles = map;
+        }
+        return tiles;
+    }
+
+    @Override
+    public CompoundTag getTile(int x, int y, int z) {
+        return getTiles().get(BlockVector3.at(x & 15, y, z & 15));
+    }
+
+    @Override
+    public synchronized Set<CompoundTag> getEntities() {
+        if (entities == null) {
+            Set<CompoundTag> set = new HashSet<>();
+            Tag tag = level.get("Entities");
+            if (tag instanceof ListTag) {
+                for (Tag entity : ((ListTag) tag).getValue()) {
+                    if (entity instanceof CompoundTag) {
+                        set.add((CompoundTag) entity);
+                    }
+                }
+            }
+            entities = set;
+        }
+        return entities;
+    }
+
+    @Override
+    public CompoundTag getEntity(UUID uuid) {
+        for (CompoundTag entity : getEntities()) {
+            if (uuid.equals(entity.getUUID())) {
+                return entity;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void removeSectionLighting(int layer, boolean sky) {
+    }
+
+    @Override
+    public void setCreateCopy(boolean createCopy) {
+        this.createCopy = createCopy;
+    }
+
+    @Override
+    public boolean isCreateCopy() {
+        return createCopy;
+    }
+
+    @Override
+    public void setLightingToGet(char[][] lighting) {
+    }
+
+    @Override
+    public void setSkyLightingToGet(char[][] lighting) {
+    }
+
+    @Override
+    public void setHeightmapToGet(HeightMapType type, int[] data) {
+    }
+
+    @Override
+    public synchronized <T extends Future<T>> T call(IChunkSet set, Runnable finalize) {
+        try {
+            // don't bring back a chunk which was deleted after it was read
+            if (root != null && file.hasChunk(chunkX, chunkZ)) {
+                save(set);
+            }
+        } catch (IOException e) {
+            LOGGER.error("Failed to write chunk {},{} to {}", chunkX, chunkZ, file.getPath(), e);
+        } finally {
+            finalize.run();
+        }
+        return null;
+    }
+
+    private void save(IChunkSet set) throws IOException {
+        Map<BlockVector3, CompoundTag> tiles = new HashMap<>(getTiles());
+        boolean blocksChanged = false;
+        boolean tilesChanged = false;
+        for (int layer = 0; layer < 16; layer++) {
+            if (!set.hasSection(layer)) {
+                continue;
+            }
+            char[] setBlocks = set.load(layer);
+            char[] blocks = load(layer);
+            if (unreadable[layer]) {
+                continue;
+            }
+            boolean changed = false;
+            for (int i = 0; i < 4096; i++) {
+                char next = setBlocks[i];
+                char previous = blocks[i];
+                if (next == 0 || next == previous) {
+                    continue;
+                }
+                // a different block can't keep the old block entity
+                if (!tiles.isEmpty() && BlockTypesCache.states[next].getBlockType() != BlockTypesCache.states[previous]
+                        .getBlockType()) {
+                    tilesChanged |= tiles.remove(BlockVector3.at(i & 15, layer << 4 | i >> 8, i >> 4 & 15)) != null;
+                }
+                blocks[i] = next;
+                changed = true;
+            }
+            if (changed) {
+                sectionTags[layer] = encode(layer, blocks);
+                blocksChanged = true;
+            }
+        }
+        for (Map.Entry<BlockVector3, CompoundTag> entry : set.getTiles().entrySet()) {
+            BlockVector3 pos = entry.getKey();
+            Map<String, Tag> tile = new HashMap<>(entry.getValue().getValue());
+            if (!tile.containsKey("id")) {
+                CompoundTag previous = tiles.get(pos);
+                if (previous == null || !previous.containsKey("id")) {
+                    continue;
+                }
+                tile.put("id", new StringTag(previous.getString("id")));
+            }
+            tile.put("x", new IntTag((chunkX << 4) + pos.getX()));
+            tile.put("y", new IntTag(pos.getY()));
+            tile.put("z", new IntTag((chunkZ << 4) + pos.getZ()));
+            tiles.put(pos, new CompoundTag(tile));
+            tilesChanged = true;
+        }
+        boolean biomesChanged = false;
+        BiomeType[] setBiomes = set.getBiomes();
+        int[] biomes = getBiomes();
+        if (setBiomes != null && biomes.length != 0) {
+            for (int y = 0; y < 256; y += 4) {
+                for (int z = 0; z < 16; z += 4) {
+                    for (int x = 0; x < 16; x += 4) {
+                        BiomeType biome = setBiomes[(y >> 2) << 4 | (z >> 2) << 2 | x >> 2];
+                        if (biome == null) {
+                            continue;
+                        }
+                        if (biomes.length == 256) {
+                            // 2D biomes, fill the whole column
+                            for (int dz = 0; dz < 4; dz++) {
+                                for (int dx = 0; dx < 4; dx++) {
+                                    biomes[(z + dz) << 4 | (x + dx)] = biome.getLegacyId();
+                                }
+                            }
+                        } else {
+                            biomes[biomeIndex(biomes, x, y, z)] = biome.getLegacyId();
+                        }
+                        biomesChanged = true;
+                    }
+                }
+            }
+        }
+        if (!blocksChanged && !tilesChanged && !biomesChanged) {
+            return;
+        }
+        if (blocksChanged) {
+            List<CompoundTag> sections = new ArrayList<>(otherSections);
+            for (CompoundTag section : sectionTags) {
+                if (section != null) {
+                    sections.add(section);
+                }
+            }
+            level.put("Sections", new ListTag(CompoundTag.class, sections));
+            // let the server light the chunk and calculate the height maps again when loading it
+            level.remove("Heightmaps");
+            level.put("isLightOn", new ByteTag((byte) 0));
+        }
+        if (tilesChanged) {
+            level.put("TileEntities", new ListTag(CompoundTag.class, new ArrayList<>(tiles.values())));
+            this.tiles = tiles;
+        }
+        if (biomesChanged) {
+            level.put("Biomes", new IntArrayTag(biomes));
+        }
+        Map<String, Tag> map = new HashMap<>(root.getValue());
+        map.put("Level", new CompoundTag(level));
+        root = new CompoundTag(map);
+        file.writeChunk(chunkX, chunkZ, root);
+    }
+
+}
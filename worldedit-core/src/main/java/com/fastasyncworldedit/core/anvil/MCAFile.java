@@ -0,0 +1,395 @@
+package com.fastasyncworldedit.core.anvil;
+
+import com.fastasyncworldedit.core.internal.io.FastByteArrayOutputStream;
+import com.sk89q.jnbt.CompoundTag;
+import com.sk89q.jnbt.NBTInputStream;
+import com.sk89q.jnbt.NBTOutputStream;
+import com.sk89q.jnbt.Tag;
+
+import javax.annotation.Nullable;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * A region file ({@code r.<x>.<z>.mca}) of an Anvil world, holding up to 32x32 chunks.
+ * <p>
+ * Reads copy the compressed chunk out of a memory mapped view of the file, so that decompressing and parsing
+ * happen on the calling thread without holding the lock. Writes compress on the calling thread too and only lock to
+ * allocate sectors and update the header. The file must not be in use by a server at the same time.
+ * <p>
+ * Like vanilla, chunks are never written over the sectors they are stored in. They are written to free sectors and the
+ * old sectors are only reused once the header pointing to the new ones has been written by {@link #flush()}, so the
+ * file stays readable if writing is interrupted.
+ * <p>
+ * A closed file is opened again when it is used, so chunks read from it can still be written after closing it to
+ * free the handle.
+ */
+public class MCAFile implements Closeable {
+
+    private static final Pattern NAME = Pattern.compile("r\\.(-?\\d+)\\.(-?\\d+)\\.mca");
+
+    private static final int SECTOR_BYTES = 4096;
+    private static final int HEADER_SECTORS = 2;
+    private static final int MAX_SECTORS = 255;
+
+    private static final byte VERSION_GZIP = 1;
+    private static final byte VERSION_DEFLATE = 2;
+    private static final byte VERSION_NONE = 3;
+
+    private final Path path;
+    private final int regionX;
+    private final int regionZ;
+    private FileChannel channel;
+    private final int[] offsets = new int[1024];
+    private final int[] timestamps = new int[1024];
+    private final BitSet usedSectors = new BitSet();
+    // sectors of replaced and deleted chunks, still used until the header no longer points to them
+    private final BitSet releasedSectors = new BitSet();
+    private MappedByteBuffer mapped;
+    private boolean headerChanged;
+
+    /**
+     * Open a region file, the region coordinates are taken from the file name.
+     *
+     * @param path the region file
+     * @throws IOException if the file can't be read or isn't named like a region file
+     */
+    public MCAFile(Path path) throws IOException {
+        Matcher matcher = NAME.matcher(path.getFileName().toString());
+        if (!matcher.matches()) {
+            throw new IOException("Not a region file: " + path);
+        }
+        this.path = path;
+        this.regionX = Integer.parseInt(matcher.group(1));
+        this.regionZ = Integer.parseInt(matcher.group(2));
+        this.channel = openChannel();
+        try {
+            readHeader();
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Get whether the given file is named like a region file.
+     *
+     * @param path the file
+     * @return if it is a region file
+     */
+    public static boolean isRegionFile(Path path) {
+        return NAME.matcher(path.getFileName().toString()).matches();
+    }
+
+    private FileChannel openChannel() throws IOException {
+        return FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    private FileChannel channel() throws IOException {
+        if (!channel.isOpen()) {
+            channel = openChannel();
+        }
+        return channel;
+    }
+
+    private void readHeader() throws IOException {
+        long size = channel.size();
+        usedSectors.set(0, HEADER_SECTORS);
+        if (size < HEADER_SECTORS * SECTOR_BYTES) {
+            // empty or truncated, start from scratch
+            headerChanged = true;
+            return;
+        }
+        mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        int sectors = (int) ((size + SECTOR_BYTES - 1) / SECTOR_BYTES);
+        for (int i = 0; i < 1024; i++) {
+            int offset = mapped.getInt(i << 2);
+            int sector = offset >>> 8;
+            int count = offset & 0xFF;
+            if (offset != 0 && (sector < HEADER_SECTORS || sector + count > sectors)) {
+                // points outside the file, drop it rather than reading garbage
+                offset = 0;
+                headerChanged = true;
+            }
+            offsets[i] = offset;
+            timestamps[i] = mapped.getInt(SECTOR_BYTES + (i << 2));
+            if (offset != 0) {
+                usedSectors.set(sector, sector + count);
+            }
+        }
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public int getX() {
+        return regionX;
+    }
+
+    public int getZ() {
+        return regionZ;
+    }
+
+    private static int index(int chunkX, int chunkZ) {
+        return (chunkX & 31) + ((chunkZ & 31) << 5);
+    }
+
+    /**
+     * Get whether the given chunk is stored in this file.
+     *
+     * @param chunkX the absolute chunk x coordinate
+     * @param chunkZ the absolute chunk z coordinate
+     * @return if the chunk exists
+     */
+    public synchronized boolean hasChunk(int chunkX, int chunkZ) {
+        return offsets[index(chunkX, chunkZ)] != 0;
+    }
+
+    /**
+     * Get the last time the given chunk was saved, in seconds since the epoch.
+     *
+     * @param chunkX the absolute chunk x coordinate
+     * @param chunkZ the absolute chunk z coordinate
+     * @return the timestamp, or 0 if the chunk doesn't exist
+     */
+    public synchronized int getTimestamp(int chunkX, int chunkZ) {
+        return timestamps[index(chunkX, chunkZ)];
+    }
+
+    /**
+     * Get the number of sectors used by this file, including the header.
+     *
+     * @return the number of used sectors
+     */
+    public synchronized int getUsedSectors() {
+        return usedSectors.cardinality();
+    }
+
+    /**
+     * Get the raw bytes of a chunk, as stored in the file: the compression type followed by the compressed data.
+     *
+     * @param chunkX the absolute chunk x coordinate
+     * @param chunkZ the absolute chunk z coordinate
+     * @return the bytes, or null if the chunk doesn't exist
+     * @throws IOException if the file is corrupt
+     */
+    @Nullable
+    public synchronized byte[] readRaw(int chunkX, int chunkZ) throws IOException {
+        int offset = offsets[index(chunkX, chunkZ)];
+        if (offset == 0) {
+            return null;
+        }
+        int position = (offset >>> 8) * SECTOR_BYTES;
+        int end = position + (offset & 0xFF) * SECTOR_BYTES;
+        if (mapped == null || mapped.capacity() < end) {
+            FileChannel channel = channel();
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        int length = mapped.getInt(position);
+        if (length <= 0 || position + 4 + length > end) {
+            throw new IOException("Invalid length " + length + " for chunk " + chunkX + "," + chunkZ + " in " + path);
+        }
+        // copy while locked, the sectors may be reused by a write afterwards
+        byte[] data = new byte[length];
+        ByteBuffer buffer = mapped.duplicate();
+        buffer.position(position + 4);
+        buffer.get(data);
+        return data;
+    }
+
+    /**
+     * Read a chunk without parsing it.
+     *
+     * @param chunkX the absolute chunk x coordinate
+     * @param chunkZ the absolute chunk z coordinate
+     * @return a stream of the uncompressed chunk data, or null if the chunk doesn't exist
+     * @throws IOException if the file is corrupt
+     */
+    @Nullable
+    public InputStream openChunk(int chunkX, int chunkZ) throws IOException {
+        byte[] raw = readRaw(chunkX, chunkZ);
+        if (raw == null) {
+            return null;
+        }
+        InputStream in = new ByteArrayInputStream(raw, 1, raw.length - 1);
+        switch (raw[0]) {
+            case VERSION_GZIP:
+                return new BufferedInputStream(new GZIPInputStream(in));
+            case VERSION_DEFLATE:
+                return new BufferedInputStream(new InflaterInputStream(in));
+            case VERSION_NONE:
+                return in;
+            default:
+                throw new IOException("Unsupported compression " + raw[0] + " for chunk " + chunkX + "," + chunkZ
+                        + " in " + path);
+        }
+    }
+
+    /**
+     * Read and parse a chunk.
+     *
+     * @param chunkX the absolute chunk x coordinate
+     * @param chunkZ the absolute chunk z coordinate
+     * @return the root tag of the chunk, or null if the chunk doesn't exist
+     * @throws IOException if the file is corrupt
+     */
+    @Nullable
+    public CompoundTag readChunk(int chunkX, int chunkZ) throws IOException {
+        InputStream in = openChunk(chunkX, chunkZ);
+        if (in == null) {
+            return null;
+        }
+        try (NBTInputStream nbt = new NBTInputStream(in)) {
+            Tag tag = nbt.readNamedTag().getTag();
+            if (!(tag instanceof CompoundTag)) {
+                throw new IOException("CompoundTag expected for chunk " + chunkX + "," + chunkZ + " in " + path);
+            }
+            return (CompoundTag) tag;
+        }
+    }
+
+    /**
+     * Compress and store a chunk, replacing the existing one.
+     *
+     * @param chunkX the absolute chunk x coordinate
+     * @param chunkZ the absolute chunk z coordinate
+     * @param root   the root tag of the chunk
+     * @throws IOException if the chunk is too large or can't be written
+     */
+    public void writeChunk(int chunkX, int chunkZ, CompoundTag root) throws IOException {
+        FastByteArrayOutputStream bytes = new FastByteArrayOutputStream();
+        // placeholder for the length
+        bytes.write(new byte[4]);
+        bytes.write(VERSION_DEFLATE);
+        Deflater deflater = new Deflater();
+        try (NBTOutputStream nbt = new NBTOutputStream(new DeflaterOutputStream(bytes, deflater, 8192))) {
+            nbt.writeNamedTag("", root);
+        } finally {
+            deflater.end();
+        }
+        byte[] data = bytes.toByteArray();
+        int length = data.length - 4;
+        data[0] = (byte) (length >>> 24);
+        data[1] = (byte) (length >>> 16);
+        data[2] = (byte) (length >>> 8);
+        data[3] = (byte) length;
+        writeRaw(chunkX, chunkZ, data);
+    }
+
+    private synchronized void writeRaw(int chunkX, int chunkZ, byte[] data) throws IOException {
+        int sectors = (data.length + SECTOR_BYTES - 1) / SECTOR_BYTES;
+        if (sectors > MAX_SECTORS) {
+            throw new IOException("Chunk " + chunkX + "," + chunkZ + " is too large to be stored (" + data.length + " bytes)");
+        }
+        int index = index(chunkX, chunkZ);
+        int sector = allocate(sectors);
+        usedSectors.set(sector, sector + sectors);
+        FileChannel channel = channel();
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        long position = (long) sector * SECTOR_BYTES;
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+        // pad to a full sector, vanilla rejects files that aren't
+        int padding = sectors * SECTOR_BYTES - data.length;
+        if (padding > 0) {
+            ByteBuffer zeros = ByteBuffer.allocate(padding);
+            while (zeros.hasRemaining()) {
+                position += channel.write(zeros, position);
+            }
+        }
+        release(offsets[index]);
+        offsets[index] = sector << 8 | sectors;
+        timestamps[index] = (int) (System.currentTimeMillis() / 1000L);
+        headerChanged = true;
+    }
+
+    private void release(int offset) {
+        if (offset != 0) {
+            releasedSectors.set(offset >>> 8, (offset >>> 8) + (offset & 0xFF));
+        }
+    }
+
+    private int allocate(int sectors) {
+        int start = usedSectors.nextClearBit(HEADER_SECTORS);
+        while (true) {
+            int end = usedSectors.nextSetBit(start);
+            if (end == -1 || end - start >= sectors) {
+                return start;
+            }
+            start = usedSectors.nextClearBit(end);
+        }
+    }
+
+    /**
+     * Remove a chunk from this file, it will be generated again when loaded by the server.
+     *
+     * @param chunkX the absolute chunk x coordinate
+     * @param chunkZ the absolute chunk z coordinate
+     * @return if the chunk existed
+     */
+    public synchronized boolean deleteChunk(int chunkX, int chunkZ) {
+        int index = index(chunkX, chunkZ);
+        int offset = offsets[index];
+        if (offset == 0) {
+            return false;
+        }
+        release(offset);
+        offsets[index] = 0;
+        timestamps[index] = 0;
+        headerChanged = true;
+        return true;
+    }
+
+    /**
+     * Write the header if chunks were written or deleted. The sectors of replaced and deleted chunks are reused by
+     * later writes once the header is written, the file is never truncated as it may still be mapped.
+     *
+     * @throws IOException if the file can't be written
+     */
+    public synchronized void flush() throws IOException {
+        if (!headerChanged) {
+            return;
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SECTORS * SECTOR_BYTES);
+        header.asIntBuffer().put(offsets).put(timestamps);
+        FileChannel channel = channel();
+        long position = 0;
+        while (header.hasRemaining()) {
+            position += channel.write(header, position);
+        }
+        headerChanged = false;
+        usedSectors.andNot(releasedSectors);
+        releasedSectors.clear();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (!channel.isOpen()) {
+            return;
+        }
+        try {
+            flush();
+        } finally {
+            mapped = null;
+            channel.close();
+        }
+    }
+
+}
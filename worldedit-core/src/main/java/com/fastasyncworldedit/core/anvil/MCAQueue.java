@@ -0,0 +1,77 @@
+package com.fastasyncworldedit.core.anvil;
+
+import com.fastasyncworldedit.core.extent.filter.block.ChunkFilterBlock;
+import com.fastasyncworldedit.core.queue.Filter;
+import com.fastasyncworldedit.core.queue.IChunkCache;
+import com.fastasyncworldedit.core.queue.IChunkGet;
+import com.fastasyncworldedit.core.queue.implementation.SingleThreadQueueExtent;
+import com.sk89q.worldedit.internal.util.LogManagerCompat;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+
+/**
+ * Queue over the chunks of a single {@link MCAFile}, reading them as {@link MCAChunk}s. Like any
+ * {@link SingleThreadQueueExtent} it must be used from the thread that created it, changed chunks are encoded and
+ * written on the threads of the queue handler.
+ */
+public class MCAQueue extends SingleThreadQueueExtent {
+
+    private static final Logger LOGGER = LogManagerCompat.getLogger();
+
+    private final MCAFile file;
+
+    public MCAQueue(MCAFile file) {
+        this.file = file;
+        init(null, this::getChunk, null);
+    }
+
+    /**
+     * Create a queue reading the chunks from a cache, which must return {@link MCAChunk}s of the given file for the
+     * chunks inside of it.
+     *
+     * @param file     the file
+     * @param getCache the cache to read chunks from
+     */
+    public MCAQueue(MCAFile file, IChunkCache<IChunkGet> getCache) {
+        this.file = file;
+        init(null, getCache, null);
+    }
+
+    public MCAFile getFile() {
+        return file;
+    }
+
+    private IChunkGet getChunk(int chunkX, int chunkZ) {
+        try {
+            return MCAChunk.read(file, chunkX, chunkZ);
+        } catch (IOException e) {
+            LOGGER.warn("Skipping unreadable chunk {},{} in {}", chunkX, chunkZ, file.getPath(), e);
+            return new MCAChunk(file, chunkX, chunkZ, null);
+        }
+    }
+
+    /**
+     * Apply a filter to every chunk stored in the file, then wait for the changes to be written.
+     *
+     * @param filter the filter
+     * @param full   if the filter should be applied to all blocks, or only to non air sections
+     * @param <T>    the filter type
+     * @return the filter
+     */
+    public <T extends Filter> T apply(T filter, boolean full) {
+        int baseX = file.getX() << 5;
+        int baseZ = file.getZ() << 5;
+        ChunkFilterBlock block = null;
+        for (int z = 0; z < 32; z++) {
+            for (int x = 0; x < 32; x++) {
+                if (file.hasChunk(baseX + x, baseZ + z)) {
+                    block = apply(block, filter, null, baseX + x, baseZ + z, full);
+                }
+            }
+        }
+        flush();
+        return filter;
+    }
+
+}
@@ -0,0 +1,349 @@
+package com.fastasyncworldedit.core.anvil;
+
+import com.fastasyncworldedit.core.jnbt.NBTCursor;
+import com.sk89q.jnbt.NBTConstants;
+import com.sk89q.worldedit.internal.Constants;
+import com.sk89q.worldedit.internal.util.LogManagerCompat;
+import com.sk89q.worldedit.math.BlockVector2;
+import com.sk89q.worldedit.world.biome.BiomeType;
+import org.apache.logging.log4j.Logger;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.IntBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the blocks, biomes and entities of a world which is not loaded, reading the region files in parallel. Chunks
+ * are read with a {@link NBTCursor}, so only the palettes, block states, biomes and entity ids are parsed.
+ * <p>
+ * If block types are given, only those are counted and sections whose palette contains none of them are skipped
+ * without unpacking their block states, which makes looking for rare blocks like ores fast. The counts of these blocks
+ * are also kept per chunk.
+ * <p>
+ * Blocks are counted by type, sections which are not stored are not counted as air. Biomes are counted per biome cell
+ * of the chunk. Only chunks saved by Minecraft 1.13 to 1.17 are supported, other chunks are counted as skipped.
+ */
+public class MCAStatistics {
+
+    private static final Logger LOGGER = LogManagerCompat.getLogger();
+
+    @Nullable
+    private final Set<String> blockTypes;
+    private final Map<String, Long> blocks = new ConcurrentHashMap<>();
+    private final Map<Integer, Long> biomes = new ConcurrentHashMap<>();
+    private final Map<String, Long> entities = new ConcurrentHashMap<>();
+    private final Map<BlockVector2, Long> chunkBlocks = new ConcurrentHashMap<>();
+    private final LongAdder chunks = new LongAdder();
+    private final LongAdder skippedChunks = new LongAdder();
+    private final LongAdder regionFiles = new LongAdder();
+
+    /**
+     * Create a new instance.
+     *
+     * @param blockTypes the ids of the block types to count, like {@code minecraft:diamond_ore}, or null to count all
+     */
+    public MCAStatistics(@Nullable Set<String> blockTypes) {
+        this.blockTypes = blockTypes;
+    }
+
+    /**
+     * Scan all chunks of a world, including the entity files of worlds saved by Minecraft 1.17.
+     *
+     * @param world the world
+     * @return this
+     * @throws IOException if the region files can't be listed
+     */
+    public MCAStatistics scan(MCAWorld world) throws IOException {
+        world.forEachFile(this::scan);
+        Path entityFolder = world.getRegionFolder().resolveSibling("entities");
+        if (Files.isDirectory(entityFolder)) {
+            new MCAWorld(entityFolder).forEachFile(this::scanEntities);
+        }
+        return this;
+    }
+
+    /**
+     * Scan the chunks of a region file. Files may be scanned from several threads at once.
+     *
+     * @param file the region file
+     */
+    public void scan(MCAFile file) {
+        Counts counts = new Counts();
+        // each chunk is counted on its own first, so chunks which fail to read halfway aren't counted at all
+        Counts chunk = new Counts();
+        forEachChunk(file, (chunkX, chunkZ, root) -> {
+            chunk.clear();
+            if (!scanChunk(root, chunk)) {
+                return;
+            }
+            counts.add(chunk);
+            if (blockTypes != null && chunk.chunkBlocks != 0) {
+                chunkBlocks.put(BlockVector2.at(chunkX, chunkZ), chunk.chunkBlocks);
+            }
+        });
+        counts.mergeInto(this);
+        regionFiles.increment();
+    }
+
+    private void scanEntities(MCAFile file) {
+        Counts counts = new Counts();
+        Counts chunk = new Counts();
+        forEachChunk(file, (chunkX, chunkZ, root) -> {
+            chunk.clear();
+            countEntities(root.get("Entities"), chunk);
+            counts.add(chunk);
+        });
+        counts.mergeInto(this);
+    }
+
+    @FunctionalInterface
+    private interface ChunkTask {
+
+        void accept(int chunkX, int chunkZ, NBTCursor root) throws IOException;
+
+    }
+
+    private static void forEachChunk(MCAFile file, ChunkTask task) {
+        int baseX = file.getX() << 5;
+        int baseZ = file.getZ() << 5;
+        for (int z = baseZ; z < baseZ + 32; z++) {
+            for (int x = baseX; x < baseX + 32; x++) {
+                try (InputStream in = file.openChunk(x, z)) {
+                    if (in == null) {
+                        continue;
+                    }
+                    NBTCursor root = NBTCursor.read(in);
+                    if (root.getType() == NBTConstants.TYPE_COMPOUND) {
+                        task.accept(x, z, root);
+                    }
+                } catch (IOException e) {
+                    LOGGER.warn("Skipping unreadable chunk {},{} in {}", x, z, file.getPath(), e);
+                }
+            }
+        }
+    }
+
+    private boolean scanChunk(NBTCursor root, Counts counts) throws IOException {
+        NBTCursor dataVersion = root.get("DataVersion");
+        NBTCursor level = root.get("Level");
+        if (dataVersion == null || level == null || level.getType() != NBTConstants.TYPE_COMPOUND
+                || dataVersion.asLong() < Constants.DATA_VERSION_MC_1_13) {
+            skippedChunks.increment();
+            return false;
+        }
+        boolean padded = dataVersion.asLong() >= Constants.DATA_VERSION_MC_1_16;
+        Map<String, NBTCursor> entries = level.getEntries();
+        NBTCursor sections = entries.get("Sections");
+        if (sections != null && sections.getType() == NBTConstants.TYPE_LIST) {
+            for (NBTCursor section : sections.getElements()) {
+                if (section.getType() == NBTConstants.TYPE_COMPOUND) {
+                    scanSection(section, padded, counts);
+                }
+            }
+        }
+        NBTCursor biomeIds = entries.get("Biomes");
+        if (biomeIds != null && biomeIds.getType() == NBTConstants.TYPE_INT_ARRAY) {
+            IntBuffer ids = biomeIds.getIntBuffer();
+            while (ids.hasRemaining()) {
+                counts.addBiome(ids.get());
+            }
+        }
+        countEntities(entries.get("Entities"), counts);
+        chunks.increment();
+        return true;
+    }
+
+    private void scanSection(NBTCursor section, boolean padded, Counts counts) throws IOException {
+        NBTCursor paletteTag = section.get("Palette");
+        if (paletteTag == null || paletteTag.getType() != NBTConstants.TYPE_LIST) {
+            return;
+        }
+        List<NBTCursor> palette = paletteTag.getElements();
+        if (palette.isEmpty()) {
+            return;
+        }
+        String[] names = new String[palette.size()];
+        boolean matches = blockTypes == null;
+        for (int i = 0; i < names.length; i++) {
+            NBTCursor name = palette.get(i).getType() == NBTConstants.TYPE_COMPOUND ? palette.get(i).get("Name") : null;
+            names[i] = name == null || name.getType() != NBTConstants.TYPE_STRING ? null : name.getString();
+            if (blockTypes != null && blockTypes.contains(names[i])) {
+                matches = true;
+            }
+        }
+        if (!matches) {
+            // none of the blocks looked for, the block states don't need to be unpacked
+            return;
+        }
+        if (names.length == 1) {
+            counts.addBlocks(names[0], 4096);
+            return;
+        }
+        NBTCursor states = section.get("BlockStates");
+        if (states == null || states.getType() != NBTConstants.TYPE_LONG_ARRAY) {
+            return;
+        }
+        int[] indices = counts.indices;
+        if (!MCAChunk.unpack(states.getLongArray(), MCAChunk.bitsFor(names.length), indices, 4096, padded)) {
+            return;
+        }
+        long[] perIndex = new long[names.length];
+        for (int index : indices) {
+            if (index < perIndex.length) {
+                perIndex[index]++;
+            }
+        }
+        for (int i = 0; i < names.length; i++) {
+            if (perIndex[i] != 0) {
+                counts.addBlocks(names[i], perIndex[i]);
+            }
+        }
+    }
+
+    private static void countEntities(@Nullable NBTCursor list, Counts counts) throws IOException {
+        if (list == null || list.getType() != NBTConstants.TYPE_LIST) {
+            return;
+        }
+        for (NBTCursor entity : list.getElements()) {
+            NBTCursor id = entity.getType() == NBTConstants.TYPE_COMPOUND ? entity.get("id") : null;
+            if (id != null && id.getType() == NBTConstants.TYPE_STRING) {
+                counts.entities.merge(id.getString(), 1L, Long::sum);
+            }
+        }
+    }
+
+    /**
+     * The counts of a single chunk or region file, the counts of a region file are merged into the totals once the
+     * file is done.
+     */
+    private final class Counts {
+
+        private final int[] indices = new int[4096];
+        private final Map<String, Long> blocks = new HashMap<>();
+        private final long[] legacyBiomes = new long[256];
+        private final Map<Integer, Long> biomes = new HashMap<>();
+        private final Map<String, Long> entities = new HashMap<>();
+        private long chunkBlocks;
+
+        private void addBlocks(@Nullable String name, long count) {
+            if (name == null || blockTypes != null && !blockTypes.contains(name)) {
+                return;
+            }
+            blocks.merge(name, count, Long::sum);
+            chunkBlocks += count;
+        }
+
+        private void addBiome(int id) {
+            if (id >= 0 && id < legacyBiomes.length) {
+                legacyBiomes[id]++;
+            } else {
+                biomes.merge(id, 1L, Long::sum);
+            }
+        }
+
+        private void add(Counts other) {
+            other.blocks.forEach((name, count) -> blocks.merge(name, count, Long::sum));
+            for (int id = 0; id < legacyBiomes.length; id++) {
+                legacyBiomes[id] += other.legacyBiomes[id];
+            }
+            other.biomes.forEach((id, count) -> biomes.merge(id, count, Long::sum));
+            other.entities.forEach((id, count) -> entities.merge(id, count, Long::sum));
+        }
+
+        private void clear() {
+            blocks.clear();
+            Arrays.fill(legacyBiomes, 0);
+            biomes.clear();
+            entities.clear();
+            chunkBlocks = 0;
+        }
+
+        private void mergeInto(MCAStatistics statistics) {
+            blocks.forEach((name, count) -> statistics.blocks.merge(name, count, Long::sum));
+            for (int id = 0; id < legacyBiomes.length; id++) {
+                if (legacyBiomes[id] != 0) {
+                    biomes.merge(id, legacyBiomes[id], Long::sum);
+                }
+            }
+            biomes.forEach((id, count) -> statistics.biomes.merge(id, count, Long::sum));
+            entities.forEach((id, count) -> statistics.entities.merge(id, count, Long::sum));
+        }
+
+    }
+
+    /**
+     * Get the number of blocks of each type, sorted by count from highest to lowest.
+     *
+     * @return the counts by block type id
+     */
+    public Map<String, Long> getBlocks() {
+        return sorted(blocks);
+    }
+
+    /**
+     * Get the number of biome cells of each biome, sorted by count from highest to lowest.
+     *
+     * @return the counts by biome
+     */
+    public Map<BiomeType, Long> getBiomes() {
+        Map<BiomeType, Long> byType = new HashMap<>();
+        biomes.forEach((id, count) -> {
+            BiomeType biome = MCAChunk.toBiome(id);
+            if (biome != null) {
+                byType.merge(biome, count, Long::sum);
+            }
+        });
+        return sorted(byType);
+    }
+
+    /**
+     * Get the number of entities of each type, sorted by count from highest to lowest.
+     *
+     * @return the counts by entity type id
+     */
+    public Map<String, Long> getEntities() {
+        return sorted(entities);
+    }
+
+    /**
+     * Get the number of blocks of the given types in each chunk containing any, sorted by count from highest to lowest.
+     * Empty if all block types are counted.
+     *
+     * @return the counts by chunk position
+     */
+    public Map<BlockVector2, Long> getChunkBlocks() {
+        return sorted(chunkBlocks);
+    }
+
+    public long getChunks() {
+        return chunks.sum();
+    }
+
+    public long getSkippedChunks() {
+        return skippedChunks.sum();
+    }
+
+    public long getRegionFiles() {
+        return regionFiles.sum();
+    }
+
+    private static <K> Map<K, Long> sorted(Map<K, Long> counts) {
+        Map<K, Long> sorted = new LinkedHashMap<>();
+        counts.entrySet().stream()
+                .sorted(Map.Entry.<K, Long>comparingByValue().reversed())
+                .forEachOrdered(entry -> sorted.put(entry.getKey(), entry.getValue()));
+        return sorted;
+    }
+
+}
@@ -0,0 +1,201 @@
+package com.fastasyncworldedit.core.anvil;
+
+import com.fastasyncworldedit.core.Fawe;
+import com.fastasyncworldedit.core.configuration.Settings;
+import com.fastasyncworldedit.core.queue.Filter;
+import com.fastasyncworldedit.core.queue.implementation.QueueHandler;
+import com.sk89q.worldedit.internal.util.LogManagerCompat;
+import org.apache.logging.log4j.Logger;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.BiPredicate;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * The region files of a world which is not loaded by the server. Operations run on one file per thread, with the
+ * chunks of each file being written by the queue handler.
+ */
+public class MCAWorld {
+
+    private static final Logger LOGGER = LogManagerCompat.getLogger();
+
+    private final Path folder;
+    private BiConsumer<Integer, Integer> progressListener;
+
+    /**
+     * Create a new instance.
+     *
+     * @param folder the world folder, or the region folder itself
+     */
+    public MCAWorld(Path folder) {
+        Path region = folder.resolve("region");
+        this.folder = Files.isDirectory(region) ? region : folder;
+    }
+
+    public Path getRegionFolder() {
+        return folder;
+    }
+
+    /**
+     * Set a listener to be called each time a region file is done, with the number of files done and the total number
+     * of files. It is called from the worker threads.
+     *
+     * @param progressListener the listener, or null to remove it
+     */
+    public void setProgressListener(@Nullable BiConsumer<Integer, Integer> progressListener) {
+        this.progressListener = progressListener;
+    }
+
+    /**
+     * Open a region file to work on, called for every file of an operation.
+     *
+     * @param path the region file
+     * @return the opened file
+     * @throws IOException if the file can't be opened
+     */
+    protected MCAFile open(Path path) throws IOException {
+        return new MCAFile(path);
+    }
+
+    /**
+     * Release a region file once an operation is done with it, by default it is closed.
+     *
+     * @param file the file returned by {@link #open(Path)}
+     * @throws IOException if the file can't be written
+     */
+    protected void release(MCAFile file) throws IOException {
+        file.close();
+    }
+
+    /**
+     * Create the queue a filter is applied to the chunks of a file with.
+     *
+     * @param file the file
+     * @return the queue
+     */
+    protected MCAQueue createQueue(MCAFile file) {
+        return new MCAQueue(file);
+    }
+
+    /**
+     * Get the region files of this world.
+     *
+     * @return the region files
+     * @throws IOException if the folder can't be listed
+     */
+    public List<Path> getRegionFiles() throws IOException {
+        try (Stream<Path> files = Files.list(folder)) {
+            return files.filter(MCAFile::isRegionFile).sorted().collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Apply a filter to every chunk of the world. Each thread works on a fork of the filter, which are joined before
+     * returning.
+     *
+     * @param filter the filter
+     * @param full   if the filter should be applied to all blocks, or only to non air sections
+     * @param <T>    the filter type
+     * @return the filter
+     * @throws IOException if the region files can't be listed
+     */
+    public <T extends Filter> T apply(T filter, boolean full) throws IOException {
+        run(() -> {
+            Filter fork = filter.fork();
+            return file -> createQueue(file).apply(fork, full);
+        });
+        filter.join();
+        return filter;
+    }
+
+    /**
+     * Run a task for every region file of the world, in parallel. The file is released once the task returns.
+     *
+     * @param task the task
+     * @throws IOException if the region files can't be listed
+     */
+    public void forEachFile(Consumer<MCAFile> task) throws IOException {
+        run(() -> task);
+    }
+
+    /**
+     * Delete the chunks matching a predicate, they will be generated again when loaded by the server. Chunks which
+     * can't be read are kept.
+     *
+     * @param delete the predicate, called from the worker threads
+     * @return the number of deleted chunks
+     * @throws IOException if the region files can't be listed
+     */
+    public int deleteChunks(BiPredicate<MCAFile, MCAChunk> delete) throws IOException {
+        AtomicInteger deleted = new AtomicInteger();
+        forEachFile(file -> {
+            int baseX = file.getX() << 5;
+            int baseZ = file.getZ() << 5;
+            for (int z = baseZ; z < baseZ + 32; z++) {
+                for (int x = baseX; x < baseX + 32; x++) {
+                    if (!file.hasChunk(x, z)) {
+                        continue;
+                    }
+                    try {
+                        if (delete.test(file, MCAChunk.read(file, x, z)) && file.deleteChunk(x, z)) {
+                            deleted.incrementAndGet();
+                        }
+                    } catch (IOException e) {
+                        LOGGER.warn("Skipping unreadable chunk {},{} in {}", x, z, file.getPath(), e);
+                    }
+                }
+            }
+        });
+        return deleted.get();
+    }
+
+    private void run(Supplier<Consumer<MCAFile>> worker) throws IOException {
+        List<Path> files = getRegionFiles();
+        Iterator<Path> iterator = files.iterator();
+        int size = Math.min(files.size(), Settings.IMP.QUEUE.PARALLEL_THREADS);
+        QueueHandler handler = Fawe.get().getQueueHandler();
+        AtomicInteger done = new AtomicInteger();
+        ForkJoinTask[] tasks = IntStream.range(0, size).mapToObj(i -> handler.submit(() -> {
+            Consumer<MCAFile> task = worker.get();
+            while (true) {
+                Path path;
+                synchronized (iterator) {
+                    if (!iterator.hasNext()) {
+                        break;
+                    }
+                    path = iterator.next();
+                }
+                try {
+                    MCAFile file = open(path);
+                    try {
+                        task.accept(file);
+                    } finally {
+                        release(file);
+                    }
+                } catch (Throwable e) {
+                    LOGGER.error("Failed to process region file {}", path, e);
+                }
+                BiConsumer<Integer, Integer> listener = progressListener;
+                if (listener != null) {
+                    listener.accept(done.incrementAndGet(), files.size());
+                }
+            }
+        })).toArray(ForkJoinTask[]::new);
+        for (ForkJoinTask task : tasks) {
+            task.quietlyJoin();
+        }
+    }
+
+}
@@ -3,7 +3,7 @@
 import com.fastasyncworldedit.core.function.mask.AdjacentAnyMask;
 import com.fastasyncworldedit.core.function.mask.LayerBrushMask;
 import com.fastasyncworldedit.core.function.mask.RadiusMask;
-import com.fastasyncworldedit.core.math.BlockVectorSet;
+import com.fastasyncworldedit.core.math.PagedBlockBitSet;
 import com.sk89q.worldedit.EditSession;
 import com.sk89q.worldedit.MaxChangedBlocksException;
 import com.sk89q.worldedit.command.tool.brush.Brush;
@@ -43,7 +43,7 @@ public void build(EditSession editSession, BlockVector3 position, Pattern ignore
         visitor.visit(position);
         visitor.setDirections(Arrays.asList(BreadthFirstSearch.DIAGONAL_DIRECTIONS));
         Operations.completeBlindly(visitor);
-        BlockVectorSet visited = visitor.getVisited();
+        PagedBlockBitSet visited = visitor.getVisitedSet();
         visitor = new RecursiveVisitor(new LayerBrushMask(editSession, visitor, layers, adjacent), pos -> {
             int depth = visitor.getDepth();
             Pattern currentPattern = layers[depth];
@@ -3,8 +3,8 @@
 import com.fastasyncworldedit.core.function.mask.AdjacentAnyMask;
 import com.fastasyncworldedit.core.function.mask.RadiusMask;
 import com.fastasyncworldedit.core.function.mask.SurfaceMask;
-import com.fastasyncworldedit.core.math.BlockVectorSet;
 import com.fastasyncworldedit.core.math.LocalBlockVectorSet;
+import com.fastasyncworldedit.core.math.PagedBlockBitSet;
 import com.sk89q.worldedit.EditSession;
 import com.sk89q.worldedit.MaxChangedBlocksException;
 import com.sk89q.worldedit.command.tool.brush.Brush;
@@ -56,7 +56,7 @@ public void build(EditSession editSession, BlockVector3 position, Pattern patter
         visitor.visit(position);
         visitor.setDirections(Arrays.asList(BreadthFirstSearch.DIAGONAL_DIRECTIONS));
         Operations.completeBlindly(visitor);
-        BlockVectorSet visited = visitor.getVisited();
+        PagedBlockBitSet visited = visitor.getVisitedSet();
         int length = visited.size();
         if (size == 0) {
             length = 1;
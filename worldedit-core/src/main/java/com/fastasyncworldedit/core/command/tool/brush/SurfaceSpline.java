@@ -1,6 +1,7 @@
 package com.fastasyncworldedit.core.command.tool.brush;
 
 import com.fastasyncworldedit.core.configuration.Caption;
+import com.fastasyncworldedit.core.extent.processor.heightmap.SurfaceHeightCache;
 import com.fastasyncworldedit.core.math.LocalBlockVectorSet;
 import com.fastasyncworldedit.core.math.MutableBlockVector3;
 import com.fastasyncworldedit.core.util.MathMan;
@@ -63,6 +64,7 @@ public void build(EditSession editSession, BlockVector3 pos, Pattern pattern, do
             nodes.add(n);
         }
         MutableBlockVector3 mutable = MutableBlockVector3.at(0, 0, 0);
+        SurfaceHeightCache heights = editSession.getSurfaceHeightCache();
         interpol.setNodes(nodes);
         final double splinelength = interpol.arcLength(0, 1);
         LocalBlockVectorSet vset = new LocalBlockVectorSet();
@@ -71,7 +73,7 @@ public void build(EditSession editSession, BlockVector3 pos, Pattern pattern, do
             final int tipx = MathMan.roundInt(tipv.getX());
             final int tipz = (int) tipv.getZ();
             int tipy = MathMan.roundInt(tipv.getY());
-            tipy = editSession.getNearestSurfaceTerrainBlock(tipx, tipz, tipy, 0, maxY);
+            tipy = heights.getNearestSurfaceTerrainBlock(tipx, tipz, tipy, 0, maxY);
             if (tipy == -1) {
                 continue;
             }
@@ -97,7 +99,7 @@ public void build(EditSession editSession, BlockVector3 pos, Pattern pattern, do
                 for (int loopx = tipx - ceilrad; loopx <= tipx + ceilrad; loopx++) {
                     for (int loopz = tipz - ceilrad; loopz <= tipz + ceilrad; loopz++) {
                         if (MathMan.hypot2(loopx - tipx, 0, loopz - tipz) <= radius2) {
-                            int y = editSession.getNearestSurfaceTerrainBlock(loopx, loopz, v.getBlockY(), 0, maxY);
+                            int y = heights.getNearestSurfaceTerrainBlock(loopx, loopz, v.getBlockY(), 0, maxY);
                             if (y == -1) {
                                 continue;
                             }
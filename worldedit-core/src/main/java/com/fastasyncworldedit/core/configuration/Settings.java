@@ -423,6 +423,14 @@ public static class EXPERIMENTAL {
         })
         public int PER_PLAYER_FILE_NUM_LIMIT = -1;
 
+        @Comment({
+                "Compile expressions (masks, patterns, //generate, //deform) to bytecode",
+                " - Experimental, report any expression that evaluates differently with this enabled",
+                " - Requires ASM on the server, which Spigot and Paper ship with",
+                " - Expressions that can't be compiled this way are evaluated as before"
+        })
+        public boolean BYTECODE_EXPRESSIONS = false;
+
     }
 
     public static class PLOTSQUARED_INTEGRATION {
@@ -498,6 +506,23 @@ public static class CLIPBOARD {
                 " - 2-17 = Slower compression"
         })
         public int COMPRESSION_LEVEL = 1;
+        @Comment({
+                "Store compressed clipboards in memory as palette compressed 16x16x16 sections",
+                " - Only used if use-disk is false and compression-level is above 0",
+                " - Uses more memory than compression, but random access (e.g. rotated pastes) is much faster",
+        })
+        public boolean PALETTE_SECTIONS = false;
+        @Comment({
+                "How many sections of a palette clipboard are kept decompressed while writing",
+                " - At least one horizontal layer of sections is always kept",
+        })
+        public int PALETTE_SECTION_CACHE = 256;
+        @Comment({
+                "How many megabytes of schematics loaded from files (e.g. by brushes) are shared between players",
+                " - Schematics in use are always shared, this is how much is kept loaded once they are not used anymore",
+                " - Set to 0 to load schematics separately for every use",
+        })
+        public int SHARED_CACHE_MB = 256;
         @Comment("Number of days to keep history on disk before deleting it")
         public int DELETE_AFTER_DAYS = 1;
 
@@ -52,6 +52,7 @@ public boolean setBiome(BlockVector3 position, BiomeType biome) {
 
     @Override
     public boolean setBiome(int x, int y, int z, BiomeType biome) {
+        markChanged(x, y, z);
         setBiome(getBiomeIndex(x, y, z), biome);
         return true;
     }
@@ -149,6 +150,33 @@ public BlockState getBlock(int index) {
         return BlockState.getFromOrdinal(ordinal);
     }
 
+    @Override
+    public char getOrdinalChar(int index) {
+        return states[index];
+    }
+
+    @Override
+    public boolean isConcurrentReadable() {
+        // once flushed, as tiles are moved to the index map lazily
+        return true;
+    }
+
+    @Override
+    public void flush() {
+        convertTilesToIndex();
+    }
+
+    @Override
+    public boolean isConcurrentWritable() {
+        return true;
+    }
+
+    @Override
+    public long getHeapSize() {
+        // biomes are references to shared types
+        return states.length * 2L + (biomes == null ? 0 : biomes.length * 4L);
+    }
+
     @Override
     public BlockState getBlock(int x, int y, int z) {
         return getBlock(getIndex(x, y, z));
@@ -177,6 +205,7 @@ public Collection<CompoundTag> getTileEntities() {
 
     @Override
     public boolean setTile(int x, int y, int z, CompoundTag tag) {
+        markChanged(x, y, z);
         nbtMapLoc.put(new IntTriple(x, y, z), new CompoundTag(tag.getValue()));
         return true;
     }
@@ -197,11 +226,7 @@ public <B extends BlockStateHolder<B>> boolean setBlock(int x, int y, int z, B b
 
     @Override
     public <B extends BlockStateHolder<B>> boolean setBlock(int index, B block) {
-        char ordinal = block.getOrdinalChar();
-        if (ordinal == 0) {
-            ordinal = 1;
-        }
-        states[index] = ordinal;
+        setOrdinal(index, block.getOrdinalChar());
         boolean hasNbt = block instanceof BaseBlock && block.hasNbtData();
         if (hasNbt) {
             setTile(index, block.getNbtData());
@@ -209,6 +234,14 @@ public <B extends BlockStateHolder<B>> boolean setBlock(int index, B block) {
         return true;
     }
 
+    void setOrdinal(int index, char ordinal) {
+        markChanged(index);
+        if (ordinal == 0) {
+            ordinal = 1;
+        }
+        states[index] = ordinal;
+    }
+
     @Nullable
     @Override
     public Entity createEntity(Location location, BaseEntity entity) {
@@ -0,0 +1,410 @@
+package com.fastasyncworldedit.core.extent.clipboard;
+
+import com.fastasyncworldedit.core.jnbt.streamer.IntValueReader;
+import com.sk89q.jnbt.CompoundTag;
+import com.sk89q.jnbt.IntTag;
+import com.sk89q.jnbt.Tag;
+import com.sk89q.worldedit.entity.BaseEntity;
+import com.sk89q.worldedit.entity.Entity;
+import com.sk89q.worldedit.extent.clipboard.BlockArrayClipboard;
+import com.sk89q.worldedit.extent.clipboard.Clipboard;
+import com.sk89q.worldedit.internal.util.LogManagerCompat;
+import com.sk89q.worldedit.math.BlockVector3;
+import com.sk89q.worldedit.util.Location;
+import com.sk89q.worldedit.world.biome.BiomeType;
+import com.sk89q.worldedit.world.block.BaseBlock;
+import com.sk89q.worldedit.world.block.BlockState;
+import com.sk89q.worldedit.world.block.BlockStateHolder;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import org.apache.logging.log4j.Logger;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A view of a {@link LinearClipboard} which shares its storage until modified, so many players can hold the same
+ * schematic while only paying for the parts they change.
+ * - Blocks are copied into the view one 16x16x16 tile at a time, on the first write to the tile
+ * - Biomes are copied on the first biome write
+ * - Entities are copied when the view is created
+ * - The origin is per view, transforms are kept by the {@link com.sk89q.worldedit.session.ClipboardHolder} as usual
+ * <p>
+ * The backing clipboard must not be modified while views of it exist, and is not closed with the view.
+ */
+public class CopyOnWriteClipboard extends LinearClipboard {
+
+    private static final Logger LOGGER = LogManagerCompat.getLogger();
+
+    private static final int TILE_BITS = DirtyTiles.TILE_BITS;
+    private static final int TILE_SIZE = 1 << TILE_BITS;
+
+    private final LinearClipboard backing;
+    private final int tilesX;
+    private final int tilesZ;
+    private final char[][] tiles;
+    // skips looking up the material of every copied block if there are no tile entities to copy
+    private final boolean backingHasTiles;
+    // tile entities of the copied tiles, with their position
+    private final Int2ObjectMap<CompoundTag> nbt = new Int2ObjectOpenHashMap<>();
+    private BiomeType[] biomes;
+    private boolean copiedBiomes;
+
+    public CopyOnWriteClipboard(LinearClipboard backing) {
+        super(backing.getDimensions());
+        this.backing = backing;
+        this.tilesX = ((getWidth() - 1) >> TILE_BITS) + 1;
+        this.tilesZ = ((getLength() - 1) >> TILE_BITS) + 1;
+        int tilesY = ((getHeight() - 1) >> TILE_BITS) + 1;
+        this.tiles = new char[tilesX * tilesY * tilesZ][];
+        this.backingHasTiles = !backing.getTileEntities().isEmpty();
+        for (Entity entity : backing.getEntities()) {
+            if (entity instanceof BlockArrayClipboard.ClipboardEntity) {
+                entities.add((BlockArrayClipboard.ClipboardEntity) entity);
+            }
+        }
+        setOrigin(backing.getOrigin());
+    }
+
+    /**
+     * Create a copy on write view of a clipboard.
+     *
+     * @param clipboard a clipboard that is not modified while the view is used
+     * @return the view, with the same region and origin, or null if the clipboard is not backed by a
+     *         {@link LinearClipboard}
+     */
+    @Nullable
+    public static Clipboard view(Clipboard clipboard) {
+        if (clipboard instanceof LinearClipboard) {
+            return new CopyOnWriteClipboard((LinearClipboard) clipboard);
+        }
+        if (clipboard instanceof BlockArrayClipboard) {
+            Clipboard parent = ((BlockArrayClipboard) clipboard).getParent();
+            if (parent instanceof LinearClipboard) {
+                return new BlockArrayClipboard(clipboard.getRegion(), new CopyOnWriteClipboard((LinearClipboard) parent));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the clipboard this is a view of.
+     */
+    public LinearClipboard getBacking() {
+        return backing;
+    }
+
+    /**
+     * Get the number of tiles that were copied from the backing clipboard.
+     */
+    public int getCopiedTiles() {
+        int copied = 0;
+        for (char[] tile : tiles) {
+            if (tile != null) {
+                copied++;
+            }
+        }
+        return copied;
+    }
+
+    private int getTileIndex(int x, int y, int z) {
+        return (x >> TILE_BITS) + tilesX * ((z >> TILE_BITS) + tilesZ * (y >> TILE_BITS));
+    }
+
+    private static int getLocalIndex(int x, int y, int z) {
+        return ((y & (TILE_SIZE - 1)) << (TILE_BITS << 1)) | ((z & (TILE_SIZE - 1)) << TILE_BITS) | (x & (TILE_SIZE - 1));
+    }
+
+    public int getIndex(int x, int y, int z) {
+        return x + y * getArea() + z * getWidth();
+    }
+
+    public int getBiomeIndex(int x, int y, int z) {
+        return (x >> 2) + (y >> 2) * (getWidth() >> 2) * (getLength() >> 2) + (z >> 2) * (getWidth() >> 2);
+    }
+
+    /**
+     * Get the tile containing a position for writing, copying it from the backing clipboard first if needed.
+     */
+    private char[] getWritableTile(int x, int y, int z) {
+        int tileIndex = getTileIndex(x, y, z);
+        char[] tile = tiles[tileIndex];
+        if (tile == null) {
+            tile = new char[TILE_SIZE * TILE_SIZE * TILE_SIZE];
+            int minX = x & ~(TILE_SIZE - 1);
+            int minY = y & ~(TILE_SIZE - 1);
+            int minZ = z & ~(TILE_SIZE - 1);
+            int maxX = Math.min(getWidth(), minX + TILE_SIZE);
+            int maxY = Math.min(getHeight(), minY + TILE_SIZE);
+            int maxZ = Math.min(getLength(), minZ + TILE_SIZE);
+            for (int ty = minY; ty < maxY; ty++) {
+                for (int tz = minZ; tz < maxZ; tz++) {
+                    for (int tx = minX; tx < maxX; tx++) {
+                        char ordinal = backing.getOrdinalChar(tx, ty, tz);
+                        tile[getLocalIndex(tx, ty, tz)] = ordinal;
+                        if (backingHasTiles && BlockState.getFromOrdinal(ordinal).getMaterial().hasContainer()) {
+                            CompoundTag tag = backing.getFullBlock(tx, ty, tz).getNbtData();
+                            if (tag != null) {
+                                putTile(tx, ty, tz, tag);
+                            }
+                        }
+                    }
+                }
+            }
+            tiles[tileIndex] = tile;
+        }
+        return tile;
+    }
+
+    private void putTile(int x, int y, int z, CompoundTag tag) {
+        Map<String, Tag> values = new HashMap<>(tag.getValue());
+        values.put("x", new IntTag(x));
+        values.put("y", new IntTag(y));
+        values.put("z", new IntTag(z));
+        nbt.put(getIndex(x, y, z), new CompoundTag(values));
+    }
+
+    @Override
+    public char getOrdinalChar(int x, int y, int z) {
+        char[] tile = tiles[getTileIndex(x, y, z)];
+        if (tile == null) {
+            return backing.getOrdinalChar(x, y, z);
+        }
+        return tile[getLocalIndex(x, y, z)];
+    }
+
+    @Override
+    public char getOrdinalChar(int index) {
+        int y = index / getArea();
+        int newI = index - y * getArea();
+        int z = newI / getWidth();
+        int x = newI - z * getWidth();
+        return getOrdinalChar(x, y, z);
+    }
+
+    @Override
+    public boolean isConcurrentReadable() {
+        return backing.isConcurrentReadable();
+    }
+
+    @Override
+    public void flush() {
+        backing.flush();
+    }
+
+    @Override
+    public long getHeapSize() {
+        // only what was copied from the backing clipboard
+        long size = biomes == null ? 0 : biomes.length * 4L;
+        for (char[] tile : tiles) {
+            if (tile != null) {
+                size += tile.length * 2L;
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public BlockState getBlock(int index) {
+        return BlockState.getFromOrdinal(getOrdinalChar(index));
+    }
+
+    @Override
+    public BlockState getBlock(int x, int y, int z) {
+        return BlockState.getFromOrdinal(getOrdinalChar(x, y, z));
+    }
+
+    @Override
+    public BaseBlock getFullBlock(int index) {
+        int y = index / getArea();
+        int newI = index - y * getArea();
+        int z = newI / getWidth();
+        int x = newI - z * getWidth();
+        return getFullBlock(x, y, z);
+    }
+
+    @Override
+    public BaseBlock getFullBlock(int x, int y, int z) {
+        if (tiles[getTileIndex(x, y, z)] == null) {
+            return backing.getFullBlock(x, y, z);
+        }
+        BlockState block = getBlock(x, y, z);
+        if (block.getMaterial().hasContainer()) {
+            CompoundTag tag = nbt.get(getIndex(x, y, z));
+            if (tag != null) {
+                return block.toBaseBlock(tag);
+            }
+        }
+        return block.toBaseBlock();
+    }
+
+    @Override
+    public <B extends BlockStateHolder<B>> boolean setBlock(int x, int y, int z, B block) {
+        setOrdinal(x, y, z, block.getOrdinalChar());
+        boolean hasNbt = block instanceof BaseBlock && block.hasNbtData();
+        if (hasNbt) {
+            putTile(x, y, z, block.getNbtData());
+        }
+        return true;
+    }
+
+    void setOrdinal(int x, int y, int z, char ordinal) {
+        markChanged(x, y, z);
+        if (ordinal == 0) {
+            ordinal = 1;
+        }
+        getWritableTile(x, y, z)[getLocalIndex(x, y, z)] = ordinal;
+        nbt.remove(getIndex(x, y, z));
+    }
+
+    @Override
+    public <B extends BlockStateHolder<B>> boolean setBlock(int index, B block) {
+        int y = index / getArea();
+        int newI = index - y * getArea();
+        int z = newI / getWidth();
+        int x = newI - z * getWidth();
+        return setBlock(x, y, z, block);
+    }
+
+    @Override
+    public boolean setTile(int x, int y, int z, CompoundTag tag) {
+        markChanged(x, y, z);
+        getWritableTile(x, y, z);
+        putTile(x, y, z, tag);
+        return true;
+    }
+
+    @Override
+    public Collection<CompoundTag> getTileEntities() {
+        List<CompoundTag> tileEntities = new ArrayList<>(nbt.values());
+        for (CompoundTag tag : backing.getTileEntities()) {
+            int x = tag.getInt("x");
+            int y = tag.getInt("y");
+            int z = tag.getInt("z");
+            if (tiles[getTileIndex(x, y, z)] == null) {
+                tileEntities.add(tag);
+            }
+        }
+        return tileEntities;
+    }
+
+    @Override
+    public boolean hasBiomes() {
+        return copiedBiomes ? biomes != null : backing.hasBiomes();
+    }
+
+    /**
+     * Copy the biomes of the backing clipboard before they are modified.
+     */
+    private void copyBiomes() {
+        if (copiedBiomes) {
+            return;
+        }
+        copiedBiomes = true;
+        biomes = new BiomeType[((getHeight() >> 2) + 1) * ((getLength() >> 2) + 1) * ((getWidth() >> 2) + 1)];
+        if (!backing.hasBiomes()) {
+            return;
+        }
+        for (int y = 0; y < getHeight(); y += 4) {
+            for (int z = 0; z < getLength(); z += 4) {
+                for (int x = 0; x < getWidth(); x += 4) {
+                    biomes[getBiomeIndex(x, y, z)] = backing.getBiomeType(x, y, z);
+                }
+            }
+        }
+    }
+
+    @Override
+    public boolean setBiome(BlockVector3 position, BiomeType biome) {
+        return setBiome(position.getX(), position.getY(), position.getZ(), biome);
+    }
+
+    @Override
+    public boolean setBiome(int x, int y, int z, BiomeType biome) {
+        markChanged(x, y, z);
+        setBiome(getBiomeIndex(x, y, z), biome);
+        return true;
+    }
+
+    @Override
+    public void setBiome(int index, BiomeType biome) {
+        copyBiomes();
+        biomes[index] = biome;
+    }
+
+    @Override
+    public BiomeType getBiome(int index) {
+        if (!hasBiomes()) {
+            return null;
+        }
+        if (!copiedBiomes) {
+            // the backing clipboard has the same dimensions, and so the same biome indices
+            return backing.getBiome(index);
+        }
+        return biomes[index];
+    }
+
+    @Override
+    public BiomeType getBiomeType(int x, int y, int z) {
+        if (!copiedBiomes) {
+            return backing.getBiomeType(x, y, z);
+        }
+        return biomes == null ? null : biomes[getBiomeIndex(x, y, z)];
+    }
+
+    @Override
+    public BiomeType getBiome(BlockVector3 position) {
+        return getBiomeType(position.getX(), position.getY(), position.getZ());
+    }
+
+    @Override
+    public void streamBiomes(IntValueReader task) {
+        if (!hasBiomes()) {
+            return;
+        }
+        try {
+            for (int y = 0; y < getHeight(); y++) {
+                for (int z = 0; z < getLength(); z++) {
+                    for (int x = 0; x < getWidth(); x++) {
+                        task.applyInt(getIndex(x, y, z), getBiomeType(x, y, z).getInternalId());
+                    }
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.error("Failed to stream biomes", e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Nullable
+    @Override
+    public Entity createEntity(Location location, BaseEntity entity) {
+        BlockArrayClipboard.ClipboardEntity ret = new BlockArrayClipboard.ClipboardEntity(location, entity);
+        entities.add(ret);
+        return ret;
+    }
+
+    @Override
+    public List<? extends Entity> getEntities() {
+        return new ArrayList<>(entities);
+    }
+
+    @Override
+    public void removeEntity(Entity entity) {
+        this.entities.remove(entity);
+    }
+
+    @Override
+    public void close() {
+        Arrays.fill(tiles, null);
+        nbt.clear();
+        biomes = null;
+    }
+
+}
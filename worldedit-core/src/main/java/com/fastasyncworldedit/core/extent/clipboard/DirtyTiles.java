@@ -0,0 +1,123 @@
+package com.fastasyncworldedit.core.extent.clipboard;
+
+import com.sk89q.worldedit.math.BlockVector3;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Tracks which 16x16x16 tiles of a {@link LinearClipboard} were changed, so a save only needs to write those.
+ * Positions are relative to the clipboard min, tiles may be marked from several threads at once.
+ */
+public class DirtyTiles {
+
+    public static final int TILE_BITS = 4;
+
+    private final int tilesX;
+    private final int tilesY;
+    private final int tilesZ;
+    private final AtomicLongArray bits;
+
+    public DirtyTiles(BlockVector3 dimensions) {
+        this.tilesX = ((dimensions.getX() - 1) >> TILE_BITS) + 1;
+        this.tilesY = ((dimensions.getY() - 1) >> TILE_BITS) + 1;
+        this.tilesZ = ((dimensions.getZ() - 1) >> TILE_BITS) + 1;
+        this.bits = new AtomicLongArray((tilesX * tilesY * tilesZ + 63) >> 6);
+    }
+
+    private DirtyTiles(DirtyTiles other) {
+        this.tilesX = other.tilesX;
+        this.tilesY = other.tilesY;
+        this.tilesZ = other.tilesZ;
+        this.bits = new AtomicLongArray(other.bits.length());
+    }
+
+    private int getIndex(int tx, int ty, int tz) {
+        return tx + tilesX * (tz + tilesZ * ty);
+    }
+
+    /**
+     * Mark the tile containing a position as changed.
+     */
+    public void mark(int x, int y, int z) {
+        int index = getIndex(x >> TILE_BITS, y >> TILE_BITS, z >> TILE_BITS);
+        int word = index >> 6;
+        long bit = 1L << index;
+        // most changes hit tiles that are already marked, avoid the contended write for those
+        if ((bits.get(word) & bit) == 0) {
+            bits.getAndAccumulate(word, bit, (a, b) -> a | b);
+        }
+    }
+
+    /**
+     * Mark every tile as changed.
+     */
+    public void markAll() {
+        int count = tilesX * tilesY * tilesZ;
+        for (int word = 0; word < bits.length(); word++) {
+            int remaining = count - (word << 6);
+            bits.set(word, remaining >= 64 ? -1L : (1L << remaining) - 1);
+        }
+    }
+
+    /**
+     * Whether a tile was changed.
+     *
+     * @param tx the tile x, the x position divided by 16
+     * @param ty the tile y
+     * @param tz the tile z
+     */
+    public boolean isDirty(int tx, int ty, int tz) {
+        if (tx < 0 || ty < 0 || tz < 0 || tx >= tilesX || ty >= tilesY || tz >= tilesZ) {
+            return false;
+        }
+        int index = getIndex(tx, ty, tz);
+        return (bits.get(index >> 6) & (1L << index)) != 0;
+    }
+
+    public boolean isEmpty() {
+        for (int word = 0; word < bits.length(); word++) {
+            if (bits.get(word) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get the number of changed tiles.
+     */
+    public int size() {
+        int size = 0;
+        for (int word = 0; word < bits.length(); word++) {
+            size += Long.bitCount(bits.get(word));
+        }
+        return size;
+    }
+
+    /**
+     * Take the changed tiles, leaving this empty. Changes made while draining end up in either of both.
+     *
+     * @return the tiles changed until now
+     */
+    public DirtyTiles drain() {
+        DirtyTiles drained = new DirtyTiles(this);
+        for (int word = 0; word < bits.length(); word++) {
+            drained.bits.set(word, bits.getAndSet(word, 0));
+        }
+        return drained;
+    }
+
+    /**
+     * Mark the tiles changed in another instance of the same size, e.g. to restore changes that were drained by a
+     * failed save.
+     */
+    public void addAll(DirtyTiles other) {
+        for (int word = 0; word < bits.length(); word++) {
+            long value = other.bits.get(word);
+            if (value != 0) {
+                bits.getAndAccumulate(word, value, (a, b) -> a | b);
+            }
+        }
+    }
+
+}
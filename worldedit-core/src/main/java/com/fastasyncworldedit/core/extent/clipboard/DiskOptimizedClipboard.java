@@ -12,7 +12,6 @@
 import com.sk89q.worldedit.entity.BaseEntity;
 import com.sk89q.worldedit.entity.Entity;
 import com.sk89q.worldedit.extent.clipboard.BlockArrayClipboard;
-import com.sk89q.worldedit.internal.util.LogManagerCompat;
 import com.sk89q.worldedit.math.BlockVector3;
 import com.sk89q.worldedit.regions.CuboidRegion;
 import com.sk89q.worldedit.regions.Region;
@@ -23,7 +22,6 @@
 import com.sk89q.worldedit.world.block.BlockState;
 import com.sk89q.worldedit.world.block.BlockStateHolder;
 import com.sk89q.worldedit.world.block.BlockTypes;
-import org.apache.logging.log4j.Logger;
 
 import javax.annotation.Nullable;
 import java.io.Closeable;
@@ -43,28 +41,32 @@
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.stream.Collectors;
 
 /**
  * A clipboard with disk backed storage. (lower memory + loads on crash)
  * - Uses an auto closable RandomAccessFile for getting / setting id / data
+ * - The file is memory mapped in fixed size segments, each mapped on first access, so the file isn't limited to 2 GB
  * - I don't know how to reduce nbt / entities to O(2) complexity, so it is stored in memory.
  */
 public class DiskOptimizedClipboard extends LinearClipboard implements Closeable {
 
-    private static final Logger LOGGER = LogManagerCompat.getLogger();
-
     private static final int HEADER_SIZE = 14;
+    // 64 MB, even so that no block straddles two segments
+    private static final int SEGMENT_SHIFT = 26;
+    private static final long SEGMENT_SIZE = 1L << SEGMENT_SHIFT;
+    private static final int SEGMENT_MASK = (int) SEGMENT_SIZE - 1;
 
     private final HashMap<IntTriple, CompoundTag> nbtMap;
     private final File file;
 
     private RandomAccessFile braf;
-    private MappedByteBuffer byteBuffer;
+    private volatile AtomicReferenceArray<MappedByteBuffer> segments;
+    private long fileLength;
 
     private FileChannel fileChannel;
-    private boolean hasBiomes;
-    private boolean canHaveBiomes = true;
+    private volatile boolean hasBiomes;
 
     public DiskOptimizedClipboard(Region region, UUID uuid) {
         this(
@@ -88,13 +90,6 @@ public DiskOptimizedClipboard(BlockVector3 dimensions) {
 
     public DiskOptimizedClipboard(BlockVector3 dimensions, File file) {
         super(dimensions);
-        if (HEADER_SIZE + ((long) getVolume() << 1) >= Integer.MAX_VALUE) {
-            throw new IllegalArgumentException(
-                    "Dimensions too large for this clipboard format. Use //lazycopy for large selections.");
-        } else if (HEADER_SIZE + ((long) getVolume() << 1) + (long) ((getHeight() >> 2) + 1) * ((getLength() >> 2) + 1) * ((getWidth() >> 2) + 1) >= Integer.MAX_VALUE) {
-            LOGGER.error("Dimensions are too large for biomes to be stored in a DiskOptimizedClipboard");
-            canHaveBiomes = false;
-        }
         nbtMap = new HashMap<>();
         try {
             this.file = file;
@@ -115,9 +110,9 @@ public DiskOptimizedClipboard(BlockVector3 dimensions, File file) {
             braf.setLength(fileLength);
             init();
             // write getLength() etc
-            byteBuffer.putChar(2, (char) getWidth());
-            byteBuffer.putChar(4, (char) getHeight());
-            byteBuffer.putChar(6, (char) getLength());
+            putChar(2, (char) getWidth());
+            putChar(4, (char) getHeight());
+            putChar(6, (char) getLength());
         } catch (IOException e) {
             e.printStackTrace();
             throw new RuntimeException(e);
@@ -147,7 +142,7 @@ public DiskOptimizedClipboard(File file) {
             this.braf = new RandomAccessFile(file, "rw");
             braf.setLength(file.length());
             init();
-            if (braf.length() - HEADER_SIZE == ((long) getVolume() << 1) + (long) ((getHeight() >> 2) + 1) * ((getLength() >> 2) + 1) * ((getWidth() >> 2) + 1)) {
+            if (braf.length() - HEADER_SIZE == ((long) getVolume() << 1) + getBiomeCount()) {
                 hasBiomes = true;
             }
         } catch (IOException e) {
@@ -162,29 +157,103 @@ public File getFile() {
     private void init() throws IOException {
         if (this.fileChannel == null) {
             this.fileChannel = braf.getChannel();
-            this.byteBuffer = fileChannel.map(FileChannel.MapMode.READ_WRITE, 0, file.length());
+            this.fileLength = braf.length();
+            this.segments = new AtomicReferenceArray<>((int) ((fileLength + SEGMENT_SIZE - 1) >> SEGMENT_SHIFT));
         }
     }
 
-    private boolean initBiome() {
-        if (!canHaveBiomes) {
-            return false;
+    private MappedByteBuffer getSegment(long position) {
+        int index = (int) (position >> SEGMENT_SHIFT);
+        MappedByteBuffer segment = segments.get(index);
+        if (segment == null) {
+            segment = mapSegment(index);
         }
-        if (!hasBiomes) {
+        return segment;
+    }
+
+    private synchronized MappedByteBuffer mapSegment(int index) {
+        MappedByteBuffer segment = segments.get(index);
+        if (segment == null) {
+            long start = (long) index << SEGMENT_SHIFT;
             try {
-                hasBiomes = true;
-                close();
-                this.braf = new RandomAccessFile(file, "rw");
-                // Since biomes represent a 4x4x4 cube, we store fewer biome bytes that volume at 1 byte per biome
-                // +1 to each too allow for cubes that lie across the region boundary
-                this.braf.setLength(HEADER_SIZE + ((long) getVolume() << 1) + (long) ((getHeight() >> 2) + 1) * ((getLength() >> 2) + 1) * ((getWidth() >> 2) + 1));
-                init();
+                segment = fileChannel.map(FileChannel.MapMode.READ_WRITE, start, Math.min(SEGMENT_SIZE, fileLength - start));
             } catch (IOException e) {
-                e.printStackTrace();
-                return false;
+                throw new RuntimeException(e);
             }
+            segments.set(index, segment);
         }
-        return true;
+        return segment;
+    }
+
+    private char getChar(long position) {
+        return getSegment(position).getChar((int) position & SEGMENT_MASK);
+    }
+
+    private void putChar(long position, char value) {
+        getSegment(position).putChar((int) position & SEGMENT_MASK, value);
+    }
+
+    private byte getByte(long position) {
+        return getSegment(position).get((int) position & SEGMENT_MASK);
+    }
+
+    private void putByte(long position, byte value) {
+        getSegment(position).put((int) position & SEGMENT_MASK, value);
+    }
+
+    private short getShort(long position) {
+        return getSegment(position).getShort((int) position & SEGMENT_MASK);
+    }
+
+    private void putShort(long position, short value) {
+        getSegment(position).putShort((int) position & SEGMENT_MASK, value);
+    }
+
+    private long getBlockPosition(int index) {
+        return HEADER_SIZE + ((long) index << 1);
+    }
+
+    private long getBiomePosition(int index) {
+        return HEADER_SIZE + ((long) getVolume() << 1) + index;
+    }
+
+    private long getBiomeCount() {
+        // Since biomes represent a 4x4x4 cube, we store fewer biome bytes that volume at 1 byte per biome
+        // +1 to each too allow for cubes that lie across the region boundary
+        return (long) ((getHeight() >> 2) + 1) * ((getLength() >> 2) + 1) * ((getWidth() >> 2) + 1);
+    }
+
+    private void initBiome() {
+        if (!hasBiomes) {
+            // other threads keep reading and writing blocks, segments are only mapped under the same lock
+            synchronized (this) {
+                if (!hasBiomes) {
+                    growFile(HEADER_SIZE + ((long) getVolume() << 1) + getBiomeCount());
+                    hasBiomes = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Grow the file without unmapping it. Segments that are already mapped stay in use, except for the last one, which
+     * is mapped again with its new size on next access.
+     */
+    private synchronized void growFile(long length) {
+        try {
+            braf.setLength(length);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        AtomicReferenceArray<MappedByteBuffer> old = segments;
+        int count = (int) ((length + SEGMENT_SIZE - 1) >> SEGMENT_SHIFT);
+        AtomicReferenceArray<MappedByteBuffer> grown = new AtomicReferenceArray<>(count);
+        int full = (int) (fileLength >> SEGMENT_SHIFT);
+        for (int i = 0; i < full; i++) {
+            grown.set(i, old.get(i));
+        }
+        fileLength = length;
+        segments = grown;
     }
 
     @Override
@@ -199,21 +268,19 @@ public boolean setBiome(BlockVector3 position, BiomeType biome) {
 
     @Override
     public boolean setBiome(int x, int y, int z, BiomeType biome) {
+        markChanged(x, y, z);
         setBiome(getBiomeIndex(x, y, z), biome);
         return true;
     }
 
     @Override
     public void setBiome(int index, BiomeType biome) {
-        if (initBiome()) {
-            try {
-                byteBuffer.put(HEADER_SIZE + (getVolume() << 1) + index, (byte) biome.getInternalId());
-            } catch (IndexOutOfBoundsException e) {
-                LOGGER.info((long) (getHeight() >> 2) * (getLength() >> 2) * (getWidth() >> 2));
-                LOGGER.info(index);
-                e.printStackTrace();
-            }
+        if (index < 0 || index >= getBiomeCount()) {
+            throw new IndexOutOfBoundsException("Biome index " + index + " is outside of the " + getBiomeCount()
+                    + " biomes of the clipboard");
         }
+        initBiome();
+        putByte(getBiomePosition(index), (byte) biome.getInternalId());
     }
 
     @Override
@@ -221,7 +288,7 @@ public BiomeType getBiome(int index) {
         if (!hasBiomes()) {
             return null;
         }
-        int biomeId = byteBuffer.get(HEADER_SIZE + (getVolume() << 1) + index) & 0xFF;
+        int biomeId = getByte(getBiomePosition(index)) & 0xFF;
         return BiomeTypes.get(biomeId);
     }
 
@@ -230,12 +297,11 @@ public void streamBiomes(IntValueReader task) {
         if (!hasBiomes()) {
             return;
         }
-        int mbbIndex = HEADER_SIZE + (getVolume() << 1);
         try {
             for (int y = 0; y < getHeight(); y++) {
                 for (int z = 0; z < getLength(); z++) {
                     for (int x = 0; x < getWidth(); x++) {
-                        int biome = byteBuffer.get(mbbIndex + getBiomeIndex(x, y, z)) & 0xFF;
+                        int biome = getByte(getBiomePosition(getBiomeIndex(x, y, z))) & 0xFF;
                         task.applyInt(getIndex(x, y, z), biome);
                     }
                 }
@@ -262,9 +328,9 @@ public BlockArrayClipboard toClipboard() {
                     BlockVector3.at(0, 0, 0),
                     BlockVector3.at(getWidth() - 1, getHeight() - 1, getLength() - 1)
             );
-            int ox = byteBuffer.getShort(8);
-            int oy = byteBuffer.getShort(10);
-            int oz = byteBuffer.getShort(12);
+            int ox = getShort(8);
+            int oy = getShort(10);
+            int oz = getShort(12);
             BlockArrayClipboard clipboard = new BlockArrayClipboard(region, this);
             clipboard.setOrigin(BlockVector3.at(ox, oy, oz));
             return clipboard;
@@ -278,9 +344,9 @@ public BlockArrayClipboard toClipboard() {
     public void setOrigin(BlockVector3 offset) {
         super.setOrigin(offset);
         try {
-            byteBuffer.putShort(8, (short) offset.getBlockX());
-            byteBuffer.putShort(10, (short) offset.getBlockY());
-            byteBuffer.putShort(12, (short) offset.getBlockZ());
+            putShort(8, (short) offset.getBlockX());
+            putShort(10, (short) offset.getBlockY());
+            putShort(12, (short) offset.getBlockZ());
         } catch (Throwable e) {
             e.printStackTrace();
         }
@@ -288,7 +354,12 @@ public void setOrigin(BlockVector3 offset) {
 
     @Override
     public void flush() {
-        byteBuffer.force();
+        for (int i = 0; i < segments.length(); i++) {
+            MappedByteBuffer segment = segments.get(i);
+            if (segment != null) {
+                segment.force();
+            }
+        }
     }
 
     private void closeDirectBuffer(ByteBuffer cb) {
@@ -301,14 +372,16 @@ private void closeDirectBuffer(ByteBuffer cb) {
     @Override
     public void close() {
         try {
-            if (byteBuffer != null) {
-                byteBuffer.force();
+            if (fileChannel != null) {
+                flush();
                 fileChannel.close();
                 braf.close();
                 //noinspection ResultOfMethodCallIgnored
                 file.setWritable(true);
-                closeDirectBuffer(byteBuffer);
-                byteBuffer = null;
+                for (int i = 0; i < segments.length(); i++) {
+                    closeDirectBuffer(segments.get(i));
+                }
+                segments = null;
                 fileChannel = null;
                 braf = null;
             }
@@ -376,8 +449,7 @@ public BaseBlock getFullBlock(int i) {
     @Override
     public BlockState getBlock(int index) {
         try {
-            int diskIndex = HEADER_SIZE + (index << 1);
-            char ordinal = byteBuffer.getChar(diskIndex);
+            char ordinal = getChar(getBlockPosition(index));
             return BlockState.getFromOrdinal(ordinal);
         } catch (IndexOutOfBoundsException ignored) {
         } catch (Exception e) {
@@ -386,6 +458,33 @@ public BlockState getBlock(int index) {
         return BlockTypes.AIR.getDefaultState();
     }
 
+    @Override
+    public char getOrdinalChar(int index) {
+        try {
+            return getChar(getBlockPosition(index));
+        } catch (IndexOutOfBoundsException ignored) {
+        }
+        return BlockTypes.AIR.getDefaultState().getOrdinalChar();
+    }
+
+    @Override
+    public boolean isConcurrentReadable() {
+        // absolute reads of the mapped buffers don't touch their position, and segments are mapped synchronized
+        return true;
+    }
+
+    @Override
+    public boolean isConcurrentWritable() {
+        // same as reading, each block is a single absolute put
+        return true;
+    }
+
+    @Override
+    public long getHeapSize() {
+        // blocks and biomes are in the mapped file
+        return 0;
+    }
+
     @Override
     public BlockState getBlock(int x, int y, int z) {
         return getBlock(getIndex(x, y, z));
@@ -393,6 +492,7 @@ public BlockState getBlock(int x, int y, int z) {
 
     @Override
     public boolean setTile(int x, int y, int z, CompoundTag tag) {
+        markChanged(x, y, z);
         final Map<String, Tag> values = new HashMap<>(tag.getValue());
         values.put("x", new IntTag(x));
         values.put("y", new IntTag(y));
@@ -403,13 +503,14 @@ public boolean setTile(int x, int y, int z, CompoundTag tag) {
 
     @Override
     public <B extends BlockStateHolder<B>> boolean setBlock(int x, int y, int z, B block) {
+        markChanged(x, y, z);
         try {
-            int index = HEADER_SIZE + (getIndex(x, y, z) << 1);
+            long position = getBlockPosition(getIndex(x, y, z));
             char ordinal = block.getOrdinalChar();
             if (ordinal == 0) {
                 ordinal = 1;
             }
-            byteBuffer.putChar(index, ordinal);
+            putChar(position, ordinal);
             boolean hasNbt = block instanceof BaseBlock && block.hasNbtData();
             if (hasNbt) {
                 setTile(x, y, z, block.getNbtData());
@@ -423,10 +524,10 @@ public <B extends BlockStateHolder<B>> boolean setBlock(int x, int y, int z, B b
 
     @Override
     public <B extends BlockStateHolder<B>> boolean setBlock(int i, B block) {
+        markChanged(i);
         try {
             char ordinal = block.getOrdinalChar();
-            int index = HEADER_SIZE + (i << 1);
-            byteBuffer.putChar(index, ordinal);
+            putChar(getBlockPosition(i), ordinal);
             boolean hasNbt = block instanceof BaseBlock && block.hasNbtData();
             if (hasNbt) {
                 int y = i / getArea();
@@ -6,6 +6,8 @@
 import com.sk89q.worldedit.extent.clipboard.io.ClipboardFormat;
 import com.sk89q.worldedit.extent.clipboard.io.ClipboardReader;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
 import java.util.UUID;
@@ -15,7 +17,10 @@ public class LazyClipboardHolder extends URIClipboardHolder {
     private final ByteSource source;
     private final ClipboardFormat format;
     private final UUID uuid;
+    private final boolean shareable;
     private Clipboard clipboard;
+    // the cached clipboard the holder's clipboard is a view of
+    private Clipboard shared;
 
     /**
      * Create a new instance with the given clipboard.
@@ -24,6 +29,8 @@ public LazyClipboardHolder(URI uri, ByteSource source, ClipboardFormat format, U
         super(uri, EmptyClipboard.getInstance());
         this.source = source;
         this.format = format;
+        // a clipboard loaded for a specific uuid is owned by it, anything else may come from the shared cache
+        this.shareable = uuid == null;
         this.uuid = uuid != null ? uuid : UUID.randomUUID();
     }
 
@@ -36,10 +43,14 @@ public boolean contains(Clipboard clipboard) {
     public synchronized Clipboard getClipboard() {
         if (clipboard == null) {
             try {
-                try (InputStream in = source.openBufferedStream()) {
-                    final ClipboardReader reader = format.getReader(in);
-                    final Clipboard clipboard;
-                    this.clipboard = reader.read(uuid);
+                File file = shareable && SharedClipboardCache.isEnabled() ? SharedClipboardCache.getFile(getUri()) : null;
+                if (file != null) {
+                    Clipboard shared = SharedClipboardCache.IMP.acquire(file, f -> read());
+                    Clipboard view = CopyOnWriteClipboard.view(shared);
+                    this.shared = shared;
+                    this.clipboard = view != null ? view : shared;
+                } else {
+                    this.clipboard = read();
                 }
             } catch (Throwable e) {
                 e.printStackTrace();
@@ -48,6 +59,13 @@ public synchronized Clipboard getClipboard() {
         return clipboard;
     }
 
+    private Clipboard read() throws IOException {
+        try (InputStream in = source.openBufferedStream()) {
+            final ClipboardReader reader = format.getReader(in);
+            return reader.read(uuid);
+        }
+    }
+
     @Override
     public URI getURI(Clipboard clipboard) {
         return (this.clipboard == clipboard) ? getUri() : null;
@@ -55,7 +73,13 @@ public URI getURI(Clipboard clipboard) {
 
     @Override
     public synchronized void close() {
-        if (clipboard instanceof BlockArrayClipboard) {
+        if (shared != null) {
+            if (clipboard != shared) {
+                clipboard.close();
+            }
+            SharedClipboardCache.IMP.release(shared);
+            shared = null;
+        } else if (clipboard instanceof BlockArrayClipboard) {
             clipboard.close();
         }
         clipboard = null;
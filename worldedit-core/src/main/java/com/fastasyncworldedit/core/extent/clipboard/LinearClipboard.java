@@ -16,6 +16,7 @@
 import com.sk89q.worldedit.world.block.BlockStateHolder;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -24,11 +25,65 @@
 public abstract class LinearClipboard extends SimpleClipboard {
 
     protected final HashSet<ClipboardEntity> entities = new HashSet<>();
+    @Nullable
+    private volatile DirtyTiles changes;
 
     public LinearClipboard(BlockVector3 dimensions) {
         super(dimensions);
     }
 
+    /**
+     * Start tracking which tiles of the clipboard are changed, if not tracking already.
+     *
+     * @return the changed tiles, empty if tracking only started now
+     */
+    public DirtyTiles trackChanges() {
+        DirtyTiles changes = this.changes;
+        if (changes == null) {
+            synchronized (this) {
+                changes = this.changes;
+                if (changes == null) {
+                    this.changes = changes = new DirtyTiles(getDimensions());
+                }
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * Get the changed tiles, see {@link #trackChanges()}.
+     *
+     * @return the changed tiles, or null if changes are not tracked
+     */
+    @Nullable
+    public DirtyTiles getChanges() {
+        return changes;
+    }
+
+    /**
+     * Mark the tile containing a position relative to the clipboard min as changed, if changes are tracked.
+     */
+    protected void markChanged(int x, int y, int z) {
+        DirtyTiles changes = this.changes;
+        if (changes != null) {
+            changes.mark(x, y, z);
+        }
+    }
+
+    /**
+     * Mark the tile containing an index as changed, if changes are tracked.
+     */
+    protected void markChanged(int i) {
+        DirtyTiles changes = this.changes;
+        if (changes != null) {
+            int y = i / getArea();
+            int newI = i - y * getArea();
+            int z = newI / getWidth();
+            int x = newI - z * getWidth();
+            changes.mark(x, y, z);
+        }
+    }
+
     // We shouldn't expose methods that directly reference the index as people cannot be trusted to use it properly.
     public abstract <B extends BlockStateHolder<B>> boolean setBlock(int i, B block);
 
@@ -36,6 +91,43 @@ public LinearClipboard(BlockVector3 dimensions) {
 
     public abstract BlockState getBlock(int i);
 
+    /**
+     * Get the ordinal of the block at an index, see {@link BlockState#getOrdinalChar()}.
+     */
+    public char getOrdinalChar(int i) {
+        return getBlock(i).getOrdinalChar();
+    }
+
+    /**
+     * Get the ordinal of the block at a position relative to the clipboard min, see {@link BlockState#getOrdinalChar()}.
+     */
+    public char getOrdinalChar(int x, int y, int z) {
+        return getOrdinalChar(x + y * getArea() + z * getWidth());
+    }
+
+    /**
+     * Whether blocks and biomes may be read from several threads at once, as long as the clipboard is not written to
+     * meanwhile. Pending writes must be flushed with {@link #flush()} before reading concurrently.
+     */
+    public boolean isConcurrentReadable() {
+        return false;
+    }
+
+    /**
+     * Estimate the heap memory used by the blocks and biomes of the clipboard, in bytes.
+     */
+    public long getHeapSize() {
+        // a char per block
+        return (long) getVolume() * 2;
+    }
+
+    /**
+     * Whether blocks without NBT may be written to distinct indices from several threads at once.
+     */
+    public boolean isConcurrentWritable() {
+        return false;
+    }
+
     public abstract void setBiome(int index, BiomeType biome);
 
     public abstract BiomeType getBiome(int index);
@@ -77,6 +77,7 @@ public boolean setBiome(BlockVector3 position, BiomeType biome) {
 
     @Override
     public boolean setBiome(int x, int y, int z, BiomeType biome) {
+        markChanged(x, y, z);
         setBiome(getBiomeIndex(x, y, z), biome);
         return true;
     }
@@ -189,6 +190,18 @@ private void setOrdinal(int index, int v) {
         saveOrdinals = true;
     }
 
+    @Override
+    public long getHeapSize() {
+        long size = buffer.length + (lastOrdinals == null ? 0 : lastOrdinals.length)
+                + (biomes == null ? 0 : biomes.length);
+        for (byte[] compressed : states) {
+            if (compressed != null) {
+                size += compressed.length;
+            }
+        }
+        return size;
+    }
+
     @Override
     public Collection<CompoundTag> getTileEntities() {
         return nbtMap.values();
@@ -262,6 +275,7 @@ public int size() {
 
     @Override
     public boolean setTile(int x, int y, int z, CompoundTag tag) {
+        markChanged(x, y, z);
         final Map<String, Tag> values = new HashMap<>(tag.getValue());
         values.put("x", new IntTag(x));
         values.put("y", new IntTag(y));
@@ -277,6 +291,7 @@ public <B extends BlockStateHolder<B>> boolean setBlock(int x, int y, int z, B b
 
     @Override
     public <B extends BlockStateHolder<B>> boolean setBlock(int index, B block) {
+        markChanged(index);
         int ordinal = block.getOrdinal();
         if (ordinal == 0) {
             ordinal = 1;
@@ -0,0 +1,437 @@
+package com.fastasyncworldedit.core.extent.clipboard;
+
+import com.fastasyncworldedit.core.FaweCache;
+import com.fastasyncworldedit.core.configuration.Settings;
+import com.fastasyncworldedit.core.jnbt.streamer.IntValueReader;
+import com.fastasyncworldedit.core.math.IntTriple;
+import com.fastasyncworldedit.core.util.TaskManager;
+import com.sk89q.jnbt.CompoundTag;
+import com.sk89q.jnbt.IntTag;
+import com.sk89q.jnbt.Tag;
+import com.sk89q.worldedit.entity.BaseEntity;
+import com.sk89q.worldedit.entity.Entity;
+import com.sk89q.worldedit.extent.clipboard.BlockArrayClipboard;
+import com.sk89q.worldedit.extent.clipboard.BlockArrayClipboard.ClipboardEntity;
+import com.sk89q.worldedit.internal.util.LogManagerCompat;
+import com.sk89q.worldedit.math.BlockVector3;
+import com.sk89q.worldedit.regions.Region;
+import com.sk89q.worldedit.util.Location;
+import com.sk89q.worldedit.world.biome.BiomeType;
+import com.sk89q.worldedit.world.biome.BiomeTypes;
+import com.sk89q.worldedit.world.block.BaseBlock;
+import com.sk89q.worldedit.world.block.BlockState;
+import com.sk89q.worldedit.world.block.BlockStateHolder;
+import org.apache.logging.log4j.Logger;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * A clipboard stored as palette compressed 16x16x16 sections.
+ * - Each section keeps the distinct blocks it contains, and packs the palette index of every block into 1 - 16 bits
+ * - Reads unpack a single entry, so random access and transformed reads never decompress a whole section
+ * - Sections being written are kept decoded in a bounded LRU cache, and are encoded again when evicted or flushed
+ * - Uses less memory than {@link CPUOptimizedClipboard}, and is faster than {@link MemoryOptimizedClipboard}
+ */
+public class SectionedClipboard extends LinearClipboard {
+
+    private static final Logger LOGGER = LogManagerCompat.getLogger();
+
+    private static final int PARALLEL_ENCODE_THRESHOLD = 16;
+
+    private final int sectionsX;
+    private final int sectionArea;
+    private final Section[] sections;
+    private final LinkedHashMap<Integer, Section> decoded;
+
+    private int lastWriteIndex = -1;
+    private Section lastWrite;
+
+    private byte[] biomes = null;
+
+    private final HashMap<IntTriple, CompoundTag> nbtMap;
+
+    public SectionedClipboard(Region region) {
+        this(region, Settings.IMP.CLIPBOARD.PALETTE_SECTION_CACHE);
+    }
+
+    /**
+     * Create a new clipboard.
+     *
+     * @param region    the region
+     * @param cacheSize how many sections are kept decoded for writing. At least one layer of sections is always kept,
+     *                  so writing in y, z, x order never decodes a section twice
+     */
+    public SectionedClipboard(Region region, int cacheSize) {
+        super(region.getDimensions());
+        this.sectionsX = (getWidth() + 15) >> 4;
+        int sectionsY = (getHeight() + 15) >> 4;
+        int sectionsZ = (getLength() + 15) >> 4;
+        this.sectionArea = sectionsX * sectionsZ;
+        this.sections = new Section[sectionArea * sectionsY];
+        final int maxDecoded = Math.max(cacheSize, sectionArea + 1);
+        this.decoded = new LinkedHashMap<Integer, Section>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Section> eldest) {
+                if (size() > maxDecoded) {
+                    eldest.getValue().encode();
+                    return true;
+                }
+                return false;
+            }
+        };
+        this.nbtMap = new HashMap<>();
+    }
+
+    @Override
+    public boolean hasBiomes() {
+        return biomes != null;
+    }
+
+    @Override
+    public boolean setBiome(BlockVector3 position, BiomeType biome) {
+        return setBiome(position.getX(), position.getY(), position.getZ(), biome);
+    }
+
+    @Override
+    public boolean setBiome(int x, int y, int z, BiomeType biome) {
+        markChanged(x, y, z);
+        setBiome(getBiomeIndex(x, y, z), biome);
+        return true;
+    }
+
+    @Override
+    public void setBiome(int index, BiomeType biome) {
+        if (biomes == null) {
+            biomes = new byte[((getHeight() >> 2) + 1) * ((getLength() >> 2) + 1) * ((getWidth() >> 2) + 1)];
+        }
+        biomes[index] = (byte) biome.getInternalId();
+    }
+
+    @Override
+    public void streamBiomes(IntValueReader task) {
+        if (!hasBiomes()) {
+            return;
+        }
+        try {
+            for (int y = 0; y < getHeight(); y++) {
+                for (int z = 0; z < getLength(); z++) {
+                    for (int x = 0; x < getWidth(); x++) {
+                        task.applyInt(getIndex(x, y, z), biomes[getBiomeIndex(x, y, z)] & 0xFF);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.error("Failed to stream biomes", e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public BiomeType getBiome(int index) {
+        if (!hasBiomes()) {
+            return null;
+        }
+        return BiomeTypes.get(biomes[index]);
+    }
+
+    @Override
+    public BiomeType getBiomeType(int x, int y, int z) {
+        return getBiome(getBiomeIndex(x, y, z));
+    }
+
+    @Override
+    public BiomeType getBiome(BlockVector3 position) {
+        return getBiome(getBiomeIndex(position.getX(), position.getY(), position.getZ()));
+    }
+
+    public int getIndex(int x, int y, int z) {
+        return x + y * getArea() + z * getWidth();
+    }
+
+    public int getBiomeIndex(int x, int y, int z) {
+        return (x >> 2) + (y >> 2) * (getWidth() >> 2) * (getLength() >> 2) + (z >> 2) * (getWidth() >> 2);
+    }
+
+    private int getSectionIndex(int x, int y, int z) {
+        return (y >> 4) * sectionArea + (z >> 4) * sectionsX + (x >> 4);
+    }
+
+    private static int getLocalIndex(int x, int y, int z) {
+        return (y & 15) << 8 | (z & 15) << 4 | x & 15;
+    }
+
+    private Section getWritableSection(int sectionIndex) {
+        if (sectionIndex == lastWriteIndex) {
+            return lastWrite;
+        }
+        Section section = sections[sectionIndex];
+        if (section == null) {
+            section = sections[sectionIndex] = new Section();
+        }
+        if (section.blocks == null) {
+            section.decode();
+        }
+        // also marks the section as most recently used
+        decoded.put(sectionIndex, section);
+        lastWriteIndex = sectionIndex;
+        lastWrite = section;
+        return section;
+    }
+
+    @Override
+    public char getOrdinalChar(int x, int y, int z) {
+        Section section = sections[getSectionIndex(x, y, z)];
+        return section == null ? 0 : section.get(getLocalIndex(x, y, z));
+    }
+
+    @Override
+    public char getOrdinalChar(int index) {
+        int y = index / getArea();
+        int newI = index - y * getArea();
+        int z = newI / getWidth();
+        int x = newI - z * getWidth();
+        return getOrdinalChar(x, y, z);
+    }
+
+    @Override
+    public BlockState getBlock(int x, int y, int z) {
+        return BlockState.getFromOrdinal(getOrdinalChar(x, y, z));
+    }
+
+    @Override
+    public BlockState getBlock(int index) {
+        return BlockState.getFromOrdinal(getOrdinalChar(index));
+    }
+
+    @Override
+    public BaseBlock getFullBlock(int x, int y, int z) {
+        BlockState state = getBlock(x, y, z);
+        if (state.getMaterial().hasContainer() && !nbtMap.isEmpty()) {
+            CompoundTag nbt = nbtMap.get(new IntTriple(x, y, z));
+            return state.toBaseBlock(nbt);
+        }
+        return state.toBaseBlock();
+    }
+
+    @Override
+    public BaseBlock getFullBlock(int index) {
+        int y = index / getArea();
+        int newI = index - y * getArea();
+        int z = newI / getWidth();
+        int x = newI - z * getWidth();
+        return getFullBlock(x, y, z);
+    }
+
+    @Override
+    public Collection<CompoundTag> getTileEntities() {
+        return nbtMap.values();
+    }
+
+    @Override
+    public boolean setTile(int x, int y, int z, CompoundTag tag) {
+        markChanged(x, y, z);
+        final Map<String, Tag> values = new HashMap<>(tag.getValue());
+        values.put("x", new IntTag(x));
+        values.put("y", new IntTag(y));
+        values.put("z", new IntTag(z));
+        nbtMap.put(new IntTriple(x, y, z), new CompoundTag(values));
+        return true;
+    }
+
+    @Override
+    public <B extends BlockStateHolder<B>> boolean setBlock(int x, int y, int z, B block) {
+        setOrdinal(x, y, z, block.getOrdinalChar());
+        boolean hasNbt = block instanceof BaseBlock && block.hasNbtData();
+        if (hasNbt) {
+            setTile(x, y, z, block.getNbtData());
+        }
+        return true;
+    }
+
+    void setOrdinal(int x, int y, int z, char ordinal) {
+        markChanged(x, y, z);
+        if (ordinal == 0) {
+            ordinal = 1;
+        }
+        getWritableSection(getSectionIndex(x, y, z)).blocks[getLocalIndex(x, y, z)] = ordinal;
+    }
+
+    @Override
+    public <B extends BlockStateHolder<B>> boolean setBlock(int index, B block) {
+        int y = index / getArea();
+        int newI = index - y * getArea();
+        int z = newI / getWidth();
+        int x = newI - z * getWidth();
+        return setBlock(x, y, z, block);
+    }
+
+    /**
+     * Encode all sections that are decoded for writing, on the shared pool if there are many.
+     */
+    @Override
+    public void flush() {
+        if (decoded.isEmpty()) {
+            return;
+        }
+        if (decoded.size() >= PARALLEL_ENCODE_THRESHOLD && TaskManager.IMP != null) {
+            List<Runnable> tasks = new ArrayList<>(decoded.size());
+            for (Section section : decoded.values()) {
+                tasks.add(section::encode);
+            }
+            TaskManager.IMP.parallel(tasks);
+        } else {
+            for (Section section : decoded.values()) {
+                section.encode();
+            }
+        }
+        decoded.clear();
+        lastWriteIndex = -1;
+        lastWrite = null;
+    }
+
+    @Override
+    public boolean isConcurrentReadable() {
+        // encoded sections are never modified, only replaced when written to, once flushed
+        return true;
+    }
+
+    @Override
+    public long getHeapSize() {
+        long size = biomes == null ? 0 : biomes.length;
+        for (Section section : sections) {
+            if (section != null) {
+                size += section.getHeapSize();
+            }
+        }
+        return size;
+    }
+
+    @Nullable
+    @Override
+    public Entity createEntity(Location location, BaseEntity entity) {
+        BlockArrayClipboard.ClipboardEntity ret = new BlockArrayClipboard.ClipboardEntity(location, entity);
+        entities.add(ret);
+        return ret;
+    }
+
+    @Override
+    public List<? extends Entity> getEntities() {
+        return new ArrayList<>(entities);
+    }
+
+    @Override
+    public List<? extends Entity> getEntities(Region region) {
+        return new ArrayList<>(entities
+                .stream()
+                .filter(e -> region.contains(e.getLocation().toBlockPoint()))
+                .collect(Collectors.toList()));
+    }
+
+    @Override
+    public void removeEntity(Entity entity) {
+        if (entity instanceof ClipboardEntity) {
+            this.entities.remove(entity);
+        }
+    }
+
+    private static final class Section {
+
+        // decoded ordinals while the section is cached for writing, null otherwise
+        private char[] blocks;
+        // the encoded section, data is null if the palette has a single entry
+        private char[] palette;
+        private long[] data;
+        // log2 of the bits per entry
+        private int shift;
+
+        private long getHeapSize() {
+            return (blocks == null ? 0 : blocks.length * 2L) + (palette == null ? 0 : palette.length * 2L)
+                    + (data == null ? 0 : data.length * 8L);
+        }
+
+        private char get(int index) {
+            char[] blocks = this.blocks;
+            if (blocks != null) {
+                return blocks[index];
+            }
+            return getEncoded(index);
+        }
+
+        private char getEncoded(int index) {
+            if (data == null) {
+                return palette[0];
+            }
+            int perLongShift = 6 - shift;
+            long word = data[index >> perLongShift];
+            int value = (int) (word >>> ((index & ((1 << perLongShift) - 1)) << shift)) & ((1 << (1 << shift)) - 1);
+            return palette[value];
+        }
+
+        private void decode() {
+            char[] blocks = new char[4096];
+            if (palette != null) {
+                if (data == null) {
+                    Arrays.fill(blocks, palette[0]);
+                } else {
+                    for (int i = 0; i < 4096; i++) {
+                        blocks[i] = getEncoded(i);
+                    }
+                }
+            }
+            this.blocks = blocks;
+        }
+
+        private void encode() {
+            char[] blocks = this.blocks;
+            if (blocks == null) {
+                return;
+            }
+            int[] blockToPalette = FaweCache.IMP.BLOCK_TO_PALETTE.get();
+            char[] palette = new char[16];
+            int size = 0;
+            try {
+                for (char ordinal : blocks) {
+                    if (blockToPalette[ordinal] == Integer.MAX_VALUE) {
+                        if (size == palette.length) {
+                            palette = Arrays.copyOf(palette, size << 1);
+                        }
+                        blockToPalette[ordinal] = size;
+                        palette[size++] = ordinal;
+                    }
+                }
+                long[] data = null;
+                int shift = 0;
+                if (size > 1) {
+                    int bits = 32 - Integer.numberOfLeadingZeros(size - 1);
+                    // round up to a power of two, so no entry straddles two longs
+                    shift = 32 - Integer.numberOfLeadingZeros(bits - 1);
+                    int perLongShift = 6 - shift;
+                    int perLongMask = (1 << perLongShift) - 1;
+                    data = new long[4096 >> perLongShift];
+                    for (int i = 0; i < 4096; i++) {
+                        data[i >> perLongShift] |= (long) blockToPalette[blocks[i]] << ((i & perLongMask) << shift);
+                    }
+                }
+                this.palette = Arrays.copyOf(palette, size);
+                this.data = data;
+                this.shift = shift;
+                this.blocks = null;
+            } finally {
+                for (int i = 0; i < size; i++) {
+                    blockToPalette[palette[i]] = Integer.MAX_VALUE;
+                }
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,215 @@
+package com.fastasyncworldedit.core.extent.clipboard;
+
+import com.fastasyncworldedit.core.configuration.Settings;
+import com.sk89q.worldedit.extent.clipboard.BlockArrayClipboard;
+import com.sk89q.worldedit.extent.clipboard.Clipboard;
+import com.sk89q.worldedit.internal.util.LogManagerCompat;
+import com.sk89q.worldedit.util.function.IOFunction;
+import org.apache.logging.log4j.Logger;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A process wide cache of clipboards loaded from schematic files, so a folder used by the brushes of many players is
+ * only read once.
+ * - Keyed by the canonical file, an entry is only reused while the modification time and size of the file are unchanged
+ * - Each holder using a clipboard holds a reference to it, shared clipboards must not be modified, holders modify a
+ * {@link CopyOnWriteClipboard} view of them instead
+ * - Clipboards without references are kept while the total size is within the configured budget, and closed least
+ * recently used first once it is exceeded
+ */
+public class SharedClipboardCache {
+
+    private static final Logger LOGGER = LogManagerCompat.getLogger();
+
+    public static final SharedClipboardCache IMP = new SharedClipboardCache();
+
+    private final LinkedHashMap<File, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<Clipboard, Entry> byClipboard = new IdentityHashMap<>();
+    private long size;
+
+    private static final class Entry {
+
+        private final File file;
+        private final long lastModified;
+        private final long length;
+        private final Clipboard clipboard;
+        private final long bytes;
+        private int references;
+        private boolean stale;
+
+        private Entry(File file, long lastModified, long length, Clipboard clipboard) {
+            this.file = file;
+            this.lastModified = lastModified;
+            this.length = length;
+            this.clipboard = clipboard;
+            this.bytes = getHeapSize(clipboard);
+        }
+
+        private static long getHeapSize(Clipboard clipboard) {
+            if (clipboard instanceof BlockArrayClipboard) {
+                clipboard = ((BlockArrayClipboard) clipboard).getParent();
+            }
+            if (clipboard instanceof LinearClipboard) {
+                return ((LinearClipboard) clipboard).getHeapSize();
+            }
+            // a char per block, which is what most clipboards use
+            return (long) clipboard.getVolume() * 2;
+        }
+
+        private boolean isCurrent() {
+            return !stale && file.lastModified() == lastModified && file.length() == length;
+        }
+
+    }
+
+    /**
+     * Whether clipboards are cached at all.
+     */
+    public static boolean isEnabled() {
+        return Settings.IMP.CLIPBOARD.SHARED_CACHE_MB > 0;
+    }
+
+    /**
+     * Get the file a uri points to, if clipboards loaded from it can be shared.
+     *
+     * @return the canonical file, or null if the uri is not a local file
+     */
+    @Nullable
+    public static File getFile(URI uri) {
+        if (!"file".equals(uri.getScheme())) {
+            return null;
+        }
+        try {
+            File file = new File(uri).getCanonicalFile();
+            return file.isFile() ? file : null;
+        } catch (IOException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Get the clipboard of a file, loading it if it isn't cached or the file changed since. Every call must be paired
+     * with a {@link #release(Clipboard)} once the clipboard is no longer used.
+     *
+     * @param file   the canonical file, see {@link #getFile(URI)}
+     * @param loader loads the file if needed, this is not called while holding the cache lock
+     * @return the shared clipboard
+     */
+    public Clipboard acquire(File file, IOFunction<File, Clipboard> loader) throws IOException {
+        synchronized (this) {
+            Entry entry = entries.get(file);
+            if (entry != null) {
+                if (entry.isCurrent()) {
+                    entry.references++;
+                    return entry.clipboard;
+                }
+                invalidate(entry);
+            }
+        }
+        long lastModified = file.lastModified();
+        long length = file.length();
+        Clipboard clipboard = loader.apply(file);
+        Entry loaded = new Entry(file, lastModified, length, clipboard);
+        synchronized (this) {
+            Entry entry = entries.get(file);
+            if (entry != null && entry.isCurrent()) {
+                // another player loaded the same file meanwhile
+                entry.references++;
+                close(clipboard);
+                return entry.clipboard;
+            }
+            if (entry != null) {
+                invalidate(entry);
+            }
+            loaded.references = 1;
+            entries.put(file, loaded);
+            byClipboard.put(clipboard, loaded);
+            size += loaded.bytes;
+            trim();
+            return clipboard;
+        }
+    }
+
+    /**
+     * Release a reference to a clipboard obtained from {@link #acquire(File, IOFunction)}.
+     */
+    public synchronized void release(Clipboard clipboard) {
+        Entry entry = byClipboard.get(clipboard);
+        if (entry == null || --entry.references > 0) {
+            return;
+        }
+        if (entry.stale) {
+            byClipboard.remove(clipboard);
+            close(clipboard);
+        } else {
+            trim();
+        }
+    }
+
+    /**
+     * Close all clipboards that are not referenced anymore.
+     */
+    public synchronized void clear() {
+        Iterator<Entry> iter = entries.values().iterator();
+        while (iter.hasNext()) {
+            Entry entry = iter.next();
+            if (entry.references == 0) {
+                iter.remove();
+                remove(entry);
+            }
+        }
+    }
+
+    /**
+     * The estimated size in bytes of all cached clipboards.
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    private void trim() {
+        long budget = Settings.IMP.CLIPBOARD.SHARED_CACHE_MB * 1024L * 1024L;
+        Iterator<Entry> iter = entries.values().iterator();
+        while (size > budget && iter.hasNext()) {
+            Entry entry = iter.next();
+            if (entry.references == 0) {
+                iter.remove();
+                remove(entry);
+            }
+        }
+    }
+
+    private void invalidate(Entry entry) {
+        entries.remove(entry.file);
+        if (entry.references == 0) {
+            remove(entry);
+        } else {
+            // still used by other holders, closed once they release it
+            entry.stale = true;
+            size -= entry.bytes;
+        }
+    }
+
+    private void remove(Entry entry) {
+        byClipboard.remove(entry.clipboard);
+        size -= entry.bytes;
+        close(entry.clipboard);
+    }
+
+    private static void close(Clipboard clipboard) {
+        try {
+            clipboard.close();
+        } catch (Throwable e) {
+            LOGGER.error("Failed to close cached clipboard", e);
+        }
+    }
+
+}
@@ -1,6 +1,7 @@
 package com.fastasyncworldedit.core.extent.clipboard.io;
 
 import com.fastasyncworldedit.core.FaweCache;
+import com.fastasyncworldedit.core.configuration.Settings;
 import com.fastasyncworldedit.core.extent.clipboard.LinearClipboard;
 import com.fastasyncworldedit.core.internal.io.FastByteArrayOutputStream;
 import com.fastasyncworldedit.core.internal.io.FastByteArraysInputStream;
@@ -8,6 +9,7 @@
 import com.fastasyncworldedit.core.internal.io.FaweOutputStream;
 import com.fastasyncworldedit.core.jnbt.streamer.StreamDelegate;
 import com.fastasyncworldedit.core.jnbt.streamer.ValueReader;
+import com.fastasyncworldedit.core.util.TaskManager;
 import com.sk89q.jnbt.AdventureNBTConverter;
 import com.sk89q.jnbt.CompoundTag;
 import com.sk89q.jnbt.IntTag;
@@ -39,13 +41,19 @@
 import net.jpountz.lz4.LZ4BlockOutputStream;
 import org.apache.logging.log4j.Logger;
 
+import javax.annotation.Nullable;
+import java.io.DataInputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.function.Function;
 
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -62,6 +70,12 @@ public class FastSchematicReader extends NBTSchematicReader {
     private int version = -1;
     private int faweWritten = -1;
 
+    private static final int STREAM_CHUNK_SIZE = 1 << 20;
+    private static final int MAX_VARINT_BYTES = 5;
+
+    private Function<BlockVector3, Clipboard> createOutput;
+    private Clipboard output;
+
     private FastByteArrayOutputStream blocksOut;
     private FaweOutputStream blocks;
 
@@ -175,11 +189,18 @@ public StreamDelegate createDelegate() {
             }
         });
         StreamDelegate blockData = schematic.add("BlockData");
-        blockData.withInfo((length, type) -> {
+        blockData.withStream((length, is) -> {
+            DataInputStream in = is.getDataInputStream();
+            LinearClipboard linear = getStreamingOutput();
+            if (linear != null) {
+                readBlocks(length, in, linear);
+                return;
+            }
+            // the palette or the dimensions come after the block data, keep it until the walk is done
             blocksOut = new FastByteArrayOutputStream();
             blocks = new FaweOutputStream(new LZ4BlockOutputStream(blocksOut));
+            copy(length, in, blocks);
         });
-        blockData.withInt((index, value) -> blocks.write(value));
 
         StreamDelegate tilesDelegate = schematic.add("BlockEntities");
         tilesDelegate.withInfo((length, type) -> tiles = new ArrayList<>(length));
@@ -210,14 +231,156 @@ public StreamDelegate createDelegate() {
             }
         });
         StreamDelegate biomeData = schematic.add("BiomeData");
-        biomeData.withInfo((length, type) -> {
+        biomeData.withStream((length, is) -> {
+            DataInputStream in = is.getDataInputStream();
+            if (output != null && biomePalette != null) {
+                readBiomes(length, in, output);
+                return;
+            }
             biomesOut = new FastByteArrayOutputStream();
             biomes = new FaweOutputStream(new LZ4BlockOutputStream(biomesOut));
+            copy(length, in, biomes);
         });
-        biomeData.withInt((index, value) -> biomes.write(value));
         return root;
     }
 
+    /**
+     * Get the clipboard to decode the block data into while the NBT is still being read, creating it if needed. This
+     * is only possible once the palette and the dimensions are known, which is the case for schematics written by FAWE.
+     *
+     * @return the clipboard, or null if the block data has to be buffered
+     */
+    @Nullable
+    private LinearClipboard getStreamingOutput() {
+        if (createOutput == null || palette == null || width <= 0 || height <= 0 || length <= 0) {
+            return null;
+        }
+        if (output == null) {
+            output = createOutput.apply(BlockVector3.at(width, height, length));
+        }
+        return output instanceof LinearClipboard ? (LinearClipboard) output : null;
+    }
+
+    private static void copy(int length, DataInputStream in, FaweOutputStream out) throws IOException {
+        byte[] buf = new byte[Math.min(length, 8192)];
+        for (int left = length; left > 0; ) {
+            int read = Math.min(left, buf.length);
+            in.readFully(buf, 0, read);
+            out.write(buf, 0, read);
+            left -= read;
+        }
+    }
+
+    /**
+     * Decode the varint palette indices of the block data straight from the NBT stream into the clipboard. The stream
+     * is read in chunks which are cut after the last complete varint, so each chunk can be decoded on its own. If the
+     * clipboard allows it, chunks are decoded by the shared pool while the next one is decompressed, with only a few
+     * chunks in flight at once.
+     */
+    private void readBlocks(int byteLength, DataInputStream in, LinearClipboard linear) throws IOException {
+        final int volume = width * height * length;
+        final boolean parallel = Settings.IMP.QUEUE.PARALLEL_THREADS > 1 && linear.isConcurrentWritable()
+                && byteLength > STREAM_CHUNK_SIZE;
+        final int buffers = parallel ? Settings.IMP.QUEUE.PARALLEL_THREADS * 2 : 1;
+        ArrayBlockingQueue<byte[]> free = new ArrayBlockingQueue<>(buffers);
+        for (int i = 0; i < buffers; i++) {
+            free.add(new byte[Math.min(byteLength, STREAM_CHUNK_SIZE) + MAX_VARINT_BYTES]);
+        }
+        List<Future<?>> tasks = new ArrayList<>();
+        try {
+            byte[] buf = free.take();
+            int carry = 0;
+            int index = 0;
+            for (int left = byteLength; left > 0; ) {
+                int read = Math.min(left, STREAM_CHUNK_SIZE);
+                in.readFully(buf, carry, read);
+                left -= read;
+                int len = carry + read;
+                int end = len;
+                if (left > 0) {
+                    while (end > 0 && buf[end - 1] < 0) {
+                        end--;
+                    }
+                    if (len - end >= MAX_VARINT_BYTES) {
+                        throw new IOException("Invalid varint in block data");
+                    }
+                }
+                if (!parallel) {
+                    index = decodeBlocks(buf, end, index, volume, linear);
+                    carry = len - end;
+                    System.arraycopy(buf, end, buf, 0, carry);
+                    continue;
+                }
+                byte[] next = free.take();
+                carry = len - end;
+                System.arraycopy(buf, end, next, 0, carry);
+                final byte[] chunk = buf;
+                final int chunkEnd = end;
+                final int start = index;
+                tasks.add(TaskManager.IMP.getPublicForkJoinPool().submit(() -> {
+                    try {
+                        decodeBlocks(chunk, chunkEnd, start, volume, linear);
+                    } finally {
+                        free.add(chunk);
+                    }
+                }));
+                for (int i = 0; i < end; i++) {
+                    if (buf[i] >= 0) {
+                        index++;
+                    }
+                }
+                buf = next;
+            }
+            for (Future<?> task : tasks) {
+                task.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading block data");
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to decode block data", e.getCause());
+        }
+    }
+
+    private int decodeBlocks(byte[] buf, int end, int index, int volume, LinearClipboard linear) {
+        int value = 0;
+        int shift = 0;
+        for (int i = 0; i < end && index < volume; i++) {
+            byte b = buf[i];
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                linear.setBlock(index++, getBlockState(value));
+                value = 0;
+                shift = 0;
+            } else {
+                shift += 7;
+            }
+        }
+        return index;
+    }
+
+    private void readBiomes(int byteLength, DataInputStream in, Clipboard clipboard) throws IOException {
+        int left = byteLength;
+        for (int z = 0; z < length && left > 0; z++) {
+            for (int x = 0; x < width && left > 0; x++) {
+                int value = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = in.readByte();
+                    left--;
+                    value |= (b & 0x7F) << shift;
+                    shift += 7;
+                } while (b < 0 && left > 0);
+                BiomeType biome = BiomeTypes.get(biomePalette[value]);
+                for (int y = 0; y < height; y++) {
+                    clipboard.setBiome(x, y, z, biome);
+                }
+            }
+        }
+        in.skipBytes(left);
+    }
+
     private BlockState getBlockState(int id) {
         return BlockTypesCache.states[palette[id]];
     }
@@ -229,6 +392,7 @@ private BiomeType getBiomeType(FaweInputStream fis) throws IOException {
 
     @Override
     public Clipboard read(UUID uuid, Function<BlockVector3, Clipboard> createOutput) throws IOException {
+        this.createOutput = createOutput;
         StreamDelegate root = createDelegate();
         StreamDelegate versions = createVersionDelegate();
         inputStream.mark(Integer.MAX_VALUE);
@@ -257,7 +421,7 @@ public Clipboard read(UUID uuid, Function<BlockVector3, Clipboard> createOutput)
             origin = BlockVector3.ZERO;
         }
 
-        Clipboard clipboard = createOutput.apply(dimensions);
+        Clipboard clipboard = output != null ? output : createOutput.apply(dimensions);
 
         if (blocksOut != null && blocksOut.getSize() != 0) {
             try (FaweInputStream fis = new FaweInputStream(new LZ4BlockInputStream(new FastByteArraysInputStream(blocksOut.toByteArrays())))) {
@@ -1,10 +1,12 @@
 package com.fastasyncworldedit.core.extent.clipboard.io;
 
 import com.fastasyncworldedit.core.Fawe;
-import com.fastasyncworldedit.core.function.visitor.Order;
+import com.fastasyncworldedit.core.configuration.Settings;
+import com.fastasyncworldedit.core.extent.clipboard.LinearClipboard;
 import com.fastasyncworldedit.core.internal.io.FaweOutputStream;
 import com.fastasyncworldedit.core.jnbt.streamer.IntValueReader;
 import com.fastasyncworldedit.core.util.IOUtil;
+import com.fastasyncworldedit.core.util.TaskManager;
 import com.sk89q.jnbt.CompoundTag;
 import com.sk89q.jnbt.IntArrayTag;
 import com.sk89q.jnbt.ListTag;
@@ -27,20 +29,26 @@
 import com.sk89q.worldedit.world.block.BaseBlock;
 import com.sk89q.worldedit.world.block.BlockState;
 import com.sk89q.worldedit.world.block.BlockTypesCache;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
 import net.jpountz.lz4.LZ4BlockInputStream;
 import net.jpountz.lz4.LZ4BlockOutputStream;
 
+import javax.annotation.Nullable;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.DataOutput;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
@@ -52,6 +60,8 @@ public class FastSchematicWriter implements ClipboardWriter {
     private static final int CURRENT_VERSION = 2;
 
     private static final int MAX_SIZE = Short.MAX_VALUE - Short.MIN_VALUE;
+    // roughly how many blocks each stripe of a parallel write covers
+    private static final int STRIPE_VOLUME = 1 << 20;
     private final NBTOutputStream outputStream;
     private boolean brokenEntities = false;
 
@@ -124,92 +134,17 @@ private void write2(Clipboard clipboard) throws IOException {
                 out1.writeNamedTag("FAWEVersion", Fawe.get().getVersion().build);
             });
 
-            ByteArrayOutputStream blocksCompressed = new ByteArrayOutputStream();
-            FaweOutputStream blocksOut = new FaweOutputStream(new DataOutputStream(new LZ4BlockOutputStream(blocksCompressed)));
-
-            ByteArrayOutputStream tilesCompressed = new ByteArrayOutputStream();
-            NBTOutputStream tilesOut = new NBTOutputStream(new LZ4BlockOutputStream(tilesCompressed));
-
-            List<Integer> paletteList = new ArrayList<>();
-            char[] palette = new char[BlockTypesCache.states.length];
-            Arrays.fill(palette, Character.MAX_VALUE);
-            int paletteMax = 0;
-            int numTiles = 0;
             Clipboard finalClipboard;
             if (clipboard instanceof BlockArrayClipboard) {
                 finalClipboard = ((BlockArrayClipboard) clipboard).getParent();
             } else {
                 finalClipboard = clipboard;
             }
-            Iterator<BlockVector3> iterator = finalClipboard.iterator(Order.YZX);
-            while (iterator.hasNext()) {
-                BlockVector3 pos = iterator.next();
-                BaseBlock block = pos.getFullBlock(finalClipboard);
-                CompoundTag nbt = block.getNbtData();
-                if (nbt != null) {
-                    Map<String, Tag> values = new HashMap<>(nbt.getValue());
-
-                    // Positions are kept in NBT, we don't want that.
-                    values.remove("x");
-                    values.remove("y");
-                    values.remove("z");
-                    values.put("Id", new StringTag(block.getNbtId()));
-
-                    // Remove 'id' if it exists. We want 'Id'.
-                    // Do this after we get "getNbtId" cos otherwise "getNbtId" doesn't work.
-                    // Dum.
-                    values.remove("id");
-                    values.put("Pos", new IntArrayTag(new int[]{
-                            pos.getX(),
-                            pos.getY(),
-                            pos.getZ()
-                    }));
-                    numTiles++;
-
-                    tilesOut.writeTagPayload(new CompoundTag(values));
-                }
-
-                int ordinal = block.getOrdinal();
-                if (ordinal == 0) {
-                    ordinal = 1;
-                }
-                char value = palette[ordinal];
-                if (value == Character.MAX_VALUE) {
-                    int size = paletteMax++;
-                    palette[ordinal] = value = (char) size;
-                    paletteList.add(ordinal);
-                }
-                blocksOut.writeVarInt(value);
-            }
-            // close
-            tilesOut.close();
-            blocksOut.close();
-
-            out.writeNamedTag("PaletteMax", paletteMax);
-
-            out.writeLazyCompoundTag("Palette", out12 -> {
-                for (int i = 0; i < paletteList.size(); i++) {
-                    int stateOrdinal = paletteList.get(i);
-                    BlockState state = BlockTypesCache.states[stateOrdinal];
-                    out12.writeNamedTag(state.getAsString(), i);
-                }
-            });
-
-            out.writeNamedTagName("BlockData", NBTConstants.TYPE_BYTE_ARRAY);
-            rawStream.writeInt(blocksOut.size());
-            try (LZ4BlockInputStream in = new LZ4BlockInputStream(new ByteArrayInputStream(blocksCompressed.toByteArray()))) {
-                IOUtil.copy(in, rawStream);
-            }
-
-            if (numTiles != 0) {
-                out.writeNamedTagName("BlockEntities", NBTConstants.TYPE_LIST);
-                rawStream.write(NBTConstants.TYPE_COMPOUND);
-                rawStream.writeInt(numTiles);
-                try (LZ4BlockInputStream in = new LZ4BlockInputStream(new ByteArrayInputStream(tilesCompressed.toByteArray()))) {
-                    IOUtil.copy(in, rawStream);
-                }
+            if (canWriteParallel(finalClipboard)) {
+                ((LinearClipboard) finalClipboard).flush();
+                writeBlocksParallel((LinearClipboard) finalClipboard, out, rawStream);
             } else {
-                out.writeNamedEmptyList("BlockEntities");
+                writeBlocks(finalClipboard, out, rawStream);
             }
 
             if (finalClipboard.hasBiomes()) {
@@ -251,6 +186,375 @@ private void write2(Clipboard clipboard) throws IOException {
         });
     }
 
+    private void writeBlocks(Clipboard clipboard, NBTOutputStream out, DataOutput rawStream) throws IOException {
+        List<CompoundTag> tiles = new ArrayList<>();
+        writeBlockData(
+                new ClipboardSource(clipboard),
+                clipboard.getDimensions(),
+                BlockTypesCache.states.length,
+                (paletteList, dataLength) -> writeBlockDataHeader(out, rawStream, paletteList, dataLength),
+                rawStream,
+                tiles
+        );
+        writeTiles(out, rawStream, tiles);
+    }
+
+    private void writeBlocksParallel(LinearClipboard clipboard, NBTOutputStream out, DataOutput rawStream) throws
+            IOException {
+        List<CompoundTag> tiles = new ArrayList<>();
+        writeBlockDataParallel(
+                new LinearSource(clipboard),
+                clipboard.getDimensions(),
+                Math.max(1, STRIPE_VOLUME / clipboard.getArea()),
+                BlockTypesCache.states.length,
+                TaskManager.IMP.getPublicForkJoinPool(),
+                (paletteList, dataLength) -> writeBlockDataHeader(out, rawStream, paletteList, dataLength),
+                rawStream,
+                tiles
+        );
+        writeTiles(out, rawStream, tiles);
+    }
+
+    private static void writeBlockDataHeader(NBTOutputStream out, DataOutput rawStream, List<Integer> paletteList,
+            int dataLength) throws IOException {
+        out.writeNamedTag("PaletteMax", paletteList.size());
+
+        writePalette(out, paletteList);
+
+        out.writeNamedTagName("BlockData", NBTConstants.TYPE_BYTE_ARRAY);
+        rawStream.writeInt(dataLength);
+    }
+
+    private static void writeTiles(NBTOutputStream out, DataOutput rawStream, List<CompoundTag> tiles) throws IOException {
+        if (!tiles.isEmpty()) {
+            out.writeNamedTagName("BlockEntities", NBTConstants.TYPE_LIST);
+            rawStream.write(NBTConstants.TYPE_COMPOUND);
+            rawStream.writeInt(tiles.size());
+            for (CompoundTag tile : tiles) {
+                out.writeTagPayload(tile);
+            }
+        } else {
+            out.writeNamedEmptyList("BlockEntities");
+        }
+    }
+
+    private static void writePalette(NBTOutputStream out, List<Integer> paletteList) throws IOException {
+        out.writeLazyCompoundTag("Palette", out12 -> {
+            for (int i = 0; i < paletteList.size(); i++) {
+                int stateOrdinal = paletteList.get(i);
+                BlockState state = BlockTypesCache.states[stateOrdinal];
+                out12.writeNamedTag(state.getAsString(), i);
+            }
+        });
+    }
+
+    private static CompoundTag toTileTag(BaseBlock block, CompoundTag nbt, int x, int y, int z) {
+        Map<String, Tag> values = new HashMap<>(nbt.getValue());
+
+        // Positions are kept in NBT, we don't want that.
+        values.remove("x");
+        values.remove("y");
+        values.remove("z");
+        values.put("Id", new StringTag(block.getNbtId()));
+
+        // Remove 'id' if it exists. We want 'Id'.
+        // Do this after we get "getNbtId" cos otherwise "getNbtId" doesn't work.
+        // Dum.
+        values.remove("id");
+        values.put("Pos", new IntArrayTag(new int[]{x, y, z}));
+        return new CompoundTag(values);
+    }
+
+    /**
+     * Whether the block data of a clipboard can be encoded in stripes of layers on the shared pool.
+     */
+    private static boolean canWriteParallel(Clipboard clipboard) {
+        if (Settings.IMP.QUEUE.PARALLEL_THREADS <= 1 || !(clipboard instanceof LinearClipboard)) {
+            return false;
+        }
+        BlockVector3 dimensions = clipboard.getDimensions();
+        long volume = (long) dimensions.getX() * dimensions.getY() * dimensions.getZ();
+        return volume > STRIPE_VOLUME && ((LinearClipboard) clipboard).isConcurrentReadable();
+    }
+
+    /**
+     * The blocks of a clipboard, relative to its minimum corner.
+     */
+    interface BlockSource {
+
+        int getOrdinal(int x, int y, int z);
+
+        /**
+         * Get the tile entity of a block as it is written to the schematic, called right after getting its ordinal.
+         */
+        @Nullable
+        CompoundTag getTile(int ordinal, int x, int y, int z);
+
+    }
+
+    /**
+     * Writes what precedes the block data, once the palette and the length of the block data are known.
+     */
+    interface BlockDataHeader {
+
+        void write(List<Integer> paletteList, int dataLength) throws IOException;
+
+    }
+
+    /**
+     * Reads the full block of every position of a clipboard, once.
+     */
+    private static final class ClipboardSource implements BlockSource {
+
+        private final Clipboard clipboard;
+        private final BlockVector3 min;
+        private BaseBlock block;
+
+        private ClipboardSource(Clipboard clipboard) {
+            this.clipboard = clipboard;
+            this.min = clipboard.getMinimumPoint();
+        }
+
+        @Override
+        public int getOrdinal(int x, int y, int z) {
+            block = clipboard.getFullBlock(min.getX() + x, min.getY() + y, min.getZ() + z);
+            return block.getOrdinal();
+        }
+
+        @Override
+        public CompoundTag getTile(int ordinal, int x, int y, int z) {
+            CompoundTag nbt = block.getNbtData();
+            return nbt == null ? null : toTileTag(block, nbt, min.getX() + x, min.getY() + y, min.getZ() + z);
+        }
+
+    }
+
+    /**
+     * Reads the ordinals of a linear clipboard, and the full blocks only of states which can have a tile entity.
+     */
+    private static final class LinearSource implements BlockSource {
+
+        private final LinearClipboard clipboard;
+
+        private LinearSource(LinearClipboard clipboard) {
+            this.clipboard = clipboard;
+        }
+
+        @Override
+        public int getOrdinal(int x, int y, int z) {
+            return clipboard.getOrdinalChar(x, y, z);
+        }
+
+        @Override
+        public CompoundTag getTile(int ordinal, int x, int y, int z) {
+            if (!BlockTypesCache.states[ordinal].getMaterial().hasContainer()) {
+                return null;
+            }
+            BaseBlock block = clipboard.getFullBlock(x, y, z);
+            CompoundTag nbt = block.getNbtData();
+            return nbt == null ? null : toTileTag(block, nbt, x, y, z);
+        }
+
+    }
+
+    /**
+     * Write the block data of a clipboard in YZX order, as palette indices in the order the states first appear.
+     *
+     * @param blocks     the blocks
+     * @param dimensions the dimensions of the clipboard
+     * @param states     the number of block states
+     * @param header     writes the palette before the block data
+     * @param data       the output of the block data
+     * @param tiles      the list the tile entities are added to
+     */
+    static void writeBlockData(BlockSource blocks, BlockVector3 dimensions, int states, BlockDataHeader header,
+            DataOutput data, List<CompoundTag> tiles) throws IOException {
+        ByteArrayOutputStream blocksCompressed = new ByteArrayOutputStream();
+        FaweOutputStream blocksOut = new FaweOutputStream(new DataOutputStream(new LZ4BlockOutputStream(blocksCompressed)));
+
+        List<Integer> paletteList = new ArrayList<>();
+        char[] palette = new char[states];
+        Arrays.fill(palette, Character.MAX_VALUE);
+        for (int y = 0; y < dimensions.getY(); y++) {
+            for (int z = 0; z < dimensions.getZ(); z++) {
+                for (int x = 0; x < dimensions.getX(); x++) {
+                    int ordinal = blocks.getOrdinal(x, y, z);
+                    CompoundTag tile = blocks.getTile(ordinal, x, y, z);
+                    if (tile != null) {
+                        tiles.add(tile);
+                    }
+                    if (ordinal == 0) {
+                        ordinal = 1;
+                    }
+                    char value = palette[ordinal];
+                    if (value == Character.MAX_VALUE) {
+                        palette[ordinal] = value = (char) paletteList.size();
+                        paletteList.add(ordinal);
+                    }
+                    blocksOut.writeVarInt(value);
+                }
+            }
+        }
+        blocksOut.close();
+
+        header.write(paletteList, blocksOut.size());
+        try (LZ4BlockInputStream in = new LZ4BlockInputStream(new ByteArrayInputStream(blocksCompressed.toByteArray()))) {
+            IOUtil.copy(in, data);
+        }
+    }
+
+    /**
+     * Write the same block data and tile entities as {@link #writeBlockData}, splitting the work into stripes of whole
+     * layers.
+     * - The stripes are scanned in parallel for their palette, the number of blocks of each state and their tiles
+     * - The stripe palettes are merged in order, so the palette is the same as when writing sequentially, and the exact
+     * length of the block data is known before it is encoded
+     * - The stripes are then encoded into their own arrays on the pool, and written in order while the next ones
+     * are being encoded. The output stream is usually a parallel gzip stream, so compression overlaps with this as well
+     *
+     * @param blocks     the blocks, which must be safe to read from several threads
+     * @param dimensions the dimensions of the clipboard
+     * @param layers     the number of layers of each stripe
+     * @param states     the number of block states
+     * @param pool       the pool the stripes are scanned and encoded on
+     * @param header     writes the palette before the block data
+     * @param data       the output of the block data
+     * @param tiles      the list the tile entities are added to
+     */
+    static void writeBlockDataParallel(BlockSource blocks, BlockVector3 dimensions, int layers, int states,
+            ForkJoinPool pool, BlockDataHeader header, DataOutput data, List<CompoundTag> tiles) throws IOException {
+        int width = dimensions.getX();
+        int height = dimensions.getY();
+        int length = dimensions.getZ();
+        List<Stripe> stripes = new ArrayList<>();
+        for (int y = 0; y < height; y += layers) {
+            stripes.add(new Stripe(y, Math.min(height, y + layers)));
+        }
+        List<Future<?>> scans = new ArrayList<>(stripes.size());
+        for (Stripe stripe : stripes) {
+            scans.add(pool.submit(() -> stripe.scan(blocks, width, length, states)));
+        }
+        await(scans);
+
+        List<Integer> paletteList = new ArrayList<>();
+        char[] palette = new char[states];
+        Arrays.fill(palette, Character.MAX_VALUE);
+        long dataLength = 0;
+        for (Stripe stripe : stripes) {
+            for (int i = 0; i < stripe.ordinals.size(); i++) {
+                int ordinal = stripe.ordinals.getInt(i);
+                char value = palette[ordinal];
+                if (value == Character.MAX_VALUE) {
+                    palette[ordinal] = value = (char) paletteList.size();
+                    paletteList.add(ordinal);
+                }
+                stripe.dataLength += stripe.counts[i] * (value < 1 << 7 ? 1 : value < 1 << 14 ? 2 : 3);
+            }
+            dataLength += stripe.dataLength;
+            tiles.addAll(stripe.tiles);
+        }
+        if (dataLength > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Block data of region too large for a .schematic");
+        }
+
+        header.write(paletteList, (int) dataLength);
+        int inFlight = Settings.IMP.QUEUE.PARALLEL_THREADS * 2;
+        ArrayDeque<Future<byte[]>> pending = new ArrayDeque<>(inFlight);
+        int next = 0;
+        while (next < stripes.size() || !pending.isEmpty()) {
+            while (next < stripes.size() && pending.size() < inFlight) {
+                Stripe stripe = stripes.get(next++);
+                pending.add(pool.submit(() -> stripe.encode(blocks, width, length, palette)));
+            }
+            data.write(await(pending.poll()));
+        }
+    }
+
+    private static void await(List<Future<?>> futures) throws IOException {
+        for (Future<?> future : futures) {
+            await(future);
+        }
+    }
+
+    private static <T> T await(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while writing block data");
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to encode block data", e.getCause());
+        }
+    }
+
+    /**
+     * A range of layers of a clipboard, encoded on its own.
+     */
+    private static final class Stripe {
+
+        private final int minY;
+        private final int maxY;
+        // states in the order they first appear, and how often each of them does
+        private final IntArrayList ordinals = new IntArrayList();
+        private long[] counts = new long[16];
+        private final List<CompoundTag> tiles = new ArrayList<>();
+        private long dataLength;
+
+        private Stripe(int minY, int maxY) {
+            this.minY = minY;
+            this.maxY = maxY;
+        }
+
+        private void scan(BlockSource blocks, int width, int length, int states) {
+            // small next to the blocks of a stripe, and not tied to the worker threads like the cached arrays
+            int[] local = new int[states];
+            Arrays.fill(local, Integer.MAX_VALUE);
+            for (int y = minY; y < maxY; y++) {
+                for (int z = 0; z < length; z++) {
+                    for (int x = 0; x < width; x++) {
+                        int ordinal = blocks.getOrdinal(x, y, z);
+                        CompoundTag tile = blocks.getTile(ordinal, x, y, z);
+                        if (tile != null) {
+                            tiles.add(tile);
+                        }
+                        if (ordinal == 0) {
+                            ordinal = 1;
+                        }
+                        int index = local[ordinal];
+                        if (index == Integer.MAX_VALUE) {
+                            local[ordinal] = index = ordinals.size();
+                            ordinals.add(ordinal);
+                            if (index == counts.length) {
+                                counts = Arrays.copyOf(counts, index << 1);
+                            }
+                        }
+                        counts[index]++;
+                    }
+                }
+            }
+        }
+
+        private byte[] encode(BlockSource blocks, int width, int length, char[] palette) {
+            byte[] data = new byte[(int) dataLength];
+            int i = 0;
+            for (int y = minY; y < maxY; y++) {
+                for (int z = 0; z < length; z++) {
+                    for (int x = 0; x < width; x++) {
+                        int ordinal = blocks.getOrdinal(x, y, z);
+                        int value = palette[ordinal == 0 ? 1 : ordinal];
+                        while ((value & -128) != 0) {
+                            data[i++] = (byte) (value & 127 | 128);
+                            value >>>= 7;
+                        }
+                        data[i++] = (byte) value;
+                    }
+                }
+            }
+            return data;
+        }
+
+    }
+
     private void writeBiomes(Clipboard clipboard, NBTOutputStream out) throws IOException {
         ByteArrayOutputStream biomesCompressed = new ByteArrayOutputStream();
         DataOutputStream biomesOut = new DataOutputStream(new LZ4BlockOutputStream(biomesCompressed));
@@ -0,0 +1,452 @@
+package com.fastasyncworldedit.core.extent.clipboard.io;
+
+import com.fastasyncworldedit.core.FaweCache;
+import com.fastasyncworldedit.core.internal.io.FastByteArrayOutputStream;
+import com.fastasyncworldedit.core.internal.io.FastByteArraysInputStream;
+import com.fastasyncworldedit.core.internal.io.FaweInputStream;
+import com.fastasyncworldedit.core.internal.io.FaweOutputStream;
+import com.sk89q.jnbt.CompoundTag;
+import com.sk89q.worldedit.math.BlockVector3;
+import com.sk89q.worldedit.world.block.BlockTypes;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import net.jpountz.lz4.LZ4BlockInputStream;
+import net.jpountz.lz4.LZ4BlockOutputStream;
+
+import javax.annotation.Nullable;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * The layout of FAWE's tiled schematic format, shared by {@link TiledSchematicReader} and {@link TiledSchematicWriter}.
+ * Blocks are stored in independently compressed 16x16x16 tiles, so part of a schematic can be read without
+ * decompressing the rest, tiles can be decoded in parallel, and tiles can be appended to an existing file.
+ * <p>
+ * A file consists of:
+ * - a header: {@link #MAGIC}, the format version and the position and length of the footer, or zeros if the file was
+ * written as a stream
+ * - the tiles, each LZ4 compressed with a local palette, its blocks in y, z, x order, its biomes per 4x4x4 cell and
+ * its tile entities
+ * - a footer: the data version, bounds, origin, tile grid, block and biome palettes, the index of all tiles and the
+ * entities
+ * - the position of the footer, as the last 8 bytes, used if the header doesn't have it
+ * <p>
+ * An append writes the new tiles after the footer, then a new footer, and only then points the header at the new
+ * footer, so the file keeps its previous content until the append is complete. Tiles and footers replaced by an append
+ * stay in the file, but are no longer referenced by the index.
+ */
+public class TiledSchematic {
+
+    public static final byte[] MAGIC = "FAWETILE".getBytes(StandardCharsets.US_ASCII);
+    /**
+     * Version 1 stored the biomes of the bottom layer of each tile only, version 2 had no footer position in the
+     * header. Both can be read but not appended to.
+     */
+    public static final int VERSION = 3;
+    /**
+     * The position of the footer position in the header.
+     */
+    public static final int FOOTER_POINTER = MAGIC.length + 4;
+    public static final int HEADER_SIZE = FOOTER_POINTER + 12;
+    public static final int LEGACY_HEADER_SIZE = MAGIC.length + 4;
+    public static final int TRAILER_SIZE = 8;
+
+    public static final int TILE_BITS = 4;
+    public static final int TILE_SIZE = 1 << TILE_BITS;
+    public static final int TILE_AREA = TILE_SIZE * TILE_SIZE;
+    public static final int TILE_VOLUME = TILE_AREA * TILE_SIZE;
+    public static final int BIOME_CELLS = TILE_VOLUME >> 6;
+
+    public int version = VERSION;
+    public int dataVersion = -1;
+    public BlockVector3 min;
+    public BlockVector3 max;
+    public BlockVector3 origin;
+    /**
+     * The position of the minimum corner of tile 0, 0, 0.
+     */
+    public BlockVector3 grid;
+    /**
+     * Block states by their id in the file. Id 0 is always air.
+     */
+    public final List<String> palette = new ArrayList<>();
+    /**
+     * Biomes by their id in the file.
+     */
+    public final List<String> biomePalette = new ArrayList<>();
+    public final Map<BlockVector3, Tile> tiles = new LinkedHashMap<>();
+    /**
+     * Entities with their position in the world, as written by {@link FastSchematicWriter}.
+     */
+    public final List<CompoundTag> entities = new ArrayList<>();
+    /**
+     * Where the tiles end and the footer starts.
+     */
+    public long footerOffset = HEADER_SIZE;
+    public int footerLength;
+    /**
+     * Where the data in use ends, anything after it is left over from an append that did not complete.
+     */
+    public long dataEnd = HEADER_SIZE;
+
+    /**
+     * The position and length of a compressed tile.
+     */
+    public static final class Tile {
+
+        public final long offset;
+        public final int length;
+
+        public Tile(long offset, int length) {
+            this.offset = offset;
+            this.length = length;
+        }
+
+    }
+
+    /**
+     * The decoded content of a tile.
+     */
+    public static final class TileData {
+
+        /**
+         * Block state ordinals in y, z, x order.
+         */
+        public final char[] blocks = new char[TILE_VOLUME];
+        /**
+         * Biome ids of the 4x4x4 cells in y, z, x order, see {@link #biomeIndex(int, int, int)}, or null if the
+         * schematic has no biomes.
+         */
+        @Nullable
+        public int[] biomes;
+        /**
+         * Tile entities by their index in the tile, without position tags.
+         */
+        public final Int2ObjectMap<CompoundTag> nbt = new Int2ObjectOpenHashMap<>();
+
+    }
+
+    /**
+     * Get the number of bytes taken up by the tiles in the index.
+     */
+    public long getUsedBytes() {
+        long used = 0;
+        for (Tile tile : tiles.values()) {
+            used += tile.length;
+        }
+        return used;
+    }
+
+    /**
+     * Get the number of bytes taken up by tiles that were replaced by an append.
+     */
+    public long getUnusedBytes() {
+        return footerOffset - getHeaderSize() - getUsedBytes();
+    }
+
+    public int getHeaderSize() {
+        return version >= 3 ? HEADER_SIZE : LEGACY_HEADER_SIZE;
+    }
+
+    public static int index(int x, int y, int z) {
+        return ((y & (TILE_SIZE - 1)) << (TILE_BITS << 1)) | ((z & (TILE_SIZE - 1)) << TILE_BITS) | (x & (TILE_SIZE - 1));
+    }
+
+    /**
+     * Get the index of the biome cell of a position within its tile.
+     */
+    public static int biomeIndex(int x, int y, int z) {
+        return ((y & (TILE_SIZE - 1)) >> 2 << 4) | ((z & (TILE_SIZE - 1)) >> 2 << 2) | ((x & (TILE_SIZE - 1)) >> 2);
+    }
+
+    /**
+     * Get the tile a position is in.
+     */
+    public BlockVector3 getTile(int x, int y, int z) {
+        return BlockVector3.at(
+                (x - grid.getBlockX()) >> TILE_BITS,
+                (y - grid.getBlockY()) >> TILE_BITS,
+                (z - grid.getBlockZ()) >> TILE_BITS
+        );
+    }
+
+    /**
+     * Get whether a region between two corners, in world coordinates, intersects the schematic.
+     */
+    public boolean intersects(BlockVector3 from, BlockVector3 to) {
+        BlockVector3 regionMin = from.getMinimum(to).getMaximum(min);
+        BlockVector3 regionMax = from.getMaximum(to).getMinimum(max);
+        return regionMin.getX() <= regionMax.getX() && regionMin.getY() <= regionMax.getY()
+                && regionMin.getZ() <= regionMax.getZ();
+    }
+
+    /**
+     * Get the minimum corner of a tile.
+     */
+    public BlockVector3 getTileMin(BlockVector3 tile) {
+        return grid.add(tile.getBlockX() << TILE_BITS, tile.getBlockY() << TILE_BITS, tile.getBlockZ() << TILE_BITS);
+    }
+
+    /**
+     * Write the header of a file written as a stream, which doesn't know the position of its footer yet.
+     */
+    public static void writeHeader(DataOutput out) throws IOException {
+        out.write(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(0);
+        out.writeInt(0);
+    }
+
+    /**
+     * Write a compressed tile into a file and add it to the index.
+     *
+     * @return the position after the tile
+     */
+    public long writeTile(FileChannel channel, BlockVector3 tile, byte[] data, long position) throws IOException {
+        write(channel, ByteBuffer.wrap(data), position);
+        tiles.put(tile, new Tile(position, data.length));
+        return position + data.length;
+    }
+
+    /**
+     * Get the position to append tiles to a file at. A file written as a stream has the position of its footer at its
+     * end, where the tiles would be written, so its header is pointed at the footer first.
+     */
+    public long startAppend(FileChannel channel) throws IOException {
+        if (dataEnd != footerOffset + footerLength) {
+            writeFooterPointer(channel);
+        }
+        return dataEnd;
+    }
+
+    /**
+     * Write the footer into a file and point the header at it. The footer is forced to disk before the header is
+     * changed, so an interrupted write leaves the previous footer in use.
+     *
+     * @param position where the footer is written, after the last tile
+     */
+    public void writeFooter(FileChannel channel, long position) throws IOException {
+        FastByteArrayOutputStream footer = new FastByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(footer)) {
+            writeFooter(out);
+        }
+        write(channel, ByteBuffer.wrap(footer.toByteArray()), position);
+        channel.truncate(position + footer.getSize());
+        channel.force(true);
+        footerOffset = position;
+        footerLength = footer.getSize();
+        dataEnd = position + footerLength;
+        writeFooterPointer(channel);
+    }
+
+    /**
+     * Point the header at the footer, with a single small write that is forced to disk.
+     */
+    private void writeFooterPointer(FileChannel channel) throws IOException {
+        ByteBuffer pointer = ByteBuffer.allocate(HEADER_SIZE - FOOTER_POINTER);
+        pointer.putLong(footerOffset).putInt(footerLength).flip();
+        write(channel, pointer, FOOTER_POINTER);
+        channel.force(false);
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+
+    public void writeFooter(DataOutput out) throws IOException {
+        out.writeInt(dataVersion);
+        writeVector(out, min);
+        writeVector(out, max);
+        writeVector(out, origin);
+        writeVector(out, grid);
+        out.writeInt(palette.size());
+        for (String state : palette) {
+            out.writeUTF(state);
+        }
+        out.writeInt(biomePalette.size());
+        for (String biome : biomePalette) {
+            out.writeUTF(biome);
+        }
+        out.writeInt(tiles.size());
+        for (Map.Entry<BlockVector3, Tile> entry : tiles.entrySet()) {
+            writeVector(out, entry.getKey());
+            out.writeLong(entry.getValue().offset);
+            out.writeInt(entry.getValue().length);
+        }
+        FastByteArrayOutputStream entitiesOut = new FastByteArrayOutputStream();
+        try (FaweOutputStream nbtOut = new FaweOutputStream(entitiesOut)) {
+            for (CompoundTag entity : entities) {
+                nbtOut.writeNBT("", entity);
+            }
+        }
+        out.writeInt(entities.size());
+        out.writeInt(entitiesOut.getSize());
+        out.write(entitiesOut.toByteArray());
+    }
+
+    public void readFooter(DataInput in) throws IOException {
+        dataVersion = in.readInt();
+        min = readVector(in);
+        max = readVector(in);
+        origin = readVector(in);
+        grid = readVector(in);
+        palette.clear();
+        for (int i = in.readInt(); i > 0; i--) {
+            palette.add(in.readUTF());
+        }
+        biomePalette.clear();
+        for (int i = in.readInt(); i > 0; i--) {
+            biomePalette.add(in.readUTF());
+        }
+        tiles.clear();
+        for (int i = in.readInt(); i > 0; i--) {
+            BlockVector3 tile = readVector(in);
+            tiles.put(tile, new Tile(in.readLong(), in.readInt()));
+        }
+        entities.clear();
+        int numEntities = in.readInt();
+        byte[] entitiesData = new byte[in.readInt()];
+        in.readFully(entitiesData);
+        try (FaweInputStream nbtIn = new FaweInputStream(new FastByteArraysInputStream(new byte[][]{entitiesData}))) {
+            for (int i = 0; i < numEntities; i++) {
+                entities.add((CompoundTag) nbtIn.readNBT().getTag());
+            }
+        }
+    }
+
+    private static void writeVector(DataOutput out, BlockVector3 vector) throws IOException {
+        out.writeInt(vector.getBlockX());
+        out.writeInt(vector.getBlockY());
+        out.writeInt(vector.getBlockZ());
+    }
+
+    private static BlockVector3 readVector(DataInput in) throws IOException {
+        return BlockVector3.at(in.readInt(), in.readInt(), in.readInt());
+    }
+
+    /**
+     * Compress a tile.
+     *
+     * @param tile     the tile
+     * @param blockIds maps block state ordinals to their id in the file
+     * @param biomeIds maps biome ids to their id in the file
+     */
+    public static byte[] encodeTile(TileData tile, IntUnaryOperator blockIds, IntUnaryOperator biomeIds) throws
+            IOException {
+        FastByteArrayOutputStream bytes = new FastByteArrayOutputStream();
+        int[] local = FaweCache.IMP.BLOCK_TO_PALETTE.get();
+        char[] ordinals = new char[TILE_VOLUME];
+        int size = 0;
+        try (FaweOutputStream out = new FaweOutputStream(new LZ4BlockOutputStream(bytes))) {
+            char[] blocks = tile.blocks;
+            try {
+                for (char ordinal : blocks) {
+                    if (local[ordinal] == Integer.MAX_VALUE) {
+                        local[ordinal] = size;
+                        ordinals[size++] = ordinal;
+                    }
+                }
+                out.writeVarInt(size);
+                for (int i = 0; i < size; i++) {
+                    out.writeVarInt(blockIds.applyAsInt(ordinals[i]));
+                }
+                if (size > 256) {
+                    for (char ordinal : blocks) {
+                        out.writeChar(local[ordinal]);
+                    }
+                } else if (size > 1) {
+                    for (char ordinal : blocks) {
+                        out.write(local[ordinal]);
+                    }
+                }
+            } finally {
+                for (int i = 0; i < size; i++) {
+                    local[ordinals[i]] = Integer.MAX_VALUE;
+                }
+            }
+            int[] biomes = tile.biomes;
+            out.writeBoolean(biomes != null);
+            if (biomes != null) {
+                for (int biome : biomes) {
+                    out.writeVarInt(biomeIds.applyAsInt(biome));
+                }
+            }
+            out.writeVarInt(tile.nbt.size());
+            for (Int2ObjectMap.Entry<CompoundTag> entry : tile.nbt.int2ObjectEntrySet()) {
+                out.writeShort(entry.getIntKey());
+                out.writeNBT("", entry.getValue());
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decompress a tile.
+     *
+     * @param data    the compressed tile
+     * @param blocks  maps ids in the file to block state ordinals
+     * @param biomes  maps ids in the file to biome ids
+     * @param version the version of the file
+     */
+    public static TileData decodeTile(byte[] data, char[] blocks, int[] biomes, int version) throws IOException {
+        TileData tile = new TileData();
+        try (FaweInputStream in = new FaweInputStream(new LZ4BlockInputStream(new FastByteArraysInputStream(new byte[][]{data})))) {
+            int size = in.readVarInt();
+            char[] local = new char[size];
+            for (int i = 0; i < size; i++) {
+                int id = in.readVarInt();
+                local[i] = id < blocks.length ? blocks[id] : BlockTypes.AIR.getDefaultState().getOrdinalChar();
+            }
+            char[] tileBlocks = tile.blocks;
+            if (size > 256) {
+                for (int i = 0; i < TILE_VOLUME; i++) {
+                    tileBlocks[i] = local[in.readChar()];
+                }
+            } else if (size > 1) {
+                for (int i = 0; i < TILE_VOLUME; i++) {
+                    tileBlocks[i] = local[in.readUnsignedByte()];
+                }
+            } else if (size == 1) {
+                Arrays.fill(tileBlocks, local[0]);
+            }
+            if (in.readBoolean()) {
+                int[] tileBiomes = tile.biomes = new int[BIOME_CELLS];
+                if (version == 1) {
+                    // the bottom layer in z, x order, used for the whole column
+                    int[] layer = new int[TILE_AREA];
+                    for (int i = 0; i < TILE_AREA; i++) {
+                        int id = in.readVarInt();
+                        layer[i] = id < biomes.length ? biomes[id] : 0;
+                    }
+                    for (int i = 0; i < BIOME_CELLS; i++) {
+                        tileBiomes[i] = layer[index((i & 3) << 2, 0, ((i >> 2) & 3) << 2)];
+                    }
+                } else {
+                    for (int i = 0; i < BIOME_CELLS; i++) {
+                        int id = in.readVarInt();
+                        tileBiomes[i] = id < biomes.length ? biomes[id] : 0;
+                    }
+                }
+            }
+            for (int i = in.readVarInt(); i > 0; i--) {
+                int index = in.readUnsignedShort();
+                tile.nbt.put(index, (CompoundTag) in.readNBT().getTag());
+            }
+        }
+        return tile;
+    }
+
+}
@@ -0,0 +1,491 @@
+package com.fastasyncworldedit.core.extent.clipboard.io;
+
+import com.fastasyncworldedit.core.configuration.Settings;
+import com.fastasyncworldedit.core.extent.clipboard.LinearClipboard;
+import com.fastasyncworldedit.core.internal.io.FastByteArrayOutputStream;
+import com.fastasyncworldedit.core.internal.io.FastByteArraysInputStream;
+import com.fastasyncworldedit.core.util.IOUtil;
+import com.fastasyncworldedit.core.util.TaskManager;
+import com.sk89q.jnbt.AdventureNBTConverter;
+import com.sk89q.jnbt.CompoundTag;
+import com.sk89q.jnbt.IntTag;
+import com.sk89q.jnbt.StringTag;
+import com.sk89q.jnbt.Tag;
+import com.sk89q.worldedit.WorldEdit;
+import com.sk89q.worldedit.entity.BaseEntity;
+import com.sk89q.worldedit.extension.input.InputParseException;
+import com.sk89q.worldedit.extension.platform.Capability;
+import com.sk89q.worldedit.extent.clipboard.BlockArrayClipboard;
+import com.sk89q.worldedit.extent.clipboard.Clipboard;
+import com.sk89q.worldedit.extent.clipboard.io.ClipboardReader;
+import com.sk89q.worldedit.internal.util.LogManagerCompat;
+import com.sk89q.worldedit.math.BlockVector3;
+import com.sk89q.worldedit.util.Location;
+import com.sk89q.worldedit.world.DataFixer;
+import com.sk89q.worldedit.world.biome.BiomeType;
+import com.sk89q.worldedit.world.biome.BiomeTypes;
+import com.sk89q.worldedit.world.block.BlockState;
+import com.sk89q.worldedit.world.block.BlockTypes;
+import com.sk89q.worldedit.world.block.BlockTypesCache;
+import com.sk89q.worldedit.world.entity.EntityType;
+import com.sk89q.worldedit.world.entity.EntityTypes;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import org.apache.logging.log4j.Logger;
+
+import javax.annotation.Nullable;
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads schematics in the {@link TiledSchematic tiled schematic format}, either completely or only the tiles
+ * intersecting a region. Tiles are read with positional reads when the reader is given a file, so only the footer and
+ * the requested tiles are read from disk, and are decoded in parallel.
+ */
+public class TiledSchematicReader implements ClipboardReader {
+
+    private static final Logger LOGGER = LogManagerCompat.getLogger();
+
+    @Nullable
+    private final FileChannel channel;
+    @Nullable
+    private final byte[] data;
+    private final long size;
+    private final TiledSchematic schematic = new TiledSchematic();
+    private char[] blocks;
+    private int[] biomes;
+
+    /**
+     * Create a reader for a file, reading tiles only when they are needed.
+     *
+     * @param channel a channel of the file, closed with the reader
+     */
+    public TiledSchematicReader(FileChannel channel) throws IOException {
+        this.channel = channel;
+        this.data = null;
+        this.size = channel.size();
+        readFooter();
+    }
+
+    /**
+     * Create a reader for a stream. If the stream is not a file, it is read into memory completely, and may be
+     * gzipped (e.g. when uploaded).
+     */
+    public TiledSchematicReader(InputStream inputStream) throws IOException {
+        if (inputStream instanceof FileInputStream) {
+            this.channel = ((FileInputStream) inputStream).getChannel();
+            this.data = null;
+            this.size = channel.size();
+        } else {
+            FastByteArrayOutputStream out = new FastByteArrayOutputStream();
+            IOUtil.copy(inputStream, out);
+            byte[] bytes = out.toByteArray();
+            if (bytes.length > 1 && (bytes[0] & 0xFF) == 0x1F && (bytes[1] & 0xFF) == 0x8B) {
+                out = new FastByteArrayOutputStream();
+                try (InputStream gzip = new GZIPInputStream(new FastByteArraysInputStream(new byte[][]{bytes}))) {
+                    IOUtil.copy(gzip, out);
+                }
+                bytes = out.toByteArray();
+            }
+            this.channel = null;
+            this.data = bytes;
+            this.size = bytes.length;
+        }
+        readFooter();
+    }
+
+    private void read(long position, byte[] buffer) throws IOException {
+        if (position < 0 || position + buffer.length > size) {
+            throw new IOException("Position out of bounds: " + position + " + " + buffer.length + " > " + size);
+        }
+        if (data != null) {
+            System.arraycopy(data, (int) position, buffer, 0, buffer.length);
+            return;
+        }
+        ByteBuffer wrapped = ByteBuffer.wrap(buffer);
+        while (wrapped.hasRemaining()) {
+            // positional reads don't change the channel position, so tiles can be read from several threads at once
+            if (channel.read(wrapped, position + wrapped.position()) < 0) {
+                throw new IOException("Unexpected end of file");
+            }
+        }
+    }
+
+    private void readFooter() throws IOException {
+        if (size < TiledSchematic.LEGACY_HEADER_SIZE + TiledSchematic.TRAILER_SIZE) {
+            throw new IOException("Not a tiled schematic");
+        }
+        byte[] header = new byte[TiledSchematic.LEGACY_HEADER_SIZE];
+        read(0, header);
+        if (!Arrays.equals(Arrays.copyOf(header, TiledSchematic.MAGIC.length), TiledSchematic.MAGIC)) {
+            throw new IOException("Not a tiled schematic");
+        }
+        int version = ByteBuffer.wrap(header).getInt(TiledSchematic.MAGIC.length);
+        if (version < 1 || version > TiledSchematic.VERSION) {
+            throw new IOException("This tiled schematic version is not supported; Version: " + version);
+        }
+        schematic.version = version;
+        long footerOffset = 0;
+        long footerLength = 0;
+        if (version >= 3) {
+            byte[] pointer = new byte[TiledSchematic.HEADER_SIZE - TiledSchematic.FOOTER_POINTER];
+            read(TiledSchematic.FOOTER_POINTER, pointer);
+            ByteBuffer buffer = ByteBuffer.wrap(pointer);
+            footerOffset = buffer.getLong();
+            footerLength = buffer.getInt();
+        }
+        long dataEnd = footerOffset + footerLength;
+        if (footerOffset == 0) {
+            // written as a stream, the footer is followed by its position
+            byte[] trailer = new byte[TiledSchematic.TRAILER_SIZE];
+            read(size - TiledSchematic.TRAILER_SIZE, trailer);
+            footerOffset = ByteBuffer.wrap(trailer).getLong();
+            footerLength = size - TiledSchematic.TRAILER_SIZE - footerOffset;
+            dataEnd = size;
+        }
+        if (footerOffset < schematic.getHeaderSize() || footerLength < 0 || footerLength > Integer.MAX_VALUE
+                || dataEnd > size) {
+            throw new IOException("Invalid footer position: " + footerOffset);
+        }
+        byte[] footer = new byte[(int) footerLength];
+        read(footerOffset, footer);
+        try (DataInputStream in = new DataInputStream(new FastByteArraysInputStream(new byte[][]{footer}))) {
+            schematic.readFooter(in);
+        }
+        schematic.footerOffset = footerOffset;
+        schematic.footerLength = (int) footerLength;
+        schematic.dataEnd = dataEnd;
+    }
+
+    private char[] createBlockPalette() {
+        DataFixer fixer = getFixer();
+        char[] result = new char[schematic.palette.size()];
+        for (int i = 0; i < result.length; i++) {
+            String palettePart = schematic.palette.get(i);
+            if (fixer != null) {
+                palettePart = fixer.fixUp(DataFixer.FixTypes.BLOCK_STATE, palettePart, schematic.dataVersion);
+            }
+            BlockState state;
+            try {
+                state = BlockState.get(palettePart);
+            } catch (InputParseException ignored) {
+                LOGGER.warn("Invalid BlockState in palette: " + palettePart + ". Block will be replaced with air.");
+                state = BlockTypes.AIR.getDefaultState();
+            }
+            result[i] = state.getOrdinalChar();
+        }
+        return result;
+    }
+
+    private int[] createBiomePalette() {
+        DataFixer fixer = getFixer();
+        int[] result = new int[schematic.biomePalette.size()];
+        for (int i = 0; i < result.length; i++) {
+            String biomePalettePart = schematic.biomePalette.get(i);
+            if (fixer != null) {
+                biomePalettePart = fixer.fixUp(DataFixer.FixTypes.BIOME, biomePalettePart, schematic.dataVersion);
+            }
+            BiomeType biome = BiomeTypes.get(biomePalettePart);
+            result[i] = biome != null ? biome.getInternalId() : BiomeTypes.PLAINS.getInternalId();
+        }
+        return result;
+    }
+
+    @Nullable
+    private DataFixer getFixer() {
+        int dataVersion = WorldEdit.getInstance().getPlatformManager().queryCapability(Capability.WORLD_EDITING)
+                .getDataVersion();
+        if (schematic.dataVersion == -1 || schematic.dataVersion == dataVersion) {
+            return null;
+        }
+        return WorldEdit.getInstance().getPlatformManager().queryCapability(Capability.WORLD_EDITING).getDataFixer();
+    }
+
+    /**
+     * Get the footer of the schematic, with the bounds, palettes and the index of all tiles.
+     */
+    public TiledSchematic getSchematic() {
+        return schematic;
+    }
+
+    /**
+     * Block state ordinals by their id in the file.
+     */
+    public synchronized char[] getBlockPalette() {
+        // created when first used, appending and reading the footer don't need the block registry
+        if (blocks == null) {
+            blocks = createBlockPalette();
+        }
+        return blocks;
+    }
+
+    /**
+     * Biome ids by their id in the file.
+     */
+    public synchronized int[] getBiomePalette() {
+        if (biomes == null) {
+            biomes = createBiomePalette();
+        }
+        return biomes;
+    }
+
+    /**
+     * Read and decode a single tile.
+     *
+     * @param tile the tile, see {@link TiledSchematic#getTile(int, int, int)}
+     * @return the tile, or null if the schematic doesn't contain it
+     */
+    @Nullable
+    public TiledSchematic.TileData readTile(BlockVector3 tile) throws IOException {
+        TiledSchematic.Tile entry = schematic.tiles.get(tile);
+        if (entry == null) {
+            return null;
+        }
+        byte[] compressed = new byte[entry.length];
+        read(entry.offset, compressed);
+        return TiledSchematic.decodeTile(compressed, getBlockPalette(), getBiomePalette(), schematic.version);
+    }
+
+    @Override
+    public Clipboard read(UUID uuid, Function<BlockVector3, Clipboard> createOutput) throws IOException {
+        return read(schematic.min, schematic.max, createOutput);
+    }
+
+    /**
+     * Read the part of the schematic within a region. Only the tiles intersecting the region are read.
+     *
+     * @param from         a corner of the region, in world coordinates
+     * @param to           the opposite corner
+     * @param createOutput creates the clipboard to read into from its dimensions
+     * @return the clipboard, with the region of the schematic it was read from
+     * @throws IllegalArgumentException if the region doesn't intersect the schematic
+     */
+    public Clipboard read(BlockVector3 from, BlockVector3 to, Function<BlockVector3, Clipboard> createOutput) throws
+            IOException {
+        if (!schematic.intersects(from, to)) {
+            throw new IllegalArgumentException("Region does not intersect the schematic");
+        }
+        BlockVector3 min = from.getMinimum(to).getMaximum(schematic.min);
+        BlockVector3 max = from.getMaximum(to).getMinimum(schematic.max);
+        BlockVector3 dimensions = max.subtract(min).add(BlockVector3.ONE);
+        Clipboard clipboard = createOutput.apply(dimensions);
+        LinearClipboard linear = clipboard instanceof LinearClipboard ? (LinearClipboard) clipboard : null;
+        boolean parallel = Settings.IMP.QUEUE.PARALLEL_THREADS > 1;
+        // the workers only write blocks themselves if the clipboard allows it, everything else is written here
+        LinearClipboard concurrent = parallel && linear != null && linear.isConcurrentWritable() ? linear : null;
+
+        BlockVector3 minTile = schematic.getTile(min.getX(), min.getY(), min.getZ());
+        BlockVector3 maxTile = schematic.getTile(max.getX(), max.getY(), max.getZ());
+        List<BlockVector3> tiles = new ArrayList<>();
+        for (int ty = minTile.getY(); ty <= maxTile.getY(); ty++) {
+            for (int tz = minTile.getZ(); tz <= maxTile.getZ(); tz++) {
+                for (int tx = minTile.getX(); tx <= maxTile.getX(); tx++) {
+                    BlockVector3 tile = BlockVector3.at(tx, ty, tz);
+                    if (schematic.tiles.containsKey(tile)) {
+                        tiles.add(tile);
+                    }
+                }
+            }
+        }
+
+        ForkJoinPool pool = TaskManager.IMP.getPublicForkJoinPool();
+        int inFlight = parallel ? Settings.IMP.QUEUE.PARALLEL_THREADS * 2 : 1;
+        ArrayDeque<Future<TiledSchematic.TileData>> pending = new ArrayDeque<>(inFlight);
+        int next = 0;
+        int done = 0;
+        try {
+            while (done < tiles.size()) {
+                while (parallel && next < tiles.size() && pending.size() < inFlight) {
+                    BlockVector3 tile = tiles.get(next++);
+                    pending.add(pool.submit(() -> {
+                        TiledSchematic.TileData data = readTile(tile);
+                        if (concurrent != null) {
+                            writeBlocks(data, tile, min, max, concurrent);
+                        }
+                        return data;
+                    }));
+                }
+                BlockVector3 tile = tiles.get(done++);
+                TiledSchematic.TileData data = parallel ? await(pending.poll()) : readTile(tile);
+                if (concurrent == null) {
+                    writeBlocks(data, tile, min, max, clipboard);
+                }
+                writeExtra(data, tile, min, max, clipboard);
+            }
+        } catch (IOException | RuntimeException e) {
+            cancel(pending);
+            throw e;
+        }
+
+        for (CompoundTag entity : schematic.entities) {
+            readEntity(entity, min, max, clipboard);
+        }
+
+        clipboard.setOrigin(schematic.origin.subtract(min));
+        if (!min.equals(BlockVector3.ZERO)) {
+            clipboard = new BlockArrayClipboard(clipboard, min);
+        }
+        return clipboard;
+    }
+
+    /**
+     * Cancel the tiles not read yet, and wait for those already being read, so no worker writes to the clipboard once
+     * reading failed.
+     */
+    private static void cancel(Collection<? extends Future<?>> pending) {
+        for (Future<?> future : pending) {
+            future.cancel(false);
+        }
+        for (Future<?> future : pending) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (CancellationException | ExecutionException ignored) {
+            }
+        }
+    }
+
+    private static <T> T await(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading tiles");
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to read tile", e.getCause());
+        }
+    }
+
+    private void writeBlocks(TiledSchematic.TileData data, BlockVector3 tile, BlockVector3 min, BlockVector3 max,
+                             Clipboard clipboard) {
+        BlockVector3 tileMin = schematic.getTileMin(tile);
+        int minX = Math.max(min.getX(), tileMin.getX());
+        int minY = Math.max(min.getY(), tileMin.getY());
+        int minZ = Math.max(min.getZ(), tileMin.getZ());
+        int maxX = Math.min(max.getX(), tileMin.getX() + TiledSchematic.TILE_SIZE - 1);
+        int maxY = Math.min(max.getY(), tileMin.getY() + TiledSchematic.TILE_SIZE - 1);
+        int maxZ = Math.min(max.getZ(), tileMin.getZ() + TiledSchematic.TILE_SIZE - 1);
+        LinearClipboard linear = clipboard instanceof LinearClipboard ? (LinearClipboard) clipboard : null;
+        for (int y = minY; y <= maxY; y++) {
+            for (int z = minZ; z <= maxZ; z++) {
+                for (int x = minX; x <= maxX; x++) {
+                    char ordinal = data.blocks[TiledSchematic.index(x - tileMin.getX(), y - tileMin.getY(), z - tileMin.getZ())];
+                    BlockState state = BlockTypesCache.states[ordinal];
+                    int lx = x - min.getX();
+                    int ly = y - min.getY();
+                    int lz = z - min.getZ();
+                    if (linear != null) {
+                        linear.setBlock(lx + ly * linear.getArea() + lz * linear.getWidth(), state);
+                    } else {
+                        clipboard.setBlock(lx, ly, lz, state);
+                    }
+                }
+            }
+        }
+    }
+
+    private void writeExtra(TiledSchematic.TileData data, BlockVector3 tile, BlockVector3 min, BlockVector3 max,
+                            Clipboard clipboard) {
+        BlockVector3 tileMin = schematic.getTileMin(tile);
+        int minX = Math.max(min.getX(), tileMin.getX());
+        int minY = Math.max(min.getY(), tileMin.getY());
+        int minZ = Math.max(min.getZ(), tileMin.getZ());
+        int maxX = Math.min(max.getX(), tileMin.getX() + TiledSchematic.TILE_SIZE - 1);
+        int maxY = Math.min(max.getY(), tileMin.getY() + TiledSchematic.TILE_SIZE - 1);
+        int maxZ = Math.min(max.getZ(), tileMin.getZ() + TiledSchematic.TILE_SIZE - 1);
+        if (data.biomes != null) {
+            for (int y = minY; y <= maxY; y++) {
+                for (int z = minZ; z <= maxZ; z++) {
+                    for (int x = minX; x <= maxX; x++) {
+                        BiomeType biome = BiomeTypes.get(data.biomes[TiledSchematic.biomeIndex(
+                                x - tileMin.getX(), y - tileMin.getY(), z - tileMin.getZ())]);
+                        clipboard.setBiome(x - min.getX(), y - min.getY(), z - min.getZ(), biome);
+                    }
+                }
+            }
+        }
+        for (Int2ObjectMap.Entry<CompoundTag> entry : data.nbt.int2ObjectEntrySet()) {
+            int index = entry.getIntKey();
+            int x = tileMin.getX() + (index & 15);
+            int y = tileMin.getY() + (index >> 8);
+            int z = tileMin.getZ() + ((index >> 4) & 15);
+            if (x < minX || x > maxX || y < minY || y > maxY || z < minZ || z > maxZ) {
+                continue;
+            }
+            int lx = x - min.getX();
+            int ly = y - min.getY();
+            int lz = z - min.getZ();
+            Map<String, Tag> values = new HashMap<>(entry.getValue().getValue());
+            values.put("x", new IntTag(lx));
+            values.put("y", new IntTag(ly));
+            values.put("z", new IntTag(lz));
+            CompoundTag tag = new CompoundTag(values);
+            DataFixer fixer = getFixer();
+            if (fixer != null) {
+                tag = (CompoundTag) AdventureNBTConverter.fromAdventure(fixer.fixUp(
+                        DataFixer.FixTypes.BLOCK_ENTITY,
+                        tag.asBinaryTag(),
+                        schematic.dataVersion
+                ));
+            }
+            clipboard.setTile(lx, ly, lz, tag);
+        }
+    }
+
+    private void readEntity(CompoundTag tag, BlockVector3 min, BlockVector3 max, Clipboard clipboard) {
+        Map<String, Tag> value = new HashMap<>(tag.getValue());
+        StringTag id = (StringTag) value.remove("Id");
+        if (id == null) {
+            return;
+        }
+        value.put("id", id);
+        EntityType type = EntityTypes.parse(id.getValue());
+        if (type == null) {
+            LOGGER.debug("Invalid entity: " + id);
+            return;
+        }
+        CompoundTag ent = new CompoundTag(value);
+        DataFixer fixer = getFixer();
+        if (fixer != null) {
+            ent = (CompoundTag) AdventureNBTConverter.fromAdventure(fixer.fixUp(
+                    DataFixer.FixTypes.ENTITY,
+                    ent.asBinaryTag(),
+                    schematic.dataVersion
+            ));
+        }
+        Location loc = ent.getEntityLocation(clipboard);
+        if (loc.getBlockX() < min.getX() || loc.getBlockY() < min.getY() || loc.getBlockZ() < min.getZ()
+                || loc.getBlockX() > max.getX() || loc.getBlockY() > max.getY() || loc.getBlockZ() > max.getZ()) {
+            return;
+        }
+        clipboard.createEntity(loc.setPosition(loc.subtract(min.toVector3())), new BaseEntity(type, ent));
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+}
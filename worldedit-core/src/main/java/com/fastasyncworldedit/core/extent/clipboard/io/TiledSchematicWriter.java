@@ -0,0 +1,519 @@
+package com.fastasyncworldedit.core.extent.clipboard.io;
+
+import com.fastasyncworldedit.core.configuration.Settings;
+import com.fastasyncworldedit.core.extent.clipboard.DirtyTiles;
+import com.fastasyncworldedit.core.extent.clipboard.LinearClipboard;
+import com.fastasyncworldedit.core.util.TaskManager;
+import com.sk89q.jnbt.CompoundTag;
+import com.sk89q.jnbt.DoubleTag;
+import com.sk89q.jnbt.FloatTag;
+import com.sk89q.jnbt.ListTag;
+import com.sk89q.jnbt.StringTag;
+import com.sk89q.jnbt.Tag;
+import com.sk89q.worldedit.WorldEdit;
+import com.sk89q.worldedit.entity.BaseEntity;
+import com.sk89q.worldedit.entity.Entity;
+import com.sk89q.worldedit.extension.input.InputParseException;
+import com.sk89q.worldedit.extension.platform.Capability;
+import com.sk89q.worldedit.extent.clipboard.BlockArrayClipboard;
+import com.sk89q.worldedit.extent.clipboard.Clipboard;
+import com.sk89q.worldedit.extent.clipboard.io.ClipboardWriter;
+import com.sk89q.worldedit.math.BlockVector3;
+import com.sk89q.worldedit.util.Location;
+import com.sk89q.worldedit.world.biome.BiomeType;
+import com.sk89q.worldedit.world.biome.BiomeTypes;
+import com.sk89q.worldedit.world.block.BaseBlock;
+import com.sk89q.worldedit.world.block.BlockState;
+import com.sk89q.worldedit.world.block.BlockTypes;
+import com.sk89q.worldedit.world.block.BlockTypesCache;
+
+import javax.annotation.Nullable;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Writes clipboards in the {@link TiledSchematic tiled schematic format}, or appends them to an existing file with
+ * {@link #append(File, Clipboard)}. {@link #save(File, Clipboard)} only writes the tiles changed since the last save.
+ */
+public class TiledSchematicWriter implements ClipboardWriter {
+
+    private static final Map<DirtyTiles, SavedState> SAVED = Collections.synchronizedMap(new WeakHashMap<>());
+
+    private final DataOutputStream outputStream;
+
+    /**
+     * Create a new schematic writer.
+     *
+     * @param outputStream the output stream to write to
+     */
+    public TiledSchematicWriter(OutputStream outputStream) {
+        checkNotNull(outputStream);
+        this.outputStream = new DataOutputStream(outputStream);
+    }
+
+    @Override
+    public void write(Clipboard clipboard) throws IOException {
+        TiledSchematic schematic = new TiledSchematic();
+        schematic.dataVersion = getDataVersion();
+        schematic.min = clipboard.getMinimumPoint();
+        schematic.max = clipboard.getMaximumPoint();
+        schematic.origin = clipboard.getOrigin();
+        schematic.grid = schematic.min;
+        Palettes palettes = new Palettes(schematic);
+        Source source = new Source(clipboard);
+
+        TiledSchematic.writeHeader(outputStream);
+        long[] position = {TiledSchematic.HEADER_SIZE};
+        List<BlockVector3> tiles = getTiles(schematic, source.min, source.max, null);
+        writeTiles(schematic, palettes, source, null, tiles, (tile, data) -> {
+            outputStream.write(data);
+            schematic.tiles.put(tile, new TiledSchematic.Tile(position[0], data.length));
+            position[0] += data.length;
+        });
+        source.writeEntities(schematic);
+        schematic.footerOffset = position[0];
+        schematic.writeFooter(outputStream);
+        outputStream.writeLong(schematic.footerOffset);
+        outputStream.flush();
+    }
+
+    /**
+     * Write a clipboard into an existing tiled schematic, at the position of its region. The tiles it intersects are
+     * replaced, merged with their previous content, and the bounds grow to include the clipboard. Only the replaced
+     * tiles and the footer are written, after the previous content of the file, which stays in use until the new
+     * footer is complete.
+     *
+     * @param file      the tiled schematic
+     * @param clipboard the clipboard to write
+     */
+    public static void append(File file, Clipboard clipboard) throws IOException {
+        append(file, clipboard, null);
+    }
+
+    /**
+     * Save a clipboard as a tiled schematic. If the clipboard was saved to the same file before and neither changed
+     * size or position since, only the tiles changed since the last save are written, see
+     * {@link LinearClipboard#trackChanges()}. The file is rewritten completely otherwise, or once more than half of it
+     * is taken up by tiles replaced by earlier saves.
+     *
+     * @param file      the file to save to
+     * @param clipboard the clipboard to save
+     */
+    public static void save(File file, Clipboard clipboard) throws IOException {
+        Clipboard base = clipboard instanceof BlockArrayClipboard ? ((BlockArrayClipboard) clipboard).getParent() : clipboard;
+        if (!(base instanceof LinearClipboard)) {
+            writeFully(file, clipboard);
+            return;
+        }
+        File canonical = file.getCanonicalFile();
+        DirtyTiles changes = ((LinearClipboard) base).trackChanges();
+        SavedState saved = SAVED.remove(changes);
+        if (saved != null && saved.matches(canonical, clipboard)) {
+            DirtyTiles drained = changes.drain();
+            TiledSchematic schematic;
+            try {
+                schematic = append(file, clipboard, drained);
+            } catch (IOException | RuntimeException e) {
+                // the file still has its previous content, the next save writes it completely
+                changes.addAll(drained);
+                throw e;
+            }
+            if (schematic.getUnusedBytes() <= schematic.getUsedBytes()) {
+                SAVED.put(changes, new SavedState(canonical, clipboard));
+                return;
+            }
+        }
+        // anything changed from now on is not part of the full write
+        DirtyTiles drained = changes.drain();
+        try {
+            writeFully(file, clipboard);
+        } catch (IOException | RuntimeException e) {
+            changes.addAll(drained);
+            throw e;
+        }
+        SAVED.put(changes, new SavedState(canonical, clipboard));
+    }
+
+    /**
+     * Write a clipboard to a temporary file next to the target and move it over the target once complete.
+     */
+    private static void writeFully(File file, Clipboard clipboard) throws IOException {
+        File tmp = getTempFile(file);
+        try (TiledSchematicWriter writer = new TiledSchematicWriter(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            writer.write(clipboard);
+        }
+        replace(tmp, file);
+    }
+
+    private static File getTempFile(File file) {
+        return new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".tmp");
+    }
+
+    private static void replace(File tmp, File file) throws IOException {
+        try {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Write the tiles after the data of the file, followed by the new footer.
+     *
+     * @param changes the tiles to write, in the grid of the file, or null to write all tiles intersecting the clipboard
+     * @return the schematic as written
+     */
+    private static TiledSchematic append(File file, Clipboard clipboard, @Nullable DirtyTiles changes) throws
+            IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            TiledSchematicReader reader = new TiledSchematicReader(channel);
+            TiledSchematic schematic = reader.getSchematic();
+            if (schematic.version != TiledSchematic.VERSION) {
+                throw new IOException("Tiled schematics of version " + schematic.version + " can't be appended to, save "
+                        + "the schematic again first");
+            }
+            // the palettes were fixed to the current version when read, store them like that from now on
+            char[] blocks = reader.getBlockPalette();
+            for (int i = 0; i < blocks.length; i++) {
+                schematic.palette.set(i, BlockTypesCache.states[blocks[i]].getAsString());
+            }
+            int[] biomes = reader.getBiomePalette();
+            for (int i = 0; i < biomes.length; i++) {
+                schematic.biomePalette.set(i, BiomeTypes.get(biomes[i]).getId());
+            }
+            schematic.dataVersion = getDataVersion();
+            Palettes palettes = new Palettes(schematic);
+            Source source = new Source(clipboard);
+
+            long[] position = {schematic.startAppend(channel)};
+            List<BlockVector3> tiles = getTiles(schematic, source.min, source.max, changes);
+            writeTiles(schematic, palettes, source, reader, tiles, (tile, data) ->
+                    position[0] = schematic.writeTile(channel, tile, data, position[0]));
+
+            BlockVector3 min = clipboard.getMinimumPoint();
+            BlockVector3 max = clipboard.getMaximumPoint();
+            schematic.entities.removeIf(entity -> {
+                ListTag pos = entity.getListTag("Pos");
+                if (pos.getValue().size() != 3) {
+                    return false;
+                }
+                double x = pos.getDouble(0);
+                double y = pos.getDouble(1);
+                double z = pos.getDouble(2);
+                return x >= min.getX() && y >= min.getY() && z >= min.getZ()
+                        && x < max.getX() + 1 && y < max.getY() + 1 && z < max.getZ() + 1;
+            });
+            source.writeEntities(schematic);
+            schematic.min = schematic.min.getMinimum(min);
+            schematic.max = schematic.max.getMaximum(max);
+            if (changes != null) {
+                // a save of the whole clipboard rather than a part pasted into the file
+                schematic.origin = clipboard.getOrigin();
+            }
+            schematic.writeFooter(channel, position[0]);
+            return schematic;
+        }
+    }
+
+    /**
+     * The file a clipboard was last saved to, to tell whether its tracked changes apply to the file.
+     */
+    private static final class SavedState {
+
+        private final File file;
+        private final long length;
+        private final long lastModified;
+        private final BlockVector3 min;
+        private final BlockVector3 max;
+
+        private SavedState(File file, Clipboard clipboard) {
+            this.file = file;
+            this.length = file.length();
+            this.lastModified = file.lastModified();
+            this.min = clipboard.getMinimumPoint();
+            this.max = clipboard.getMaximumPoint();
+        }
+
+        private boolean matches(File file, Clipboard clipboard) {
+            return this.file.equals(file) && file.length() == length && file.lastModified() == lastModified
+                    && clipboard.getMinimumPoint().equals(min) && clipboard.getMaximumPoint().equals(max);
+        }
+
+    }
+
+    private static int getDataVersion() {
+        return WorldEdit.getInstance().getPlatformManager().queryCapability(Capability.WORLD_EDITING).getDataVersion();
+    }
+
+    @FunctionalInterface
+    private interface TileConsumer {
+
+        void accept(BlockVector3 tile, byte[] data) throws IOException;
+
+    }
+
+    /**
+     * Get the tiles of a schematic intersecting a region.
+     *
+     * @param changes the changed tiles, to only get those, or null to get all
+     */
+    static List<BlockVector3> getTiles(TiledSchematic schematic, BlockVector3 min, BlockVector3 max,
+                                       @Nullable DirtyTiles changes) {
+        BlockVector3 minTile = schematic.getTile(min.getX(), min.getY(), min.getZ());
+        BlockVector3 maxTile = schematic.getTile(max.getX(), max.getY(), max.getZ());
+        List<BlockVector3> tiles = new ArrayList<>();
+        for (int ty = minTile.getY(); ty <= maxTile.getY(); ty++) {
+            for (int tz = minTile.getZ(); tz <= maxTile.getZ(); tz++) {
+                for (int tx = minTile.getX(); tx <= maxTile.getX(); tx++) {
+                    if (changes == null || changes.isDirty(tx, ty, tz)) {
+                        tiles.add(BlockVector3.at(tx, ty, tz));
+                    }
+                }
+            }
+        }
+        return tiles;
+    }
+
+    /**
+     * Encode tiles, in parallel if the clipboard can be read concurrently, and pass them to the consumer in order.
+     *
+     * @param existing the reader to merge existing tiles from, or null
+     */
+    private static void writeTiles(TiledSchematic schematic, Palettes palettes, Source source,
+                                   @Nullable TiledSchematicReader existing, List<BlockVector3> tiles,
+                                   TileConsumer consumer) throws IOException {
+        boolean parallel = Settings.IMP.QUEUE.PARALLEL_THREADS > 1 && tiles.size() > 1 && source.isConcurrentReadable();
+        if (parallel) {
+            source.linear.flush();
+        }
+        ForkJoinPool pool = TaskManager.IMP.getPublicForkJoinPool();
+        int inFlight = parallel ? Settings.IMP.QUEUE.PARALLEL_THREADS * 2 : 1;
+        ArrayDeque<Future<byte[]>> pending = new ArrayDeque<>(inFlight);
+        int next = 0;
+        for (BlockVector3 tile : tiles) {
+            while (parallel && next < tiles.size() && pending.size() < inFlight) {
+                BlockVector3 submitted = tiles.get(next++);
+                pending.add(pool.submit(() -> encodeTile(schematic, palettes, source, existing, submitted)));
+            }
+            byte[] data = parallel ? await(pending.poll()) : encodeTile(schematic, palettes, source, existing, tile);
+            consumer.accept(tile, data);
+        }
+    }
+
+    private static byte[] encodeTile(TiledSchematic schematic, Palettes palettes, Source source,
+                                     @Nullable TiledSchematicReader existing, BlockVector3 tile) throws IOException {
+        TiledSchematic.TileData data = existing != null ? existing.readTile(tile) : null;
+        if (data == null) {
+            data = new TiledSchematic.TileData();
+        }
+        source.read(schematic.getTileMin(tile), data);
+        return TiledSchematic.encodeTile(data, palettes::getBlockId, palettes::getBiomeId);
+    }
+
+    private static <T> T await(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while writing tiles");
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to encode tile", e.getCause());
+        }
+    }
+
+    /**
+     * Assigns ids in the file to block states and biomes, adding them to the palettes of the schematic when first used.
+     */
+    private static final class Palettes {
+
+        private final TiledSchematic schematic;
+        private final int[] blocks = new int[BlockTypesCache.states.length];
+        private final int[] biomes = new int[BiomeTypes.getMaxId() + 1];
+
+        private Palettes(TiledSchematic schematic) {
+            this.schematic = schematic;
+            Arrays.fill(blocks, -1);
+            Arrays.fill(biomes, -1);
+            if (schematic.palette.isEmpty()) {
+                schematic.palette.add(BlockTypes.AIR.getDefaultState().getAsString());
+            }
+            // blocks outside the clipboard, and the reserved ordinal, are air
+            blocks[0] = 0;
+            for (int id = 0; id < schematic.palette.size(); id++) {
+                try {
+                    int ordinal = BlockState.get(schematic.palette.get(id)).getOrdinal();
+                    if (blocks[ordinal] == -1) {
+                        blocks[ordinal] = id;
+                    }
+                } catch (InputParseException ignored) {
+                }
+            }
+            for (int id = 0; id < schematic.biomePalette.size(); id++) {
+                BiomeType biome = BiomeTypes.get(schematic.biomePalette.get(id));
+                if (biome != null && biomes[biome.getInternalId()] == -1) {
+                    biomes[biome.getInternalId()] = id;
+                }
+            }
+        }
+
+        private synchronized int getBlockId(int ordinal) {
+            int id = blocks[ordinal];
+            if (id == -1) {
+                blocks[ordinal] = id = schematic.palette.size();
+                schematic.palette.add(BlockTypesCache.states[ordinal].getAsString());
+            }
+            return id;
+        }
+
+        private synchronized int getBiomeId(int biome) {
+            int id = biomes[biome];
+            if (id == -1) {
+                biomes[biome] = id = schematic.biomePalette.size();
+                schematic.biomePalette.add(BiomeTypes.get(biome).getId());
+            }
+            return id;
+        }
+
+    }
+
+    /**
+     * Reads tiles from a clipboard, through its backing clipboard if it has one.
+     */
+    private static final class Source {
+
+        private final Clipboard clipboard;
+        @Nullable
+        private final LinearClipboard linear;
+        private final BlockVector3 min;
+        private final BlockVector3 max;
+        // added to positions in the world to get positions in the clipboard that is read
+        private final BlockVector3 offset;
+
+        private Source(Clipboard clipboard) {
+            Clipboard base = clipboard instanceof BlockArrayClipboard ? ((BlockArrayClipboard) clipboard).getParent() : clipboard;
+            this.clipboard = base;
+            this.linear = base instanceof LinearClipboard ? (LinearClipboard) base : null;
+            this.min = clipboard.getMinimumPoint();
+            this.max = clipboard.getMaximumPoint();
+            this.offset = base.getMinimumPoint().subtract(min);
+        }
+
+        private boolean isConcurrentReadable() {
+            return linear != null && linear.isConcurrentReadable();
+        }
+
+        /**
+         * Copy the part of the clipboard within a tile into the tile.
+         */
+        private void read(BlockVector3 tileMin, TiledSchematic.TileData data) {
+            int minX = Math.max(min.getX(), tileMin.getX());
+            int minY = Math.max(min.getY(), tileMin.getY());
+            int minZ = Math.max(min.getZ(), tileMin.getZ());
+            int maxX = Math.min(max.getX(), tileMin.getX() + TiledSchematic.TILE_SIZE - 1);
+            int maxY = Math.min(max.getY(), tileMin.getY() + TiledSchematic.TILE_SIZE - 1);
+            int maxZ = Math.min(max.getZ(), tileMin.getZ() + TiledSchematic.TILE_SIZE - 1);
+            boolean biomes = clipboard.hasBiomes();
+            if (biomes && data.biomes == null) {
+                data.biomes = new int[TiledSchematic.BIOME_CELLS];
+            }
+            for (int y = minY; y <= maxY; y++) {
+                int cy = y + offset.getY();
+                for (int z = minZ; z <= maxZ; z++) {
+                    int cz = z + offset.getZ();
+                    for (int x = minX; x <= maxX; x++) {
+                        int cx = x + offset.getX();
+                        int index = TiledSchematic.index(x - tileMin.getX(), y - tileMin.getY(), z - tileMin.getZ());
+                        char ordinal = linear != null ? linear.getOrdinalChar(cx, cy, cz) : clipboard.getBlock(cx, cy, cz)
+                                .getOrdinalChar();
+                        data.blocks[index] = ordinal;
+                        data.nbt.remove(index);
+                        if (BlockTypesCache.states[ordinal].getMaterial().hasContainer()) {
+                            BaseBlock block = clipboard.getFullBlock(cx, cy, cz);
+                            CompoundTag nbt = block.getNbtData();
+                            if (nbt != null) {
+                                // positions are kept in the tile, the id is kept with the tag
+                                Map<String, Tag> values = new HashMap<>(nbt.getValue());
+                                values.remove("x");
+                                values.remove("y");
+                                values.remove("z");
+                                values.put("id", new StringTag(block.getNbtId()));
+                                data.nbt.put(index, new CompoundTag(values));
+                            }
+                        }
+                    }
+                }
+            }
+            if (biomes) {
+                // each cell the clipboard intersects takes the biome of its first position within the clipboard
+                for (int ly = minY - tileMin.getY(); ly <= maxY - tileMin.getY(); ly = (ly | 3) + 1) {
+                    for (int lz = minZ - tileMin.getZ(); lz <= maxZ - tileMin.getZ(); lz = (lz | 3) + 1) {
+                        for (int lx = minX - tileMin.getX(); lx <= maxX - tileMin.getX(); lx = (lx | 3) + 1) {
+                            BiomeType biome = clipboard.getBiomeType(
+                                    tileMin.getX() + lx + offset.getX(),
+                                    tileMin.getY() + ly + offset.getY(),
+                                    tileMin.getZ() + lz + offset.getZ()
+                            );
+                            data.biomes[TiledSchematic.biomeIndex(lx, ly, lz)] = biome.getInternalId();
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * Add the entities of the clipboard to the schematic, with their position in the world.
+         */
+        private void writeEntities(TiledSchematic schematic) {
+            for (Entity entity : clipboard.getEntities()) {
+                BaseEntity state = entity.getState();
+                if (state == null) {
+                    continue;
+                }
+                Map<String, Tag> values = new HashMap<>();
+                CompoundTag rawTag = state.getNbtData();
+                if (rawTag != null) {
+                    values.putAll(rawTag.getValue());
+                }
+                values.remove("id");
+                Location loc = entity.getLocation();
+                loc = loc.setPosition(loc.subtract(offset.toVector3()));
+                values.put("Id", new StringTag(state.getType().getId()));
+                values.put("Pos", new ListTag(DoubleTag.class, Arrays.asList(
+                        new DoubleTag(loc.getX()), new DoubleTag(loc.getY()), new DoubleTag(loc.getZ()))));
+                values.put("Rotation", new ListTag(FloatTag.class, Arrays.asList(
+                        new FloatTag(loc.getYaw()), new FloatTag(loc.getPitch()))));
+                schematic.entities.add(new CompoundTag(values));
+            }
+        }
+
+    }
+
+    @Override
+    public void close() throws IOException {
+        outputStream.close();
+    }
+
+}
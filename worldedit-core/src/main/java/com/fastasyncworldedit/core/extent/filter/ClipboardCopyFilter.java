@@ -0,0 +1,280 @@
+package com.fastasyncworldedit.core.extent.filter;
+
+import com.fastasyncworldedit.core.configuration.Settings;
+import com.fastasyncworldedit.core.extent.clipboard.LinearClipboard;
+import com.fastasyncworldedit.core.extent.filter.block.FilterBlock;
+import com.fastasyncworldedit.core.queue.IChunk;
+import com.sk89q.worldedit.extent.Extent;
+import com.sk89q.worldedit.extent.clipboard.BlockArrayClipboard;
+import com.sk89q.worldedit.extent.clipboard.Clipboard;
+import com.sk89q.worldedit.math.BlockVector3;
+import com.sk89q.worldedit.regions.CuboidRegion;
+import com.sk89q.worldedit.regions.Region;
+import com.sk89q.worldedit.world.biome.BiomeType;
+import com.sk89q.worldedit.world.block.BaseBlock;
+import com.sk89q.worldedit.world.block.BlockState;
+import com.sk89q.worldedit.world.block.BlockTypesCache;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.ints.IntSet;
+
+import javax.annotation.Nullable;
+
+/**
+ * Copies a region of an extent into a clipboard chunk by chunk, the reverse of {@link ClipboardPasteFilter}.
+ * <p>
+ * Use {@link #copy(Extent)}, which applies it to the region. If the source is backed by a parallel queue, each worker
+ * reads the sections of its chunk and writes them straight into the index space of the {@link LinearClipboard},
+ * instead of every block passing through the extent chain on one thread. Workers only write blocks without NBT, which
+ * {@link LinearClipboard#isConcurrentWritable()} allows. Blocks with NBT are collected and written once the workers
+ * are done, as clipboards keep their tiles in maps. Entities are not copied.
+ * <p>
+ * Use {@link #of(Region, BlockVector3, Clipboard, BlockVector3, Region, boolean)} to check if a copy qualifies.
+ */
+public class ClipboardCopyFilter extends ForkedFilter<ClipboardCopyFilter> {
+
+    private final LinearClipboard clipboard;
+    private final Region region;
+    @Nullable
+    private final Region sourceRegion;
+    @Nullable
+    private final Region mask;
+    private final boolean copyBiomes;
+    private final int width;
+    private final int area;
+    // local clipboard position = source position + offset
+    private final int offsetX;
+    private final int offsetY;
+    private final int offsetZ;
+
+    // per fork
+    private int affected;
+    // blocks with NBT by clipboard index, written after the workers are done
+    private final Int2ObjectMap<BaseBlock> tiles = new Int2ObjectOpenHashMap<>();
+    // biome cells written by applyBlock
+    private final IntSet biomeCells = new IntOpenHashSet();
+
+    private ClipboardCopyFilter(
+            LinearClipboard clipboard, Region region, @Nullable Region mask, boolean copyBiomes, BlockVector3 offset
+    ) {
+        super(null);
+        this.clipboard = clipboard;
+        this.region = region;
+        this.sourceRegion = region instanceof CuboidRegion ? null : region;
+        this.mask = mask;
+        this.copyBiomes = copyBiomes;
+        this.width = clipboard.getWidth();
+        this.area = clipboard.getArea();
+        this.offsetX = offset.getX();
+        this.offsetY = offset.getY();
+        this.offsetZ = offset.getZ();
+    }
+
+    private ClipboardCopyFilter(ClipboardCopyFilter root) {
+        super(root);
+        this.clipboard = root.clipboard;
+        this.region = root.region;
+        this.sourceRegion = root.sourceRegion;
+        this.mask = root.mask;
+        this.copyBiomes = root.copyBiomes;
+        this.width = root.width;
+        this.area = root.area;
+        this.offsetX = root.offsetX;
+        this.offsetY = root.offsetY;
+        this.offsetZ = root.offsetZ;
+    }
+
+    /**
+     * Create a filter copying a region into a clipboard the way {@link com.sk89q.worldedit.function.operation.ForwardExtentCopy}
+     * would without a transform, i.e. the position {@code from} is copied to {@code to} in the clipboard.
+     *
+     * @param region     the region to copy
+     * @param from       the source position mapped onto {@code to}
+     * @param clipboard  the clipboard to copy into
+     * @param to         the clipboard position {@code from} is copied to
+     * @param mask       only copy blocks within this region, or null to copy all
+     * @param copyBiomes if biomes should be copied
+     * @return the filter, or null if the clipboard can't be written this way
+     */
+    @Nullable
+    public static ClipboardCopyFilter of(
+            Region region, BlockVector3 from, Clipboard clipboard, BlockVector3 to, @Nullable Region mask,
+            boolean copyBiomes
+    ) {
+        if (Settings.IMP.QUEUE.PARALLEL_THREADS <= 1) {
+            return null;
+        }
+        Clipboard backing = clipboard;
+        if (backing instanceof BlockArrayClipboard) {
+            backing = ((BlockArrayClipboard) backing).getParent();
+        }
+        if (!(backing instanceof LinearClipboard)) {
+            return null;
+        }
+        LinearClipboard linear = (LinearClipboard) backing;
+        BlockVector3 clipboardMin = clipboard.getMinimumPoint();
+        BlockVector3 clipboardMax = clipboard.getMaximumPoint();
+        if (!linear.getDimensions().equals(clipboardMax.subtract(clipboardMin).add(1, 1, 1))
+                || !linear.isConcurrentWritable()) {
+            return null;
+        }
+        BlockVector3 translation = to.subtract(from);
+        BlockVector3 min = region.getMinimumPoint().add(translation);
+        BlockVector3 max = region.getMaximumPoint().add(translation);
+        if (!min.containedWithin(clipboardMin, clipboardMax) || !max.containedWithin(clipboardMin, clipboardMax)) {
+            return null;
+        }
+        return new ClipboardCopyFilter(linear, region, mask, copyBiomes, translation.subtract(clipboardMin));
+    }
+
+    /**
+     * Copy the region from an extent into the clipboard.
+     *
+     * @param extent the extent
+     * @return the number of blocks copied
+     */
+    public int copy(Extent extent) {
+        if (copyBiomes) {
+            // allocate the biomes before the workers write to them
+            BlockVector3 min = region.getMinimumPoint();
+            clipboard.setBiome(
+                    min.getX() + offsetX,
+                    min.getY() + offsetY,
+                    min.getZ() + offsetZ,
+                    extent.getBiome(min)
+            );
+        }
+        extent.apply(region, this, true);
+        writeTiles(this);
+        return affected;
+    }
+
+    private void writeTiles(ClipboardCopyFilter filter) {
+        for (Int2ObjectMap.Entry<BaseBlock> entry : filter.tiles.int2ObjectEntrySet()) {
+            clipboard.setBlock(entry.getIntKey(), entry.getValue());
+        }
+        filter.tiles.clear();
+    }
+
+    /**
+     * Get the number of blocks copied. Only complete after the filter was joined.
+     */
+    public int getAffected() {
+        return affected;
+    }
+
+    @Override
+    public ClipboardCopyFilter init() {
+        return new ClipboardCopyFilter(this);
+    }
+
+    @Override
+    public void join(ClipboardCopyFilter filter) {
+        this.affected += filter.affected;
+        writeTiles(filter);
+    }
+
+    @Override
+    public <T extends IChunk> T applyChunk(T chunk, @Nullable Region region) {
+        int bx = chunk.getX() << 4;
+        int bz = chunk.getZ() << 4;
+        BlockVector3 min = this.region.getMinimumPoint();
+        BlockVector3 max = this.region.getMaximumPoint();
+        int minX = Math.max(min.getX(), bx);
+        int minZ = Math.max(min.getZ(), bz);
+        int maxX = Math.min(max.getX(), bx + 15);
+        int maxZ = Math.min(max.getZ(), bz + 15);
+        int minY = Math.max(min.getY(), 0);
+        int maxY = Math.min(max.getY(), 255);
+        if (minX > maxX || minZ > maxZ || minY > maxY) {
+            return null;
+        }
+        // biome cells of the chunk written so far, each cell is written from its first position that is copied
+        int cellMinX = (minX + offsetX) >> 2;
+        int cellMinY = (minY + offsetY) >> 2;
+        int cellMinZ = (minZ + offsetZ) >> 2;
+        int cellsX = ((maxX + offsetX) >> 2) - cellMinX + 1;
+        int cellsZ = ((maxZ + offsetZ) >> 2) - cellMinZ + 1;
+        int cellsY = ((maxY + offsetY) >> 2) - cellMinY + 1;
+        boolean[] written = copyBiomes ? new boolean[cellsX * cellsY * cellsZ] : null;
+        for (int layer = minY >> 4; layer <= maxY >> 4; layer++) {
+            char[] blocks = chunk.load(layer);
+            int startY = Math.max(minY, layer << 4);
+            int endY = Math.min(maxY, (layer << 4) + 15);
+            for (int y = startY; y <= endY; y++) {
+                int ly = y + offsetY;
+                for (int z = minZ; z <= maxZ; z++) {
+                    int lz = z + offsetZ;
+                    int lx = minX + offsetX;
+                    int index = lx + ly * area + lz * width;
+                    int blockIndex = ((y & 15) << 8) | ((z & 15) << 4) | (minX & 15);
+                    for (int x = minX; x <= maxX; x++, lx++, index++, blockIndex++) {
+                        if (!contains(x, y, z)) {
+                            continue;
+                        }
+                        char ordinal = blocks[blockIndex];
+                        // missing sections read as reserved, which the clipboards use for unset blocks
+                        if (ordinal == 0) {
+                            ordinal = 1;
+                        }
+                        BlockState state = BlockTypesCache.states[ordinal];
+                        if (state.getMaterial().hasContainer()) {
+                            tiles.put(index, chunk.getFullBlock(x & 15, y, z & 15));
+                        } else {
+                            clipboard.setBlock(index, state);
+                        }
+                        if (written != null) {
+                            int cell = (((ly >> 2) - cellMinY) * cellsZ + (lz >> 2) - cellMinZ) * cellsX
+                                    + (lx >> 2) - cellMinX;
+                            if (!written[cell]) {
+                                written[cell] = true;
+                                BiomeType biome = chunk.getBiomeType(x & 15, y, z & 15);
+                                if (biome != null) {
+                                    clipboard.setBiome(lx, ly, lz, biome);
+                                }
+                            }
+                        }
+                        affected++;
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    private boolean contains(int x, int y, int z) {
+        return (sourceRegion == null || sourceRegion.contains(x, y, z)) && (mask == null || mask.contains(x, y, z));
+    }
+
+    @Override
+    public void applyBlock(FilterBlock block) {
+        int x = block.getX();
+        int y = block.getY();
+        int z = block.getZ();
+        if (!contains(x, y, z)) {
+            return;
+        }
+        int lx = x + offsetX;
+        int ly = y + offsetY;
+        int lz = z + offsetZ;
+        int index = lx + ly * area + lz * width;
+        BlockState state = block.getBlock();
+        if (state.getMaterial().hasContainer()) {
+            tiles.put(index, block.getFullBlock());
+        } else {
+            clipboard.setBlock(index, state);
+        }
+        // each cell is written from its first position that is copied
+        int cellsX = (width + 3) >> 2;
+        int cellsZ = (clipboard.getLength() + 3) >> 2;
+        if (copyBiomes && biomeCells.add((lx >> 2) + ((lz >> 2) + (ly >> 2) * cellsZ) * cellsX)) {
+            BiomeType biome = block.getExtent().getBiomeType(x, y, z);
+            if (biome != null) {
+                clipboard.setBiome(lx, ly, lz, biome);
+            }
+        }
+        affected++;
+    }
+
+}
@@ -0,0 +1,370 @@
+package com.fastasyncworldedit.core.extent.filter;
+
+import com.fastasyncworldedit.core.configuration.Settings;
+import com.fastasyncworldedit.core.extent.clipboard.LinearClipboard;
+import com.fastasyncworldedit.core.extent.filter.block.FilterBlock;
+import com.fastasyncworldedit.core.queue.IChunk;
+import com.sk89q.worldedit.EditSession;
+import com.sk89q.worldedit.extent.Extent;
+import com.sk89q.worldedit.extent.clipboard.BlockArrayClipboard;
+import com.sk89q.worldedit.extent.clipboard.Clipboard;
+import com.sk89q.worldedit.extent.transform.BlockTransformExtent;
+import com.sk89q.worldedit.math.BlockVector3;
+import com.sk89q.worldedit.math.transform.AffineTransform;
+import com.sk89q.worldedit.math.transform.Transform;
+import com.sk89q.worldedit.regions.CuboidRegion;
+import com.sk89q.worldedit.regions.Region;
+import com.sk89q.worldedit.world.biome.BiomeType;
+import com.sk89q.worldedit.world.block.BaseBlock;
+import com.sk89q.worldedit.world.block.BlockState;
+import com.sk89q.worldedit.world.block.BlockTypesCache;
+
+import javax.annotation.Nullable;
+
+/**
+ * Pastes a clipboard by copying it into the destination chunk by chunk.
+ * <p>
+ * Use {@link #paste(Extent)}, which applies it to {@link #getDestination()}. If the destination is backed by a parallel
+ * queue, each worker reads the index space of the {@link LinearClipboard} directly and writes the blocks of its chunk,
+ * instead of every block passing through the extent chain on one thread. Any other destination falls back to
+ * {@link #applyBlock(FilterBlock)}, which maps each position back onto the clipboard.
+ * <p>
+ * Only transforms mapping blocks onto blocks are supported: rotations by multiples of 90 degrees, flips and whole block
+ * translations. Use {@link #of(Clipboard, BlockVector3, Transform, boolean, boolean)} to check if a paste qualifies.
+ */
+public class ClipboardPasteFilter extends ForkedFilter<ClipboardPasteFilter> {
+
+    private final LinearClipboard clipboard;
+    @Nullable
+    private final Region sourceRegion;
+    private final BlockVector3 sourceMin;
+    @Nullable
+    private final Transform transform;
+    private final boolean pasteAir;
+    private final boolean pasteBiomes;
+    private final CuboidRegion destination;
+    private final int width;
+    private final int area;
+    // local clipboard position = inverse * destination position + offset, row major
+    private final int[] inverse;
+    private final int[] offset;
+
+    // per fork
+    private char[] transformed;
+    private int affected;
+
+    private ClipboardPasteFilter(
+            LinearClipboard clipboard, @Nullable Region sourceRegion, @Nullable Transform transform,
+            boolean pasteAir, boolean pasteBiomes, CuboidRegion destination, int[] inverse, int[] offset
+    ) {
+        super(null);
+        this.clipboard = clipboard;
+        this.sourceRegion = sourceRegion;
+        this.sourceMin = sourceRegion == null ? null : sourceRegion.getMinimumPoint();
+        this.transform = transform;
+        this.pasteAir = pasteAir;
+        this.pasteBiomes = pasteBiomes;
+        this.destination = destination;
+        this.width = clipboard.getWidth();
+        this.area = clipboard.getArea();
+        this.inverse = inverse;
+        this.offset = offset;
+    }
+
+    private ClipboardPasteFilter(ClipboardPasteFilter root) {
+        super(root);
+        this.clipboard = root.clipboard;
+        this.sourceRegion = root.sourceRegion;
+        this.sourceMin = root.sourceMin;
+        this.transform = root.transform;
+        this.pasteAir = root.pasteAir;
+        this.pasteBiomes = root.pasteBiomes;
+        this.destination = root.destination;
+        this.width = root.width;
+        this.area = root.area;
+        this.inverse = root.inverse;
+        this.offset = root.offset;
+    }
+
+    /**
+     * Create a filter pasting a clipboard the way {@link com.sk89q.worldedit.function.operation.ForwardExtentCopy}
+     * would, i.e. the clipboard origin is placed at {@code to} and the transform is applied around it.
+     *
+     * @param clipboard   the clipboard
+     * @param to          the position the clipboard origin is pasted at
+     * @param transform   the transform, or null for none
+     * @param pasteAir    if air in the clipboard should be pasted
+     * @param pasteBiomes if biomes of the clipboard should be pasted
+     * @return the filter, or null if the clipboard or transform can't be pasted this way
+     */
+    @Nullable
+    public static ClipboardPasteFilter of(
+            Clipboard clipboard, BlockVector3 to, @Nullable Transform transform,
+            boolean pasteAir, boolean pasteBiomes
+    ) {
+        if (Settings.IMP.QUEUE.PARALLEL_THREADS <= 1) {
+            return null;
+        }
+        Clipboard backing = clipboard;
+        if (backing instanceof BlockArrayClipboard) {
+            backing = ((BlockArrayClipboard) backing).getParent();
+        }
+        if (!(backing instanceof LinearClipboard)) {
+            return null;
+        }
+        LinearClipboard linear = (LinearClipboard) backing;
+        Region region = clipboard.getRegion();
+        BlockVector3 min = region.getMinimumPoint();
+        BlockVector3 max = region.getMaximumPoint();
+        if (!linear.getDimensions().equals(max.subtract(min).add(1, 1, 1)) || !linear.isConcurrentReadable()) {
+            return null;
+        }
+        linear.flush();
+        if (transform != null && transform.isIdentity()) {
+            transform = null;
+        }
+        int[] matrix = toBlockMatrix(transform);
+        if (matrix == null) {
+            return null;
+        }
+        BlockVector3 from = clipboard.getOrigin();
+        // destination = to + M * (source - from) + t, so source - min = M^T * destination + offset
+        int[] inverse = new int[9];
+        for (int i = 0; i < 3; i++) {
+            for (int j = 0; j < 3; j++) {
+                inverse[i * 3 + j] = matrix[j * 4 + i];
+            }
+        }
+        int[] shift = {
+                to.getX() + matrix[3],
+                to.getY() + matrix[7],
+                to.getZ() + matrix[11]
+        };
+        int[] offset = {
+                from.getX() - min.getX(),
+                from.getY() - min.getY(),
+                from.getZ() - min.getZ()
+        };
+        for (int i = 0; i < 3; i++) {
+            for (int j = 0; j < 3; j++) {
+                offset[i] -= inverse[i * 3 + j] * shift[j];
+            }
+        }
+        BlockVector3 pos1 = apply(matrix, shift, min.subtract(from));
+        BlockVector3 pos2 = apply(matrix, shift, max.subtract(from));
+        CuboidRegion destination = new CuboidRegion(pos1.getMinimum(pos2), pos1.getMaximum(pos2));
+        Region sourceRegion = region instanceof CuboidRegion ? null : region;
+        return new ClipboardPasteFilter(linear, sourceRegion, transform, pasteAir, pasteBiomes && clipboard.hasBiomes(),
+                destination, inverse, offset
+        );
+    }
+
+    /**
+     * Get the coefficients of a transform as integers, if it maps every block position onto exactly one block position.
+     *
+     * @return the 12 coefficients of the affine transform, or null
+     */
+    @Nullable
+    private static int[] toBlockMatrix(@Nullable Transform transform) {
+        if (transform == null) {
+            return new int[]{1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1, 0};
+        }
+        if (!(transform instanceof AffineTransform)) {
+            return null;
+        }
+        double[] c = ((AffineTransform) transform).coefficients();
+        int[] matrix = new int[12];
+        for (int i = 0; i < 12; i++) {
+            matrix[i] = (int) c[i];
+            if (matrix[i] != c[i]) {
+                return null;
+            }
+        }
+        // every row and column of the linear part needs exactly one entry of +-1
+        int rows = 0;
+        int columns = 0;
+        for (int i = 0; i < 3; i++) {
+            for (int j = 0; j < 3; j++) {
+                int value = matrix[i * 4 + j];
+                if (value == 0) {
+                    continue;
+                }
+                if (Math.abs(value) != 1 || (rows & (1 << i)) != 0 || (columns & (1 << j)) != 0) {
+                    return null;
+                }
+                rows |= 1 << i;
+                columns |= 1 << j;
+            }
+        }
+        return rows == 7 && columns == 7 ? matrix : null;
+    }
+
+    private static BlockVector3 apply(int[] matrix, int[] shift, BlockVector3 relative) {
+        int x = relative.getX();
+        int y = relative.getY();
+        int z = relative.getZ();
+        return BlockVector3.at(
+                matrix[0] * x + matrix[1] * y + matrix[2] * z + shift[0],
+                matrix[4] * x + matrix[5] * y + matrix[6] * z + shift[1],
+                matrix[8] * x + matrix[9] * y + matrix[10] * z + shift[2]
+        );
+    }
+
+    /**
+     * Get the region the clipboard is pasted into.
+     */
+    public CuboidRegion getDestination() {
+        return destination;
+    }
+
+    /**
+     * Paste the clipboard into an extent. Entities are not pasted.
+     *
+     * @param extent the extent
+     * @return the number of blocks pasted
+     */
+    public int paste(Extent extent) {
+        extent.apply(destination, this, true);
+        if (extent instanceof EditSession) {
+            // blocks are set on the queue directly, so the edit session can't count them
+            EditSession editSession = (EditSession) extent;
+            editSession.setSize(editSession.getBlockChangeCount() + affected);
+        }
+        return affected;
+    }
+
+    /**
+     * Get the number of blocks pasted. Only complete after the filter was joined.
+     */
+    public int getAffected() {
+        return affected;
+    }
+
+    @Override
+    public ClipboardPasteFilter init() {
+        return new ClipboardPasteFilter(this);
+    }
+
+    @Override
+    public void join(ClipboardPasteFilter filter) {
+        this.affected += filter.affected;
+    }
+
+    @Override
+    public <T extends IChunk> T applyChunk(T chunk, @Nullable Region region) {
+        int bx = chunk.getX() << 4;
+        int bz = chunk.getZ() << 4;
+        BlockVector3 min = destination.getMinimumPoint();
+        BlockVector3 max = destination.getMaximumPoint();
+        int minX = Math.max(min.getX(), bx);
+        int minZ = Math.max(min.getZ(), bz);
+        int maxX = Math.min(max.getX(), bx + 15);
+        int maxZ = Math.min(max.getZ(), bz + 15);
+        int minY = Math.max(min.getY(), 0);
+        int maxY = Math.min(max.getY(), 255);
+        if (minX > maxX || minZ > maxZ || minY > maxY) {
+            return null;
+        }
+        final int[] m = inverse;
+        // how a step up in the destination moves through the clipboard
+        int stepX = m[1];
+        int stepY = m[4];
+        int stepZ = m[7];
+        int stepIndex = stepX + stepY * area + stepZ * width;
+        for (int z = minZ; z <= maxZ; z++) {
+            for (int x = minX; x <= maxX; x++) {
+                int lx = m[0] * x + m[1] * minY + m[2] * z + offset[0];
+                int ly = m[3] * x + m[4] * minY + m[5] * z + offset[1];
+                int lz = m[6] * x + m[7] * minY + m[8] * z + offset[2];
+                int index = lx + ly * area + lz * width;
+                for (int y = minY; y <= maxY; y++, lx += stepX, ly += stepY, lz += stepZ, index += stepIndex) {
+                    if (sourceRegion != null && !containsLocal(lx, ly, lz)) {
+                        continue;
+                    }
+                    if (pasteBiomes) {
+                        BiomeType biome = clipboard.getBiomeType(lx, ly, lz);
+                        if (biome != null) {
+                            chunk.setBiome(x & 15, y, z & 15, biome);
+                        }
+                    }
+                    char ordinal = clipboard.getOrdinalChar(lx, ly, lz);
+                    if (ordinal == 0) {
+                        // never written, leave the destination as it is
+                        continue;
+                    }
+                    BlockState state = BlockState.getFromOrdinal(ordinal);
+                    if (!pasteAir && state.getMaterial().isAir()) {
+                        continue;
+                    }
+                    if (state.getMaterial().hasContainer()) {
+                        BaseBlock block = clipboard.getFullBlock(index);
+                        chunk.setBlock(x & 15, y, z & 15, transform == null ? block : BlockTransformExtent.transform(
+                                block,
+                                transform
+                        ));
+                    } else {
+                        chunk.setBlock(x & 15, y, z & 15, transform(ordinal, state));
+                    }
+                    affected++;
+                }
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void applyBlock(FilterBlock block) {
+        int x = block.getX();
+        int y = block.getY();
+        int z = block.getZ();
+        final int[] m = inverse;
+        int lx = m[0] * x + m[1] * y + m[2] * z + offset[0];
+        int ly = m[3] * x + m[4] * y + m[5] * z + offset[1];
+        int lz = m[6] * x + m[7] * y + m[8] * z + offset[2];
+        if (sourceRegion != null && !containsLocal(lx, ly, lz)) {
+            return;
+        }
+        if (pasteBiomes) {
+            BiomeType biome = clipboard.getBiomeType(lx, ly, lz);
+            if (biome != null) {
+                block.setBiome(biome);
+            }
+        }
+        char ordinal = clipboard.getOrdinalChar(lx, ly, lz);
+        if (ordinal == 0) {
+            return;
+        }
+        BlockState state = BlockState.getFromOrdinal(ordinal);
+        if (!pasteAir && state.getMaterial().isAir()) {
+            return;
+        }
+        if (state.getMaterial().hasContainer()) {
+            BaseBlock full = clipboard.getFullBlock(lx + ly * area + lz * width);
+            block.setFullBlock(transform == null ? full : BlockTransformExtent.transform(full, transform));
+        } else {
+            block.setBlock(transform(ordinal, state));
+        }
+        affected++;
+    }
+
+    private boolean containsLocal(int lx, int ly, int lz) {
+        return sourceRegion.contains(lx + sourceMin.getX(), ly + sourceMin.getY(), lz + sourceMin.getZ());
+    }
+
+    private BlockState transform(char ordinal, BlockState state) {
+        if (transform == null) {
+            return state;
+        }
+        // each fork keeps its own cache, so no synchronization is needed
+        if (transformed == null) {
+            transformed = new char[BlockTypesCache.states.length];
+        }
+        char result = transformed[ordinal];
+        if (result == 0) {
+            result = BlockTransformExtent.transform(state, transform).getOrdinalChar();
+            transformed[ordinal] = result;
+        }
+        return BlockState.getFromOrdinal(result);
+    }
+
+}
@@ -0,0 +1,232 @@
+package com.fastasyncworldedit.core.extent.filter;
+
+import com.fastasyncworldedit.core.extent.filter.block.FilterBlock;
+import com.fastasyncworldedit.core.queue.Filter;
+import com.fastasyncworldedit.core.queue.IChunk;
+import com.sk89q.worldedit.EditSession;
+import com.sk89q.worldedit.function.mask.AbstractExtentMask;
+import com.sk89q.worldedit.function.mask.Mask;
+import com.sk89q.worldedit.math.BlockVector2;
+import com.sk89q.worldedit.math.BlockVector3;
+import com.sk89q.worldedit.regions.CuboidRegion;
+import com.sk89q.worldedit.regions.Region;
+import com.sk89q.worldedit.world.DataException;
+import com.sk89q.worldedit.world.chunk.Chunk;
+import com.sk89q.worldedit.world.storage.MissingChunkException;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Restores blocks from chunks loaded from a backup. Each chunk is loaded by the thread filtering it, so chunks are
+ * loaded and decompressed in parallel when the filter is applied through a parallel queue. A chunk is only loaded once
+ * a block of it is in the region and matches the mask.
+ */
+public class RestoreFilter implements Filter {
+
+    /**
+     * Loads a chunk from a backup. It is called from several threads at once.
+     */
+    @FunctionalInterface
+    public interface ChunkLoader {
+
+        /**
+         * Load a chunk.
+         *
+         * @param position the chunk position
+         * @return the chunk
+         * @throws MissingChunkException if the backup doesn't contain the chunk
+         * @throws DataException         if the chunk is corrupt
+         * @throws IOException           if the backup can't be read
+         */
+        Chunk load(BlockVector2 position) throws DataException, IOException;
+
+    }
+
+    private final ChunkLoader loader;
+    private final Region region;
+    private final boolean cuboid;
+    @Nullable
+    private final Set<BlockVector2> chunks;
+    @Nullable
+    private final Mask mask;
+    private final Set<BlockVector2> affectedChunks;
+    private final Set<BlockVector2> missingChunks;
+    private final Map<BlockVector2, String> errorChunks;
+
+    private int chunkX = Integer.MIN_VALUE;
+    private int chunkZ = Integer.MIN_VALUE;
+    private boolean loaded;
+    private Chunk chunk;
+
+    /**
+     * Create a new instance.
+     *
+     * @param loader the loader to get the backed up chunks from
+     * @param region the region to restore, blocks outside of it are skipped
+     * @param mask   the mask blocks have to match to be restored, or null to restore all of them
+     */
+    public RestoreFilter(ChunkLoader loader, Region region, @Nullable Mask mask) {
+        this(
+                loader,
+                region,
+                // chunks are visited in the bounding box, only load the ones of the region
+                region instanceof CuboidRegion ? null : region.getChunks(),
+                mask,
+                ConcurrentHashMap.newKeySet(),
+                ConcurrentHashMap.newKeySet(),
+                new ConcurrentHashMap<>()
+        );
+    }
+
+    private RestoreFilter(
+            ChunkLoader loader, Region region, @Nullable Set<BlockVector2> chunks, @Nullable Mask mask,
+            Set<BlockVector2> affectedChunks, Set<BlockVector2> missingChunks, Map<BlockVector2, String> errorChunks
+    ) {
+        this.loader = loader;
+        this.region = region;
+        this.cuboid = region instanceof CuboidRegion;
+        this.chunks = chunks;
+        this.mask = mask;
+        this.affectedChunks = affectedChunks;
+        this.missingChunks = missingChunks;
+        this.errorChunks = errorChunks;
+    }
+
+    /**
+     * Restore a region, applying the filter to the chunks of one region file after the other so that a backup only
+     * has to hold one region file in memory.
+     *
+     * @param editSession the edit session to restore to
+     * @return this
+     */
+    public RestoreFilter restore(EditSession editSession) {
+        BlockVector3 min = region.getMinimumPoint();
+        BlockVector3 max = region.getMaximumPoint();
+        for (int regionZ = min.getBlockZ() >> 9; regionZ <= max.getBlockZ() >> 9; regionZ++) {
+            for (int regionX = min.getBlockX() >> 9; regionX <= max.getBlockX() >> 9; regionX++) {
+                BlockVector3 partMin = BlockVector3.at(
+                        Math.max(min.getBlockX(), regionX << 9),
+                        min.getBlockY(),
+                        Math.max(min.getBlockZ(), regionZ << 9)
+                );
+                BlockVector3 partMax = BlockVector3.at(
+                        Math.min(max.getBlockX(), (regionX << 9) + 511),
+                        max.getBlockY(),
+                        Math.min(max.getBlockZ(), (regionZ << 9) + 511)
+                );
+                editSession.apply(new CuboidRegion(partMin, partMax), this, true);
+            }
+        }
+        return this;
+    }
+
+    @Override
+    public <T extends IChunk> T applyChunk(T chunk, @Nullable Region region) {
+        return select(chunk.getX(), chunk.getZ()) ? chunk : null;
+    }
+
+    @Override
+    public void applyBlock(FilterBlock block) {
+        // extents without chunks only call this method
+        int chunkX = block.getX() >> 4;
+        int chunkZ = block.getZ() >> 4;
+        if ((chunkX != this.chunkX || chunkZ != this.chunkZ) && !select(chunkX, chunkZ)) {
+            return;
+        }
+        if (loaded && chunk == null) {
+            return;
+        }
+        if (!cuboid && !region.contains(block)) {
+            return;
+        }
+        if (mask != null) {
+            if (mask instanceof AbstractExtentMask) {
+                if (!((AbstractExtentMask) mask).test(block, block)) {
+                    return;
+                }
+            } else if (!mask.test(block)) {
+                return;
+            }
+        }
+        if (!loaded && !load()) {
+            return;
+        }
+        try {
+            block.setFullBlock(chunk.getBlock(block));
+        } catch (DataException ignored) {
+            // this is a workaround: just ignore for now
+        }
+    }
+
+    private boolean select(int chunkX, int chunkZ) {
+        this.chunkX = chunkX;
+        this.chunkZ = chunkZ;
+        this.chunk = null;
+        // chunks outside of the region are skipped like chunks which failed to load
+        boolean selected = chunks == null || chunks.contains(BlockVector2.at(chunkX, chunkZ));
+        this.loaded = !selected;
+        return selected;
+    }
+
+    private boolean load() {
+        loaded = true;
+        BlockVector2 position = BlockVector2.at(chunkX, chunkZ);
+        affectedChunks.add(position);
+        try {
+            chunk = loader.load(position);
+        } catch (MissingChunkException e) {
+            missingChunks.add(position);
+        } catch (IOException | DataException e) {
+            errorChunks.put(position, String.valueOf(e.getMessage()));
+        }
+        return chunk != null;
+    }
+
+    @Override
+    public Filter fork() {
+        return new RestoreFilter(
+                loader,
+                region,
+                chunks,
+                mask == null ? null : mask.copy(),
+                affectedChunks,
+                missingChunks,
+                errorChunks
+        );
+    }
+
+    /**
+     * Get the number of chunks which had blocks to restore, whether or not they could be loaded.
+     *
+     * @return the number of chunks
+     */
+    public int getChunksAffected() {
+        return affectedChunks.size();
+    }
+
+    /**
+     * Get the chunks which are missing from the backup.
+     *
+     * @return the chunk positions
+     */
+    public List<BlockVector2> getMissingChunks() {
+        return new ArrayList<>(missingChunks);
+    }
+
+    /**
+     * Get the chunks which couldn't be loaded for other reasons, with the error message for each of them.
+     *
+     * @return the chunk positions and error messages
+     */
+    public Map<BlockVector2, String> getErrorChunks() {
+        return new LinkedHashMap<>(errorChunks);
+    }
+
+}
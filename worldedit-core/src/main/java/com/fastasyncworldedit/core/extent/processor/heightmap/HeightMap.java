@@ -91,6 +91,7 @@ default int[][] generateHeightData(
         int centerY = pos.getBlockY();
         int[] oldData = new int[diameter * diameter];
         int[] newData = new int[oldData.length];
+        SurfaceHeightCache heights = session.getSurfaceHeightCache();
         if (layers) { // Pixel accuracy
             centerY <<= 3;
             maxY <<= 3;
@@ -123,7 +124,7 @@ default int[][] generateHeightData(
                     if (layers) {
                         height = tmpY = session.getNearestSurfaceLayer(xx, zz, tmpY, 0, maxY);
                     } else {
-                        height = tmpY = session.getNearestSurfaceTerrainBlock(xx, zz, tmpY, 0, maxY);
+                        height = tmpY = heights.getNearestSurfaceTerrainBlock(xx, zz, tmpY, 0, maxY);
                         if (height == -1) {
                             continue;
                         }
@@ -168,7 +169,7 @@ default int[][] generateHeightData(
                     if (layers) {
                         height = session.getNearestSurfaceLayer(xx, zz, height, 0, maxY);
                     } else {
-                        height = session.getNearestSurfaceTerrainBlock(xx, zz, height, 0, maxY);
+                        height = heights.getNearestSurfaceTerrainBlock(xx, zz, height, 0, maxY);
                         if (height == -1) {
                             continue;
                         }
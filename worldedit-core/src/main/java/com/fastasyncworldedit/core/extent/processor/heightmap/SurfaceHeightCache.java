@@ -0,0 +1,269 @@
+package com.fastasyncworldedit.core.extent.processor.heightmap;
+
+import com.fastasyncworldedit.core.queue.IQueueExtent;
+import com.fastasyncworldedit.core.util.MathMan;
+import com.sk89q.worldedit.EditSession;
+import com.sk89q.worldedit.extent.Extent;
+import com.sk89q.worldedit.math.BlockVector3;
+import com.sk89q.worldedit.regions.Region;
+import com.sk89q.worldedit.world.block.BlockState;
+import com.sk89q.worldedit.world.block.BlockTypes;
+
+import javax.annotation.Nullable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Caches the highest movement blocking block of each column, stored in chunk sized tiles.
+ * <p>
+ * A resolved column answers {@link Extent#getNearestSurfaceTerrainBlock(int, int, int, int, int)} without scanning
+ * whenever the query starts at or above the terrain surface, which is what surface-aware brushes, masks and patterns
+ * do on almost every call. Any other query is passed through to the extent unchanged.
+ * <p>
+ * Tiles are seeded from the {@link HeightMapType#WORLD_SURFACE} height map of the chunk when a queue is available, so
+ * resolving a column only scans down from the highest non-air block. Writes of the owning edit have to be reported
+ * through {@link #invalidate(int, int, int)} or {@link #invalidate(Region)}.
+ * <p>
+ * The cache takes no locks: columns are updated atomically, and a column resolved while a block of its tile changed is
+ * not stored.
+ */
+public class SurfaceHeightCache {
+
+    private static final int UNKNOWN = Integer.MIN_VALUE;
+    private static final int NONE = Integer.MIN_VALUE + 1;
+
+    private final Extent extent;
+    @Nullable
+    private final IQueueExtent<?> queue;
+    private final int minY;
+    private final int maxY;
+    private final ConcurrentHashMap<Long, Tile> tiles = new ConcurrentHashMap<>();
+
+    private volatile Tile lastTile;
+
+    /**
+     * Create a new cache.
+     *
+     * @param extent the extent columns are resolved against
+     * @param queue  the queue used to seed tiles from chunk height maps, or null to always scan from {@code maxY}
+     * @param minY   the lowest y coordinate considered
+     * @param maxY   the highest y coordinate considered
+     */
+    public SurfaceHeightCache(Extent extent, @Nullable IQueueExtent<?> queue, int minY, int maxY) {
+        this.extent = extent;
+        this.queue = queue;
+        this.minY = minY;
+        this.maxY = maxY;
+    }
+
+    public SurfaceHeightCache(Extent extent) {
+        this(extent, null, extent.getMinY(), extent.getMaxY());
+    }
+
+    /**
+     * Get the cache shared by the edit if the extent is an {@link EditSession}, otherwise a new cache for the extent.
+     *
+     * @param extent the extent
+     * @return a surface height cache for the extent
+     */
+    public static SurfaceHeightCache of(Extent extent) {
+        if (extent instanceof EditSession) {
+            return ((EditSession) extent).getSurfaceHeightCache();
+        }
+        return new SurfaceHeightCache(extent);
+    }
+
+    /**
+     * Get the y coordinate of the highest movement blocking block in a column.
+     *
+     * @param x the x coordinate
+     * @param z the z coordinate
+     * @return the height, or {@code minY - 1} if the column has no such block
+     */
+    public int getHeight(int x, int z) {
+        int top = resolve(getTile(x >> 4, z >> 4), x, z, ((z & 15) << 4) | (x & 15));
+        return top == NONE ? minY - 1 : top;
+    }
+
+    /**
+     * Cached equivalent of {@link Extent#getNearestSurfaceTerrainBlock(int, int, int, int, int)}.
+     */
+    public int getNearestSurfaceTerrainBlock(int x, int z, int y, int minY, int maxY) {
+        int top = getHeight(x, z);
+        if (top >= minY && top < maxY && Math.max(minY, Math.min(maxY, y)) >= top) {
+            return top;
+        }
+        return extent.getNearestSurfaceTerrainBlock(x, z, y, minY, maxY);
+    }
+
+    /**
+     * Report a change of the block at the given position.
+     */
+    public void invalidate(int x, int y, int z) {
+        if (tiles.isEmpty()) {
+            return;
+        }
+        long pair = MathMan.pairInt(x >> 4, z >> 4);
+        Tile tile = lastTile;
+        if (tile == null || tile.pair != pair) {
+            tile = tiles.get(pair);
+        }
+        if (tile != null) {
+            tile.invalidate(((z & 15) << 4) | (x & 15), Math.min(y, maxY));
+        }
+    }
+
+    /**
+     * Report a change of any number of blocks within the given region.
+     */
+    public void invalidate(Region region) {
+        if (tiles.isEmpty()) {
+            return;
+        }
+        BlockVector3 min = region.getMinimumPoint();
+        BlockVector3 max = region.getMaximumPoint();
+        int minChunkX = min.getBlockX() >> 4;
+        int minChunkZ = min.getBlockZ() >> 4;
+        int maxChunkX = max.getBlockX() >> 4;
+        int maxChunkZ = max.getBlockZ() >> 4;
+        int ceiling = Math.min(max.getBlockY(), maxY);
+        // regions may be far larger than what has been cached, so walk the tiles instead of the region
+        for (Tile tile : tiles.values()) {
+            int chunkX = MathMan.unpairIntX(tile.pair);
+            int chunkZ = MathMan.unpairIntY(tile.pair);
+            if (chunkX >= minChunkX && chunkX <= maxChunkX && chunkZ >= minChunkZ && chunkZ <= maxChunkZ) {
+                tile.invalidate(ceiling);
+            }
+        }
+    }
+
+    /**
+     * Forget all cached columns.
+     */
+    public void clear() {
+        tiles.clear();
+        lastTile = null;
+    }
+
+    private Tile getTile(int chunkX, int chunkZ) {
+        long pair = MathMan.pairInt(chunkX, chunkZ);
+        Tile tile = lastTile;
+        if (tile != null && tile.pair == pair) {
+            return tile;
+        }
+        tile = tiles.get(pair);
+        if (tile == null) {
+            Tile created = new Tile(pair, maxY);
+            // seeded from the height map of the chunk, so columns only need scanning from the highest non-air block
+            if (queue != null) {
+                int[] worldSurface = queue.getCachedGet(chunkX, chunkZ).getHeightMap(HeightMapType.WORLD_SURFACE);
+                if (isPresent(worldSurface)) {
+                    created.seed(worldSurface, minY, maxY);
+                }
+            }
+            tile = tiles.putIfAbsent(pair, created);
+            if (tile == null) {
+                tile = created;
+            }
+        }
+        lastTile = tile;
+        return tile;
+    }
+
+    private int resolve(Tile tile, int x, int z, int index) {
+        long state = tile.columns.get(index);
+        int top = top(state);
+        if (top != UNKNOWN) {
+            return top;
+        }
+        int version = tile.version.get();
+        top = NONE;
+        for (int y = ceiling(state); y >= minY; y--) {
+            BlockState block = extent.getBlock(x, y, z);
+            if (block.getMaterial().isMovementBlocker() && block.getBlockType() != BlockTypes.__RESERVED__) {
+                top = y;
+                break;
+            }
+        }
+        long resolved = column(top, ceiling(state));
+        if (tile.columns.compareAndSet(index, state, resolved) && tile.version.get() != version) {
+            // a block of the tile changed while scanning, the result may be stale
+            tile.columns.compareAndSet(index, resolved, state);
+        }
+        return top;
+    }
+
+    // Platforms without height maps return an empty array, which can't be told apart from a void chunk
+    private static boolean isPresent(@Nullable int[] heightMap) {
+        if (heightMap == null || heightMap.length != 256) {
+            return false;
+        }
+        for (int height : heightMap) {
+            if (height != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // the highest movement blocker of a column, UNKNOWN if not yet resolved, and the height above which no block
+    // may be a movement blocker, packed into one long so both can be updated atomically
+    private static long column(int top, int ceiling) {
+        return ((long) top << 32) | (ceiling & 0xFFFFFFFFL);
+    }
+
+    private static int top(long column) {
+        return (int) (column >> 32);
+    }
+
+    private static int ceiling(long column) {
+        return (int) column;
+    }
+
+    private static final class Tile {
+
+        private final long pair;
+        private final AtomicLongArray columns = new AtomicLongArray(256);
+        // incremented by every change of a block in the tile
+        private final AtomicInteger version = new AtomicInteger();
+
+        private Tile(long pair, int maxY) {
+            this.pair = pair;
+            long unknown = column(UNKNOWN, maxY);
+            for (int i = 0; i < 256; i++) {
+                columns.set(i, unknown);
+            }
+        }
+
+        private void seed(int[] worldSurface, int minY, int maxY) {
+            for (int i = 0; i < 256; i++) {
+                columns.set(i, column(UNKNOWN, Math.max(minY - 1, Math.min(maxY, worldSurface[i] - 1))));
+            }
+        }
+
+        private void invalidate(int index, int y) {
+            while (true) {
+                long state = columns.get(index);
+                int top = top(state);
+                int ceiling = Math.max(ceiling(state), y);
+                if (top != UNKNOWN && y >= top) {
+                    top = UNKNOWN;
+                }
+                long updated = column(top, ceiling);
+                if (updated == state || columns.compareAndSet(index, state, updated)) {
+                    break;
+                }
+            }
+            version.incrementAndGet();
+        }
+
+        private void invalidate(int y) {
+            for (int i = 0; i < 256; i++) {
+                invalidate(i, y);
+            }
+        }
+
+    }
+
+}
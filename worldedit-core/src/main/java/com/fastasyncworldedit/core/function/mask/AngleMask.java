@@ -1,13 +1,12 @@
 package com.fastasyncworldedit.core.function.mask;
 
+import com.fastasyncworldedit.core.extent.processor.heightmap.SurfaceHeightCache;
 import com.fastasyncworldedit.core.math.MutableBlockVector3;
 import com.sk89q.worldedit.extent.Extent;
 import com.sk89q.worldedit.function.mask.Mask;
 import com.sk89q.worldedit.function.mask.SolidBlockMask;
 import com.sk89q.worldedit.math.BlockVector3;
 
-import java.util.Arrays;
-
 public class AngleMask extends SolidBlockMask implements ResettableMask {
 
     public static double ADJACENT_MOD = 0.5;
@@ -37,21 +36,13 @@ public AngleMask(Extent extent, double min, double max, boolean overlay, int dis
     @Override
     public void reset() {
         mutable = new MutableBlockVector3();
-        cacheBotX = Integer.MIN_VALUE;
-        cacheBotZ = Integer.MIN_VALUE;
         lastX = Integer.MIN_VALUE;
         lastY = Integer.MIN_VALUE;
-        if (cacheHeights != null) {
-            Arrays.fill(cacheHeights, (byte) 0);
-        }
+        heights = null;
     }
 
-    protected transient int cacheCenZ;
-    protected transient int cacheBotX = Integer.MIN_VALUE;
-    protected transient int cacheBotZ = Integer.MIN_VALUE;
-    protected transient int cacheCenterZ;
-
-    protected transient byte[] cacheHeights;
+    protected transient SurfaceHeightCache heights;
+    protected transient Extent heightsExtent;
 
     protected transient int lastY;
     protected transient int lastX = Integer.MIN_VALUE;
@@ -60,34 +51,11 @@ public void reset() {
     protected transient boolean lastValue;
 
     public int getHeight(Extent extent, int x, int y, int z) {
-        //        return extent.getNearestSurfaceTerrainBlock(x, z, y, 0, maxY);
-        try {
-            int rx = x - cacheBotX + 16;
-            int rz = z - cacheBotZ + 16;
-            int index;
-            if (((rx & 0xFF) != rx || (rz & 0xFF) != rz)) {
-                cacheBotX = x - 16;
-                cacheBotZ = z - 16;
-                rx = x - cacheBotX + 16;
-                rz = z - cacheBotZ + 16;
-                index = rx + (rz << 8);
-                if (cacheHeights == null) {
-                    cacheHeights = new byte[65536];
-                } else {
-                    Arrays.fill(cacheHeights, (byte) 0);
-                }
-            } else {
-                index = rx + (rz << 8);
-            }
-            int result = cacheHeights[index] & 0xFF;
-            if (y > result) {
-                cacheHeights[index] = (byte) (result = lastY = extent.getNearestSurfaceTerrainBlock(x, z, lastY, 0, maxY));
-            }
-            return result;
-        } catch (Throwable e) {
-            e.printStackTrace();
-            throw e;
+        if (heights == null || heightsExtent != extent) {
+            heights = SurfaceHeightCache.of(extent);
+            heightsExtent = extent;
         }
+        return heights.getNearestSurfaceTerrainBlock(x, z, y, 0, maxY);
     }
 
     protected boolean testSlope(Extent extent, int x, int y, int z) {
@@ -1,20 +1,18 @@
 package com.fastasyncworldedit.core.function.mask;
 
-import com.fastasyncworldedit.core.math.LocalBlockVectorSet;
 import com.fastasyncworldedit.core.math.MutableBlockVector3;
+import com.fastasyncworldedit.core.math.PagedBlockBitSet;
 import com.sk89q.worldedit.function.mask.Mask;
 import com.sk89q.worldedit.math.BlockVector3;
 
 public class CachedMask extends AbstractDelegateMask implements ResettableMask {
 
     private transient MutableBlockVector3 mutable = new MutableBlockVector3();
-    private transient LocalBlockVectorSet cache_checked = new LocalBlockVectorSet();
-    private transient LocalBlockVectorSet cache_results = new LocalBlockVectorSet();
+    private transient PagedBlockBitSet cache_checked = new PagedBlockBitSet();
+    private transient PagedBlockBitSet cache_results = new PagedBlockBitSet();
 
     public CachedMask(Mask mask) {
         super(mask);
-        cache_checked.setOffset(Integer.MIN_VALUE, Integer.MIN_VALUE);
-        cache_results.setOffset(Integer.MIN_VALUE, Integer.MIN_VALUE);
     }
 
     public static CachedMask cache(Mask mask) {
@@ -27,16 +25,8 @@ public static CachedMask cache(Mask mask) {
     @Override
     public void reset() {
         mutable = new MutableBlockVector3();
-        cache_checked = new LocalBlockVectorSet();
-        cache_results = new LocalBlockVectorSet();
-        resetCache();
-    }
-
-    private void resetCache() {
-        cache_checked.clear();
-        cache_results.clear();
-        cache_checked.setOffset(Integer.MIN_VALUE, Integer.MIN_VALUE);
-        cache_results.setOffset(Integer.MIN_VALUE, Integer.MIN_VALUE);
+        cache_checked = new PagedBlockBitSet();
+        cache_results = new PagedBlockBitSet();
     }
 
     @Override
@@ -45,30 +35,14 @@ public boolean test(BlockVector3 vector) {
     }
 
     public boolean test(int x, int y, int z) {
-        try {
-            boolean check = cache_checked.add(x, y, z);
-            if (!check) {
-                return cache_results.contains(x, y, z);
-            }
-            boolean result = getMask().test(mutable.setComponents(x, y, z));
-            if (result) {
-                cache_results.add(x, y, z);
-            }
-            return result;
-        } catch (UnsupportedOperationException ignored) {
-            boolean result = getMask().test(mutable.setComponents(x, y, z));
-            if (y < 0 || y > 255) {
-                return result;
-            }
-            resetCache();
-            cache_checked.setOffset(x, z);
-            cache_results.setOffset(x, z);
-            cache_checked.add(x, y, z);
-            if (result) {
-                cache_results.add(x, y, z);
-            }
-            return result;
+        if (!cache_checked.add(x, y, z)) {
+            return cache_results.contains(x, y, z);
+        }
+        boolean result = getMask().test(mutable.setComponents(x, y, z));
+        if (result) {
+            cache_results.add(x, y, z);
         }
+        return result;
     }
 
     @Override
@@ -2,6 +2,8 @@
 
 import com.fastasyncworldedit.core.configuration.Caption;
 import com.fastasyncworldedit.core.math.IntTriple;
+import com.fastasyncworldedit.core.math.MutableBlockVector3;
+import com.fastasyncworldedit.core.math.PagedBlockBitSet;
 import com.google.common.collect.Lists;
 import com.sk89q.worldedit.WorldEditException;
 import com.sk89q.worldedit.function.RegionFunction;
@@ -10,23 +12,25 @@
 import com.sk89q.worldedit.math.BlockVector3;
 import com.sk89q.worldedit.util.formatting.text.Component;
 import com.sk89q.worldedit.util.formatting.text.TextComponent;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
 
-import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.LinkedHashMap;
-import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.atomic.AtomicInteger;
 
 public abstract class DFSVisitor implements Operation {
 
+    // stack entries are (to x, to y, to z, from x, from y, from z, depth)
+    private static final int ENTRY = 7;
+    // from y of a root entry, which has no from node
+    private static final int NO_FROM = Integer.MIN_VALUE;
+
     private final RegionFunction function;
     private final List<BlockVector3> directions = new ArrayList<>();
-    private final Map<Node, AtomicInteger> visited;
-    private final ArrayDeque<NodePair> queue;
-    private final HashSet<Node> hashQueue;
+    // nodes that still have unvisited neighbours, with the number of neighbours left to be visited from
+    private final Long2IntOpenHashMap visited;
+    private final IntArrayList queue;
+    private final PagedBlockBitSet hashQueue;
     private final int maxDepth;
     private final int maxBranch;
     private int affected = 0;
@@ -36,9 +40,9 @@ public DFSVisitor(final RegionFunction function) {
     }
 
     public DFSVisitor(final RegionFunction function, int maxDepth, int maxBranching) {
-        this.queue = new ArrayDeque<>();
-        this.hashQueue = new LinkedHashSet<>();
-        this.visited = new LinkedHashMap<>();
+        this.queue = new IntArrayList();
+        this.hashQueue = new PagedBlockBitSet();
+        this.visited = new Long2IntOpenHashMap();
         this.function = function;
         this.directions.add(BlockVector3.at(0, -1, 0));
         this.directions.add(BlockVector3.at(0, 1, 0));
@@ -65,56 +69,71 @@ private IntTriple[] getIntDirections() {
         return array;
     }
 
+    private static long key(int x, int y, int z) {
+        return ((long) x & 0x3FFFFFF) | (((long) z & 0x3FFFFFF) << 26) | (((long) y & 0xFFF) << 52);
+    }
+
+    private void push(int x, int y, int z, int fromX, int fromY, int fromZ, int depth) {
+        queue.add(x);
+        queue.add(y);
+        queue.add(z);
+        queue.add(fromX);
+        queue.add(fromY);
+        queue.add(fromZ);
+        queue.add(depth);
+    }
+
     public void visit(final BlockVector3 pos) {
-        Node node = new Node(pos.getBlockX(), pos.getBlockY(), pos.getBlockZ());
-        if (!this.hashQueue.contains(node)) {
+        int x = pos.getBlockX();
+        int y = pos.getBlockY();
+        int z = pos.getBlockZ();
+        if (!this.hashQueue.contains(x, y, z)) {
             isVisitable(pos, pos); // Ignore this, just to initialize mask on this point
-            queue.addFirst(new NodePair(null, node, 0));
-            hashQueue.add(node);
+            push(x, y, z, 0, NO_FROM, 0, 0);
+            hashQueue.add(x, y, z);
         }
     }
 
     @Override
     public Operation resume(RunContext run) throws WorldEditException {
-        //        MutableBlockVector3 mutable = new MutableBlockVector3();
-//        MutableBlockVector3 mutable2 = new MutableBlockVector3();
         IntTriple[] dirs = getIntDirections();
+        MutableBlockVector3 bv2 = new MutableBlockVector3();
+        int[] entry = new int[ENTRY];
 
         while (!queue.isEmpty()) {
-            NodePair current = queue.poll();
-            Node from = current.to;
-            hashQueue.remove(from);
-            if (visited.containsKey(from)) {
+            int top = queue.size() - ENTRY;
+            queue.getElements(top, entry, 0, ENTRY);
+            queue.size(top);
+            int x = entry[0];
+            int y = entry[1];
+            int z = entry[2];
+            int depth = entry[6];
+            hashQueue.remove(x, y, z);
+            long fromKey = key(x, y, z);
+            if (visited.containsKey(fromKey)) {
                 continue;
             }
-//            mutable.mutX(from.getX());
-//            mutable.mutY(from.getY());
-//            mutable.mutZ(from.getZ());
-            BlockVector3 bv = BlockVector3.at(from.getX(), from.getY(), from.getZ());
+            // functions may keep the position, so it can't be mutable
+            BlockVector3 bv = BlockVector3.at(x, y, z);
             function.apply(bv);
             int countAdd = 0;
             int countAttempt = 0;
             for (IntTriple direction : dirs) {
-//                mutable2.mutX(from.getX() + direction.x);
-//                mutable2.mutY(from.getY() + direction.y);
-//                mutable2.mutZ(from.getZ() + direction.z);
-                BlockVector3 bv2 = BlockVector3
-                        .at(from.getX() + direction.getX(), from.getY() + direction.getY(),
-                                from.getZ() + direction.getZ()
-                        );
-                if (isVisitable(bv, bv2)) {
-                    Node adjacent = new Node(bv2.getBlockX(), bv2.getBlockY(), bv2.getBlockZ());
-                    if (!adjacent.equals(current.from)) {
-                        AtomicInteger adjacentCount = visited.get(adjacent);
-                        if (adjacentCount == null) {
+                int tx = x + direction.getX();
+                int ty = y + direction.getY();
+                int tz = z + direction.getZ();
+                if (isVisitable(bv, bv2.setComponents(tx, ty, tz))) {
+                    if (entry[4] == NO_FROM || tx != entry[3] || ty != entry[4] || tz != entry[5]) {
+                        long adjacent = key(tx, ty, tz);
+                        int adjacentCount = visited.get(adjacent);
+                        if (adjacentCount == 0) {
                             if (countAdd++ < maxBranch) {
-                                if (!hashQueue.contains(adjacent)) {
-                                    if (current.depth == maxDepth) {
+                                if (!hashQueue.contains(tx, ty, tz)) {
+                                    if (depth == maxDepth) {
                                         countAttempt++;
                                     } else {
-                                        hashQueue.add(adjacent);
-                                        queue.addFirst(
-                                                new NodePair(from, adjacent, current.depth + 1));
+                                        hashQueue.add(tx, ty, tz);
+                                        push(tx, ty, tz, x, y, z, depth + 1);
                                     }
                                 } else {
                                     countAttempt++;
@@ -122,16 +141,19 @@ public Operation resume(RunContext run) throws WorldEditException {
                             } else {
                                 countAttempt++;
                             }
-                        } else if (adjacentCount.decrementAndGet() == 0) {
+                        } else if (adjacentCount == 1) {
                             visited.remove(adjacent);
-                        } else if (hashQueue.contains(adjacent)) {
-                            countAttempt++;
+                        } else {
+                            visited.put(adjacent, adjacentCount - 1);
+                            if (hashQueue.contains(tx, ty, tz)) {
+                                countAttempt++;
+                            }
                         }
                     }
                 }
             }
             if (countAttempt > 0) {
-                visited.put(from, new AtomicInteger(countAttempt));
+                visited.put(fromKey, countAttempt);
             }
             affected++;
         }
@@ -154,6 +176,10 @@ public int getAffected() {
         return this.affected;
     }
 
+    /**
+     * No longer used by the visitor, which keeps its nodes as packed ints.
+     */
+    @Deprecated
     public static final class Node {
 
         private int x;
@@ -166,35 +192,11 @@ public Node(int x, int y, int z) {
             this.z = z;
         }
 
-        private void set(int x, int y, int z) {
-            this.x = x;
-            this.y = y;
-            this.z = z;
-        }
-
-        private void set(Node node) {
-            this.x = node.x;
-            this.y = node.y;
-            this.z = node.z;
-        }
-
         @Override
         public final int hashCode() {
             return (x ^ (z << 12)) ^ (y << 24);
         }
 
-        private int getX() {
-            return x;
-        }
-
-        private int getY() {
-            return y;
-        }
-
-        private int getZ() {
-            return z;
-        }
-
         @Override
         public String toString() {
             return x + "," + y + "," + z;
@@ -202,7 +204,7 @@ public String toString() {
 
         @Override
         public boolean equals(Object obj) {
-            if (obj == null) {
+            if (!(obj instanceof Node)) {
                 return false;
             }
 
@@ -212,6 +214,10 @@ public boolean equals(Object obj) {
 
     }
 
+    /**
+     * No longer used by the visitor, which keeps its stack as packed ints.
+     */
+    @Deprecated
     public static class NodePair {
 
         public final Node to;
@@ -0,0 +1,520 @@
+package com.fastasyncworldedit.core.jnbt;
+
+import com.sk89q.jnbt.ByteArrayTag;
+import com.sk89q.jnbt.ByteTag;
+import com.sk89q.jnbt.CompoundTag;
+import com.sk89q.jnbt.DoubleTag;
+import com.sk89q.jnbt.FloatTag;
+import com.sk89q.jnbt.IntArrayTag;
+import com.sk89q.jnbt.IntTag;
+import com.sk89q.jnbt.ListTag;
+import com.sk89q.jnbt.LongArrayTag;
+import com.sk89q.jnbt.LongTag;
+import com.sk89q.jnbt.NBTConstants;
+import com.sk89q.jnbt.NBTUtils;
+import com.sk89q.jnbt.ShortTag;
+import com.sk89q.jnbt.StringTag;
+import com.sk89q.jnbt.Tag;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * Points at a tag in uncompressed NBT data held in a buffer. Unlike {@link com.sk89q.jnbt.NBTInputStream}, nothing is
+ * parsed until it is asked for: tags which aren't looked at are skipped using their lengths, numbers and arrays are
+ * read straight from the buffer and only the tags passed to {@link #toTag()} are turned into {@link Tag} objects.
+ * <p>
+ * Cursors never modify the buffer, so any number of them may read the same data from several threads.
+ */
+public final class NBTCursor {
+
+    private final ByteBuffer buffer;
+    private final int type;
+    private final int position;
+
+    private NBTCursor(ByteBuffer buffer, int type, int position) {
+        this.buffer = buffer;
+        this.type = type;
+        this.position = position;
+    }
+
+    /**
+     * Get a cursor at the root tag of NBT data.
+     *
+     * @param data the uncompressed NBT data, starting with the type and name of the root tag
+     * @return the cursor at the root tag
+     * @throws IOException if the data is truncated
+     */
+    public static NBTCursor root(byte[] data) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(data).order(ByteOrder.BIG_ENDIAN);
+        check(buffer, 0, 1);
+        int type = buffer.get(0) & 0xFF;
+        if (type == NBTConstants.TYPE_END) {
+            return new NBTCursor(buffer, type, 1);
+        }
+        check(buffer, 1, 2);
+        return new NBTCursor(buffer, type, 3 + (buffer.getShort(1) & 0xFFFF));
+    }
+
+    /**
+     * Read NBT data and get a cursor at its root tag.
+     *
+     * @param in the stream to read the uncompressed NBT data from, which is not closed
+     * @return the cursor at the root tag
+     * @throws IOException if the stream can't be read or the data is truncated
+     */
+    public static NBTCursor read(InputStream in) throws IOException {
+        return root(in.readAllBytes());
+    }
+
+    /**
+     * Get the type of the tag, one of the constants of {@link NBTConstants}.
+     *
+     * @return the type
+     */
+    public int getType() {
+        return type;
+    }
+
+    private void expect(int expected) throws IOException {
+        if (type != expected) {
+            throw new IOException("Expected a " + NBTUtils.getTypeName(NBTUtils.getTypeClass(expected))
+                    + " but found a tag of type " + type);
+        }
+    }
+
+    private void expect(int expected, int bytes) throws IOException {
+        expect(expected);
+        check(buffer, position, bytes);
+    }
+
+    private static void check(ByteBuffer buffer, int position, long length) throws IOException {
+        if (position < 0 || position + length > buffer.limit()) {
+            throw new IOException("Truncated NBT data");
+        }
+    }
+
+    public byte getByte() throws IOException {
+        expect(NBTConstants.TYPE_BYTE, 1);
+        return buffer.get(position);
+    }
+
+    public short getShort() throws IOException {
+        expect(NBTConstants.TYPE_SHORT, 2);
+        return buffer.getShort(position);
+    }
+
+    public int getInt() throws IOException {
+        expect(NBTConstants.TYPE_INT, 4);
+        return buffer.getInt(position);
+    }
+
+    public long getLong() throws IOException {
+        expect(NBTConstants.TYPE_LONG, 8);
+        return buffer.getLong(position);
+    }
+
+    public float getFloat() throws IOException {
+        expect(NBTConstants.TYPE_FLOAT, 4);
+        return buffer.getFloat(position);
+    }
+
+    public double getDouble() throws IOException {
+        expect(NBTConstants.TYPE_DOUBLE, 8);
+        return buffer.getDouble(position);
+    }
+
+    /**
+     * Get the value of any numeric tag as a long, like {@link Number#longValue()} would.
+     *
+     * @return the value
+     * @throws IOException if the tag isn't numeric
+     */
+    public long asLong() throws IOException {
+        int fixedSize = fixedSize(type);
+        if (fixedSize > 0) {
+            check(buffer, position, fixedSize);
+        }
+        switch (type) {
+            case NBTConstants.TYPE_BYTE:
+                return buffer.get(position);
+            case NBTConstants.TYPE_SHORT:
+                return buffer.getShort(position);
+            case NBTConstants.TYPE_INT:
+                return buffer.getInt(position);
+            case NBTConstants.TYPE_LONG:
+                return buffer.getLong(position);
+            case NBTConstants.TYPE_FLOAT:
+                return (long) buffer.getFloat(position);
+            case NBTConstants.TYPE_DOUBLE:
+                return (long) buffer.getDouble(position);
+            default:
+                throw new IOException("Expected a numeric tag but found a tag of type " + type);
+        }
+    }
+
+    public String getString() throws IOException {
+        expect(NBTConstants.TYPE_STRING);
+        return readString(position);
+    }
+
+    private String readString(int position) throws IOException {
+        check(buffer, position, 2);
+        int length = buffer.getShort(position) & 0xFFFF;
+        check(buffer, position + 2, length);
+        return new String(buffer.array(), buffer.arrayOffset() + position + 2, length, NBTConstants.CHARSET);
+    }
+
+    /**
+     * Get the number of elements of a list or array tag.
+     *
+     * @return the number of elements
+     * @throws IOException if the tag isn't a list or an array
+     */
+    public int size() throws IOException {
+        switch (type) {
+            case NBTConstants.TYPE_LIST:
+                check(buffer, position, 5);
+                return Math.max(0, buffer.getInt(position + 1));
+            case NBTConstants.TYPE_BYTE_ARRAY:
+            case NBTConstants.TYPE_INT_ARRAY:
+            case NBTConstants.TYPE_LONG_ARRAY:
+                check(buffer, position, 4);
+                return Math.max(0, buffer.getInt(position));
+            default:
+                throw new IOException("Expected a list or an array but found a tag of type " + type);
+        }
+    }
+
+    private ByteBuffer slice(int elementBytes) throws IOException {
+        int length = size();
+        check(buffer, position + 4, (long) length * elementBytes);
+        ByteBuffer slice = buffer.duplicate();
+        slice.position(position + 4).limit(position + 4 + length * elementBytes);
+        return slice.slice().order(ByteOrder.BIG_ENDIAN);
+    }
+
+    public byte[] getByteArray() throws IOException {
+        expect(NBTConstants.TYPE_BYTE_ARRAY);
+        ByteBuffer slice = slice(1);
+        byte[] data = new byte[slice.remaining()];
+        slice.get(data);
+        return data;
+    }
+
+    /**
+     * Get a read only view of the elements of an int array tag, without copying them.
+     *
+     * @return the view of the elements
+     * @throws IOException if the tag isn't an int array or is truncated
+     */
+    public IntBuffer getIntBuffer() throws IOException {
+        expect(NBTConstants.TYPE_INT_ARRAY);
+        return slice(4).asReadOnlyBuffer().order(ByteOrder.BIG_ENDIAN).asIntBuffer();
+    }
+
+    public int[] getIntArray() throws IOException {
+        IntBuffer view = getIntBuffer();
+        int[] data = new int[view.remaining()];
+        view.get(data);
+        return data;
+    }
+
+    /**
+     * Get a read only view of the elements of a long array tag, without copying them.
+     *
+     * @return the view of the elements
+     * @throws IOException if the tag isn't a long array or is truncated
+     */
+    public LongBuffer getLongBuffer() throws IOException {
+        expect(NBTConstants.TYPE_LONG_ARRAY);
+        return slice(8).asReadOnlyBuffer().order(ByteOrder.BIG_ENDIAN).asLongBuffer();
+    }
+
+    public long[] getLongArray() throws IOException {
+        LongBuffer view = getLongBuffer();
+        long[] data = new long[view.remaining()];
+        view.get(data);
+        return data;
+    }
+
+    /**
+     * Get the type of the elements of a list tag.
+     *
+     * @return the element type
+     * @throws IOException if the tag isn't a list
+     */
+    public int getElementType() throws IOException {
+        expect(NBTConstants.TYPE_LIST, 1);
+        return buffer.get(position) & 0xFF;
+    }
+
+    /**
+     * Get cursors at the elements of a list tag.
+     *
+     * @return the elements
+     * @throws IOException if the tag isn't a list or is truncated
+     */
+    public List<NBTCursor> getElements() throws IOException {
+        int elementType = getElementType();
+        int length = size();
+        if (length == 0 || elementType == NBTConstants.TYPE_END) {
+            return Collections.emptyList();
+        }
+        List<NBTCursor> elements = new ArrayList<>(length);
+        int next = position + 5;
+        for (int i = 0; i < length; i++) {
+            elements.add(new NBTCursor(buffer, elementType, next));
+            next = skip(elementType, next);
+        }
+        return elements;
+    }
+
+    /**
+     * Find an entry of a compound tag, skipping over the entries before it.
+     * Use {@link #getEntries()} to look up several entries of the same compound.
+     *
+     * @param name the name of the entry
+     * @return the entry, or null if the compound doesn't contain it
+     * @throws IOException if the tag isn't a compound or is truncated
+     */
+    @Nullable
+    public NBTCursor get(String name) throws IOException {
+        expect(NBTConstants.TYPE_COMPOUND);
+        byte[] encoded = name.getBytes(NBTConstants.CHARSET);
+        int next = position;
+        while (true) {
+            check(buffer, next, 1);
+            int childType = buffer.get(next) & 0xFF;
+            if (childType == NBTConstants.TYPE_END) {
+                return null;
+            }
+            check(buffer, next + 1, 2);
+            int nameLength = buffer.getShort(next + 1) & 0xFFFF;
+            int payload = next + 3 + nameLength;
+            check(buffer, next + 3, nameLength);
+            if (nameLength == encoded.length && nameEquals(next + 3, encoded)) {
+                return new NBTCursor(buffer, childType, payload);
+            }
+            next = skip(childType, payload);
+        }
+    }
+
+    private boolean nameEquals(int position, byte[] encoded) {
+        byte[] array = buffer.array();
+        int offset = buffer.arrayOffset() + position;
+        return Arrays.equals(array, offset, offset + encoded.length, encoded, 0, encoded.length);
+    }
+
+    /**
+     * Index the entries of a compound tag in one pass, without parsing their values.
+     *
+     * @return the entries by name, in the order they are stored
+     * @throws IOException if the tag isn't a compound or is truncated
+     */
+    public Map<String, NBTCursor> getEntries() throws IOException {
+        expect(NBTConstants.TYPE_COMPOUND);
+        Map<String, NBTCursor> entries = new LinkedHashMap<>();
+        int next = position;
+        while (true) {
+            check(buffer, next, 1);
+            int childType = buffer.get(next) & 0xFF;
+            if (childType == NBTConstants.TYPE_END) {
+                return entries;
+            }
+            check(buffer, next + 1, 2);
+            String name = readString(next + 1);
+            int payload = next + 3 + (buffer.getShort(next + 1) & 0xFFFF);
+            entries.put(name, new NBTCursor(buffer, childType, payload));
+            next = skip(childType, payload);
+        }
+    }
+
+    /**
+     * Get the position just after a tag, without parsing it.
+     *
+     * @param buffer   the buffer the tag is in
+     * @param type     the type of the tag
+     * @param position the position of the payload of the tag
+     * @return the position after the tag
+     * @throws IOException if the tag is truncated
+     */
+    private static int skip(ByteBuffer buffer, int type, int position) throws IOException {
+        switch (type) {
+            case NBTConstants.TYPE_END:
+                return position;
+            case NBTConstants.TYPE_BYTE:
+                return checked(buffer, position, 1);
+            case NBTConstants.TYPE_SHORT:
+                return checked(buffer, position, 2);
+            case NBTConstants.TYPE_INT:
+            case NBTConstants.TYPE_FLOAT:
+                return checked(buffer, position, 4);
+            case NBTConstants.TYPE_LONG:
+            case NBTConstants.TYPE_DOUBLE:
+                return checked(buffer, position, 8);
+            case NBTConstants.TYPE_STRING:
+                check(buffer, position, 2);
+                return checked(buffer, position + 2, buffer.getShort(position) & 0xFFFF);
+            case NBTConstants.TYPE_BYTE_ARRAY:
+                check(buffer, position, 4);
+                return checked(buffer, position + 4, Math.max(0, buffer.getInt(position)));
+            case NBTConstants.TYPE_INT_ARRAY:
+                check(buffer, position, 4);
+                return checked(buffer, position + 4, Math.max(0, buffer.getInt(position)) * 4L);
+            case NBTConstants.TYPE_LONG_ARRAY:
+                check(buffer, position, 4);
+                return checked(buffer, position + 4, Math.max(0, buffer.getInt(position)) * 8L);
+            case NBTConstants.TYPE_LIST: {
+                check(buffer, position, 5);
+                int elementType = buffer.get(position) & 0xFF;
+                int length = Math.max(0, buffer.getInt(position + 1));
+                int next = position + 5;
+                int fixedSize = fixedSize(elementType);
+                if (fixedSize >= 0) {
+                    // no need to visit numbers one by one
+                    return checked(buffer, next, (long) fixedSize * length);
+                }
+                for (int i = 0; i < length; i++) {
+                    next = skip(buffer, elementType, next);
+                }
+                return next;
+            }
+            case NBTConstants.TYPE_COMPOUND: {
+                int next = position;
+                while (true) {
+                    check(buffer, next, 1);
+                    int childType = buffer.get(next) & 0xFF;
+                    if (childType == NBTConstants.TYPE_END) {
+                        return next + 1;
+                    }
+                    check(buffer, next + 1, 2);
+                    next = skip(buffer, childType, next + 3 + (buffer.getShort(next + 1) & 0xFFFF));
+                }
+            }
+            default:
+                throw new IOException("Invalid tag type: " + type + ".");
+        }
+    }
+
+    private int skip(int type, int position) throws IOException {
+        return skip(buffer, type, position);
+    }
+
+    private static int checked(ByteBuffer buffer, int position, long length) throws IOException {
+        check(buffer, position, length);
+        return (int) (position + length);
+    }
+
+    private static int fixedSize(int type) {
+        switch (type) {
+            case NBTConstants.TYPE_END:
+                return 0;
+            case NBTConstants.TYPE_BYTE:
+                return 1;
+            case NBTConstants.TYPE_SHORT:
+                return 2;
+            case NBTConstants.TYPE_INT:
+            case NBTConstants.TYPE_FLOAT:
+                return 4;
+            case NBTConstants.TYPE_LONG:
+            case NBTConstants.TYPE_DOUBLE:
+                return 8;
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * Parse the tag and everything in it.
+     *
+     * @return the tag
+     * @throws IOException if the tag is corrupt
+     */
+    public Tag toTag() throws IOException {
+        return toTag(entry -> true);
+    }
+
+    /**
+     * Parse a compound tag, leaving out the entries it has directly which don't match the filter. Entries which are
+     * left out are skipped without being parsed.
+     *
+     * @param filter the filter the names of the entries have to match
+     * @return the compound tag
+     * @throws IOException if the tag isn't a compound or is corrupt
+     */
+    public CompoundTag toCompoundTag(Predicate<String> filter) throws IOException {
+        expect(NBTConstants.TYPE_COMPOUND);
+        return (CompoundTag) toTag(filter);
+    }
+
+    /**
+     * Parse a compound tag, leaving out the given entries.
+     *
+     * @param skipped the names of the entries to leave out
+     * @return the compound tag
+     * @throws IOException if the tag isn't a compound or is corrupt
+     */
+    public CompoundTag toCompoundTagWithout(Set<String> skipped) throws IOException {
+        return toCompoundTag(name -> !skipped.contains(name));
+    }
+
+    private Tag toTag(Predicate<String> filter) throws IOException {
+        switch (type) {
+            case NBTConstants.TYPE_BYTE:
+                return new ByteTag(getByte());
+            case NBTConstants.TYPE_SHORT:
+                return new ShortTag(getShort());
+            case NBTConstants.TYPE_INT:
+                return new IntTag(getInt());
+            case NBTConstants.TYPE_LONG:
+                return new LongTag(getLong());
+            case NBTConstants.TYPE_FLOAT:
+                return new FloatTag(getFloat());
+            case NBTConstants.TYPE_DOUBLE:
+                return new DoubleTag(getDouble());
+            case NBTConstants.TYPE_STRING:
+                return new StringTag(getString());
+            case NBTConstants.TYPE_BYTE_ARRAY:
+                return new ByteArrayTag(getByteArray());
+            case NBTConstants.TYPE_INT_ARRAY:
+                return new IntArrayTag(getIntArray());
+            case NBTConstants.TYPE_LONG_ARRAY:
+                return new LongArrayTag(getLongArray());
+            case NBTConstants.TYPE_LIST: {
+                List<NBTCursor> elements = getElements();
+                List<Tag> tags = new ArrayList<>(elements.size());
+                for (NBTCursor element : elements) {
+                    tags.add(element.toTag());
+                }
+                return new ListTag(NBTUtils.getTypeClass(getElementType()), tags);
+            }
+            case NBTConstants.TYPE_COMPOUND: {
+                Map<String, Tag> tags = new HashMap<>();
+                for (Map.Entry<String, NBTCursor> entry : getEntries().entrySet()) {
+                    if (filter.test(entry.getKey())) {
+                        tags.put(entry.getKey(), entry.getValue().toTag());
+                    }
+                }
+                return new CompoundTag(tags);
+            }
+            default:
+                throw new IOException("Invalid tag type: " + type + ".");
+        }
+    }
+
+}
@@ -0,0 +1,100 @@
+package com.fastasyncworldedit.core.math;
+
+import com.sk89q.worldedit.math.BlockVector3;
+
+import java.util.NoSuchElementException;
+
+/**
+ * A first in, first out queue of block positions, stored as consecutive int coordinates in a single array.
+ * - Uses 12 bytes per position, with no per element objects or hashing
+ * - Does not check for duplicates, pair it with a {@link PagedBlockBitSet} for that
+ * - Positions can also be read by index, which is relative to the head of the queue
+ */
+public class BlockVectorQueue {
+
+    private int[] data;
+    private int head;
+    private int tail;
+
+    public BlockVectorQueue() {
+        this(64);
+    }
+
+    public BlockVectorQueue(int capacity) {
+        this.data = new int[Math.max(capacity, 1) * 3];
+    }
+
+    public void add(int x, int y, int z) {
+        if (tail + 3 > data.length) {
+            grow();
+        }
+        data[tail] = x;
+        data[tail + 1] = y;
+        data[tail + 2] = z;
+        tail += 3;
+    }
+
+    public void add(BlockVector3 vector) {
+        add(vector.getBlockX(), vector.getBlockY(), vector.getBlockZ());
+    }
+
+    /**
+     * Remove the head of the queue.
+     *
+     * @param mutable the vector to store the position in
+     * @return the given vector
+     */
+    public MutableBlockVector3 poll(MutableBlockVector3 mutable) {
+        if (head == tail) {
+            throw new NoSuchElementException("Queue is empty");
+        }
+        mutable.setComponents(data[head], data[head + 1], data[head + 2]);
+        head += 3;
+        if (head == tail) {
+            head = tail = 0;
+        }
+        return mutable;
+    }
+
+    public int getX(int index) {
+        return data[head + index * 3];
+    }
+
+    public int getY(int index) {
+        return data[head + index * 3 + 1];
+    }
+
+    public int getZ(int index) {
+        return data[head + index * 3 + 2];
+    }
+
+    public int size() {
+        return (tail - head) / 3;
+    }
+
+    public boolean isEmpty() {
+        return head == tail;
+    }
+
+    /**
+     * Remove all positions. The backing array is kept, so a queue can be reused for the next level of a search.
+     */
+    public void clear() {
+        head = tail = 0;
+    }
+
+    private void grow() {
+        int length = tail - head;
+        if (head > 0 && length <= data.length >> 1) {
+            // plenty of room once the polled positions are discarded
+            System.arraycopy(data, head, data, 0, length);
+        } else {
+            int[] newData = new int[data.length << 1];
+            System.arraycopy(data, head, newData, 0, length);
+            data = newData;
+        }
+        head = 0;
+        tail = length;
+    }
+
+}
@@ -0,0 +1,54 @@
+package com.fastasyncworldedit.core.math;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A thread-safe variant of {@link PagedBlockBitSet}, used to claim positions from multiple threads.
+ * - Pages are created atomically on first use
+ * - {@link #add(int, int, int)} succeeds for exactly one caller per position
+ */
+public class ConcurrentPagedBlockBitSet {
+
+    private static final int PAGE_WORDS = 64;
+
+    private final ConcurrentHashMap<Long, AtomicLongArray> pages = new ConcurrentHashMap<>();
+
+    public boolean contains(int x, int y, int z) {
+        AtomicLongArray page = pages.get(PagedBlockBitSet.pageKey(x >> 4, y >> 4, z >> 4));
+        if (page == null) {
+            return false;
+        }
+        int index = PagedBlockBitSet.pageIndex(x, y, z);
+        return (page.get(index >> 6) & (1L << index)) != 0;
+    }
+
+    /**
+     * Add a position.
+     *
+     * @return true if the position was not yet in the set, false if it was or another thread added it first
+     */
+    public boolean add(int x, int y, int z) {
+        AtomicLongArray page = pages.computeIfAbsent(
+                PagedBlockBitSet.pageKey(x >> 4, y >> 4, z >> 4),
+                key -> new AtomicLongArray(PAGE_WORDS)
+        );
+        int index = PagedBlockBitSet.pageIndex(x, y, z);
+        int word = index >> 6;
+        long bit = 1L << index;
+        while (true) {
+            long current = page.get(word);
+            if ((current & bit) != 0) {
+                return false;
+            }
+            if (page.compareAndSet(word, current, current | bit)) {
+                return true;
+            }
+        }
+    }
+
+    public void clear() {
+        pages.clear();
+    }
+
+}
@@ -0,0 +1,290 @@
+package com.fastasyncworldedit.core.math;
+
+import com.sk89q.worldedit.math.BlockVector3;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectIterator;
+
+import javax.annotation.Nonnull;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A set of block positions stored as 4096 bit pages, one page per 16x16x16 chunk section.
+ * - Pages are allocated when the first position in them is added, so there is no bound on the covered area
+ * - Every probe is a single page lookup (cached for consecutive probes of the same section) and a bit test
+ * - Uses 512 bytes per touched section, regardless of how many positions it holds
+ * - Iteration is ordered by section, and returns a mutable vector
+ */
+public class PagedBlockBitSet extends AbstractSet<BlockVector3> {
+
+    private static final int PAGE_WORDS = 64;
+
+    private final Long2ObjectOpenHashMap<long[]> pages = new Long2ObjectOpenHashMap<>();
+    private long lastKey = Long.MIN_VALUE;
+    private long[] lastPage;
+    private int size;
+
+    /**
+     * Pack section coordinates into a page key: 26 bits for x and z, 12 bits for y.
+     */
+    protected static long pageKey(int sectionX, int sectionY, int sectionZ) {
+        return ((long) sectionX & 0x3FFFFFF) | (((long) sectionZ & 0x3FFFFFF) << 26) | (((long) sectionY & 0xFFF) << 52);
+    }
+
+    /**
+     * Index of a position within its page, in the y > z > x order used by chunk sections.
+     */
+    protected static int pageIndex(int x, int y, int z) {
+        return ((y & 15) << 8) | ((z & 15) << 4) | (x & 15);
+    }
+
+    protected long[] getPage(int x, int y, int z, boolean create) {
+        long key = pageKey(x >> 4, y >> 4, z >> 4);
+        if (key == lastKey && lastPage != null) {
+            return lastPage;
+        }
+        long[] page = pages.get(key);
+        if (page == null) {
+            if (!create) {
+                return null;
+            }
+            page = new long[PAGE_WORDS];
+            pages.put(key, page);
+        }
+        lastKey = key;
+        lastPage = page;
+        return page;
+    }
+
+    private static int sectionX(long key) {
+        return (int) (key << 38 >> 38);
+    }
+
+    private static int sectionZ(long key) {
+        return (int) (key << 12 >> 38);
+    }
+
+    private static int sectionY(long key) {
+        return (int) (key >> 52);
+    }
+
+    public boolean contains(int x, int y, int z) {
+        long[] page = getPage(x, y, z, false);
+        if (page == null) {
+            return false;
+        }
+        int index = pageIndex(x, y, z);
+        return (page[index >> 6] & (1L << index)) != 0;
+    }
+
+    /**
+     * Check if the position is set without going through the page cache. Unlike {@link #contains(int, int, int)},
+     * this may be called from several threads at once, as long as no thread modifies the set meanwhile.
+     */
+    public boolean containsConcurrently(int x, int y, int z) {
+        long[] page = pages.get(pageKey(x >> 4, y >> 4, z >> 4));
+        if (page == null) {
+            return false;
+        }
+        int index = pageIndex(x, y, z);
+        return (page[index >> 6] & (1L << index)) != 0;
+    }
+
+    /**
+     * Add a position.
+     *
+     * @return true if the position was not yet in the set
+     */
+    public boolean add(int x, int y, int z) {
+        long[] page = getPage(x, y, z, true);
+        int index = pageIndex(x, y, z);
+        long word = page[index >> 6];
+        long bit = 1L << index;
+        if ((word & bit) != 0) {
+            return false;
+        }
+        page[index >> 6] = word | bit;
+        size++;
+        return true;
+    }
+
+    /**
+     * Remove a position. Empty pages are kept until {@link #clear()}.
+     *
+     * @return true if the position was in the set
+     */
+    public boolean remove(int x, int y, int z) {
+        long[] page = getPage(x, y, z, false);
+        if (page == null) {
+            return false;
+        }
+        int index = pageIndex(x, y, z);
+        long word = page[index >> 6];
+        long bit = 1L << index;
+        if ((word & bit) == 0) {
+            return false;
+        }
+        page[index >> 6] = word & ~bit;
+        size--;
+        return true;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        if (o instanceof BlockVector3) {
+            BlockVector3 v = (BlockVector3) o;
+            return contains(v.getBlockX(), v.getBlockY(), v.getBlockZ());
+        }
+        return false;
+    }
+
+    @Override
+    public boolean add(BlockVector3 vector) {
+        return add(vector.getBlockX(), vector.getBlockY(), vector.getBlockZ());
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        if (o instanceof BlockVector3) {
+            BlockVector3 v = (BlockVector3) o;
+            return remove(v.getBlockX(), v.getBlockY(), v.getBlockZ());
+        }
+        return false;
+    }
+
+    /**
+     * Get the position at an index of the iteration order. This walks the pages, so it is linear in the page count.
+     *
+     * @return the position, or null if the index is out of bounds
+     */
+    public BlockVector3 get(int index) {
+        if (index < 0 || index >= size) {
+            return null;
+        }
+        for (Long2ObjectMap.Entry<long[]> entry : pages.long2ObjectEntrySet()) {
+            long[] page = entry.getValue();
+            for (int w = 0; w < PAGE_WORDS; w++) {
+                int count = Long.bitCount(page[w]);
+                if (index >= count) {
+                    index -= count;
+                    continue;
+                }
+                long word = page[w];
+                for (; index > 0; index--) {
+                    word &= word - 1;
+                }
+                return toPosition(entry.getLongKey(), (w << 6) + Long.numberOfTrailingZeros(word), new MutableBlockVector3());
+            }
+        }
+        return null;
+    }
+
+    private static BlockVector3 toPosition(long key, int index, MutableBlockVector3 mutable) {
+        return mutable.setComponents(
+                (sectionX(key) << 4) + (index & 15),
+                (sectionY(key) << 4) + (index >> 8),
+                (sectionZ(key) << 4) + ((index >> 4) & 15)
+        );
+    }
+
+    @Nonnull
+    @Override
+    public Iterator<BlockVector3> iterator() {
+        final ObjectIterator<Long2ObjectMap.Entry<long[]>> entries = pages.long2ObjectEntrySet().iterator();
+        return new Iterator<BlockVector3>() {
+            final MutableBlockVector3 mutable = new MutableBlockVector3();
+            long key;
+            long[] page;
+            long[] removePage;
+            int next = -1;
+            int last = -1;
+
+            {
+                advance();
+            }
+
+            private void advance() {
+                int from = next + 1;
+                while (true) {
+                    if (page != null) {
+                        for (int w = from >> 6; w < PAGE_WORDS; w++) {
+                            long word = page[w];
+                            if (w == from >> 6) {
+                                word &= -1L << (from & 63);
+                            }
+                            if (word != 0) {
+                                next = (w << 6) + Long.numberOfTrailingZeros(word);
+                                return;
+                            }
+                        }
+                    }
+                    if (!entries.hasNext()) {
+                        page = null;
+                        next = -1;
+                        return;
+                    }
+                    Long2ObjectMap.Entry<long[]> entry = entries.next();
+                    key = entry.getLongKey();
+                    page = entry.getValue();
+                    from = 0;
+                }
+            }
+
+            @Override
+            public boolean hasNext() {
+                return page != null;
+            }
+
+            @Override
+            public BlockVector3 next() {
+                if (page == null) {
+                    throw new NoSuchElementException("End of iterator");
+                }
+                last = next;
+                removePage = page;
+                BlockVector3 pos = toPosition(key, next, mutable);
+                advance();
+                return pos;
+            }
+
+            @Override
+            public void remove() {
+                if (last == -1) {
+                    throw new IllegalStateException();
+                }
+                removePage[last >> 6] &= ~(1L << last);
+                size--;
+                last = -1;
+            }
+        };
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * The number of allocated pages.
+     */
+    public int getPageCount() {
+        return pages.size();
+    }
+
+    @Override
+    public void clear() {
+        pages.clear();
+        pages.trim();
+        lastKey = Long.MIN_VALUE;
+        lastPage = null;
+        size = 0;
+    }
+
+}
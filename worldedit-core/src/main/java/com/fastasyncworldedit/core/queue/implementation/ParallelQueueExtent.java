@@ -91,9 +91,13 @@ public <T extends Filter> T apply(Region region, T filter, boolean full) {
 
         // Get a pool, to operate on the chunks in parallel
         final int size = Math.min(chunks.size(), Settings.IMP.QUEUE.PARALLEL_THREADS);
-        if (size <= 1 && chunksIter.hasNext()) {
-            BlockVector2 pos = chunksIter.next();
-            getExtent().apply(null, filter, region, pos.getX(), pos.getZ(), full);
+        if (size <= 1) {
+            // a single thread, or a single chunk
+            ChunkFilterBlock block = null;
+            while (chunksIter.hasNext()) {
+                BlockVector2 pos = chunksIter.next();
+                block = getExtent().apply(block, filter, region, pos.getX(), pos.getZ(), full);
+            }
         } else {
             final ForkJoinTask[] tasks = IntStream.range(0, size).mapToObj(i -> handler.submit(() -> {
                 try {
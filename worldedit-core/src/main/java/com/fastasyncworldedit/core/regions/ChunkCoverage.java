@@ -0,0 +1,21 @@
+package com.fastasyncworldedit.core.regions;
+
+/**
+ * How much of a chunk column is part of a region.
+ *
+ * @see com.sk89q.worldedit.regions.Region#getChunkCoverage(int, int)
+ */
+public enum ChunkCoverage {
+    /**
+     * No block of the chunk is in the region.
+     */
+    EMPTY,
+    /**
+     * Some blocks of the chunk are in the region.
+     */
+    PARTIAL,
+    /**
+     * Every block of the chunk between the minimum and maximum y of the region is in the region.
+     */
+    FULL
+}
@@ -1,7 +1,7 @@
 package com.fastasyncworldedit.core.regions;
 
 import com.fastasyncworldedit.core.configuration.Caption;
-import com.fastasyncworldedit.core.math.BlockVectorSet;
+import com.fastasyncworldedit.core.math.PagedBlockBitSet;
 import com.sk89q.worldedit.EditSession;
 import com.sk89q.worldedit.extent.Extent;
 import com.sk89q.worldedit.function.mask.Mask;
@@ -18,7 +18,7 @@
 public class FuzzyRegion extends AbstractRegion {
 
     private final Mask mask;
-    private final BlockVectorSet set = new BlockVectorSet();
+    private final PagedBlockBitSet set = new PagedBlockBitSet();
     private int minX;
     private int minY;
     private int minZ;
@@ -72,6 +72,18 @@ public void reset() throws IOException {
         is.reset();
     }
 
+    //FAWE start
+    /**
+     * Get the underlying stream, e.g. for a {@link com.fastasyncworldedit.core.jnbt.streamer.LazyReader} to consume
+     * the payload of an array tag itself.
+     *
+     * @return the data input stream
+     */
+    public DataInputStream getDataInputStream() {
+        return is;
+    }
+    //FAWE end
+
     /**
      * Reads an NBT tag from the stream.
      *
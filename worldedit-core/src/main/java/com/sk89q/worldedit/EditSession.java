@@ -29,6 +29,7 @@
 import com.fastasyncworldedit.core.extent.SingleRegionExtent;
 import com.fastasyncworldedit.core.extent.SourceMaskExtent;
 import com.fastasyncworldedit.core.extent.clipboard.WorldCopyClipboard;
+import com.fastasyncworldedit.core.extent.processor.heightmap.SurfaceHeightCache;
 import com.fastasyncworldedit.core.extent.processor.lighting.NullRelighter;
 import com.fastasyncworldedit.core.extent.processor.lighting.Relighter;
 import com.fastasyncworldedit.core.function.SurfaceRegionFunction;
@@ -48,6 +49,7 @@
 import com.fastasyncworldedit.core.math.MutableBlockVector2;
 import com.fastasyncworldedit.core.math.MutableBlockVector3;
 import com.fastasyncworldedit.core.object.FaweLimit;
+import com.fastasyncworldedit.core.queue.IQueueExtent;
 import com.fastasyncworldedit.core.regions.RegionWrapper;
 import com.fastasyncworldedit.core.util.EditSessionBuilder;
 import com.fastasyncworldedit.core.util.ExtentTraverser;
@@ -55,6 +57,7 @@
 import com.fastasyncworldedit.core.util.MathMan;
 import com.fastasyncworldedit.core.util.TaskManager;
 import com.fastasyncworldedit.core.util.task.RunnableVal;
+import com.google.common.collect.ImmutableSet;
 import com.sk89q.worldedit.entity.BaseEntity;
 import com.sk89q.worldedit.entity.Entity;
 import com.sk89q.worldedit.entity.Player;
@@ -99,6 +102,7 @@
 import com.sk89q.worldedit.history.changeset.ChangeSet;
 import com.sk89q.worldedit.internal.expression.EvaluationException;
 import com.sk89q.worldedit.internal.expression.Expression;
+import com.sk89q.worldedit.internal.expression.ExpressionBatch;
 import com.sk89q.worldedit.internal.expression.ExpressionException;
 import com.sk89q.worldedit.internal.expression.ExpressionTimeoutException;
 import com.sk89q.worldedit.internal.expression.LocalSlot.Variable;
@@ -245,6 +249,7 @@ public String getDisplayName() {
 
     @Nullable
     private final Region[] allowedRegions;
+    private volatile SurfaceHeightCache surfaceHeightCache;
 
     @Deprecated
     public EditSession(
@@ -383,6 +388,41 @@ public Player getPlayer() {
         return player;
     }
 
+    /**
+     * Get the surface height cache of this edit, shared by the surface-aware masks, patterns and brushes using it.
+     * Blocks set through this EditSession invalidate the affected columns.
+     *
+     * @return the surface height cache
+     */
+    public SurfaceHeightCache getSurfaceHeightCache() {
+        SurfaceHeightCache cache = surfaceHeightCache;
+        if (cache == null) {
+            synchronized (this) {
+                cache = surfaceHeightCache;
+                if (cache == null) {
+                    IQueueExtent<?> queue = new ExtentTraverser<>(getExtent()).findAndGet(IQueueExtent.class);
+                    surfaceHeightCache = cache = new SurfaceHeightCache(this, queue, minY, maxY);
+                }
+            }
+        }
+        return cache;
+    }
+
+    // called once the block is written, so a height computed concurrently from the old block doesn't outlive it
+    private void invalidateSurface(int x, int y, int z) {
+        SurfaceHeightCache cache = surfaceHeightCache;
+        if (cache != null) {
+            cache.invalidate(x, y, z);
+        }
+    }
+
+    private void invalidateSurface(Region region) {
+        SurfaceHeightCache cache = surfaceHeightCache;
+        if (cache != null) {
+            cache.invalidate(region);
+        }
+    }
+
     // pkg private for TracedEditSession only, may later become public API
     boolean commitRequired() {
         return false;
@@ -969,13 +1009,17 @@ public <B extends BlockStateHolder<B>> boolean setBlock(BlockVector3 position, B
         }
 
         this.changes++;
-        switch (stage) {
-            case BEFORE_HISTORY:
-                return this.getExtent().setBlock(position, block);
-            case BEFORE_CHANGE:
-                return bypassHistory.setBlock(position, block);
-            case BEFORE_REORDER:
-                return bypassAll.setBlock(position, block);
+        try {
+            switch (stage) {
+                case BEFORE_HISTORY:
+                    return this.getExtent().setBlock(position, block);
+                case BEFORE_CHANGE:
+                    return bypassHistory.setBlock(position, block);
+                case BEFORE_REORDER:
+                    return bypassAll.setBlock(position, block);
+            }
+        } finally {
+            invalidateSurface(position.getBlockX(), position.getBlockY(), position.getBlockZ());
         }
         //FAWE end
 
@@ -1002,6 +1046,8 @@ public <B extends BlockStateHolder<B>> boolean rawSetBlock(BlockVector3 position
             return bypassAll.setBlock(position, block);
         } catch (WorldEditException e) {
             throw new RuntimeException("Unexpected exception", e);
+        } finally {
+            invalidateSurface(position.getBlockX(), position.getBlockY(), position.getBlockZ());
         }
     }
     //FAWE end
@@ -1042,6 +1088,8 @@ public <B extends BlockStateHolder<B>> boolean setBlock(BlockVector3 position, B
             throw e;
         } catch (WorldEditException e) {
             throw new RuntimeException("Unexpected exception", e);
+        } finally {
+            invalidateSurface(position.getBlockX(), position.getBlockY(), position.getBlockZ());
         }
     }
 
@@ -1057,6 +1105,8 @@ public <B extends BlockStateHolder<B>> boolean setBlock(int x, int y, int z, B b
             return this.getExtent().setBlock(x, y, z, block);
         } catch (WorldEditException e) {
             throw new RuntimeException("Unexpected exception", e);
+        } finally {
+            invalidateSurface(x, y, z);
         }
     }
 
@@ -1081,6 +1131,8 @@ public boolean setBlock(int x, int y, int z, Pattern pattern) {
             return pattern.apply(getExtent(), bv, bv);
         } catch (WorldEditException e) {
             throw new RuntimeException("Unexpected exception", e);
+        } finally {
+            invalidateSurface(x, y, z);
         }
     }
 
@@ -1102,17 +1154,27 @@ public boolean setBlock(BlockVector3 position, Pattern pattern) throws MaxChange
             return pattern.apply(this.getExtent(), position, position);
         } catch (WorldEditException e) {
             throw new RuntimeException(e);
+        } finally {
+            invalidateSurface(position.getBlockX(), position.getBlockY(), position.getBlockZ());
         }
     }
 
     @Override
     public <B extends BlockStateHolder<B>> int setBlocks(Region region, B block) throws MaxChangedBlocksException {
-        return this.changes = super.setBlocks(region, block);
+        try {
+            return this.changes = super.setBlocks(region, block);
+        } finally {
+            invalidateSurface(region);
+        }
     }
 
     @Override
     public int setBlocks(Region region, Pattern pattern) throws MaxChangedBlocksException {
-        return this.changes = super.setBlocks(region, pattern);
+        try {
+            return this.changes = super.setBlocks(region, pattern);
+        } finally {
+            invalidateSurface(region);
+        }
     }
     //FAWE end
 
@@ -1298,17 +1360,29 @@ public <B extends BlockStateHolder<B>> int fall(final Region region, boolean ful
     @Override
     public <B extends BlockStateHolder<B>> int replaceBlocks(Region region, Set<BaseBlock> filter, B replacement) throws
             MaxChangedBlocksException {
-        return this.changes = super.replaceBlocks(region, filter, replacement);
+        try {
+            return this.changes = super.replaceBlocks(region, filter, replacement);
+        } finally {
+            invalidateSurface(region);
+        }
     }
 
     @Override
     public int replaceBlocks(Region region, Set<BaseBlock> filter, Pattern pattern) throws MaxChangedBlocksException {
-        return this.changes = super.replaceBlocks(region, filter, pattern);
+        try {
+            return this.changes = super.replaceBlocks(region, filter, pattern);
+        } finally {
+            invalidateSurface(region);
+        }
     }
 
     @Override
     public int replaceBlocks(Region region, Mask mask, Pattern pattern) throws MaxChangedBlocksException {
-        return this.changes = super.replaceBlocks(region, mask, pattern);
+        try {
+            return this.changes = super.replaceBlocks(region, mask, pattern);
+        } finally {
+            invalidateSurface(region);
+        }
     }
 
     /**
@@ -1345,6 +1419,7 @@ public int fillDirection(
 
         // Pick how we're going to visit blocks
         RecursiveVisitor visitor = new DirectionalVisitor(mask, replace, origin, direction, (int) (radius * 2 + 1));
+        visitor.setParallel(true);
 
         // Start at the origin
         visitor.visit(origin);
@@ -1413,6 +1488,9 @@ public int fillXZ(BlockVector3 origin, Pattern pattern, double radius, int depth
         } else {
             visitor = new DownwardVisitor(mask, replace, origin.getBlockY(), (int) (radius * 2 + 1));
         }
+        //FAWE start - the masks only read the block at the position
+        visitor.setParallel(true);
+        //FAWE end
 
         // Start at the origin
         visitor.visit(origin);
@@ -1938,6 +2016,9 @@ public int drainArea(BlockVector3 origin, double radius, boolean waterlogged, bo
             replace = new BlockReplace(this, BlockTypes.AIR.getDefaultState());
         }
         RecursiveVisitor visitor = new RecursiveVisitor(mask, replace, (int) (radius * 2 + 1));
+        //FAWE start
+        visitor.setParallel(true);
+        //FAWE end
 
         // Around the origin in a 3x3 block
         for (BlockVector3 position : CuboidRegion.fromCenter(origin, 1)) {
@@ -1981,6 +2062,9 @@ public int fixLiquid(BlockVector3 origin, double radius, BlockType fluid) throws
 
         BlockReplace replace = new BlockReplace(this, fluid.getDefaultState());
         NonRisingVisitor visitor = new NonRisingVisitor(mask, replace);
+        //FAWE start
+        visitor.setParallel(true);
+        //FAWE end
 
         // Around the origin in a 3x3 block
         for (BlockVector3 position : CuboidRegion.fromCenter(origin, 1)) {
@@ -2794,64 +2878,123 @@ public int makeShape(
         final Expression expression = Expression.compile(expressionString, "x", "y", "z", "type", "data");
         expression.optimize();
 
-        final Variable typeVariable = expression.getSlots().getVariable("type")
-                .orElseThrow(IllegalStateException::new);
-        final Variable dataVariable = expression.getSlots().getVariable("data")
-                .orElseThrow(IllegalStateException::new);
-
-        final WorldEditExpressionEnvironment environment = new WorldEditExpressionEnvironment(this, unit, zero);
-        expression.setEnvironment(environment);
+        //FAWE start - generate in parallel, with an expression per thread
+        final ExpressionShape shape = new ExpressionShape(region, expression, zero, unit, timeout);
+        int changed = shape.generate(this, pattern, hollow);
+        int timedOut = shape.timedOut.get();
+        if (timedOut > 0) {
+            throw new ExpressionTimeoutException(
+                    String.format("%d blocks changed. %d blocks took too long to evaluate (increase with //timeout).",
+                            changed, timedOut
+                    ));
+        }
+        //FAWE end
+        return changed;
+    }
 
-        final int[] timedOut = {0};
-        final ArbitraryShape shape = new ArbitraryShape(region) {
-            @Override
-            protected BaseBlock getMaterial(int x, int y, int z, BaseBlock defaultMaterial) {
-                final Vector3 current = Vector3.at(x, y, z);
-                environment.setCurrentBlock(current);
-                final Vector3 scaled = current.subtract(zero).divide(unit);
+    //FAWE start
+    // functions whose results depend on more than their arguments
+    private static final Set<String> SERIAL_SHAPE_FUNCTIONS = ImmutableSet.of(
+            "query", "queryAbs", "queryRel", "random", "randint", "megabuf", "gmegabuf", "closest", "gclosest"
+    );
+
+    /**
+     * The shape generated by {@link #makeShape}. Forks evaluate a clone of the expression with an environment over the
+     * chunk they generate. Expressions querying the world or using random numbers or buffers are generated by a single
+     * thread, as their results may differ between forks.
+     */
+    private final class ExpressionShape extends ArbitraryShape {
+
+        private final Expression expression;
+        private final Vector3 zero;
+        private final Vector3 unit;
+        private final int timeout;
+        private final AtomicInteger timedOut;
+        private final Variable typeVariable;
+        private final Variable dataVariable;
+        private final boolean parallel;
+        private final ExpressionBatch batch;
+        // forks only get an environment once they generate a chunk
+        private WorldEditExpressionEnvironment environment;
+
+        private ExpressionShape(Region region, Expression expression, Vector3 zero, Vector3 unit, int timeout) {
+            super(region);
+            this.expression = expression;
+            this.zero = zero;
+            this.unit = unit;
+            this.timeout = timeout;
+            this.timedOut = new AtomicInteger();
+            this.typeVariable = expression.getSlots().getVariable("type").orElseThrow(IllegalStateException::new);
+            this.dataVariable = expression.getSlots().getVariable("data").orElseThrow(IllegalStateException::new);
+            this.parallel = !expression.callsAny(SERIAL_SHAPE_FUNCTIONS);
+            this.environment = new WorldEditExpressionEnvironment(EditSession.this, unit, zero);
+            expression.setEnvironment(environment);
+            this.batch = expression.batch(timeout);
+        }
+
+        private ExpressionShape(ExpressionShape parent) {
+            super(parent);
+            this.expression = parent.expression.clone();
+            this.zero = parent.zero;
+            this.unit = parent.unit;
+            this.timeout = parent.timeout;
+            this.timedOut = parent.timedOut;
+            this.typeVariable = expression.getSlots().getVariable("type").orElseThrow(IllegalStateException::new);
+            this.dataVariable = expression.getSlots().getVariable("data").orElseThrow(IllegalStateException::new);
+            this.parallel = true;
+            this.batch = expression.batch(timeout);
+        }
+
+        @Override
+        protected ArbitraryShape fork() {
+            return parallel ? new ExpressionShape(this) : null;
+        }
+
+        @Override
+        protected void setChunkExtent(Extent extent) {
+            environment = new WorldEditExpressionEnvironment(extent, unit, zero);
+            expression.setEnvironment(environment);
+        }
+
+        @Override
+        protected BaseBlock getMaterial(int x, int y, int z, BaseBlock defaultMaterial) {
+            environment.setCurrentBlock(x, y, z);
+            double scaledX = (x - zero.getX()) / unit.getX();
+            double scaledY = (y - zero.getY()) / unit.getY();
+            double scaledZ = (z - zero.getZ()) / unit.getZ();
 
-                try {
-                    int[] legacy = LegacyMapper.getInstance().getLegacyFromBlock(defaultMaterial.toImmutableState());
-                    int typeVar = 0;
-                    int dataVar = 0;
-                    if (legacy != null) {
-                        typeVar = legacy[0];
-                        if (legacy.length > 1) {
-                            dataVar = legacy[1];
-                        }
-                    }
-                    if (expression.evaluate(
-                            new double[]{scaled.getX(), scaled.getY(), scaled.getZ(), typeVar, dataVar},
-                            timeout
-                    ) <= 0) {
-                        return null;
-                    }
-                    int newType = (int) typeVariable.getValue();
-                    int newData = (int) dataVariable.getValue();
-                    if (newType != typeVar || newData != dataVar) {
-                        BlockState state = LegacyMapper.getInstance().getBlockFromLegacy(newType, newData);
-                        return state == null ? defaultMaterial : state.toBaseBlock();
-                    } else {
-                        return defaultMaterial;
+            try {
+                int[] legacy = LegacyMapper.getInstance().getLegacyFromBlock(defaultMaterial.toImmutableState());
+                int typeVar = 0;
+                int dataVar = 0;
+                if (legacy != null) {
+                    typeVar = legacy[0];
+                    if (legacy.length > 1) {
+                        dataVar = legacy[1];
                     }
-                } catch (ExpressionTimeoutException e) {
-                    timedOut[0] = timedOut[0] + 1;
-                    return null;
-                } catch (Exception e) {
-                    LOGGER.warn("Failed to create shape", e);
+                }
+                if (batch.evaluate(scaledX, scaledY, scaledZ, typeVar, dataVar) <= 0) {
                     return null;
                 }
+                int newType = (int) typeVariable.getValue();
+                int newData = (int) dataVariable.getValue();
+                if (newType != typeVar || newData != dataVar) {
+                    BlockState state = LegacyMapper.getInstance().getBlockFromLegacy(newType, newData);
+                    return state == null ? defaultMaterial : state.toBaseBlock();
+                } else {
+                    return defaultMaterial;
+                }
+            } catch (ExpressionTimeoutException e) {
+                timedOut.incrementAndGet();
+                return null;
+            } catch (Exception e) {
+                LOGGER.warn("Failed to create shape", e);
+                return null;
             }
-        };
-        int changed = shape.generate(this, pattern, hollow);
-        if (timedOut[0] > 0) {
-            throw new ExpressionTimeoutException(
-                    String.format("%d blocks changed. %d blocks took too long to evaluate (increase with //timeout).",
-                            changed, timedOut[0]
-                    ));
         }
-        return changed;
+
     }
+    //FAWE end
 
     /**
      * Deforms the region by a given expression. A deform provides a block's x, y, and z coordinates (possibly scaled)
@@ -3375,6 +3518,9 @@ public int makeBiomeShape(
         final EditSession editSession = this;
         final WorldEditExpressionEnvironment environment = new WorldEditExpressionEnvironment(editSession, unit, zero);
         expression.setEnvironment(environment);
+        //FAWE start - evaluate in a batch
+        final ExpressionBatch batch = expression.batch(timeout);
+        //FAWE end
 
         AtomicInteger timedOut = new AtomicInteger();
         final ArbitraryBiomeShape shape = new ArbitraryBiomeShape(region) {
@@ -3386,7 +3532,9 @@ protected BiomeType getBiome(int x, int y, int z, BiomeType defaultBiomeType) {
                 double scaledZ = (z - zero.getZ()) / unit.getZ();
 
                 try {
-                    if (expression.evaluate(timeout, scaledX, scaledY, scaledZ) <= 0) {
+                    //FAWE start - evaluate in a batch
+                    if (batch.evaluate(scaledX, scaledY, scaledZ) <= 0) {
+                        //FAWE end
                         return null;
                     }
 
@@ -22,12 +22,16 @@
 import com.fastasyncworldedit.core.configuration.Caption;
 import com.fastasyncworldedit.core.configuration.Settings;
 import com.fastasyncworldedit.core.event.extent.ActorSaveClipboardEvent;
+import com.fastasyncworldedit.core.extent.clipboard.DiskOptimizedClipboard;
 import com.fastasyncworldedit.core.extent.clipboard.MultiClipboardHolder;
 import com.fastasyncworldedit.core.extent.clipboard.URIClipboardHolder;
+import com.fastasyncworldedit.core.extent.clipboard.io.TiledSchematicReader;
+import com.fastasyncworldedit.core.extent.clipboard.io.TiledSchematicWriter;
 import com.fastasyncworldedit.core.extent.clipboard.io.schematic.MinecraftStructure;
 import com.fastasyncworldedit.core.util.MainUtil;
 import com.google.common.base.Function;
 import com.google.common.collect.Multimap;
+import com.sk89q.worldedit.IncompleteRegionException;
 import com.sk89q.worldedit.LocalConfiguration;
 import com.sk89q.worldedit.LocalSession;
 import com.sk89q.worldedit.WorldEdit;
@@ -41,6 +45,7 @@
 import com.sk89q.worldedit.extension.platform.Capability;
 import com.sk89q.worldedit.extent.clipboard.BlockArrayClipboard;
 import com.sk89q.worldedit.extent.clipboard.Clipboard;
+import com.sk89q.worldedit.extent.clipboard.io.BuiltInClipboardFormat;
 import com.sk89q.worldedit.extent.clipboard.io.ClipboardFormat;
 import com.sk89q.worldedit.extent.clipboard.io.ClipboardFormats;
 import com.sk89q.worldedit.extent.clipboard.io.ClipboardReader;
@@ -48,6 +53,7 @@
 import com.sk89q.worldedit.function.operation.Operations;
 import com.sk89q.worldedit.internal.util.LogManagerCompat;
 import com.sk89q.worldedit.math.transform.Transform;
+import com.sk89q.worldedit.regions.Region;
 import com.sk89q.worldedit.session.ClipboardHolder;
 import com.sk89q.worldedit.util.formatting.component.ErrorFormat;
 import com.sk89q.worldedit.util.formatting.component.PaginationBox;
@@ -303,8 +309,12 @@ public void load(
             @Arg(desc = "File name.")
                     String filename,
             @Arg(desc = "Format name.", def = "fast")
-                    String formatName
+                    String formatName,
+            //FAWE start
+            @Switch(name = 's', desc = "Only load the part of a tiled schematic within your selection")
+                    boolean selection
     ) throws FilenameException {
+        //FAWE end
         LocalConfiguration config = worldEdit.getConfiguration();
 
         //FAWE start
@@ -384,8 +394,29 @@ public void load(
                 in = new FileInputStream(file);
                 uri = file.toURI();
             }
-            format.hold(actor, uri, in);
+            if (selection) {
+                Region region = session.getSelection();
+                ClipboardReader reader = format.getReader(in);
+                if (!(reader instanceof TiledSchematicReader)) {
+                    actor.print(Caption.of("fawe.worldedit.schematic.schematic.partial-unsupported", format.getName()));
+                    return;
+                }
+                TiledSchematicReader tiled = (TiledSchematicReader) reader;
+                if (!tiled.getSchematic().intersects(region.getMinimumPoint(), region.getMaximumPoint())) {
+                    actor.print(Caption.of("fawe.worldedit.schematic.schematic.outside-selection", filename));
+                    return;
+                }
+                session.setClipboard(null);
+                // only the tiles intersecting the selection are read
+                Clipboard clipboard = tiled.read(region.getMinimumPoint(), region.getMaximumPoint(),
+                        DiskOptimizedClipboard::new);
+                session.setClipboard(new URIClipboardHolder(uri, clipboard));
+            } else {
+                format.hold(actor, uri, in);
+            }
             actor.print(Caption.of("fawe.worldedit.schematic.schematic.loaded", filename));
+        } catch (IncompleteRegionException e) {
+            actor.print(Caption.of("worldedit.error.incomplete-region"));
         } catch (IllegalArgumentException e) {
             actor.print(Caption.of("worldedit.schematic.unknown-filename", TextComponent.of(filename)));
         } catch (URISyntaxException | IOException e) {
@@ -860,17 +891,25 @@ public Void call() throws Exception {
                 Operations.completeLegacy(result.copyTo(target));
             }
 
+            //FAWE start - save tiled schematics in place, so only changed tiles are written
+            boolean incremental = format == BuiltInClipboardFormat.FAST_TILED && target == clipboard;
+            //FAWE end
             try (Closer closer = Closer.create()) {
-                FileOutputStream fos = closer.register(new FileOutputStream(file));
-                BufferedOutputStream bos = closer.register(new BufferedOutputStream(fos));
-                ClipboardWriter writer = closer.register(format.getWriter(bos));
                 //FAWE start
+                ClipboardWriter writer = null;
+                if (!incremental) {
+                    FileOutputStream fos = closer.register(new FileOutputStream(file));
+                    BufferedOutputStream bos = closer.register(new BufferedOutputStream(fos));
+                    writer = closer.register(format.getWriter(bos));
+                }
                 URI uri = null;
                 if (holder instanceof URIClipboardHolder) {
                     uri = ((URIClipboardHolder) holder).getURI(clipboard);
                 }
                 if (new ActorSaveClipboardEvent(actor, clipboard, uri, file.toURI()).call()) {
-                    if (writer instanceof MinecraftStructure) {
+                    if (incremental) {
+                        TiledSchematicWriter.save(file, target);
+                    } else if (writer instanceof MinecraftStructure) {
                         ((MinecraftStructure) writer).write(target, actor.getName());
                     } else {
                         writer.write(target);
@@ -88,6 +88,7 @@ public boolean actPrimary(
                 Mask mask = initialType.toMask(editSession);
                 BlockReplace function = new BlockReplace(editSession, pattern);
                 RecursiveVisitor visitor = new RecursiveVisitor(mask, function, range);
+                visitor.setParallel(true);
                 visitor.visit(origin);
                 Operations.completeLegacy(visitor);
                 //FAWE end
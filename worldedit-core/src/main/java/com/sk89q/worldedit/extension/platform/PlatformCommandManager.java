@@ -20,6 +20,8 @@
 package com.sk89q.worldedit.extension.platform;
 
 import com.fastasyncworldedit.core.Fawe;
+import com.fastasyncworldedit.core.command.AnvilCommands;
+import com.fastasyncworldedit.core.command.AnvilCommandsRegistration;
 import com.fastasyncworldedit.core.configuration.Caption;
 import com.fastasyncworldedit.core.configuration.Settings;
 import com.fastasyncworldedit.core.extension.platform.binding.Bindings;
@@ -538,6 +540,13 @@ public void registerAllCommands() {
                     HistorySubCommandsRegistration.builder(),
                     new HistorySubCommands(history)
             );
+            registerSubCommands(
+                    "anvil",
+                    ImmutableList.of("/anvil"),
+                    "Edit worlds which are not loaded",
+                    AnvilCommandsRegistration.builder(),
+                    new AnvilCommands(worldEdit)
+            );
             //FAWE end
             this.registration.register(
                     commandManager,
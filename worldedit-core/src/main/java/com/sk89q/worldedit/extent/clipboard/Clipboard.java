@@ -24,6 +24,8 @@
 import com.fastasyncworldedit.core.extent.clipboard.DiskOptimizedClipboard;
 import com.fastasyncworldedit.core.extent.clipboard.MemoryOptimizedClipboard;
 import com.fastasyncworldedit.core.extent.clipboard.ReadOnlyClipboard;
+import com.fastasyncworldedit.core.extent.clipboard.SectionedClipboard;
+import com.fastasyncworldedit.core.extent.filter.ClipboardPasteFilter;
 import com.fastasyncworldedit.core.function.visitor.Order;
 import com.fastasyncworldedit.core.queue.Filter;
 import com.fastasyncworldedit.core.util.EditSessionBuilder;
@@ -83,6 +85,8 @@ static Clipboard create(Region region, UUID uuid) {
             return new DiskOptimizedClipboard(region, uuid);
         } else if (Settings.IMP.CLIPBOARD.COMPRESSION_LEVEL == 0) {
             return new CPUOptimizedClipboard(region);
+        } else if (Settings.IMP.CLIPBOARD.PALETTE_SECTIONS) {
+            return new SectionedClipboard(region);
         } else {
             return new MemoryOptimizedClipboard(region);
         }
@@ -336,21 +340,30 @@ default void paste(Extent extent, BlockVector3 to, boolean pasteAir, boolean pas
 
         pasteBiomes &= Clipboard.this.hasBiomes();
 
-        for (BlockVector3 pos : this) {
-            BaseBlock block = pos.getFullBlock(this);
-            int xx = pos.getX() + relx;
-            int yy = pos.getY() + rely;
-            int zz = pos.getZ() + relz;
-            if (pasteBiomes) {
-                extent.setBiome(xx, yy, zz, Clipboard.this.getBiome(BlockVector3.at(pos.getX(), pos.getY(), pos.getZ())));
-            }
-            if (!pasteAir && block.getBlockType().getMaterial().isAir()) {
-                continue;
-            }
-            if (pos.getY() < 0) {
-                throw new RuntimeException("Y-Position cannot be less than 0!");
+        // copy whole chunks on the queue workers if possible, positions below 0 are rejected by the loop below
+        ClipboardPasteFilter filter = getMinimumPoint().getY() < 0 ? null
+                : ClipboardPasteFilter.of(this, to, null, pasteAir, pasteBiomes);
+        if (filter != null) {
+            filter.paste(extent);
+        } else {
+            for (BlockVector3 pos : this) {
+                BaseBlock block = pos.getFullBlock(this);
+                int xx = pos.getX() + relx;
+                int yy = pos.getY() + rely;
+                int zz = pos.getZ() + relz;
+                if (pasteBiomes) {
+                    extent.setBiome(xx, yy, zz, Clipboard.this.getBiome(BlockVector3.at(pos.getX(), pos.getY(),
+                            pos.getZ()
+                    )));
+                }
+                if (!pasteAir && block.getBlockType().getMaterial().isAir()) {
+                    continue;
+                }
+                if (pos.getY() < 0) {
+                    throw new RuntimeException("Y-Position cannot be less than 0!");
+                }
+                extent.setBlock(xx, yy, zz, block);
             }
-            extent.setBlock(xx, yy, zz, block);
         }
         // Entity offset is the paste location subtract the clipboard origin (entity's location is already relative to the world origin)
         final int entityOffsetX = to.getBlockX() - origin.getBlockX();
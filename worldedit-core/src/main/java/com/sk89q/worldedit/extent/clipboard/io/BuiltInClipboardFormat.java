@@ -21,6 +21,9 @@
 
 import com.fastasyncworldedit.core.extent.clipboard.io.FastSchematicReader;
 import com.fastasyncworldedit.core.extent.clipboard.io.FastSchematicWriter;
+import com.fastasyncworldedit.core.extent.clipboard.io.TiledSchematic;
+import com.fastasyncworldedit.core.extent.clipboard.io.TiledSchematicReader;
+import com.fastasyncworldedit.core.extent.clipboard.io.TiledSchematicWriter;
 import com.fastasyncworldedit.core.extent.clipboard.io.schematic.MinecraftStructure;
 import com.fastasyncworldedit.core.extent.clipboard.io.schematic.PNGWriter;
 import com.fastasyncworldedit.core.internal.io.ResettableFileInputStream;
@@ -34,11 +37,13 @@
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Arrays;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
@@ -232,6 +237,40 @@ public boolean isFormat(File file) {
         }
     },
 
+    /**
+     * FAWE's tiled schematic format, which can be read partially and appended to.
+     */
+    FAST_TILED("tiled", "tschem") {
+        @Override
+        public ClipboardReader getReader(InputStream inputStream) throws IOException {
+            return new TiledSchematicReader(inputStream);
+        }
+
+        @Override
+        public ClipboardWriter getWriter(OutputStream outputStream) throws IOException {
+            return new TiledSchematicWriter(new BufferedOutputStream(outputStream));
+        }
+
+        @Override
+        public boolean isFormat(File file) {
+            if (file.getName().toLowerCase(Locale.ROOT).endsWith(".tschem")) {
+                return true;
+            }
+            byte[] magic = new byte[TiledSchematic.MAGIC.length];
+            try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+                in.readFully(magic);
+            } catch (IOException e) {
+                return false;
+            }
+            return Arrays.equals(magic, TiledSchematic.MAGIC);
+        }
+
+        @Override
+        public String getPrimaryFileExtension() {
+            return "tschem";
+        }
+    },
+
     /**
      * Isometric PNG writer.
      */
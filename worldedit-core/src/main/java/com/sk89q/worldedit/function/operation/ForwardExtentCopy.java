@@ -22,6 +22,8 @@
 import com.fastasyncworldedit.core.configuration.Caption;
 import com.fastasyncworldedit.core.extent.BlockTranslateExtent;
 import com.fastasyncworldedit.core.extent.PositionTransformExtent;
+import com.fastasyncworldedit.core.extent.filter.ClipboardCopyFilter;
+import com.fastasyncworldedit.core.extent.filter.ClipboardPasteFilter;
 import com.fastasyncworldedit.core.function.RegionMaskTestFunction;
 import com.fastasyncworldedit.core.function.block.BiomeCopy;
 import com.fastasyncworldedit.core.function.block.CombinedBlockCopy;
@@ -29,28 +31,33 @@
 import com.fastasyncworldedit.core.function.visitor.IntersectRegionFunction;
 import com.fastasyncworldedit.core.util.MaskTraverser;
 import com.google.common.collect.ImmutableList;
-import com.google.common.collect.Lists;
 import com.sk89q.worldedit.WorldEditException;
 import com.sk89q.worldedit.entity.Entity;
 import com.sk89q.worldedit.entity.metadata.EntityProperties;
 import com.sk89q.worldedit.extent.Extent;
+import com.sk89q.worldedit.extent.clipboard.Clipboard;
+import com.sk89q.worldedit.extent.transform.BlockTransformExtent;
 import com.sk89q.worldedit.function.CombinedRegionFunction;
 import com.sk89q.worldedit.function.RegionFunction;
 import com.sk89q.worldedit.function.RegionMaskingFilter;
 import com.sk89q.worldedit.function.entity.ExtentEntityCopy;
+import com.sk89q.worldedit.function.mask.ExistingBlockMask;
 import com.sk89q.worldedit.function.mask.Mask;
 import com.sk89q.worldedit.function.mask.Masks;
+import com.sk89q.worldedit.function.mask.RegionMask;
 import com.sk89q.worldedit.function.visitor.EntityVisitor;
 import com.sk89q.worldedit.function.visitor.RegionVisitor;
 import com.sk89q.worldedit.math.BlockVector3;
 import com.sk89q.worldedit.math.transform.AffineTransform;
 import com.sk89q.worldedit.math.transform.Identity;
 import com.sk89q.worldedit.math.transform.Transform;
+import com.sk89q.worldedit.regions.CuboidRegion;
 import com.sk89q.worldedit.regions.FlatRegion;
 import com.sk89q.worldedit.regions.Region;
 import com.sk89q.worldedit.util.formatting.text.Component;
 import com.sk89q.worldedit.util.formatting.text.TextComponent;
 
+import javax.annotation.Nullable;
 import java.util.Collections;
 import java.util.List;
 
@@ -297,6 +304,25 @@ public Operation resume(RunContext run) throws WorldEditException {
             lastEntityVisitor = null;
         }
 
+        //FAWE start - paste clipboards chunk by chunk
+        ClipboardPasteFilter pasteFilter = createPasteFilter();
+        if (pasteFilter != null) {
+            affectedBlocks += pasteFilter.paste(destination);
+            if (copyingEntities) {
+                copyEntities(getPasteableEntities());
+            }
+            return null;
+        }
+        ClipboardCopyFilter copyFilter = createCopyFilter();
+        if (copyFilter != null) {
+            affectedBlocks += copyFilter.copy(source);
+            if (copyingEntities) {
+                copyEntities(getPasteableEntities());
+            }
+            return null;
+        }
+        //FAWE end
+
         //FAWE start
         Extent finalDest = destination;
         BlockVector3 translation = to.subtract(from);
@@ -403,12 +429,7 @@ public Operation resume(RunContext run) throws WorldEditException {
 
         List<? extends Entity> entities;
         if (copyingEntities) {
-            // filter players since they can't be copied
-            entities = source.getEntities(region);
-            entities.removeIf(entity -> {
-                EntityProperties properties = entity.getFacet(EntityProperties.class);
-                return properties != null && !properties.isPasteable();
-            });
+            entities = getPasteableEntities();
         } else {
             entities = Collections.emptyList();
         }
@@ -417,22 +438,7 @@ public Operation resume(RunContext run) throws WorldEditException {
             Operations.completeBlindly(blockCopy);
 
             if (!entities.isEmpty()) {
-                ExtentEntityCopy entityCopy = new ExtentEntityCopy(
-                        source,
-                        from.toVector3(),
-                        destination,
-                        to.toVector3(),
-                        currentTransform
-                );
-                entityCopy.setRemoving(removingEntities);
-                List<? extends Entity> entities2 = Lists.newArrayList(source.getEntities(region));
-                entities2.removeIf(entity -> {
-                    EntityProperties properties = entity.getFacet(EntityProperties.class);
-                    return properties != null && !properties.isPasteable();
-                });
-                EntityVisitor entityVisitor = new EntityVisitor(entities.iterator(), entityCopy);
-                Operations.completeBlindly(entityVisitor);
-                affectedEntities += entityVisitor.getAffected();
+                copyEntities(entities);
             }
 
             if (transExt != null) {
@@ -446,6 +452,96 @@ public Operation resume(RunContext run) throws WorldEditException {
         return null;
     }
 
+    //FAWE start
+    private List<? extends Entity> getPasteableEntities() {
+        // filter players since they can't be copied
+        List<? extends Entity> entities = source.getEntities(region);
+        entities.removeIf(entity -> {
+            EntityProperties properties = entity.getFacet(EntityProperties.class);
+            return properties != null && !properties.isPasteable();
+        });
+        return entities;
+    }
+
+    private void copyEntities(List<? extends Entity> entities) {
+        ExtentEntityCopy entityCopy = new ExtentEntityCopy(
+                source,
+                from.toVector3(),
+                destination,
+                to.toVector3(),
+                currentTransform
+        );
+        entityCopy.setRemoving(removingEntities);
+        EntityVisitor entityVisitor = new EntityVisitor(entities.iterator(), entityCopy);
+        Operations.completeBlindly(entityVisitor);
+        affectedEntities += entityVisitor.getAffected();
+    }
+
+    /**
+     * Create a filter pasting the source straight into the chunks of the destination. Only possible if the source is a
+     * whole clipboard, optionally with the transform applied to its blocks, and no functions or custom masks are set.
+     *
+     * @return the filter, or null if the copy has to go through the region visitor
+     */
+    @Nullable
+    private ClipboardPasteFilter createPasteFilter() {
+        if (repetitions != 1 || sourceFunction != null || filterFunction != null || removingEntities) {
+            return null;
+        }
+        Clipboard clipboard;
+        if (source instanceof Clipboard && currentTransform.isIdentity()) {
+            clipboard = (Clipboard) source;
+        } else if (source instanceof BlockTransformExtent
+                && ((BlockTransformExtent) source).getExtent() instanceof Clipboard
+                && ((BlockTransformExtent) source).getTransform() == currentTransform) {
+            clipboard = (Clipboard) ((BlockTransformExtent) source).getExtent();
+        } else {
+            return null;
+        }
+        Region clipboardRegion = clipboard.getRegion();
+        if (region != clipboardRegion && !(region instanceof CuboidRegion && region.equals(clipboardRegion))) {
+            return null;
+        }
+        if (!from.equals(clipboard.getOrigin())) {
+            return null;
+        }
+        boolean pasteAir;
+        if (sourceMask == Masks.alwaysTrue()) {
+            pasteAir = true;
+        } else if (sourceMask instanceof ExistingBlockMask && (((ExistingBlockMask) sourceMask).getExtent() == clipboard
+                || ((ExistingBlockMask) sourceMask).getExtent() == source)) {
+            pasteAir = false;
+        } else {
+            return null;
+        }
+        return ClipboardPasteFilter.of(clipboard, to, currentTransform, pasteAir, copyingBiomes);
+    }
+
+    /**
+     * Create a filter copying the chunks of the source straight into a clipboard. Only possible if the destination is a
+     * clipboard, there is no transform, and no functions or masks other than a region mask are set.
+     *
+     * @return the filter, or null if the copy has to go through the region visitor
+     */
+    @Nullable
+    private ClipboardCopyFilter createCopyFilter() {
+        if (repetitions != 1 || sourceFunction != null || filterFunction != null || removingEntities
+                || !currentTransform.isIdentity() || !(destination instanceof Clipboard)) {
+            return null;
+        }
+        Region mask;
+        if (sourceMask == Masks.alwaysTrue()) {
+            mask = null;
+        } else if (sourceMask instanceof RegionMask) {
+            mask = ((RegionMask) sourceMask).getRegion();
+        } else {
+            return null;
+        }
+        boolean biomes = copyingBiomes && (source.isWorld() || region instanceof FlatRegion);
+        return ClipboardCopyFilter.of(region, from, (Clipboard) destination, to, mask, biomes);
+    }
+    //FAWE end
+
     @Override
     public void cancel() {
     }
@@ -19,9 +19,16 @@
 
 package com.sk89q.worldedit.function.visitor;
 
+import com.fastasyncworldedit.core.Fawe;
 import com.fastasyncworldedit.core.configuration.Caption;
+import com.fastasyncworldedit.core.configuration.Settings;
+import com.fastasyncworldedit.core.math.BlockVectorQueue;
 import com.fastasyncworldedit.core.math.BlockVectorSet;
+import com.fastasyncworldedit.core.math.ConcurrentPagedBlockBitSet;
 import com.fastasyncworldedit.core.math.MutableBlockVector3;
+import com.fastasyncworldedit.core.math.PagedBlockBitSet;
+import com.fastasyncworldedit.core.queue.implementation.QueueHandler;
+import com.fastasyncworldedit.core.util.MathMan;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Sets;
 import com.sk89q.worldedit.WorldEditException;
@@ -32,12 +39,16 @@
 import com.sk89q.worldedit.util.Direction;
 import com.sk89q.worldedit.util.formatting.text.Component;
 import com.sk89q.worldedit.util.formatting.text.TextComponent;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
 
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.ForkJoinTask;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
@@ -81,12 +92,17 @@ public abstract class BreadthFirstSearch implements Operation {
         list.sort((o1, o2) -> (int) Math.signum(o1.lengthSq() - o2.lengthSq()));
         DIAGONAL_DIRECTIONS = list.toArray(new BlockVector3[0]);
     }
+
+    /**
+     * The smallest frontier that is expanded in parallel, smaller levels are not worth the task overhead.
+     */
+    public static final int PARALLEL_FRONTIER_THRESHOLD = 4096;
     //FAWE end
 
     private final RegionFunction function;
     //FAWE Start - BVS > Queue<BV3>, Set<BV3>, List<BV3>
-    private BlockVectorSet queue = new BlockVectorSet();
-    private BlockVectorSet visited = new BlockVectorSet();
+    private BlockVectorQueue queue = new BlockVectorQueue();
+    private PagedBlockBitSet visited = new PagedBlockBitSet();
     private BlockVector3[] directions;
     //FAWE end
     private int affected = 0;
@@ -94,6 +110,7 @@ public abstract class BreadthFirstSearch implements Operation {
     private int currentDepth = 0;
     private final int maxDepth;
     private int maxBranch = Integer.MAX_VALUE;
+    private boolean parallel;
 
     /**
      * Create a new instance.
@@ -207,14 +224,34 @@ private void visit(BlockVector3 from, BlockVector3 to) {
     }
 
     //FAWE start
-    public void setVisited(BlockVectorSet set) {
+    public void setVisited(PagedBlockBitSet set) {
         this.visited = set;
     }
 
-    public BlockVectorSet getVisited() {
+    public PagedBlockBitSet getVisitedSet() {
         return visited;
     }
 
+    /**
+     * Use {@link #setVisited(PagedBlockBitSet)}. The positions are copied, later changes to the set are not seen.
+     */
+    @Deprecated
+    public void setVisited(BlockVectorSet set) {
+        PagedBlockBitSet copy = new PagedBlockBitSet();
+        copy.addAll(set);
+        this.visited = copy;
+    }
+
+    /**
+     * Use {@link #getVisitedSet()}. This returns a copy of the visited positions.
+     */
+    @Deprecated
+    public BlockVectorSet getVisited() {
+        BlockVectorSet copy = new BlockVectorSet();
+        copy.addAll(visited);
+        return copy;
+    }
+
     public boolean isVisited(BlockVector3 pos) {
         return visited.contains(pos);
     }
@@ -222,6 +259,41 @@ public boolean isVisited(BlockVector3 pos) {
     public void setMaxBranch(int maxBranch) {
         this.maxBranch = maxBranch;
     }
+
+    /**
+     * Set whether large frontiers may be expanded on multiple threads. This only takes effect if the search supports
+     * concurrent {@link #isVisitable(BlockVector3, BlockVector3)} calls, see {@link #initParallel()}.
+     *
+     * <p>When a level is expanded in parallel, the function is applied to the whole level before any of its
+     * neighbours are tested. Depth and max branch limits are the same as for the serial search.</p>
+     *
+     * @param parallel if the search may run in parallel
+     */
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+
+    /**
+     * Prepare for concurrent calls of {@link #isVisitable(BlockVector3, BlockVector3)}.
+     *
+     * @return true if the search can be expanded in parallel
+     */
+    protected boolean initParallel() {
+        return false;
+    }
+
+    /**
+     * Called on the worker thread at the start of each task of a parallel expansion, before its first
+     * {@link #isVisitable(BlockVector3, BlockVector3)} call.
+     */
+    protected void initTask() {
+    }
+
+    /**
+     * Called once a search that returned true from {@link #initParallel()} has finished expanding.
+     */
+    protected void finishParallel() {
+    }
     //FAWE end
 
     /**
@@ -247,43 +319,142 @@ public int getAffected() {
     public Operation resume(RunContext run) throws WorldEditException {
         //FAWE start - directions & visited
         MutableBlockVector3 mutable = new MutableBlockVector3();
+        MutableBlockVector3 from = new MutableBlockVector3();
         BlockVector3[] dirs = directions;
-        BlockVectorSet tempQueue = new BlockVectorSet();
-        for (currentDepth = 0; !queue.isEmpty() && currentDepth <= maxDepth; currentDepth++) {
-            for (BlockVector3 from : queue) {
-                if (function.apply(from)) {
-                    affected++;
-                }
-                for (int i = 0, j = 0; i < dirs.length && j < maxBranch; i++) {
-                    BlockVector3 direction = dirs[i];
-                    int y = from.getBlockY() + direction.getY();
-                    if (y < 0 || y >= 256) {
-                        continue;
+        BlockVectorQueue tempQueue = new BlockVectorQueue();
+        boolean forked = parallel && Settings.IMP.QUEUE.PARALLEL_THREADS > 1 && initParallel();
+        try {
+            for (currentDepth = 0; !queue.isEmpty() && currentDepth <= maxDepth; currentDepth++) {
+                int size = queue.size();
+                if (forked && size >= PARALLEL_FRONTIER_THRESHOLD) {
+                    for (int index = 0; index < size; index++) {
+                        if (function.apply(from.setComponents(queue.getX(index), queue.getY(index), queue.getZ(index)))) {
+                            affected++;
+                        }
                     }
-                    int x = from.getBlockX() + direction.getX();
-                    int z = from.getBlockZ() + direction.getZ();
-                    if (!visited.contains(x, y, z)) {
-                        if (isVisitable(from, mutable.setComponents(x, y, z))) {
-                            j++;
-                            visited.add(x, y, z);
-                            tempQueue.add(x, y, z);
+                    expandParallel(dirs, tempQueue);
+                } else {
+                    for (int index = 0; index < size; index++) {
+                        from.setComponents(queue.getX(index), queue.getY(index), queue.getZ(index));
+                        if (function.apply(from)) {
+                            affected++;
+                        }
+                        for (int i = 0, j = 0; i < dirs.length && j < maxBranch; i++) {
+                            BlockVector3 direction = dirs[i];
+                            int y = from.getBlockY() + direction.getY();
+                            if (y < 0 || y >= 256) {
+                                continue;
+                            }
+                            int x = from.getBlockX() + direction.getX();
+                            int z = from.getBlockZ() + direction.getZ();
+                            if (!visited.contains(x, y, z)) {
+                                if (isVisitable(from, mutable.setComponents(x, y, z))) {
+                                    j++;
+                                    visited.add(x, y, z);
+                                    tempQueue.add(x, y, z);
+                                }
+                            }
                         }
                     }
                 }
+                if (currentDepth == maxDepth) {
+                    break;
+                }
+                BlockVectorQueue tmp = queue;
+                queue = tempQueue;
+                tmp.clear();
+                tempQueue = tmp;
             }
-            if (currentDepth == maxDepth) {
-                break;
+        } finally {
+            if (forked) {
+                finishParallel();
             }
-            BlockVectorSet tmp = queue;
-            queue = tempQueue;
-            tmp.clear();
-            tempQueue = tmp;
         }
         //FAWE end
 
         return null;
     }
 
+    //FAWE start
+
+    /**
+     * Expand the current queue into {@code next} on the fork join pool. The queue is partitioned by chunk, each task
+     * claims new positions through a concurrent bitset and the claimed positions are merged once all tasks are done.
+     */
+    private void expandParallel(BlockVector3[] dirs, BlockVectorQueue next) {
+        Long2ObjectOpenHashMap<IntArrayList> partitions = new Long2ObjectOpenHashMap<>();
+        for (int index = 0, size = queue.size(); index < size; index++) {
+            int x = queue.getX(index);
+            int y = queue.getY(index);
+            int z = queue.getZ(index);
+            long pair = MathMan.pairInt(x >> 4, z >> 4);
+            IntArrayList partition = partitions.get(pair);
+            if (partition == null) {
+                partition = new IntArrayList();
+                partitions.put(pair, partition);
+            }
+            partition.add(x);
+            partition.add(y);
+            partition.add(z);
+        }
+        final Iterator<IntArrayList> partitionIter = partitions.values().iterator();
+        final ConcurrentPagedBlockBitSet claimed = new ConcurrentPagedBlockBitSet();
+        final int size = Math.min(partitions.size(), Settings.IMP.QUEUE.PARALLEL_THREADS);
+        final IntArrayList[] results = new IntArrayList[size];
+        final ForkJoinTask<?>[] tasks = new ForkJoinTask[size];
+        QueueHandler handler = Fawe.get().getQueueHandler();
+        for (int t = 0; t < size; t++) {
+            final IntArrayList result = results[t] = new IntArrayList();
+            tasks[t] = handler.submit(() -> {
+                initTask();
+                MutableBlockVector3 from = new MutableBlockVector3();
+                MutableBlockVector3 to = new MutableBlockVector3();
+                while (true) {
+                    IntArrayList partition;
+                    synchronized (partitionIter) {
+                        if (!partitionIter.hasNext()) {
+                            break;
+                        }
+                        partition = partitionIter.next();
+                    }
+                    for (int p = 0; p < partition.size(); p += 3) {
+                        from.setComponents(partition.getInt(p), partition.getInt(p + 1), partition.getInt(p + 2));
+                        for (int i = 0, j = 0; i < dirs.length && j < maxBranch; i++) {
+                            BlockVector3 direction = dirs[i];
+                            int y = from.getBlockY() + direction.getY();
+                            if (y < 0 || y >= 256) {
+                                continue;
+                            }
+                            int x = from.getBlockX() + direction.getX();
+                            int z = from.getBlockZ() + direction.getZ();
+                            // visited is only read while the tasks run, without its page cache
+                            if (!visited.containsConcurrently(x, y, z) && !claimed.contains(x, y, z)
+                                    && isVisitable(from, to.setComponents(x, y, z)) && claimed.add(x, y, z)) {
+                                j++;
+                                result.add(x);
+                                result.add(y);
+                                result.add(z);
+                            }
+                        }
+                    }
+                }
+            });
+        }
+        for (ForkJoinTask<?> task : tasks) {
+            task.join();
+        }
+        for (IntArrayList result : results) {
+            for (int p = 0; p < result.size(); p += 3) {
+                int x = result.getInt(p);
+                int y = result.getInt(p + 1);
+                int z = result.getInt(p + 2);
+                visited.add(x, y, z);
+                next.add(x, y, z);
+            }
+        }
+    }
+    //FAWE end
+
     //FAWE start
     public int getDepth() {
         return currentDepth;
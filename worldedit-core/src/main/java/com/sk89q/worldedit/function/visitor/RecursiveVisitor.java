@@ -19,9 +19,30 @@
 
 package com.sk89q.worldedit.function.visitor;
 
+import com.fastasyncworldedit.core.Fawe;
+import com.fastasyncworldedit.core.function.mask.ABlockMask;
+import com.fastasyncworldedit.core.function.mask.InverseMask;
+import com.fastasyncworldedit.core.function.mask.MaskUnion;
+import com.fastasyncworldedit.core.queue.IQueueExtent;
+import com.fastasyncworldedit.core.wrappers.WorldWrapper;
+import com.sk89q.worldedit.EditSession;
+import com.sk89q.worldedit.extent.Extent;
 import com.sk89q.worldedit.function.RegionFunction;
+import com.sk89q.worldedit.function.mask.AbstractExtentMask;
+import com.sk89q.worldedit.function.mask.BlockStateMask;
+import com.sk89q.worldedit.function.mask.BlockTypeMask;
+import com.sk89q.worldedit.function.mask.BoundedHeightMask;
+import com.sk89q.worldedit.function.mask.ExistingBlockMask;
 import com.sk89q.worldedit.function.mask.Mask;
+import com.sk89q.worldedit.function.mask.MaskIntersection;
+import com.sk89q.worldedit.function.mask.Masks;
+import com.sk89q.worldedit.function.mask.RegionMask;
 import com.sk89q.worldedit.math.BlockVector3;
+import com.sk89q.worldedit.world.World;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
@@ -32,6 +53,10 @@
 public class RecursiveVisitor extends BreadthFirstSearch {
 
     private final Mask mask;
+    //FAWE start - a copy of the mask per thread for parallel expansion
+    private ThreadLocal<ForkedMask> forkedMask;
+    private World forkedWorld;
+    //FAWE end
 
     //FAWE start
     public RecursiveVisitor(Mask mask, RegionFunction function) {
@@ -53,7 +78,123 @@ public RecursiveVisitor(Mask mask, RegionFunction function, int maxDepth) {
 
     @Override
     protected boolean isVisitable(BlockVector3 from, BlockVector3 to) {
+        //FAWE start
+        ThreadLocal<ForkedMask> forked = forkedMask;
+        if (forked != null) {
+            ForkedMask fork = forked.get();
+            return test(fork.mask, fork.extent, to);
+        }
+        //FAWE end
         return mask.test(to);
     }
 
+    //FAWE start
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>Masks testing the block at the position of an {@link EditSession} are tested against a queue of its world
+     * on the worker threads. This only reads the same blocks as the edit session if the function does not change any
+     * position but the one it is applied to, which holds for the {@link com.sk89q.worldedit.function.block.BlockReplace}
+     * searches of the edit session.</p>
+     */
+    @Override
+    protected boolean initParallel() {
+        Set<Extent> extents = Collections.newSetFromMap(new IdentityHashMap<>());
+        if (!isForkable(mask, extents) || extents.size() > 1) {
+            return false;
+        }
+        if (!extents.isEmpty()) {
+            Extent extent = extents.iterator().next();
+            if (!(extent instanceof EditSession)) {
+                return false;
+            }
+            World world = ((EditSession) extent).getWorld();
+            // worlds that are queues themselves are not cached by the queue handler
+            if (world == null || WorldWrapper.unwrap(world) instanceof IQueueExtent) {
+                return false;
+            }
+            forkedWorld = world;
+        }
+        forkedMask = ThreadLocal.withInitial(() -> new ForkedMask(mask.copy()));
+        return true;
+    }
+
+    @Override
+    protected void initTask() {
+        // the queue of a worker thread is re-initialised by every task that runs on it
+        if (forkedWorld != null) {
+            forkedMask.get().extent = Fawe.get().getQueueHandler().getQueue(forkedWorld);
+        }
+    }
+
+    @Override
+    protected void finishParallel() {
+        forkedMask = null;
+        forkedWorld = null;
+    }
+
+    private static boolean isForkable(Mask mask, Set<Extent> extents) {
+        if (mask instanceof MaskIntersection) {
+            for (Mask child : ((MaskIntersection) mask).getMasks()) {
+                if (!isForkable(child, extents)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (mask instanceof InverseMask) {
+            return isForkable(mask.inverse(), extents);
+        }
+        // only masks reading the block at the position, the worker queue does not see blocks changed by the function
+        if (mask instanceof ExistingBlockMask || mask instanceof ABlockMask || mask instanceof BlockTypeMask
+                || mask instanceof BlockStateMask) {
+            extents.add(((AbstractExtentMask) mask).getExtent());
+            return true;
+        }
+        return mask instanceof RegionMask || mask instanceof BoundedHeightMask
+                || mask == Masks.alwaysTrue() || mask == Masks.alwaysFalse();
+    }
+
+    private static boolean test(Mask mask, Extent extent, BlockVector3 position) {
+        if (extent == null) {
+            return mask.test(position);
+        }
+        if (mask instanceof MaskUnion) {
+            for (Mask child : ((MaskUnion) mask).getMasksArray()) {
+                if (test(child, extent, position)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        if (mask instanceof MaskIntersection) {
+            for (Mask child : ((MaskIntersection) mask).getMasksArray()) {
+                if (!test(child, extent, position)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (mask instanceof InverseMask) {
+            return !test(mask.inverse(), extent, position);
+        }
+        if (mask instanceof AbstractExtentMask) {
+            return ((AbstractExtentMask) mask).test(extent, position);
+        }
+        return mask.test(position);
+    }
+
+    private static final class ForkedMask {
+
+        private final Mask mask;
+        private Extent extent;
+
+        private ForkedMask(Mask mask) {
+            this.mask = mask;
+        }
+
+    }
+    //FAWE end
+
 }
@@ -34,13 +34,38 @@ public class ExecutionData {
     private final SlotTable slots;
     private final Functions functions;
     private final Instant deadline;
+    //FAWE start - deadline on System.nanoTime(), renewed for each evaluation of a batch
+    private final boolean renewable;
+    private long deadlineNanos;
+    //FAWE end
 
     public ExecutionData(SlotTable slots, Functions functions, Instant deadline) {
         this.slots = slots;
         this.functions = functions;
         this.deadline = deadline;
+        //FAWE start
+        this.renewable = false;
+        //FAWE end
     }
 
+    //FAWE start
+    /**
+     * Create execution data whose deadline is given by {@link System#nanoTime()}, which is cheaper to read than the
+     * wall clock, and can be renewed with {@link #renewDeadline(long)}.
+     */
+    ExecutionData(SlotTable slots, Functions functions, long deadlineNanos) {
+        this.slots = slots;
+        this.functions = functions;
+        this.deadline = null;
+        this.renewable = true;
+        this.deadlineNanos = deadlineNanos;
+    }
+
+    void renewDeadline(long deadlineNanos) {
+        this.deadlineNanos = deadlineNanos;
+    }
+    //FAWE end
+
     public SlotTable getSlots() {
         return requireNonNull(slots, "Cannot use variables in a constant");
     }
@@ -50,10 +75,23 @@ public Functions getFunctions() {
     }
 
     public Instant getDeadline() {
+        //FAWE start
+        if (renewable) {
+            return Instant.now().plusNanos(deadlineNanos - System.nanoTime());
+        }
+        //FAWE end
         return deadline;
     }
 
     public void checkDeadline() {
+        //FAWE start
+        if (renewable) {
+            if (System.nanoTime() - deadlineNanos > 0) {
+                throw new ExpressionTimeoutException("Calculations exceeded time limit.");
+            }
+            return;
+        }
+        //FAWE end
         if (Instant.now().isAfter(deadline)) {
             throw new ExpressionTimeoutException("Calculations exceeded time limit.");
         }
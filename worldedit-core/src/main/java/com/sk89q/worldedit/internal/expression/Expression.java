@@ -24,17 +24,23 @@
 import com.sk89q.worldedit.antlr.ExpressionLexer;
 import com.sk89q.worldedit.antlr.ExpressionParser;
 import com.sk89q.worldedit.internal.expression.invoke.ExpressionCompiler;
+import com.sk89q.worldedit.internal.util.LogManagerCompat;
 import org.antlr.v4.runtime.CharStream;
 import org.antlr.v4.runtime.CharStreams;
 import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.WritableToken;
 import org.antlr.v4.runtime.misc.ParseCancellationException;
+import org.antlr.v4.runtime.tree.ParseTree;
 import org.antlr.v4.runtime.tree.ParseTreeWalker;
+import org.apache.logging.log4j.Logger;
 
 import java.time.Instant;
-import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Objects;
 import java.util.Set;
+import java.util.function.IntUnaryOperator;
 
 /**
  * Compiles and evaluates expressions.
@@ -64,15 +70,20 @@
  */
 //FAWE start - implements Cloneable
 public class Expression implements Cloneable {
+
+    private static final Logger LOGGER = LogManagerCompat.getLogger();
 //FAWE end
 
     private final SlotTable slots = new SlotTable();
     private final List<String> providedSlots;
-    private final ExpressionParser.AllStatementsContext root;
+    //FAWE start - not final, replaced by optimize()
+    private ExpressionParser.AllStatementsContext root;
+    //FAWE end
     private final Functions functions = Functions.create();
-    private final CompiledExpression compiledExpression;
-    //FAWE start
+    //FAWE start - not final, replaced by optimize()
+    private CompiledExpression compiledExpression;
     private final String initialExpression;
+    private boolean optimized;
     //FAWE end
 
     public static Expression compile(String expression, String... variableNames) throws ExpressionException {
@@ -176,9 +187,107 @@ public double evaluate(double[] values, int timeout) throws EvaluationException
         return result;
     }
 
+    //FAWE start
+    /**
+     * Create a batch to evaluate this expression many times in a row, see {@link ExpressionBatch}.
+     *
+     * @param timeout the time, in milliseconds, each evaluation may take
+     * @return the batch
+     */
+    public ExpressionBatch batch(int timeout) {
+        LocalSlot.Variable[] variables = new LocalSlot.Variable[providedSlots.size()];
+        for (int i = 0; i < variables.length; i++) {
+            String slotName = providedSlots.get(i);
+            variables[i] = slots.getVariable(slotName)
+                    .orElseThrow(() -> new EvaluationException(
+                            -1,
+                            "Tried to assign to non-variable " + slotName + "."
+                    ));
+        }
+        return new ExpressionBatch(this, slots, functions, variables, timeout);
+    }
+
+    CompiledExpression getCompiledExpression() {
+        return compiledExpression;
+    }
+
+    /**
+     * Whether the expression calls any of the given functions.
+     *
+     * @param names the function names
+     * @return true if any of them is called
+     */
+    public boolean callsAny(Set<String> names) {
+        return callsAny(root, names);
+    }
+
+    private static boolean callsAny(ParseTree tree, Set<String> names) {
+        if (tree instanceof ExpressionParser.FunctionCallContext
+                && names.contains(((ExpressionParser.FunctionCallContext) tree).name.getText())) {
+            return true;
+        }
+        for (int i = 0; i < tree.getChildCount(); i++) {
+            if (callsAny(tree.getChild(i), names)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    //FAWE end
+
     public void optimize() {
-        // TODO optimizing
+        //FAWE start
+        if (optimized) {
+            return;
+        }
+        optimized = true;
+        try {
+            ExpressionOptimizer optimizer = new ExpressionOptimizer(slots, providedSlots, functions);
+            String expression = optimizer.optimize(root);
+            if (expression == null) {
+                return;
+            }
+            ExpressionParser.AllStatementsContext optimizedRoot = parse(expression, optimizer::getOriginalPosition);
+            ParseTreeWalker.DEFAULT.walk(new ExpressionValidator(slots.keySet(), functions), optimizedRoot);
+            CompiledExpression optimizedExpression = new ExpressionCompiler().compileExpression(optimizedRoot, functions);
+            this.root = optimizedRoot;
+            this.compiledExpression = optimizedExpression;
+        } catch (RuntimeException e) {
+            // keep the original expression, it compiled fine
+            LOGGER.debug("Failed to optimize expression {}", initialExpression, e);
+        }
+        //FAWE end
+    }
+
+    //FAWE start
+    /**
+     * Parse an optimized expression, moving its tokens to where they are in the original expression, so errors are
+     * reported there.
+     */
+    private static ExpressionParser.AllStatementsContext parse(String expression, IntUnaryOperator originalPosition) {
+        CharStream cs = CharStreams.fromString(expression, "<input>");
+        ExpressionLexer lexer = new ExpressionLexer(cs);
+        lexer.removeErrorListeners();
+        lexer.addErrorListener(new LexerErrorListener());
+        CommonTokenStream tokens = new CommonTokenStream(lexer);
+        ExpressionParser parser = new ExpressionParser(tokens);
+        parser.removeErrorListeners();
+        parser.addErrorListener(new ParserErrorListener());
+        ExpressionParser.AllStatementsContext root;
+        try {
+            root = Objects.requireNonNull(parser.allStatements(), "Unable to parse root, but no exceptions?");
+        } catch (ParseCancellationException e) {
+            throw new ParserException(parser.getState(), e);
+        }
+        for (Token token : tokens.getTokens()) {
+            if (token instanceof WritableToken) {
+                // the optimized expression is a single line
+                ((WritableToken) token).setCharPositionInLine(originalPosition.applyAsInt(token.getCharPositionInLine()));
+            }
+        }
+        return root;
     }
+    //FAWE end
 
     @Override
     public String toString() {
@@ -199,7 +308,12 @@ public void setEnvironment(ExpressionEnvironment environment) {
 
     //FAWE start
     public Expression clone() {
-        return new Expression(initialExpression, new HashSet<>(providedSlots));
+        // keep the order, values are passed by position
+        Expression clone = new Expression(initialExpression, new LinkedHashSet<>(providedSlots));
+        if (optimized) {
+            clone.optimize();
+        }
+        return clone;
     }
     //FAWE end
 
@@ -0,0 +1,149 @@
+package com.sk89q.worldedit.internal.expression;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Evaluates an {@link Expression} many times in a row, for example once per block of a section.
+ *
+ * <p>Unlike {@link Expression#evaluate(double[], int)}, the provided variables are only looked up once and the
+ * execution data is reused. Each evaluation still has to finish within the timeout, its deadline is taken from
+ * {@link System#nanoTime()}, which is cheaper to read than the wall clock.</p>
+ *
+ * <p>Like the expression itself, a batch is not thread safe.</p>
+ */
+public final class ExpressionBatch {
+
+    private final Expression expression;
+    private final SlotTable slots;
+    private final Functions functions;
+    private final LocalSlot.Variable[] variables;
+    private final long timeoutNanos;
+    private ExecutionData data;
+
+    ExpressionBatch(Expression expression, SlotTable slots, Functions functions, LocalSlot.Variable[] variables, int timeout) {
+        this.expression = expression;
+        this.slots = slots;
+        this.functions = functions;
+        this.variables = variables;
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeout);
+    }
+
+    public Expression getExpression() {
+        return expression;
+    }
+
+    /**
+     * Evaluate the expression once.
+     *
+     * @param values the values of the first provided variables, in the order they were given when compiling
+     * @return the result
+     * @throws EvaluationException if the evaluation fails or takes too long
+     */
+    public double evaluate(double... values) throws EvaluationException {
+        checkLength(values.length);
+        for (int i = 0; i < values.length; i++) {
+            variables[i].setValue(values[i]);
+        }
+        return execute();
+    }
+
+    /**
+     * Evaluate the expression for a number of inputs. Evaluations taking too long result in {@code NaN}.
+     *
+     * @param inputs  the values of the first {@code stride} provided variables for each evaluation, one after another
+     * @param stride  the number of values per evaluation
+     * @param results the array to store the result of each evaluation in
+     * @param count   the number of evaluations
+     * @return the number of evaluations that took too long
+     * @throws EvaluationException if an evaluation fails
+     */
+    public int evaluate(double[] inputs, int stride, double[] results, int count) throws EvaluationException {
+        checkLength(stride);
+        int timedOut = 0;
+        for (int i = 0, offset = 0; i < count; i++, offset += stride) {
+            for (int j = 0; j < stride; j++) {
+                variables[j].setValue(inputs[offset + j]);
+            }
+            try {
+                results[i] = execute();
+            } catch (ExpressionTimeoutException e) {
+                results[i] = Double.NaN;
+                timedOut++;
+            }
+        }
+        return timedOut;
+    }
+
+    /**
+     * Evaluate the expression for each point of a grid, passing the coordinates as the first three provided variables.
+     * The result for grid point {@code (x, y, z)} is stored at index {@code (y * sizeZ + z) * sizeX + x}, matching
+     * the block order of a chunk section for a 16x16x16 grid. Evaluations taking too long result in {@code NaN}.
+     *
+     * @param originX the first coordinate of the first point
+     * @param originY the second coordinate of the first point
+     * @param originZ the third coordinate of the first point
+     * @param stepX   the distance between points along the first axis
+     * @param stepY   the distance between points along the second axis
+     * @param stepZ   the distance between points along the third axis
+     * @param sizeX   the number of points along the first axis
+     * @param sizeY   the number of points along the second axis
+     * @param sizeZ   the number of points along the third axis
+     * @param results the array to store the results in, of at least {@code sizeX * sizeY * sizeZ} length
+     * @return the number of evaluations that took too long
+     * @throws EvaluationException if an evaluation fails
+     */
+    public int evaluateGrid(
+            double originX, double originY, double originZ,
+            double stepX, double stepY, double stepZ,
+            int sizeX, int sizeY, int sizeZ,
+            double[] results
+    ) throws EvaluationException {
+        checkLength(3);
+        LocalSlot.Variable x = variables[0];
+        LocalSlot.Variable y = variables[1];
+        LocalSlot.Variable z = variables[2];
+        int timedOut = 0;
+        int index = 0;
+        for (int gy = 0; gy < sizeY; gy++) {
+            double valueY = originY + gy * stepY;
+            for (int gz = 0; gz < sizeZ; gz++) {
+                double valueZ = originZ + gz * stepZ;
+                for (int gx = 0; gx < sizeX; gx++) {
+                    // set all of them, the expression may have assigned to them
+                    x.setValue(originX + gx * stepX);
+                    y.setValue(valueY);
+                    z.setValue(valueZ);
+                    try {
+                        results[index] = execute();
+                    } catch (ExpressionTimeoutException e) {
+                        results[index] = Double.NaN;
+                        timedOut++;
+                    }
+                    index++;
+                }
+            }
+        }
+        return timedOut;
+    }
+
+    private double execute() throws EvaluationException {
+        long deadline = System.nanoTime() + timeoutNanos;
+        if (data == null) {
+            data = new ExecutionData(slots, functions, deadline);
+        } else {
+            data.renewDeadline(deadline);
+        }
+        Double result = expression.getCompiledExpression().execute(data);
+        if (result == null) {
+            throw new EvaluationException(-1, "Expression must result in a value");
+        }
+        return result;
+    }
+
+    private void checkLength(int length) {
+        if (length > variables.length) {
+            throw new EvaluationException(-1, "Expected at most " + variables.length + " values, got " + length);
+        }
+    }
+
+}
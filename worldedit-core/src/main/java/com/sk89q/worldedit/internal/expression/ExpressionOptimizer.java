@@ -0,0 +1,1436 @@
+package com.sk89q.worldedit.internal.expression;
+
+import com.google.common.collect.ImmutableSet;
+import com.sk89q.worldedit.antlr.ExpressionParser;
+import org.antlr.v4.runtime.ParserRuleContext;
+
+import javax.annotation.Nullable;
+import java.lang.invoke.MethodHandle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.UnaryOperator;
+
+/**
+ * Rewrites an expression into an equivalent one that is cheaper to evaluate, see {@link Expression#optimize()}.
+ *
+ * <p>The parse tree is turned into a tree of nodes, which is optimized and printed back to source, to be parsed and
+ * compiled like any other expression. The passes are:</p>
+ *
+ * <ul>
+ *     <li>constant folding of operators, constant slots like {@code pi} and {@linkplain #PURE_FUNCTIONS pure
+ *     functions}, and simplification of {@code x * 1}, {@code x ^ 2} and the like</li>
+ *     <li>elimination of assignments to variables that are never read, keeping the assigned value</li>
+ *     <li>hoisting loop invariant subexpressions in front of the loop</li>
+ *     <li>common subexpression elimination within a statement</li>
+ *     <li>elimination of statements whose value is never used and which have no effects</li>
+ * </ul>
+ *
+ * <p>Subexpressions are only moved or removed if they have no side effects and only read variables that are
+ * initialized before the expression runs, so the optimized expression can't fail where the original one doesn't.
+ * Hoisted subexpressions are stored in new variables. The positions of the printed nodes in the original
+ * expression are kept, so evaluation errors can refer to the original expression, see
+ * {@link #getOriginalPosition(int)}.</p>
+ */
+class ExpressionOptimizer {
+
+    /**
+     * Functions without side effects that can't fail and always return the same result for the same arguments.
+     */
+    private static final Set<String> PURE_FUNCTIONS = ImmutableSet.of(
+            "sin", "cos", "tan", "asin", "acos", "atan",
+            "sinh", "cosh", "tanh", "sqrt", "cbrt", "abs",
+            "ceil", "floor", "rint", "exp", "log", "log10", "ln",
+            "round", "atan2", "min", "max"
+    );
+    // a temporary variable costs slot lookups, only introduce one for something more expensive
+    private static final int MIN_COMMON_COST = 6;
+    private static final int MIN_INVARIANT_COST = 2;
+    private static final int MAX_COMMON_SUBEXPRESSIONS = 16;
+
+    private final SlotTable slots;
+    private final Set<String> provided;
+    private final Functions functions;
+    // names that always hold a value when read
+    private final Set<String> initialized = new HashSet<>();
+    // names that can't be used for temporaries
+    private final Set<String> reserved = new HashSet<>();
+    private int temporaries;
+    // offset in the optimized expression -> position in the original expression
+    private final NavigableMap<Integer, Integer> positions = new TreeMap<>();
+
+    ExpressionOptimizer(SlotTable slots, Collection<String> provided, Functions functions) {
+        this.slots = slots;
+        this.provided = new HashSet<>(provided);
+        this.functions = functions;
+        this.initialized.addAll(provided);
+        for (String name : slots.keySet()) {
+            if (slots.getSlot(name).orElse(null) instanceof LocalSlot.Constant) {
+                initialized.add(name);
+            }
+        }
+        this.reserved.addAll(slots.keySet());
+        this.reserved.addAll(functions.getMap().keySet());
+    }
+
+    /**
+     * Optimize an expression.
+     *
+     * @param root the parse tree
+     * @return the optimized expression, or null if it can't be improved
+     */
+    @Nullable
+    String optimize(ExpressionParser.AllStatementsContext root) {
+        Seq program;
+        try {
+            program = statements(root.statements());
+        } catch (Unsupported e) {
+            return null;
+        }
+        String original = program.toString();
+        collectNames(program, reserved, reserved);
+
+        simplify(program);
+        removeUnusedAssignments(program);
+        hoistInvariants(program);
+        eliminateCommonSubexpressions(program);
+        removeUnusedStatements(program);
+
+        Source optimized = new Source(positions);
+        program.print(optimized);
+        return optimized.toString().equals(original) ? null : optimized.toString();
+    }
+
+    /**
+     * Get the position in the original expression of a character of the optimized expression, to report errors where
+     * the user wrote the failing code.
+     *
+     * @param position the position in the optimized expression
+     * @return the position in the original expression, or -1 if unknown
+     */
+    int getOriginalPosition(int position) {
+        Map.Entry<Integer, Integer> entry = positions.floorEntry(position);
+        return entry == null ? -1 : entry.getValue();
+    }
+
+    /**
+     * Thrown for anything this optimizer doesn't handle.
+     */
+    private static final class Unsupported extends RuntimeException {
+
+        Unsupported() {
+            super(null, null, false, false);
+        }
+
+    }
+
+    /**
+     * The printed source of nodes, optionally remembering where in the original expression the printed nodes start.
+     */
+    private static final class Source {
+
+        private final StringBuilder builder = new StringBuilder();
+        @Nullable
+        private final NavigableMap<Integer, Integer> positions;
+        private int position = -1;
+
+        Source(@Nullable NavigableMap<Integer, Integer> positions) {
+            this.positions = positions;
+        }
+
+        Source append(String text) {
+            builder.append(text);
+            return this;
+        }
+
+        Source append(char c) {
+            builder.append(c);
+            return this;
+        }
+
+        Source append(double value) {
+            builder.append(value);
+            return this;
+        }
+
+        void mark(int position) {
+            this.position = position;
+            if (positions != null) {
+                positions.put(builder.length(), position);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return builder.toString();
+        }
+
+    }
+
+    // Nodes
+
+    private abstract static class Expr {
+
+        private String source;
+        // where the node starts in the original expression, -1 if it starts where its parent does
+        private int position = -1;
+
+        /**
+         * The children that may be rewritten.
+         */
+        List<Expr> children() {
+            return Collections.emptyList();
+        }
+
+        Expr withChildren(List<Expr> children) {
+            return this;
+        }
+
+        /**
+         * {@link #withChildren(List)}, keeping the position of this node.
+         */
+        final Expr rebuild(List<Expr> children) {
+            Expr expr = withChildren(children);
+            if (expr != this) {
+                expr.position = position;
+            }
+            return expr;
+        }
+
+        abstract void printNode(Source builder);
+
+        final void print(Source builder) {
+            int parent = builder.position;
+            if (position < 0 || position == parent) {
+                printNode(builder);
+                return;
+            }
+            builder.mark(position);
+            printNode(builder);
+            builder.mark(parent);
+        }
+
+        @Override
+        public String toString() {
+            if (source == null) {
+                Source builder = new Source(null);
+                print(builder);
+                source = builder.toString();
+            }
+            return source;
+        }
+
+    }
+
+    private static final class Num extends Expr {
+
+        private final double value;
+
+        Num(double value) {
+            this.value = value;
+        }
+
+        @Override
+        void printNode(Source builder) {
+            if (Double.isNaN(value)) {
+                builder.append("(0 / 0)");
+            } else if (Double.isInfinite(value)) {
+                builder.append(value > 0 ? "(1 / 0)" : "(-1 / 0)");
+            } else if (Double.doubleToRawLongBits(value) < 0) {
+                // includes -0.0
+                builder.append("(-").append(-value).append(')');
+            } else {
+                builder.append(value);
+            }
+        }
+
+    }
+
+    private static final class Var extends Expr {
+
+        private final String name;
+
+        Var(String name) {
+            this.name = name;
+        }
+
+        @Override
+        void printNode(Source builder) {
+            builder.append(name);
+        }
+
+    }
+
+    private static final class Assign extends Expr {
+
+        private final String name;
+        private final String op;
+        private final Expr value;
+
+        Assign(String name, String op, Expr value) {
+            this.name = name;
+            this.op = op;
+            this.value = value;
+        }
+
+        @Override
+        List<Expr> children() {
+            return Collections.singletonList(value);
+        }
+
+        @Override
+        Expr withChildren(List<Expr> children) {
+            return children.get(0) == value ? this : new Assign(name, op, children.get(0));
+        }
+
+        @Override
+        void printNode(Source builder) {
+            builder.append('(').append(name).append(' ').append(op).append(' ');
+            value.print(builder);
+            builder.append(')');
+        }
+
+    }
+
+    private static final class Crement extends Expr {
+
+        private final String name;
+        private final String op;
+        private final boolean prefix;
+
+        Crement(String name, String op, boolean prefix) {
+            this.name = name;
+            this.op = op;
+            this.prefix = prefix;
+        }
+
+        @Override
+        void printNode(Source builder) {
+            builder.append('(');
+            if (prefix) {
+                builder.append(op).append(name);
+            } else {
+                builder.append(name).append(op);
+            }
+            builder.append(')');
+        }
+
+    }
+
+    private static final class Unary extends Expr {
+
+        private static final String FACTORIAL = "fact";
+
+        private final String op;
+        private final Expr expr;
+
+        Unary(String op, Expr expr) {
+            this.op = op;
+            this.expr = expr;
+        }
+
+        @Override
+        List<Expr> children() {
+            return Collections.singletonList(expr);
+        }
+
+        @Override
+        Expr withChildren(List<Expr> children) {
+            return children.get(0) == expr ? this : new Unary(op, children.get(0));
+        }
+
+        @Override
+        void printNode(Source builder) {
+            builder.append('(');
+            if (op.equals(FACTORIAL)) {
+                expr.print(builder);
+                builder.append('!');
+            } else {
+                builder.append(op);
+                expr.print(builder);
+            }
+            builder.append(')');
+        }
+
+    }
+
+    private static final class Binary extends Expr {
+
+        private final String op;
+        private final Expr left;
+        private final Expr right;
+
+        Binary(String op, Expr left, Expr right) {
+            this.op = op;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        List<Expr> children() {
+            return Arrays.asList(left, right);
+        }
+
+        @Override
+        Expr withChildren(List<Expr> children) {
+            if (children.get(0) == left && children.get(1) == right) {
+                return this;
+            }
+            return new Binary(op, children.get(0), children.get(1));
+        }
+
+        @Override
+        void printNode(Source builder) {
+            builder.append('(');
+            left.print(builder);
+            builder.append(' ').append(op).append(' ');
+            right.print(builder);
+            builder.append(')');
+        }
+
+    }
+
+    private static final class Ternary extends Expr {
+
+        private final Expr condition;
+        private final Expr trueBranch;
+        private final Expr falseBranch;
+
+        Ternary(Expr condition, Expr trueBranch, Expr falseBranch) {
+            this.condition = condition;
+            this.trueBranch = trueBranch;
+            this.falseBranch = falseBranch;
+        }
+
+        @Override
+        List<Expr> children() {
+            return Arrays.asList(condition, trueBranch, falseBranch);
+        }
+
+        @Override
+        Expr withChildren(List<Expr> children) {
+            if (children.get(0) == condition && children.get(1) == trueBranch && children.get(2) == falseBranch) {
+                return this;
+            }
+            return new Ternary(children.get(0), children.get(1), children.get(2));
+        }
+
+        @Override
+        void printNode(Source builder) {
+            builder.append('(');
+            condition.print(builder);
+            builder.append(" ? ");
+            trueBranch.print(builder);
+            builder.append(" : ");
+            falseBranch.print(builder);
+            builder.append(')');
+        }
+
+    }
+
+    private static final class Call extends Expr {
+
+        private final ExpressionParser.FunctionCallContext ctx;
+        private final MethodHandle handle;
+        private final List<Expr> args;
+        // arguments passed as slots, which are left as they are
+        private final boolean[] bySlot;
+
+        Call(ExpressionParser.FunctionCallContext ctx, MethodHandle handle, List<Expr> args, boolean[] bySlot) {
+            this.ctx = ctx;
+            this.handle = handle;
+            this.args = args;
+            this.bySlot = bySlot;
+        }
+
+        String getName() {
+            return ctx.name.getText();
+        }
+
+        boolean hasSlotArguments() {
+            for (boolean slot : bySlot) {
+                if (slot) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        List<Expr> children() {
+            List<Expr> children = new ArrayList<>(args.size());
+            for (int i = 0; i < args.size(); i++) {
+                if (!bySlot[i]) {
+                    children.add(args.get(i));
+                }
+            }
+            return children;
+        }
+
+        @Override
+        Expr withChildren(List<Expr> children) {
+            List<Expr> args = new ArrayList<>(this.args);
+            boolean changed = false;
+            int child = 0;
+            for (int i = 0; i < args.size(); i++) {
+                if (!bySlot[i]) {
+                    Expr arg = children.get(child++);
+                    changed |= arg != args.get(i);
+                    args.set(i, arg);
+                }
+            }
+            return changed ? new Call(ctx, handle, args, bySlot) : this;
+        }
+
+        @Override
+        void printNode(Source builder) {
+            builder.append(getName()).append('(');
+            for (int i = 0; i < args.size(); i++) {
+                if (i > 0) {
+                    builder.append(", ");
+                }
+                args.get(i).print(builder);
+            }
+            builder.append(')');
+        }
+
+    }
+
+    private abstract static class Stmt {
+
+        /**
+         * The statement lists directly contained in this statement.
+         */
+        List<Seq> bodies() {
+            return Collections.emptyList();
+        }
+
+        /**
+         * Rewrite the expressions directly contained in this statement.
+         */
+        void rewrite(UnaryOperator<Expr> rewriter) {
+        }
+
+        abstract void print(Source builder);
+
+        @Override
+        public String toString() {
+            Source builder = new Source(null);
+            print(builder);
+            return builder.toString();
+        }
+
+    }
+
+    private static final class Seq extends Stmt {
+
+        private final List<Stmt> statements = new ArrayList<>();
+
+        @Override
+        void print(Source builder) {
+            // the top level, without braces
+            if (statements.isEmpty()) {
+                builder.append(';');
+            }
+            for (int i = 0; i < statements.size(); i++) {
+                if (i > 0) {
+                    builder.append(' ');
+                }
+                statements.get(i).print(builder);
+                builder.append(';');
+            }
+        }
+
+        void printBody(Source builder) {
+            if (statements.isEmpty()) {
+                builder.append(';');
+                return;
+            }
+            builder.append("{ ");
+            print(builder);
+            builder.append(" }");
+        }
+
+    }
+
+    private static final class ExprStmt extends Stmt {
+
+        private Expr expr;
+
+        ExprStmt(Expr expr) {
+            this.expr = expr;
+        }
+
+        @Override
+        void rewrite(UnaryOperator<Expr> rewriter) {
+            expr = rewriter.apply(expr);
+        }
+
+        @Override
+        void print(Source builder) {
+            expr.print(builder);
+        }
+
+    }
+
+    private static final class If extends Stmt {
+
+        private Expr condition;
+        private final Seq trueBranch;
+        @Nullable
+        private final Seq falseBranch;
+
+        If(Expr condition, Seq trueBranch, @Nullable Seq falseBranch) {
+            this.condition = condition;
+            this.trueBranch = trueBranch;
+            this.falseBranch = falseBranch;
+        }
+
+        @Override
+        List<Seq> bodies() {
+            return falseBranch == null ? Collections.singletonList(trueBranch) : Arrays.asList(trueBranch, falseBranch);
+        }
+
+        @Override
+        void rewrite(UnaryOperator<Expr> rewriter) {
+            condition = rewriter.apply(condition);
+        }
+
+        @Override
+        void print(Source builder) {
+            builder.append("if (");
+            condition.print(builder);
+            builder.append(") ");
+            trueBranch.printBody(builder);
+            if (falseBranch != null) {
+                builder.append(" else ");
+                falseBranch.printBody(builder);
+            }
+        }
+
+    }
+
+    private abstract static class Loop extends Stmt {
+
+        final Seq body;
+
+        Loop(Seq body) {
+            this.body = body;
+        }
+
+        @Override
+        List<Seq> bodies() {
+            return Collections.singletonList(body);
+        }
+
+    }
+
+    private static final class While extends Loop {
+
+        private Expr condition;
+
+        While(Expr condition, Seq body) {
+            super(body);
+            this.condition = condition;
+        }
+
+        @Override
+        void rewrite(UnaryOperator<Expr> rewriter) {
+            condition = rewriter.apply(condition);
+        }
+
+        @Override
+        void print(Source builder) {
+            builder.append("while (");
+            condition.print(builder);
+            builder.append(") ");
+            body.printBody(builder);
+        }
+
+    }
+
+    private static final class Do extends Loop {
+
+        private Expr condition;
+
+        Do(Seq body, Expr condition) {
+            super(body);
+            this.condition = condition;
+        }
+
+        @Override
+        void rewrite(UnaryOperator<Expr> rewriter) {
+            condition = rewriter.apply(condition);
+        }
+
+        @Override
+        void print(Source builder) {
+            builder.append("do ");
+            body.printBody(builder);
+            builder.append(" while (");
+            condition.print(builder);
+            builder.append(')');
+        }
+
+    }
+
+    private static final class For extends Loop {
+
+        private Expr init;
+        private Expr condition;
+        private Expr update;
+
+        For(Expr init, Expr condition, Expr update, Seq body) {
+            super(body);
+            this.init = init;
+            this.condition = condition;
+            this.update = update;
+        }
+
+        @Override
+        void rewrite(UnaryOperator<Expr> rewriter) {
+            init = rewriter.apply(init);
+            condition = rewriter.apply(condition);
+            update = rewriter.apply(update);
+        }
+
+        @Override
+        void print(Source builder) {
+            builder.append("for (");
+            init.print(builder);
+            builder.append("; ");
+            condition.print(builder);
+            builder.append("; ");
+            update.print(builder);
+            builder.append(") ");
+            body.printBody(builder);
+        }
+
+    }
+
+    private static final class SimpleFor extends Loop {
+
+        private final String counter;
+        private Expr first;
+        private Expr last;
+
+        SimpleFor(String counter, Expr first, Expr last, Seq body) {
+            super(body);
+            this.counter = counter;
+            this.first = first;
+            this.last = last;
+        }
+
+        @Override
+        void rewrite(UnaryOperator<Expr> rewriter) {
+            first = rewriter.apply(first);
+            last = rewriter.apply(last);
+        }
+
+        @Override
+        void print(Source builder) {
+            builder.append("for (").append(counter).append(" = ");
+            first.print(builder);
+            builder.append(", ");
+            last.print(builder);
+            builder.append(") ");
+            body.printBody(builder);
+        }
+
+    }
+
+    private static final class Jump extends Stmt {
+
+        private final String keyword;
+
+        Jump(String keyword) {
+            this.keyword = keyword;
+        }
+
+        @Override
+        void print(Source builder) {
+            builder.append(keyword);
+        }
+
+    }
+
+    private static final class Return extends Stmt {
+
+        private Expr value;
+
+        Return(Expr value) {
+            this.value = value;
+        }
+
+        @Override
+        void rewrite(UnaryOperator<Expr> rewriter) {
+            value = rewriter.apply(value);
+        }
+
+        @Override
+        void print(Source builder) {
+            builder.append("return ");
+            value.print(builder);
+        }
+
+    }
+
+    // Conversion from the parse tree
+
+    private Seq statements(ExpressionParser.StatementsContext ctx) {
+        Seq seq = new Seq();
+        for (ExpressionParser.StatementContext statement : ctx.statement()) {
+            addStatement(seq, statement);
+        }
+        return seq;
+    }
+
+    private Seq body(@Nullable ExpressionParser.StatementContext ctx) {
+        Seq seq = new Seq();
+        if (ctx != null) {
+            addStatement(seq, ctx);
+        }
+        return seq;
+    }
+
+    private void addStatement(Seq seq, ParserRuleContext ctx) {
+        // blocks and empty statements don't change the result of a statement list
+        if (ctx instanceof ExpressionParser.StatementContext) {
+            addStatement(seq, ctx.getRuleContext(ParserRuleContext.class, 0));
+        } else if (ctx instanceof ExpressionParser.BlockContext) {
+            seq.statements.addAll(statements(((ExpressionParser.BlockContext) ctx).statements()).statements);
+        } else if (!(ctx instanceof ExpressionParser.EmptyStatementContext)) {
+            seq.statements.add(statement(ctx));
+        }
+    }
+
+    private Stmt statement(ParserRuleContext ctx) {
+        if (ctx instanceof ExpressionParser.ExpressionStatementContext) {
+            return new ExprStmt(expression(((ExpressionParser.ExpressionStatementContext) ctx).expression()));
+        } else if (ctx instanceof ExpressionParser.IfStatementContext) {
+            ExpressionParser.IfStatementContext ifStatement = (ExpressionParser.IfStatementContext) ctx;
+            return new If(
+                    expression(ifStatement.condition),
+                    body(ifStatement.trueBranch),
+                    ifStatement.falseBranch == null ? null : body(ifStatement.falseBranch)
+            );
+        } else if (ctx instanceof ExpressionParser.WhileStatementContext) {
+            ExpressionParser.WhileStatementContext loop = (ExpressionParser.WhileStatementContext) ctx;
+            return new While(expression(loop.condition), body(loop.body));
+        } else if (ctx instanceof ExpressionParser.DoStatementContext) {
+            ExpressionParser.DoStatementContext loop = (ExpressionParser.DoStatementContext) ctx;
+            return new Do(body(loop.body), expression(loop.condition));
+        } else if (ctx instanceof ExpressionParser.ForStatementContext) {
+            ExpressionParser.ForStatementContext loop = (ExpressionParser.ForStatementContext) ctx;
+            return new For(
+                    expression(loop.init),
+                    expression(loop.condition),
+                    expression(loop.update),
+                    body(loop.body)
+            );
+        } else if (ctx instanceof ExpressionParser.SimpleForStatementContext) {
+            ExpressionParser.SimpleForStatementContext loop = (ExpressionParser.SimpleForStatementContext) ctx;
+            return new SimpleFor(
+                    loop.counter.getText(),
+                    expression(loop.first),
+                    expression(loop.last),
+                    body(loop.body)
+            );
+        } else if (ctx instanceof ExpressionParser.BreakStatementContext) {
+            return new Jump("break");
+        } else if (ctx instanceof ExpressionParser.ContinueStatementContext) {
+            return new Jump("continue");
+        } else if (ctx instanceof ExpressionParser.ReturnStatementContext) {
+            return new Return(expression(((ExpressionParser.ReturnStatementContext) ctx).value));
+        }
+        // switch statements
+        throw new Unsupported();
+    }
+
+    private Expr expression(ParserRuleContext ctx) {
+        Expr expr = node(ctx);
+        if (expr.position < 0) {
+            expr.position = ctx.start.getCharPositionInLine();
+        }
+        return expr;
+    }
+
+    private Expr node(ParserRuleContext ctx) {
+        if (ctx instanceof ExpressionParser.ConstantExpressionContext) {
+            return new Num(Double.parseDouble(ctx.getText()));
+        } else if (ctx instanceof ExpressionParser.IdExprContext) {
+            return new Var(((ExpressionParser.IdExprContext) ctx).source.getText());
+        } else if (ctx instanceof ExpressionParser.WrappedExprContext) {
+            return expression(((ExpressionParser.WrappedExprContext) ctx).expression());
+        } else if (ctx instanceof ExpressionParser.FunctionCallContext) {
+            ExpressionParser.FunctionCallContext call = (ExpressionParser.FunctionCallContext) ctx;
+            MethodHandle handle = ExpressionHelper.resolveFunction(functions, call);
+            List<Expr> args = new ArrayList<>(call.args.size());
+            boolean[] bySlot = new boolean[call.args.size()];
+            for (int i = 0; i < call.args.size(); i++) {
+                ExpressionParser.ExpressionContext arg = call.args.get(i);
+                args.add(expression(arg));
+                bySlot[i] = ExpressionHelper.getArgumentHandleName(call.name.getText(), handle.type(), i, arg) != null;
+            }
+            return new Call(call, handle, args, bySlot);
+        } else if (ctx instanceof ExpressionParser.AssignmentContext) {
+            ExpressionParser.AssignmentContext assignment = (ExpressionParser.AssignmentContext) ctx;
+            return new Assign(
+                    assignment.target.getText(),
+                    assignment.assignmentOperator().getText(),
+                    expression(assignment.expression())
+            );
+        } else if (ctx instanceof ExpressionParser.PreCrementExprContext) {
+            ExpressionParser.PreCrementExprContext crement = (ExpressionParser.PreCrementExprContext) ctx;
+            return new Crement(crement.target.getText(), crement.op.getText(), true);
+        } else if (ctx instanceof ExpressionParser.PostCrementExprContext) {
+            ExpressionParser.PostCrementExprContext crement = (ExpressionParser.PostCrementExprContext) ctx;
+            return new Crement(crement.target.getText(), crement.op.getText(), false);
+        } else if (ctx instanceof ExpressionParser.TernaryExprContext) {
+            ExpressionParser.TernaryExprContext ternary = (ExpressionParser.TernaryExprContext) ctx;
+            return new Ternary(
+                    expression(ternary.condition),
+                    expression(ternary.trueBranch),
+                    expression(ternary.falseBranch)
+            );
+        } else if (ctx instanceof ExpressionParser.ConditionalOrExprContext) {
+            ExpressionParser.ConditionalOrExprContext or = (ExpressionParser.ConditionalOrExprContext) ctx;
+            return new Binary("||", expression(or.left), expression(or.right));
+        } else if (ctx instanceof ExpressionParser.ConditionalAndExprContext) {
+            ExpressionParser.ConditionalAndExprContext and = (ExpressionParser.ConditionalAndExprContext) ctx;
+            return new Binary("&&", expression(and.left), expression(and.right));
+        } else if (ctx instanceof ExpressionParser.EqualityExprContext) {
+            ExpressionParser.EqualityExprContext equality = (ExpressionParser.EqualityExprContext) ctx;
+            return new Binary(equality.op.getText(), expression(equality.left), expression(equality.right));
+        } else if (ctx instanceof ExpressionParser.RelationalExprContext) {
+            ExpressionParser.RelationalExprContext relational = (ExpressionParser.RelationalExprContext) ctx;
+            return new Binary(relational.op.getText(), expression(relational.left), expression(relational.right));
+        } else if (ctx instanceof ExpressionParser.ShiftExprContext) {
+            ExpressionParser.ShiftExprContext shift = (ExpressionParser.ShiftExprContext) ctx;
+            return new Binary(shift.op.getText(), expression(shift.left), expression(shift.right));
+        } else if (ctx instanceof ExpressionParser.AddExprContext) {
+            ExpressionParser.AddExprContext add = (ExpressionParser.AddExprContext) ctx;
+            return new Binary(add.op.getText(), expression(add.left), expression(add.right));
+        } else if (ctx instanceof ExpressionParser.MultiplicativeExprContext) {
+            ExpressionParser.MultiplicativeExprContext mul = (ExpressionParser.MultiplicativeExprContext) ctx;
+            return new Binary(mul.op.getText(), expression(mul.left), expression(mul.right));
+        } else if (ctx instanceof ExpressionParser.PowerExprContext) {
+            ExpressionParser.PowerExprContext power = (ExpressionParser.PowerExprContext) ctx;
+            return new Binary("^", expression(power.left), expression(power.right));
+        } else if (ctx instanceof ExpressionParser.PlusMinusExprContext) {
+            ExpressionParser.PlusMinusExprContext plusMinus = (ExpressionParser.PlusMinusExprContext) ctx;
+            return new Unary(plusMinus.op.getText(), expression(plusMinus.expr));
+        } else if (ctx instanceof ExpressionParser.NotExprContext) {
+            return new Unary("!", expression(((ExpressionParser.NotExprContext) ctx).expr));
+        } else if (ctx instanceof ExpressionParser.ComplementExprContext) {
+            return new Unary("~", expression(((ExpressionParser.ComplementExprContext) ctx).expr));
+        } else if (ctx instanceof ExpressionParser.PostfixExprContext) {
+            return new Unary(Unary.FACTORIAL, expression(((ExpressionParser.PostfixExprContext) ctx).expr));
+        } else if (ctx.getChildCount() == 1 && ctx.getChild(0) instanceof ParserRuleContext) {
+            // fallthrough rules
+            return expression((ParserRuleContext) ctx.getChild(0));
+        }
+        throw new Unsupported();
+    }
+
+    // Analysis
+
+    /**
+     * Collect the names read and written by a statement, passing a name to a function as slot counts as both.
+     */
+    private static void collectNames(Stmt stmt, Set<String> reads, Set<String> writes) {
+        if (stmt instanceof SimpleFor) {
+            writes.add(((SimpleFor) stmt).counter);
+        }
+        stmt.rewrite(expr -> {
+            collectNames(expr, reads, writes);
+            return expr;
+        });
+        for (Seq body : stmt.bodies()) {
+            collectNames(body, reads, writes);
+        }
+        if (stmt instanceof Seq) {
+            for (Stmt child : ((Seq) stmt).statements) {
+                collectNames(child, reads, writes);
+            }
+        }
+    }
+
+    private static void collectNames(Expr expr, Set<String> reads, Set<String> writes) {
+        if (expr instanceof Var) {
+            reads.add(((Var) expr).name);
+        } else if (expr instanceof Assign) {
+            Assign assign = (Assign) expr;
+            writes.add(assign.name);
+            if (!assign.op.equals("=")) {
+                reads.add(assign.name);
+            }
+        } else if (expr instanceof Crement) {
+            reads.add(((Crement) expr).name);
+            writes.add(((Crement) expr).name);
+        } else if (expr instanceof Call) {
+            Call call = (Call) expr;
+            for (int i = 0; i < call.args.size(); i++) {
+                if (call.bySlot[i] && call.args.get(i) instanceof Var) {
+                    writes.add(((Var) call.args.get(i)).name);
+                }
+                // the rewritable children are visited below
+                if (call.bySlot[i]) {
+                    collectNames(call.args.get(i), reads, writes);
+                }
+            }
+        }
+        for (Expr child : expr.children()) {
+            collectNames(child, reads, writes);
+        }
+    }
+
+    /**
+     * Whether an expression has no side effects.
+     */
+    private static boolean isPure(Expr expr) {
+        if (expr instanceof Assign || expr instanceof Crement) {
+            return false;
+        }
+        if (expr instanceof Call) {
+            Call call = (Call) expr;
+            if (!PURE_FUNCTIONS.contains(call.getName()) || call.hasSlotArguments()) {
+                return false;
+            }
+        }
+        for (Expr child : expr.children()) {
+            if (!isPure(child)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Whether an expression has no side effects and can't fail, so it may be evaluated earlier or not at all.
+     */
+    private boolean isMovable(Expr expr) {
+        if (!isPure(expr)) {
+            return false;
+        }
+        Set<String> reads = new HashSet<>();
+        collectNames(expr, reads, new HashSet<>());
+        return initialized.containsAll(reads);
+    }
+
+    private static int cost(Expr expr) {
+        int cost;
+        if (expr instanceof Num || expr instanceof Var) {
+            cost = 0;
+        } else if (expr instanceof Call) {
+            cost = 8;
+        } else if (expr instanceof Binary && ((Binary) expr).op.equals("^")) {
+            cost = 8;
+        } else {
+            cost = 1;
+        }
+        for (Expr child : expr.children()) {
+            cost += cost(child);
+        }
+        return cost;
+    }
+
+    private Var newTemporary() {
+        String name;
+        do {
+            name = "opt" + temporaries++;
+        } while (reserved.contains(name));
+        reserved.add(name);
+        initialized.add(name);
+        return new Var(name);
+    }
+
+    private static Expr rewrite(Expr expr, UnaryOperator<Expr> rewriter) {
+        List<Expr> children = expr.children();
+        if (!children.isEmpty()) {
+            List<Expr> rewritten = new ArrayList<>(children.size());
+            for (Expr child : children) {
+                rewritten.add(rewrite(child, rewriter));
+            }
+            expr = expr.rebuild(rewritten);
+        }
+        return rewriter.apply(expr);
+    }
+
+    private static void rewriteAll(Stmt stmt, UnaryOperator<Expr> rewriter) {
+        stmt.rewrite(rewriter);
+        for (Seq body : stmt.bodies()) {
+            rewriteAll(body, rewriter);
+        }
+        if (stmt instanceof Seq) {
+            for (Stmt child : ((Seq) stmt).statements) {
+                rewriteAll(child, rewriter);
+            }
+        }
+    }
+
+    // Passes
+
+    private void simplify(Seq seq) {
+        rewriteAll(seq, expr -> rewrite(expr, this::fold));
+        simplifyBranches(seq);
+    }
+
+    /**
+     * Replace ifs with a constant condition by the branch taken.
+     */
+    private static void simplifyBranches(Seq seq) {
+        List<Stmt> statements = seq.statements;
+        for (int i = 0; i < statements.size(); i++) {
+            Stmt stmt = statements.get(i);
+            for (Seq body : stmt.bodies()) {
+                simplifyBranches(body);
+            }
+            if (stmt instanceof If && ((If) stmt).condition instanceof Num) {
+                If ifStatement = (If) stmt;
+                Seq taken = ((Num) ifStatement.condition).value != 0 ? ifStatement.trueBranch : ifStatement.falseBranch;
+                // an empty branch results in no value, unlike no statement at all
+                if (taken != null && !taken.statements.isEmpty()) {
+                    statements.remove(i);
+                    statements.addAll(i, taken.statements);
+                    i += taken.statements.size() - 1;
+                }
+            }
+        }
+    }
+
+    private Expr fold(Expr expr) {
+        if (expr instanceof Var) {
+            LocalSlot slot = slots.getSlot(((Var) expr).name).orElse(null);
+            if (slot instanceof LocalSlot.Constant) {
+                return new Num(slot.getValue());
+            }
+        } else if (expr instanceof Unary) {
+            return foldUnary((Unary) expr);
+        } else if (expr instanceof Binary) {
+            return foldBinary((Binary) expr);
+        } else if (expr instanceof Ternary) {
+            Ternary ternary = (Ternary) expr;
+            if (ternary.condition instanceof Num) {
+                return ((Num) ternary.condition).value != 0 ? ternary.trueBranch : ternary.falseBranch;
+            }
+        } else if (expr instanceof Call) {
+            return foldCall((Call) expr);
+        }
+        return expr;
+    }
+
+    private static Expr foldUnary(Unary unary) {
+        Expr inner = unary.expr;
+        switch (unary.op) {
+            case "+":
+                return inner;
+            case "-":
+                if (inner instanceof Num) {
+                    return new Num(-((Num) inner).value);
+                }
+                if (inner instanceof Unary && ((Unary) inner).op.equals("-")) {
+                    return ((Unary) inner).expr;
+                }
+                break;
+            case "!":
+                if (inner instanceof Num) {
+                    return new Num(((Num) inner).value != 0 ? 0 : 1);
+                }
+                break;
+            case "~":
+                if (inner instanceof Num) {
+                    return new Num(~(long) ((Num) inner).value);
+                }
+                break;
+            default:
+                break;
+        }
+        return unary;
+    }
+
+    private static Expr foldBinary(Binary binary) {
+        Expr left = binary.left;
+        Expr right = binary.right;
+        if (left instanceof Num && right instanceof Num) {
+            Double value = apply(binary.op, ((Num) left).value, ((Num) right).value);
+            if (value != null) {
+                return new Num(value);
+            }
+        }
+        switch (binary.op) {
+            case "&&":
+                // the value of right if left is true
+                if (left instanceof Num) {
+                    return ((Num) left).value != 0 ? right : new Num(0);
+                }
+                break;
+            case "||":
+                // the value of left if it is true, otherwise the value of right
+                if (left instanceof Num) {
+                    return ((Num) left).value != 0 ? left : right;
+                }
+                break;
+            case "*":
+                if (isNum(right, 1)) {
+                    return left;
+                }
+                if (isNum(left, 1)) {
+                    return right;
+                }
+                break;
+            case "/":
+                if (isNum(right, 1)) {
+                    return left;
+                }
+                break;
+            case "-":
+                // x - 0 is x even for -0, unlike x + 0
+                if (right instanceof Num && Double.doubleToRawLongBits(((Num) right).value) == 0) {
+                    return left;
+                }
+                break;
+            case "^":
+                if (isNum(right, 1)) {
+                    return left;
+                }
+                // Math.pow returns exactly x * x for 2
+                if (isNum(right, 2) && left instanceof Var) {
+                    return new Binary("*", left, left);
+                }
+                break;
+            default:
+                break;
+        }
+        return binary;
+    }
+
+    private static boolean isNum(Expr expr, double value) {
+        return expr instanceof Num && ((Num) expr).value == value;
+    }
+
+    /**
+     * Apply an operator like the compiled expression does.
+     *
+     * @return the result, or null if not folded
+     */
+    @Nullable
+    private static Double apply(String op, double l, double r) {
+        switch (op) {
+            case "+":
+                return l + r;
+            case "-":
+                return l - r;
+            case "*":
+                return l * r;
+            case "/":
+                return l / r;
+            case "%":
+                return l % r;
+            case "^":
+                return Math.pow(l, r);
+            case "<<":
+                return (double) ((long) l << (long) r);
+            case ">>":
+                return (double) ((long) l >> (long) r);
+            case "<":
+                return l < r ? 1.0 : 0.0;
+            case "<=":
+                return l <= r ? 1.0 : 0.0;
+            case ">":
+                return l > r ? 1.0 : 0.0;
+            case ">=":
+                return l >= r ? 1.0 : 0.0;
+            case "==":
+                return l == r ? 1.0 : 0.0;
+            case "!=":
+                return l != r ? 1.0 : 0.0;
+            default:
+                return null;
+        }
+    }
+
+    private static Expr foldCall(Call call) {
+        if (!PURE_FUNCTIONS.contains(call.getName()) || call.hasSlotArguments()) {
+            return call;
+        }
+        Object[] args = new Object[call.args.size()];
+        for (int i = 0; i < args.length; i++) {
+            Expr arg = call.args.get(i);
+            if (!(arg instanceof Num)) {
+                return call;
+            }
+            args[i] = ((Num) arg).value;
+        }
+        try {
+            Object result = call.handle.invokeWithArguments(args);
+            if (result instanceof Double) {
+                return new Num((Double) result);
+            }
+        } catch (Throwable ignored) {
+            // leave it to fail when evaluated
+        }
+        return call;
+    }
+
+    /**
+     * Replace assignments to variables that are never read by the assigned value.
+     */
+    private void removeUnusedAssignments(Seq program) {
+        Set<String> reads = new HashSet<>();
+        collectNames(program, reads, new HashSet<>());
+        rewriteAll(program, expr -> rewrite(expr, e -> {
+            if (e instanceof Assign) {
+                Assign assign = (Assign) e;
+                if (assign.op.equals("=") && !reads.contains(assign.name) && !provided.contains(assign.name)
+                        && !slots.containsSlot(assign.name)) {
+                    return assign.value;
+                }
+            }
+            return e;
+        }));
+    }
+
+    /**
+     * Evaluate subexpressions of loops that don't change between iterations in front of the loop.
+     */
+    private void hoistInvariants(Seq seq) {
+        List<Stmt> statements = seq.statements;
+        for (int i = 0; i < statements.size(); i++) {
+            Stmt stmt = statements.get(i);
+            if (stmt instanceof Loop) {
+                Set<String> writes = new HashSet<>();
+                collectNames(stmt, new HashSet<>(), writes);
+                Map<String, Var> temporaries = new HashMap<>();
+                List<Stmt> hoisted = new ArrayList<>();
+                UnaryOperator<Expr> hoist = expr -> hoistInvariants(expr, writes, temporaries, hoisted);
+                if (stmt instanceof For) {
+                    // init only runs once anyway
+                    For loop = (For) stmt;
+                    loop.condition = hoist.apply(loop.condition);
+                    loop.update = hoist.apply(loop.update);
+                } else if (!(stmt instanceof SimpleFor)) {
+                    stmt.rewrite(hoist);
+                }
+                rewriteAll(((Loop) stmt).body, hoist);
+                statements.addAll(i, hoisted);
+                i += hoisted.size();
+            }
+            for (Seq body : stmt.bodies()) {
+                hoistInvariants(body);
+            }
+        }
+    }
+
+    private Expr hoistInvariants(Expr expr, Set<String> writes, Map<String, Var> temporaries, List<Stmt> hoisted) {
+        if (!(expr instanceof Num) && !(expr instanceof Var) && cost(expr) >= MIN_INVARIANT_COST && isMovable(expr)) {
+            Set<String> reads = new HashSet<>();
+            collectNames(expr, reads, new HashSet<>());
+            if (Collections.disjoint(reads, writes)) {
+                return temporaries.computeIfAbsent(expr.toString(), key -> {
+                    Var temporary = newTemporary();
+                    hoisted.add(new ExprStmt(new Assign(temporary.name, "=", expr)));
+                    return temporary;
+                });
+            }
+        }
+        List<Expr> children = expr.children();
+        if (children.isEmpty()) {
+            return expr;
+        }
+        List<Expr> rewritten = new ArrayList<>(children.size());
+        for (Expr child : children) {
+            rewritten.add(hoistInvariants(child, writes, temporaries, hoisted));
+        }
+        return expr.rebuild(rewritten);
+    }
+
+    /**
+     * Evaluate subexpressions occurring several times in a statement once, in front of it.
+     */
+    private void eliminateCommonSubexpressions(Seq seq) {
+        List<Stmt> statements = seq.statements;
+        for (int i = 0; i < statements.size(); i++) {
+            Stmt stmt = statements.get(i);
+            for (Seq body : stmt.bodies()) {
+                eliminateCommonSubexpressions(body);
+            }
+            if (!(stmt instanceof ExprStmt || stmt instanceof Return || stmt instanceof If)) {
+                continue;
+            }
+            for (int n = 0; n < MAX_COMMON_SUBEXPRESSIONS; n++) {
+                Expr[] common = new Expr[1];
+                stmt.rewrite(expr -> {
+                    Expr root = expr;
+                    // the value of an assignment is evaluated before the variable is written
+                    while (root instanceof Assign && ((Assign) root).op.equals("=")) {
+                        root = ((Assign) root).value;
+                    }
+                    if (isPure(root)) {
+                        common[0] = findCommonSubexpression(root);
+                    }
+                    return expr;
+                });
+                if (common[0] == null) {
+                    break;
+                }
+                String key = common[0].toString();
+                Var temporary = newTemporary();
+                stmt.rewrite(expr -> rewrite(expr, e -> e.toString().equals(key) ? temporary : e));
+                statements.add(i, new ExprStmt(new Assign(temporary.name, "=", common[0])));
+                i++;
+            }
+        }
+    }
+
+    @Nullable
+    private Expr findCommonSubexpression(Expr root) {
+        Map<String, Integer> counts = new HashMap<>();
+        Map<String, Expr> candidates = new LinkedHashMap<>();
+        rewrite(root, expr -> {
+            if (!(expr instanceof Num) && !(expr instanceof Var) && cost(expr) >= MIN_COMMON_COST) {
+                String key = expr.toString();
+                counts.merge(key, 1, Integer::sum);
+                candidates.putIfAbsent(key, expr);
+            }
+            return expr;
+        });
+        Expr best = null;
+        int bestCost = 0;
+        for (Map.Entry<String, Expr> entry : candidates.entrySet()) {
+            Expr candidate = entry.getValue();
+            int cost = cost(candidate);
+            if (counts.get(entry.getKey()) > 1 && cost > bestCost && isMovable(candidate)) {
+                best = candidate;
+                bestCost = cost;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Remove statements without effects, whose value is overwritten by the next statement.
+     */
+    private void removeUnusedStatements(Seq seq) {
+        List<Stmt> statements = seq.statements;
+        for (int i = statements.size() - 1; i >= 0; i--) {
+            Stmt stmt = statements.get(i);
+            for (Seq body : stmt.bodies()) {
+                removeUnusedStatements(body);
+            }
+            if (i < statements.size() - 1 && stmt instanceof ExprStmt && isMovable(((ExprStmt) stmt).expr)) {
+                statements.remove(i);
+            }
+        }
+    }
+
+}
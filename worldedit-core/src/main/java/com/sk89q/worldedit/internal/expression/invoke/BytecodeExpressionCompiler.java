@@ -0,0 +1,1034 @@
+package com.sk89q.worldedit.internal.expression.invoke;
+
+import com.sk89q.worldedit.antlr.ExpressionParser;
+import com.sk89q.worldedit.internal.expression.CompiledExpression;
+import com.sk89q.worldedit.internal.expression.ExecutionData;
+import com.sk89q.worldedit.internal.expression.ExpressionHelper;
+import com.sk89q.worldedit.internal.expression.Functions;
+import com.sk89q.worldedit.internal.expression.LocalSlot;
+import com.sk89q.worldedit.internal.util.LogManagerCompat;
+import org.antlr.v4.runtime.CommonToken;
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.apache.logging.log4j.Logger;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Type;
+
+import javax.annotation.Nullable;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodType;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.sk89q.worldedit.antlr.ExpressionLexer.ASSIGN;
+import static com.sk89q.worldedit.antlr.ExpressionLexer.DIVIDE;
+import static com.sk89q.worldedit.antlr.ExpressionLexer.DIVIDE_ASSIGN;
+import static com.sk89q.worldedit.antlr.ExpressionLexer.EQUAL;
+import static com.sk89q.worldedit.antlr.ExpressionLexer.EXCLAMATION_MARK;
+import static com.sk89q.worldedit.antlr.ExpressionLexer.GREATER_THAN;
+import static com.sk89q.worldedit.antlr.ExpressionLexer.GREATER_THAN_OR_EQUAL;
+import static com.sk89q.worldedit.antlr.ExpressionLexer.INCREMENT;
+import static com.sk89q.worldedit.antlr.ExpressionLexer.LEFT_SHIFT;
+import static com.sk89q.worldedit.antlr.ExpressionLexer.LESS_THAN;
+import static com.sk89q.worldedit.antlr.ExpressionLexer.LESS_THAN_OR_EQUAL;
+import static com.sk89q.worldedit.antlr.ExpressionLexer.MINUS;
+import static com.sk89q.worldedit.antlr.ExpressionLexer.MINUS_ASSIGN;
+import static com.sk89q.worldedit.antlr.ExpressionLexer.MODULO;
+import static com.sk89q.worldedit.antlr.ExpressionLexer.MODULO_ASSIGN;
+import static com.sk89q.worldedit.antlr.ExpressionLexer.NEAR;
+import static com.sk89q.worldedit.antlr.ExpressionLexer.NOT_EQUAL;
+import static com.sk89q.worldedit.antlr.ExpressionLexer.PLUS;
+import static com.sk89q.worldedit.antlr.ExpressionLexer.PLUS_ASSIGN;
+import static com.sk89q.worldedit.antlr.ExpressionLexer.POWER_ASSIGN;
+import static com.sk89q.worldedit.antlr.ExpressionLexer.RIGHT_SHIFT;
+import static com.sk89q.worldedit.antlr.ExpressionLexer.TIMES;
+import static com.sk89q.worldedit.antlr.ExpressionLexer.TIMES_ASSIGN;
+import static com.sk89q.worldedit.internal.expression.ExpressionHelper.WRAPPED_CONSTANT;
+import static org.objectweb.asm.Opcodes.AALOAD;
+import static org.objectweb.asm.Opcodes.ACC_FINAL;
+import static org.objectweb.asm.Opcodes.ACC_PRIVATE;
+import static org.objectweb.asm.Opcodes.ACC_PUBLIC;
+import static org.objectweb.asm.Opcodes.ACC_STATIC;
+import static org.objectweb.asm.Opcodes.ACC_SUPER;
+import static org.objectweb.asm.Opcodes.ACONST_NULL;
+import static org.objectweb.asm.Opcodes.ALOAD;
+import static org.objectweb.asm.Opcodes.ARETURN;
+import static org.objectweb.asm.Opcodes.ASTORE;
+import static org.objectweb.asm.Opcodes.ATHROW;
+import static org.objectweb.asm.Opcodes.CHECKCAST;
+import static org.objectweb.asm.Opcodes.D2L;
+import static org.objectweb.asm.Opcodes.DADD;
+import static org.objectweb.asm.Opcodes.DCMPG;
+import static org.objectweb.asm.Opcodes.DCMPL;
+import static org.objectweb.asm.Opcodes.DCONST_0;
+import static org.objectweb.asm.Opcodes.DCONST_1;
+import static org.objectweb.asm.Opcodes.DDIV;
+import static org.objectweb.asm.Opcodes.DLOAD;
+import static org.objectweb.asm.Opcodes.DMUL;
+import static org.objectweb.asm.Opcodes.DNEG;
+import static org.objectweb.asm.Opcodes.DREM;
+import static org.objectweb.asm.Opcodes.DSTORE;
+import static org.objectweb.asm.Opcodes.DSUB;
+import static org.objectweb.asm.Opcodes.DUP;
+import static org.objectweb.asm.Opcodes.DUP2;
+import static org.objectweb.asm.Opcodes.GETSTATIC;
+import static org.objectweb.asm.Opcodes.GOTO;
+import static org.objectweb.asm.Opcodes.ICONST_0;
+import static org.objectweb.asm.Opcodes.ICONST_1;
+import static org.objectweb.asm.Opcodes.IFEQ;
+import static org.objectweb.asm.Opcodes.IFGE;
+import static org.objectweb.asm.Opcodes.IFGT;
+import static org.objectweb.asm.Opcodes.IFLE;
+import static org.objectweb.asm.Opcodes.IFLT;
+import static org.objectweb.asm.Opcodes.IFNE;
+import static org.objectweb.asm.Opcodes.IFNONNULL;
+import static org.objectweb.asm.Opcodes.ILOAD;
+import static org.objectweb.asm.Opcodes.INSTANCEOF;
+import static org.objectweb.asm.Opcodes.INVOKEINTERFACE;
+import static org.objectweb.asm.Opcodes.INVOKESPECIAL;
+import static org.objectweb.asm.Opcodes.INVOKESTATIC;
+import static org.objectweb.asm.Opcodes.INVOKEVIRTUAL;
+import static org.objectweb.asm.Opcodes.ISTORE;
+import static org.objectweb.asm.Opcodes.L2D;
+import static org.objectweb.asm.Opcodes.L2I;
+import static org.objectweb.asm.Opcodes.LSHL;
+import static org.objectweb.asm.Opcodes.LSHR;
+import static org.objectweb.asm.Opcodes.LXOR;
+import static org.objectweb.asm.Opcodes.NEW;
+import static org.objectweb.asm.Opcodes.POP2;
+import static org.objectweb.asm.Opcodes.PUTSTATIC;
+import static org.objectweb.asm.Opcodes.RETURN;
+import static org.objectweb.asm.Opcodes.V1_8;
+
+/**
+ * Compiles an expression from an AST into a class of its own, as a faster alternative to the {@link MethodHandle}s of
+ * {@link CompilingVisitor}.
+ *
+ * <p>Each name is looked up in the slot table once per evaluation. Its value is kept in a local variable of the
+ * generated method, which is written back to the slot when the method returns or throws. Names that are passed to
+ * functions as variables are read and written through their slot instead, as the function may modify them. Loops
+ * are compiled to jumps, so break, continue and return don't throw.</p>
+ *
+ * <p>Expressions using anything that isn't supported here, e.g. switch statements, are left to the
+ * {@link CompilingVisitor}. Each class is defined in its own class loader, so it can be unloaded together with the
+ * expression.</p>
+ */
+class BytecodeExpressionCompiler {
+
+    private static final Logger LOGGER = LogManagerCompat.getLogger();
+    private static final AtomicInteger COUNTER = new AtomicInteger();
+
+    private static final String CLASS_NAME = "com/sk89q/worldedit/internal/expression/invoke/GeneratedExpression";
+    private static final String OBJECT = Type.getInternalName(Object.class);
+    private static final String DOUBLE = Type.getInternalName(Double.class);
+    private static final String SUPPORT = Type.getInternalName(BytecodeSupport.class);
+    private static final String LOCAL_SLOT = Type.getInternalName(LocalSlot.class);
+    private static final String VARIABLE = Type.getInternalName(LocalSlot.Variable.class);
+    private static final String CONSTANT = Type.getInternalName(LocalSlot.Constant.class);
+    private static final String EXECUTION_DATA = Type.getInternalName(ExecutionData.class);
+    private static final String METHOD_HANDLE = Type.getInternalName(MethodHandle.class);
+    private static final String SLOT_LOOKUP = Type.getMethodDescriptor(
+            Type.getType(LocalSlot.class), Type.getType(ExecutionData.class), Type.getType(Token.class)
+    );
+
+    // local variables of the execute method
+    private static final int THIS = 0;
+    private static final int DATA = 1;
+
+    /**
+     * Compile an expression.
+     *
+     * @param root      the AST
+     * @param functions the functions available to the expression
+     * @return the compiled expression, or null if it should be compiled to method handles instead
+     */
+    @Nullable
+    static CompiledExpression compile(ExpressionParser.AllStatementsContext root, Functions functions) {
+        String className = CLASS_NAME + COUNTER.incrementAndGet();
+        byte[] bytes;
+        BytecodeExpressionCompiler compiler = new BytecodeExpressionCompiler(functions, className);
+        try {
+            bytes = compiler.generate(root);
+        } catch (RuntimeException e) {
+            // unsupported, or invalid in a way the method handles report properly
+            return null;
+        }
+        BytecodeSupport.offerConstants(compiler.constants.toArray());
+        try {
+            Class<?> type = new ExpressionClassLoader().define(className.replace('/', '.'), bytes);
+            return (CompiledExpression) type.getConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            LOGGER.debug("Failed to load compiled expression, falling back to method handles", e);
+            return null;
+        } finally {
+            BytecodeSupport.takeConstants();
+        }
+    }
+
+    /**
+     * Thrown for anything this compiler doesn't handle.
+     */
+    private static final class Unsupported extends RuntimeException {
+
+        Unsupported(String message) {
+            super(message, null, false, false);
+        }
+
+    }
+
+    private static final class ExpressionClassLoader extends ClassLoader {
+
+        ExpressionClassLoader() {
+            super(BytecodeExpressionCompiler.class.getClassLoader());
+        }
+
+        Class<?> define(String name, byte[] bytes) {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+
+    }
+
+    /**
+     * A name used by the expression.
+     */
+    private static final class Name {
+
+        private final Token token;
+        // the LocalSlot, null until looked up
+        private int slot;
+        // the cached value, -1 if accessed through the slot
+        private int value = -1;
+        private boolean written;
+        private boolean byReference;
+
+        private Name(Token token) {
+            this.token = token;
+        }
+
+    }
+
+    /**
+     * Where a statement stores its result, which may be null.
+     */
+    private static final class Result {
+
+        private final int value;
+        private final int present;
+
+        private Result(int value, int present) {
+            this.value = value;
+            this.present = present;
+        }
+
+    }
+
+    private static final class Loop {
+
+        private final Label next;
+        private final Label end;
+
+        private Loop(Label next, Label end) {
+            this.next = next;
+            this.end = end;
+        }
+
+    }
+
+    private final Functions functions;
+    private final String className;
+    private final List<Object> constants = new ArrayList<>();
+    private final List<String> constantTypes = new ArrayList<>();
+    private final Map<Object, Integer> constantIndices = new IdentityHashMap<>();
+    private final Map<String, Name> names = new LinkedHashMap<>();
+    private final Deque<Loop> loops = new ArrayDeque<>();
+    private MethodVisitor mv;
+    private int nextLocal = DATA + 1;
+
+    private BytecodeExpressionCompiler(Functions functions, String className) {
+        this.functions = functions;
+        this.className = className;
+    }
+
+    private byte[] generate(ExpressionParser.AllStatementsContext root) {
+        scan(root);
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES) {
+            @Override
+            protected String getCommonSuperClass(String type1, String type2) {
+                // locals only ever hold one reference type, don't load classes to merge them
+                return OBJECT;
+            }
+        };
+        cw.visit(V1_8, ACC_PUBLIC | ACC_FINAL | ACC_SUPER, className, null, OBJECT,
+                new String[]{Type.getInternalName(CompiledExpression.class)}
+        );
+
+        mv = cw.visitMethod(ACC_PUBLIC, "<init>", "()V", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(ALOAD, THIS);
+        mv.visitMethodInsn(INVOKESPECIAL, OBJECT, "<init>", "()V", false);
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        mv = cw.visitMethod(ACC_PUBLIC, "execute",
+                Type.getMethodDescriptor(Type.getType(Double.class), Type.getType(ExecutionData.class)), null, null
+        );
+        mv.visitCode();
+        execute(root);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        // after execute, which collected the constants
+        for (int i = 0; i < constants.size(); i++) {
+            cw.visitField(ACC_PRIVATE | ACC_STATIC | ACC_FINAL, "c" + i, constantTypes.get(i), null, null).visitEnd();
+        }
+        mv = cw.visitMethod(ACC_STATIC, "<clinit>", "()V", null, null);
+        mv.visitCode();
+        mv.visitMethodInsn(INVOKESTATIC, SUPPORT, "takeConstants",
+                Type.getMethodDescriptor(Type.getType(Object[].class)), false
+        );
+        mv.visitVarInsn(ASTORE, 0);
+        for (int i = 0; i < constants.size(); i++) {
+            mv.visitVarInsn(ALOAD, 0);
+            mv.visitLdcInsn(i);
+            mv.visitInsn(AALOAD);
+            mv.visitTypeInsn(CHECKCAST, Type.getType(constantTypes.get(i)).getInternalName());
+            mv.visitFieldInsn(PUTSTATIC, className, "c" + i, constantTypes.get(i));
+        }
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    /**
+     * Collect the names used by the expression.
+     */
+    private void scan(ParseTree tree) {
+        if (tree instanceof ExpressionParser.IdExprContext) {
+            name(((ExpressionParser.IdExprContext) tree).source);
+        } else if (tree instanceof ExpressionParser.AssignmentContext) {
+            name(((ExpressionParser.AssignmentContext) tree).target).written = true;
+        } else if (tree instanceof ExpressionParser.PreCrementExprContext) {
+            name(((ExpressionParser.PreCrementExprContext) tree).target).written = true;
+        } else if (tree instanceof ExpressionParser.PostCrementExprContext) {
+            name(((ExpressionParser.PostCrementExprContext) tree).target).written = true;
+        } else if (tree instanceof ExpressionParser.SimpleForStatementContext) {
+            name(((ExpressionParser.SimpleForStatementContext) tree).counter).written = true;
+        } else if (tree instanceof ExpressionParser.FunctionCallContext) {
+            ExpressionParser.FunctionCallContext call = (ExpressionParser.FunctionCallContext) tree;
+            MethodType type = ExpressionHelper.resolveFunction(functions, call).type();
+            for (int i = 0; i < call.args.size(); i++) {
+                ExpressionParser.ExpressionContext arg = call.args.get(i);
+                String handleName = ExpressionHelper.getArgumentHandleName(call.name.getText(), type, i, arg);
+                if (handleName != null && !handleName.equals(WRAPPED_CONSTANT)) {
+                    name(handleToken(arg, handleName)).byReference = true;
+                }
+            }
+        }
+        for (int i = 0; i < tree.getChildCount(); i++) {
+            scan(tree.getChild(i));
+        }
+    }
+
+    private Name name(Token token) {
+        return names.computeIfAbsent(token.getText(), n -> new Name(token));
+    }
+
+    private static Token handleToken(ParserRuleContext arg, String handleName) {
+        // same as CompilingVisitor, for the same error messages
+        CommonToken fake = new CommonToken(arg.start);
+        fake.setText(handleName);
+        return fake;
+    }
+
+    private int newLocal(int size) {
+        int local = nextLocal;
+        nextLocal += size;
+        return local;
+    }
+
+    private void execute(ExpressionParser.AllStatementsContext root) {
+        for (Name name : names.values()) {
+            name.slot = newLocal(1);
+            mv.visitInsn(ACONST_NULL);
+            mv.visitVarInsn(ASTORE, name.slot);
+            if (!name.byReference) {
+                name.value = newLocal(2);
+                mv.visitInsn(DCONST_0);
+                mv.visitVarInsn(DSTORE, name.value);
+            }
+        }
+        Result result = newResult();
+        clear(result);
+
+        Label start = new Label();
+        Label end = new Label();
+        Label handler = new Label();
+        mv.visitTryCatchBlock(start, end, handler, null);
+        mv.visitLabel(start);
+        statements(root.statements(), result);
+        writeBack();
+        Label isNull = new Label();
+        mv.visitVarInsn(ILOAD, result.present);
+        mv.visitJumpInsn(IFEQ, isNull);
+        mv.visitVarInsn(DLOAD, result.value);
+        box();
+        mv.visitInsn(ARETURN);
+        mv.visitLabel(isNull);
+        mv.visitInsn(ACONST_NULL);
+        mv.visitInsn(ARETURN);
+        mv.visitLabel(end);
+
+        // write back on exceptions too, like the method handles which modify the slots directly
+        mv.visitLabel(handler);
+        int exception = newLocal(1);
+        mv.visitVarInsn(ASTORE, exception);
+        writeBack();
+        mv.visitVarInsn(ALOAD, exception);
+        mv.visitInsn(ATHROW);
+    }
+
+    private void writeBack() {
+        for (Name name : names.values()) {
+            if (!name.written || name.byReference) {
+                continue;
+            }
+            Label skip = new Label();
+            mv.visitVarInsn(ALOAD, name.slot);
+            mv.visitTypeInsn(INSTANCEOF, VARIABLE);
+            mv.visitJumpInsn(IFEQ, skip);
+            mv.visitVarInsn(ALOAD, name.slot);
+            mv.visitTypeInsn(CHECKCAST, VARIABLE);
+            mv.visitVarInsn(DLOAD, name.value);
+            mv.visitMethodInsn(INVOKEVIRTUAL, VARIABLE, "setValue", "(D)V", false);
+            mv.visitLabel(skip);
+        }
+    }
+
+    private void constant(Object value, Class<?> type) {
+        Integer index = constantIndices.get(value);
+        if (index == null) {
+            index = constants.size();
+            constants.add(value);
+            constantTypes.add(Type.getDescriptor(type));
+            constantIndices.put(value, index);
+        }
+        mv.visitFieldInsn(GETSTATIC, className, "c" + index, constantTypes.get(index));
+    }
+
+    private void box() {
+        mv.visitMethodInsn(INVOKESTATIC, DOUBLE, "valueOf", "(D)L" + DOUBLE + ";", false);
+    }
+
+    // Statements
+
+    private Result newResult() {
+        return new Result(newLocal(2), newLocal(1));
+    }
+
+    private void clear(Result result) {
+        mv.visitInsn(DCONST_0);
+        mv.visitVarInsn(DSTORE, result.value);
+        mv.visitInsn(ICONST_0);
+        mv.visitVarInsn(ISTORE, result.present);
+    }
+
+    private void copy(Result from, Result to) {
+        mv.visitVarInsn(DLOAD, from.value);
+        mv.visitVarInsn(DSTORE, to.value);
+        mv.visitVarInsn(ILOAD, from.present);
+        mv.visitVarInsn(ISTORE, to.present);
+    }
+
+    private boolean statements(ExpressionParser.StatementsContext ctx, Result result) {
+        boolean any = false;
+        for (ExpressionParser.StatementContext statement : ctx.statement()) {
+            any |= statement(statement, result);
+        }
+        return any;
+    }
+
+    /**
+     * Compile a statement storing its result.
+     *
+     * @return false if the statement is empty, and doesn't store a result
+     */
+    private boolean statement(ParserRuleContext ctx, Result result) {
+        if (ctx instanceof ExpressionParser.StatementContext) {
+            return statement(ctx.getRuleContext(ParserRuleContext.class, 0), result);
+        } else if (ctx instanceof ExpressionParser.BlockContext) {
+            return statements(((ExpressionParser.BlockContext) ctx).statements(), result);
+        } else if (ctx instanceof ExpressionParser.ExpressionStatementContext) {
+            expression(((ExpressionParser.ExpressionStatementContext) ctx).expression());
+            mv.visitVarInsn(DSTORE, result.value);
+            mv.visitInsn(ICONST_1);
+            mv.visitVarInsn(ISTORE, result.present);
+            return true;
+        } else if (ctx instanceof ExpressionParser.EmptyStatementContext) {
+            return false;
+        } else if (ctx instanceof ExpressionParser.IfStatementContext) {
+            ExpressionParser.IfStatementContext ifStatement = (ExpressionParser.IfStatementContext) ctx;
+            Label falseBranch = new Label();
+            Label end = new Label();
+            condition(ifStatement.condition);
+            mv.visitJumpInsn(IFEQ, falseBranch);
+            branch(ifStatement.trueBranch, result);
+            mv.visitJumpInsn(GOTO, end);
+            mv.visitLabel(falseBranch);
+            branch(ifStatement.falseBranch, result);
+            mv.visitLabel(end);
+            return true;
+        } else if (ctx instanceof ExpressionParser.WhileStatementContext) {
+            ExpressionParser.WhileStatementContext loop = (ExpressionParser.WhileStatementContext) ctx;
+            whileLoop(null, loop.condition, loop.body, null, result);
+            return true;
+        } else if (ctx instanceof ExpressionParser.ForStatementContext) {
+            ExpressionParser.ForStatementContext loop = (ExpressionParser.ForStatementContext) ctx;
+            whileLoop(loop.init, loop.condition, loop.body, loop.update, result);
+            return true;
+        } else if (ctx instanceof ExpressionParser.DoStatementContext) {
+            doWhileLoop((ExpressionParser.DoStatementContext) ctx, result);
+            return true;
+        } else if (ctx instanceof ExpressionParser.SimpleForStatementContext) {
+            simpleForLoop((ExpressionParser.SimpleForStatementContext) ctx, result);
+            return true;
+        } else if (ctx instanceof ExpressionParser.BreakStatementContext) {
+            mv.visitJumpInsn(GOTO, currentLoop().end);
+            return true;
+        } else if (ctx instanceof ExpressionParser.ContinueStatementContext) {
+            mv.visitJumpInsn(GOTO, currentLoop().next);
+            return true;
+        } else if (ctx instanceof ExpressionParser.ReturnStatementContext) {
+            expression(((ExpressionParser.ReturnStatementContext) ctx).value);
+            writeBack();
+            box();
+            mv.visitInsn(ARETURN);
+            return true;
+        }
+        throw new Unsupported(ctx.getClass().getSimpleName());
+    }
+
+    private void branch(@Nullable ExpressionParser.StatementContext ctx, Result result) {
+        if (ctx == null || !statement(ctx, result)) {
+            clear(result);
+        }
+    }
+
+    private Loop currentLoop() {
+        Loop loop = loops.peek();
+        if (loop == null) {
+            // thrown out of the expression by the method handles
+            throw new Unsupported("break outside of loop");
+        }
+        return loop;
+    }
+
+    /**
+     * Compile a loop body, storing its result only if it completes normally.
+     */
+    private void loopBody(ExpressionParser.StatementContext body, Result bodyResult, Result result, Loop loop) {
+        loops.push(loop);
+        if (statement(body, bodyResult)) {
+            copy(bodyResult, result);
+        } else {
+            clear(result);
+        }
+        loops.pop();
+    }
+
+    private int loopPrologue(Result result, Result bodyResult) {
+        clear(result);
+        clear(bodyResult);
+        int iterations = newLocal(1);
+        mv.visitInsn(ICONST_0);
+        mv.visitVarInsn(ISTORE, iterations);
+        return iterations;
+    }
+
+    private void checkIterations(int iterations, ParserRuleContext body) {
+        mv.visitVarInsn(ILOAD, iterations);
+        constant(body, ParserRuleContext.class);
+        mv.visitMethodInsn(INVOKESTATIC, Type.getInternalName(ExpressionHelper.class), "checkIterations",
+                Type.getMethodDescriptor(Type.VOID_TYPE, Type.INT_TYPE, Type.getType(ParserRuleContext.class)), false
+        );
+        mv.visitVarInsn(ALOAD, DATA);
+        mv.visitMethodInsn(INVOKEVIRTUAL, EXECUTION_DATA, "checkDeadline", "()V", false);
+        mv.visitIincInsn(iterations, 1);
+    }
+
+    private void whileLoop(
+            @Nullable ExpressionParser.ExpressionContext init,
+            ExpressionParser.ExpressionContext condition,
+            ExpressionParser.StatementContext body,
+            @Nullable ExpressionParser.ExpressionContext update,
+            Result result
+    ) {
+        if (init != null) {
+            expression(init);
+            mv.visitInsn(POP2);
+        }
+        Result bodyResult = newResult();
+        int iterations = loopPrologue(result, bodyResult);
+        Loop loop = new Loop(new Label(), new Label());
+        Label head = new Label();
+        mv.visitLabel(head);
+        condition(condition);
+        mv.visitJumpInsn(IFEQ, loop.end);
+        checkIterations(iterations, body);
+        loopBody(body, bodyResult, result, loop);
+        mv.visitLabel(loop.next);
+        if (update != null) {
+            expression(update);
+            mv.visitInsn(POP2);
+        }
+        mv.visitJumpInsn(GOTO, head);
+        mv.visitLabel(loop.end);
+    }
+
+    private void doWhileLoop(ExpressionParser.DoStatementContext ctx, Result result) {
+        Result bodyResult = newResult();
+        int iterations = loopPrologue(result, bodyResult);
+        Loop loop = new Loop(new Label(), new Label());
+        Label head = new Label();
+        mv.visitLabel(head);
+        checkIterations(iterations, ctx.body);
+        loopBody(ctx.body, bodyResult, result, loop);
+        mv.visitLabel(loop.next);
+        condition(ctx.condition);
+        mv.visitJumpInsn(IFNE, head);
+        mv.visitLabel(loop.end);
+    }
+
+    private void simpleForLoop(ExpressionParser.SimpleForStatementContext ctx, Result result) {
+        int counter = newLocal(2);
+        int last = newLocal(2);
+        expression(ctx.first);
+        mv.visitVarInsn(DSTORE, counter);
+        expression(ctx.last);
+        mv.visitVarInsn(DSTORE, last);
+        Name name = names.get(ctx.counter.getText());
+        resolveForAssignment(name, ctx.counter);
+        Result bodyResult = newResult();
+        int iterations = loopPrologue(result, bodyResult);
+        Loop loop = new Loop(new Label(), new Label());
+        Label head = new Label();
+        mv.visitLabel(head);
+        mv.visitVarInsn(DLOAD, counter);
+        mv.visitVarInsn(DLOAD, last);
+        mv.visitInsn(DCMPG);
+        mv.visitJumpInsn(IFGT, loop.end);
+        checkIterations(iterations, ctx.body);
+        mv.visitVarInsn(DLOAD, counter);
+        store(name);
+        loopBody(ctx.body, bodyResult, result, loop);
+        mv.visitLabel(loop.next);
+        mv.visitVarInsn(DLOAD, counter);
+        mv.visitInsn(DCONST_1);
+        mv.visitInsn(DADD);
+        mv.visitVarInsn(DSTORE, counter);
+        mv.visitJumpInsn(GOTO, head);
+        mv.visitLabel(loop.end);
+    }
+
+    // Names
+
+    private void lookup(Name name, String method, Token token) {
+        mv.visitVarInsn(ALOAD, DATA);
+        constant(token, Token.class);
+        mv.visitMethodInsn(INVOKESTATIC, SUPPORT, method, SLOT_LOOKUP, false);
+        mv.visitVarInsn(ASTORE, name.slot);
+    }
+
+    private void loadCachedValue(Name name) {
+        if (name.value != -1) {
+            mv.visitVarInsn(ALOAD, name.slot);
+            mv.visitMethodInsn(INVOKEINTERFACE, LOCAL_SLOT, "getValue", "()D", true);
+            mv.visitVarInsn(DSTORE, name.value);
+        }
+    }
+
+    private void read(Token token) {
+        Name name = names.get(token.getText());
+        Label resolved = new Label();
+        mv.visitVarInsn(ALOAD, name.slot);
+        mv.visitJumpInsn(IFNONNULL, resolved);
+        lookup(name, "lookup", token);
+        loadCachedValue(name);
+        mv.visitLabel(resolved);
+        load(name);
+    }
+
+    private void load(Name name) {
+        if (name.value != -1) {
+            mv.visitVarInsn(DLOAD, name.value);
+        } else {
+            mv.visitVarInsn(ALOAD, name.slot);
+            mv.visitMethodInsn(INVOKEINTERFACE, LOCAL_SLOT, "getValue", "()D", true);
+        }
+    }
+
+    /**
+     * Store the double on the stack.
+     */
+    private void store(Name name) {
+        if (name.value != -1) {
+            mv.visitVarInsn(DSTORE, name.value);
+        } else {
+            int value = newLocal(2);
+            mv.visitVarInsn(DSTORE, value);
+            mv.visitVarInsn(ALOAD, name.slot);
+            mv.visitTypeInsn(CHECKCAST, VARIABLE);
+            mv.visitVarInsn(DLOAD, value);
+            mv.visitMethodInsn(INVOKEVIRTUAL, VARIABLE, "setValue", "(D)V", false);
+        }
+    }
+
+    private void resolveForAssignment(Name name, Token token) {
+        Label resolved = new Label();
+        mv.visitVarInsn(ALOAD, name.slot);
+        mv.visitTypeInsn(INSTANCEOF, VARIABLE);
+        mv.visitJumpInsn(IFNE, resolved);
+        lookup(name, "init", token);
+        // the loop counter is only stored if the loop runs, keep the value otherwise
+        loadCachedValue(name);
+        mv.visitLabel(resolved);
+    }
+
+    private void resolveForModification(Name name, Token token) {
+        Label resolved = new Label();
+        mv.visitVarInsn(ALOAD, name.slot);
+        mv.visitTypeInsn(INSTANCEOF, VARIABLE);
+        mv.visitJumpInsn(IFNE, resolved);
+        lookup(name, "variable", token);
+        loadCachedValue(name);
+        mv.visitLabel(resolved);
+    }
+
+    // Expressions
+
+    /**
+     * Compile an expression leaving its double value on the stack.
+     */
+    private void expression(ParserRuleContext ctx) {
+        if (ctx instanceof ExpressionParser.ConstantExpressionContext) {
+            mv.visitLdcInsn(Double.parseDouble(ctx.getText()));
+        } else if (ctx instanceof ExpressionParser.IdExprContext) {
+            read(((ExpressionParser.IdExprContext) ctx).source);
+        } else if (ctx instanceof ExpressionParser.WrappedExprContext) {
+            expression(((ExpressionParser.WrappedExprContext) ctx).expression());
+        } else if (ctx instanceof ExpressionParser.FunctionCallContext) {
+            functionCall((ExpressionParser.FunctionCallContext) ctx);
+        } else if (ctx instanceof ExpressionParser.AssignmentContext) {
+            assignment((ExpressionParser.AssignmentContext) ctx);
+        } else if (ctx instanceof ExpressionParser.PreCrementExprContext) {
+            ExpressionParser.PreCrementExprContext crement = (ExpressionParser.PreCrementExprContext) ctx;
+            crement(crement.target, crement.op.getType() == INCREMENT, true);
+        } else if (ctx instanceof ExpressionParser.PostCrementExprContext) {
+            ExpressionParser.PostCrementExprContext crement = (ExpressionParser.PostCrementExprContext) ctx;
+            crement(crement.target, crement.op.getType() == INCREMENT, false);
+        } else if (ctx instanceof ExpressionParser.TernaryExprContext) {
+            ExpressionParser.TernaryExprContext ternary = (ExpressionParser.TernaryExprContext) ctx;
+            Label falseBranch = new Label();
+            Label end = new Label();
+            condition(ternary.condition);
+            mv.visitJumpInsn(IFEQ, falseBranch);
+            expression(ternary.trueBranch);
+            mv.visitJumpInsn(GOTO, end);
+            mv.visitLabel(falseBranch);
+            expression(ternary.falseBranch);
+            mv.visitLabel(end);
+        } else if (ctx instanceof ExpressionParser.ConditionalOrExprContext) {
+            // the value of left if it is true, otherwise the value of right
+            ExpressionParser.ConditionalOrExprContext or = (ExpressionParser.ConditionalOrExprContext) ctx;
+            Label end = new Label();
+            expression(or.left);
+            mv.visitInsn(DUP2);
+            mv.visitInsn(DCONST_0);
+            mv.visitInsn(DCMPL);
+            mv.visitJumpInsn(IFNE, end);
+            mv.visitInsn(POP2);
+            expression(or.right);
+            mv.visitLabel(end);
+        } else if (ctx instanceof ExpressionParser.ConditionalAndExprContext) {
+            // the value of right if left is true, otherwise 0
+            ExpressionParser.ConditionalAndExprContext and = (ExpressionParser.ConditionalAndExprContext) ctx;
+            Label isFalse = new Label();
+            Label end = new Label();
+            condition(and.left);
+            mv.visitJumpInsn(IFEQ, isFalse);
+            expression(and.right);
+            mv.visitJumpInsn(GOTO, end);
+            mv.visitLabel(isFalse);
+            mv.visitInsn(DCONST_0);
+            mv.visitLabel(end);
+        } else if (ctx instanceof ExpressionParser.EqualityExprContext) {
+            ExpressionParser.EqualityExprContext equality = (ExpressionParser.EqualityExprContext) ctx;
+            expression(equality.left);
+            expression(equality.right);
+            switch (equality.op.getType()) {
+                case EQUAL:
+                    compare(DCMPL, IFNE);
+                    break;
+                case NOT_EQUAL:
+                    compare(DCMPL, IFEQ);
+                    break;
+                case NEAR:
+                    mv.visitMethodInsn(INVOKESTATIC, SUPPORT, "near", "(DD)D", false);
+                    break;
+                default:
+                    throw new Unsupported(equality.op.getText());
+            }
+        } else if (ctx instanceof ExpressionParser.RelationalExprContext) {
+            ExpressionParser.RelationalExprContext relational = (ExpressionParser.RelationalExprContext) ctx;
+            expression(relational.left);
+            expression(relational.right);
+            // the same comparisons javac emits, for the same results on NaN
+            switch (relational.op.getType()) {
+                case LESS_THAN:
+                    compare(DCMPG, IFGE);
+                    break;
+                case LESS_THAN_OR_EQUAL:
+                    compare(DCMPG, IFGT);
+                    break;
+                case GREATER_THAN:
+                    compare(DCMPL, IFLE);
+                    break;
+                case GREATER_THAN_OR_EQUAL:
+                    compare(DCMPL, IFLT);
+                    break;
+                default:
+                    throw new Unsupported(relational.op.getText());
+            }
+        } else if (ctx instanceof ExpressionParser.ShiftExprContext) {
+            ExpressionParser.ShiftExprContext shift = (ExpressionParser.ShiftExprContext) ctx;
+            expression(shift.left);
+            mv.visitInsn(D2L);
+            expression(shift.right);
+            mv.visitInsn(D2L);
+            mv.visitInsn(L2I);
+            switch (shift.op.getType()) {
+                case LEFT_SHIFT:
+                    mv.visitInsn(LSHL);
+                    break;
+                case RIGHT_SHIFT:
+                    mv.visitInsn(LSHR);
+                    break;
+                default:
+                    throw new Unsupported(shift.op.getText());
+            }
+            mv.visitInsn(L2D);
+        } else if (ctx instanceof ExpressionParser.AddExprContext) {
+            ExpressionParser.AddExprContext add = (ExpressionParser.AddExprContext) ctx;
+            expression(add.left);
+            expression(add.right);
+            switch (add.op.getType()) {
+                case PLUS:
+                    mv.visitInsn(DADD);
+                    break;
+                case MINUS:
+                    mv.visitInsn(DSUB);
+                    break;
+                default:
+                    throw new Unsupported(add.op.getText());
+            }
+        } else if (ctx instanceof ExpressionParser.MultiplicativeExprContext) {
+            ExpressionParser.MultiplicativeExprContext multiplicative = (ExpressionParser.MultiplicativeExprContext) ctx;
+            expression(multiplicative.left);
+            expression(multiplicative.right);
+            switch (multiplicative.op.getType()) {
+                case TIMES:
+                    mv.visitInsn(DMUL);
+                    break;
+                case DIVIDE:
+                    mv.visitInsn(DDIV);
+                    break;
+                case MODULO:
+                    mv.visitInsn(DREM);
+                    break;
+                default:
+                    throw new Unsupported(multiplicative.op.getText());
+            }
+        } else if (ctx instanceof ExpressionParser.PowerExprContext) {
+            ExpressionParser.PowerExprContext power = (ExpressionParser.PowerExprContext) ctx;
+            expression(power.left);
+            expression(power.right);
+            pow();
+        } else if (ctx instanceof ExpressionParser.PlusMinusExprContext) {
+            ExpressionParser.PlusMinusExprContext plusMinus = (ExpressionParser.PlusMinusExprContext) ctx;
+            expression(plusMinus.expr);
+            switch (plusMinus.op.getType()) {
+                case PLUS:
+                    break;
+                case MINUS:
+                    mv.visitInsn(DNEG);
+                    break;
+                default:
+                    throw new Unsupported(plusMinus.op.getText());
+            }
+        } else if (ctx instanceof ExpressionParser.NotExprContext) {
+            Label isTrue = new Label();
+            Label end = new Label();
+            condition(((ExpressionParser.NotExprContext) ctx).expr);
+            mv.visitJumpInsn(IFNE, isTrue);
+            mv.visitInsn(DCONST_1);
+            mv.visitJumpInsn(GOTO, end);
+            mv.visitLabel(isTrue);
+            mv.visitInsn(DCONST_0);
+            mv.visitLabel(end);
+        } else if (ctx instanceof ExpressionParser.ComplementExprContext) {
+            expression(((ExpressionParser.ComplementExprContext) ctx).expr);
+            mv.visitInsn(D2L);
+            mv.visitLdcInsn(-1L);
+            mv.visitInsn(LXOR);
+            mv.visitInsn(L2D);
+        } else if (ctx instanceof ExpressionParser.PostfixExprContext) {
+            ExpressionParser.PostfixExprContext postfix = (ExpressionParser.PostfixExprContext) ctx;
+            if (postfix.op.getType() != EXCLAMATION_MARK) {
+                throw new Unsupported(postfix.op.getText());
+            }
+            expression(postfix.expr);
+            mv.visitMethodInsn(INVOKESTATIC, SUPPORT, "factorial", "(D)D", false);
+        } else if (ctx.getChildCount() == 1 && ctx.getChild(0) instanceof ParserRuleContext) {
+            // fallthrough rules
+            expression((ParserRuleContext) ctx.getChild(0));
+        } else {
+            throw new Unsupported(ctx.getClass().getSimpleName());
+        }
+    }
+
+    /**
+     * Compile an expression leaving an int on the stack, which is zero if the expression is false.
+     */
+    private void condition(ParserRuleContext ctx) {
+        expression(ctx);
+        mv.visitInsn(DCONST_0);
+        mv.visitInsn(DCMPL);
+    }
+
+    /**
+     * Compare the two doubles on the stack, leaving 0 if the jump is taken and 1 otherwise.
+     */
+    private void compare(int comparison, int jumpIfFalse) {
+        Label isFalse = new Label();
+        Label end = new Label();
+        mv.visitInsn(comparison);
+        mv.visitJumpInsn(jumpIfFalse, isFalse);
+        mv.visitInsn(DCONST_1);
+        mv.visitJumpInsn(GOTO, end);
+        mv.visitLabel(isFalse);
+        mv.visitInsn(DCONST_0);
+        mv.visitLabel(end);
+    }
+
+    private void pow() {
+        mv.visitMethodInsn(INVOKESTATIC, Type.getInternalName(Math.class), "pow", "(DD)D", false);
+    }
+
+    private void assignment(ExpressionParser.AssignmentContext ctx) {
+        int type = ctx.assignmentOperator().getStart().getType();
+        Name name = names.get(ctx.target.getText());
+        // the value is evaluated before the variable is resolved, like the method handles do
+        expression(ctx.expression());
+        if (type == ASSIGN) {
+            resolveForAssignment(name, ctx.target);
+        } else {
+            int argument = newLocal(2);
+            mv.visitVarInsn(DSTORE, argument);
+            resolveForModification(name, ctx.target);
+            load(name);
+            mv.visitVarInsn(DLOAD, argument);
+            switch (type) {
+                case POWER_ASSIGN:
+                    pow();
+                    break;
+                case TIMES_ASSIGN:
+                    mv.visitInsn(DMUL);
+                    break;
+                case DIVIDE_ASSIGN:
+                    mv.visitInsn(DDIV);
+                    break;
+                case MODULO_ASSIGN:
+                    mv.visitInsn(DREM);
+                    break;
+                case PLUS_ASSIGN:
+                    mv.visitInsn(DADD);
+                    break;
+                case MINUS_ASSIGN:
+                    mv.visitInsn(DSUB);
+                    break;
+                default:
+                    throw new Unsupported(ctx.assignmentOperator().getText());
+            }
+        }
+        mv.visitInsn(DUP2);
+        store(name);
+    }
+
+    private void crement(Token target, boolean increment, boolean prefix) {
+        Name name = names.get(target.getText());
+        resolveForModification(name, target);
+        load(name);
+        if (!prefix) {
+            mv.visitInsn(DUP2);
+        }
+        mv.visitInsn(DCONST_1);
+        mv.visitInsn(increment ? DADD : DSUB);
+        if (prefix) {
+            mv.visitInsn(DUP2);
+        }
+        store(name);
+    }
+
+    private void functionCall(ExpressionParser.FunctionCallContext ctx) {
+        MethodHandle handle = ExpressionHelper.resolveFunction(functions, ctx);
+        MethodType type = handle.type();
+        if (type.returnType() != Double.class) {
+            throw new Unsupported("function returning " + type.returnType());
+        }
+        String fnName = ctx.name.getText();
+        constant(handle, MethodHandle.class);
+        for (int i = 0; i < ctx.args.size(); i++) {
+            ExpressionParser.ExpressionContext arg = ctx.args.get(i);
+            Class<?> parameterType = type.parameterType(i);
+            String handleName = ExpressionHelper.getArgumentHandleName(fnName, type, i, arg);
+            if (handleName == null) {
+                if (parameterType != Double.class) {
+                    throw new Unsupported("function taking " + parameterType);
+                }
+                expression(arg);
+                box();
+            } else if (handleName.equals(WRAPPED_CONSTANT)) {
+                mv.visitTypeInsn(NEW, CONSTANT);
+                mv.visitInsn(DUP);
+                expression(arg);
+                mv.visitMethodInsn(INVOKESPECIAL, CONSTANT, "<init>", "(D)V", false);
+            } else {
+                Token token = handleToken(arg, handleName);
+                Name name = names.get(handleName);
+                Label resolved = new Label();
+                mv.visitVarInsn(ALOAD, name.slot);
+                mv.visitTypeInsn(INSTANCEOF, VARIABLE);
+                mv.visitJumpInsn(IFNE, resolved);
+                lookup(name, "variable", token);
+                mv.visitLabel(resolved);
+                mv.visitVarInsn(ALOAD, name.slot);
+                mv.visitTypeInsn(CHECKCAST, VARIABLE);
+            }
+        }
+        mv.visitMethodInsn(INVOKEVIRTUAL, METHOD_HANDLE, "invokeExact", type.toMethodDescriptorString(), false);
+        mv.visitMethodInsn(INVOKEVIRTUAL, DOUBLE, "doubleValue", "()D", false);
+    }
+
+}
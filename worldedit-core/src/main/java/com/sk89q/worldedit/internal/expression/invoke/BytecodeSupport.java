@@ -0,0 +1,65 @@
+package com.sk89q.worldedit.internal.expression.invoke;
+
+import com.sk89q.worldedit.internal.expression.ExecutionData;
+import com.sk89q.worldedit.internal.expression.ExpressionHelper;
+import com.sk89q.worldedit.internal.expression.LocalSlot;
+import org.antlr.v4.runtime.Token;
+
+/**
+ * Called by the classes generated by {@link BytecodeExpressionCompiler}. Those are defined in class loaders of their
+ * own, so everything they use has to be public. Not API.
+ */
+public final class BytecodeSupport {
+
+    private static final ThreadLocal<Object[]> PENDING_CONSTANTS = new ThreadLocal<>();
+
+    static void offerConstants(Object[] constants) {
+        PENDING_CONSTANTS.set(constants);
+    }
+
+    /**
+     * Take the constants of the class being initialized on this thread.
+     */
+    public static Object[] takeConstants() {
+        Object[] constants = PENDING_CONSTANTS.get();
+        PENDING_CONSTANTS.remove();
+        return constants;
+    }
+
+    /**
+     * Get the slot of a name that is read.
+     */
+    public static LocalSlot lookup(ExecutionData data, Token nameToken) {
+        String name = nameToken.getText();
+        return data.getSlots().getSlot(name)
+                .orElseThrow(() -> ExpressionHelper.evalException(
+                        nameToken, "'" + name + "' is not initialized yet"
+                ));
+    }
+
+    /**
+     * Get the slot of a name that is assigned, creating it if it doesn't exist yet.
+     */
+    public static LocalSlot init(ExecutionData data, Token nameToken) {
+        return ExpressionHandles.initVariable(data, nameToken);
+    }
+
+    /**
+     * Get the slot of a name that is modified, which has to exist already.
+     */
+    public static LocalSlot variable(ExecutionData data, Token nameToken) {
+        return ExpressionHandles.getVariable(data, nameToken);
+    }
+
+    public static double near(double a, double b) {
+        return ExpressionHandles.boolToDouble(CompilingVisitor.almostEqual2sComplement(a, b));
+    }
+
+    public static double factorial(double x) {
+        return CompilingVisitor.factorial(x);
+    }
+
+    private BytecodeSupport() {
+    }
+
+}
@@ -19,6 +19,7 @@
 
 package com.sk89q.worldedit.internal.expression.invoke;
 
+import com.fastasyncworldedit.core.configuration.Settings;
 import com.sk89q.worldedit.antlr.ExpressionParser;
 import com.sk89q.worldedit.internal.expression.CompiledExpression;
 import com.sk89q.worldedit.internal.expression.Functions;
@@ -41,6 +42,9 @@ public class ExpressionCompiler {
             methodType(CompiledExpression.class, MethodHandle.class);
 
     private static final MethodHandle HANDLE_TO_CE_CONVERTER;
+    //FAWE start
+    private static final boolean ASM_AVAILABLE = isAsmAvailable();
+    //FAWE end
 
     static {
         MethodHandle handleInvoker = MethodHandles.invoker(ExpressionHandles.COMPILED_EXPRESSION_SIG);
@@ -67,6 +71,14 @@ public CompiledExpression compileExpression(
             ExpressionParser.AllStatementsContext root,
             Functions functions
     ) {
+        //FAWE start - compile to bytecode if possible
+        if (ASM_AVAILABLE && Settings.IMP.EXPERIMENTAL.BYTECODE_EXPRESSIONS) {
+            CompiledExpression compiled = BytecodeExpressionCompiler.compile(root, functions);
+            if (compiled != null) {
+                return compiled;
+            }
+        }
+        //FAWE end
         MethodHandle invokable = root.accept(new CompilingVisitor(functions));
         // catch ReturnExpression and substitute its result
         invokable = MethodHandles.catchException(
@@ -80,4 +92,16 @@ public CompiledExpression compileExpression(
         );
     }
 
+    //FAWE start
+    private static boolean isAsmAvailable() {
+        // ASM is provided by the platform, if at all
+        try {
+            Class.forName("org.objectweb.asm.ClassWriter", false, ExpressionCompiler.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+    //FAWE end
+
 }
@@ -20,6 +20,7 @@
 package com.sk89q.worldedit.regions;
 
 import com.fastasyncworldedit.core.math.BlockVectorSet;
+import com.fastasyncworldedit.core.util.MathMan;
 import com.sk89q.worldedit.math.BlockVector2;
 import com.sk89q.worldedit.math.BlockVector3;
 import com.sk89q.worldedit.math.Vector3;
@@ -199,6 +200,21 @@ public Set<BlockVector3> getChunkCubes() {
         final BlockVector3 min = getMinimumPoint();
         final BlockVector3 max = getMaximumPoint();
 
+        //FAWE start - a column covers the cubes of its span
+        if (hasExactColumnSpans()) {
+            for (int x = min.getBlockX(); x <= max.getBlockX(); ++x) {
+                for (int z = min.getBlockZ(); z <= max.getBlockZ(); ++z) {
+                    long span = getColumnSpan(x, z);
+                    int maxCubeY = MathMan.unpairIntY(span) >> ChunkStore.CHUNK_SHIFTS;
+                    for (int cubeY = MathMan.unpairIntX(span) >> ChunkStore.CHUNK_SHIFTS; cubeY <= maxCubeY; ++cubeY) {
+                        chunks.add(BlockVector3.at(x >> ChunkStore.CHUNK_SHIFTS, cubeY, z >> ChunkStore.CHUNK_SHIFTS));
+                    }
+                }
+            }
+            return chunks;
+        }
+        //FAWE end
+
         for (int x = min.getBlockX(); x <= max.getBlockX(); ++x) {
             for (int y = min.getBlockY(); y <= max.getBlockY(); ++y) {
                 for (int z = min.getBlockZ(); z <= max.getBlockZ(); ++z) {
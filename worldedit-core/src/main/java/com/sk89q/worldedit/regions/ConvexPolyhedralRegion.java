@@ -19,6 +19,7 @@
 
 package com.sk89q.worldedit.regions;
 
+import com.fastasyncworldedit.core.util.MathMan;
 import com.sk89q.worldedit.math.BlockVector3;
 import com.sk89q.worldedit.math.Vector3;
 import com.sk89q.worldedit.regions.polyhedron.Edge;
@@ -330,6 +331,48 @@ public AbstractRegion clone() {
     }
 
     //FAWE start
+    @Override
+    public boolean hasExactColumnSpans() {
+        return true;
+    }
+
+    @Override
+    public long getColumnSpan(int x, int z) {
+        if (!isDefined()) {
+            return EMPTY_COLUMN;
+        }
+        final BlockVector3 min = getMinimumPoint();
+        final BlockVector3 max = getMaximumPoint();
+        if (x < min.getX() || x > max.getX() || z < min.getZ() || z > max.getZ()) {
+            return EMPTY_COLUMN;
+        }
+        // every face bounds the column from one side
+        double low = min.getY();
+        double high = max.getY();
+        for (Triangle triangle : triangles) {
+            Vector3 normal = triangle.getNormal();
+            double limit = triangle.getMaxDotProduct() - normal.getX() * x - normal.getZ() * z;
+            double normalY = normal.getY();
+            if (normalY > 0) {
+                high = Math.min(high, limit / normalY);
+            } else if (normalY < 0) {
+                low = Math.max(low, limit / normalY);
+            } else if (limit < -1e-7) {
+                return EMPTY_COLUMN;
+            }
+        }
+        // settle the rounded ends with contains so the span matches exactly
+        int minY = Math.max(min.getY(), (int) Math.ceil(low) - 1);
+        int maxY = Math.min(max.getY(), (int) Math.floor(high) + 1);
+        while (minY <= maxY && !contains(x, minY, z)) {
+            minY++;
+        }
+        while (maxY >= minY && !contains(x, maxY, z)) {
+            maxY--;
+        }
+        return minY > maxY ? EMPTY_COLUMN : MathMan.pairInt(minY, maxY);
+    }
+
     @Override
     public boolean containsEntireCuboid(int bx, int tx, int by, int ty, int bz, int tz) {
         return false;
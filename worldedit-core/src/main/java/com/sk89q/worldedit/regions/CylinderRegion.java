@@ -25,6 +25,8 @@
 import com.fastasyncworldedit.core.queue.IChunk;
 import com.fastasyncworldedit.core.queue.IChunkGet;
 import com.fastasyncworldedit.core.queue.IChunkSet;
+import com.fastasyncworldedit.core.regions.ChunkCoverage;
+import com.fastasyncworldedit.core.util.MathMan;
 import com.sk89q.worldedit.extent.Extent;
 import com.sk89q.worldedit.math.BlockVector2;
 import com.sk89q.worldedit.math.BlockVector3;
@@ -332,6 +334,16 @@ public boolean contains(int x, int z) {
     public boolean contains(BlockVector3 position) {
         return contains(position.getX(), position.getY(), position.getZ());
     }
+
+    @Override
+    public boolean hasExactColumnSpans() {
+        return true;
+    }
+
+    @Override
+    public long getColumnSpan(int x, int z) {
+        return contains(x, z) ? MathMan.pairInt(minY, maxY) : EMPTY_COLUMN;
+    }
     //FAWE end
 
     /**
@@ -410,18 +422,22 @@ public static CylinderRegion createRadius(Extent extent, BlockVector3 center, do
     //FAWE start
     @Override
     public void filter(
-            final IChunk chunk, final Filter filter, final ChunkFilterBlock block,
+            final IChunk chunk, final Filter filter, ChunkFilterBlock block,
             final IChunkGet get, final IChunkSet set, boolean full
     ) {
-        int bcx = chunk.getX() >> 4;
-        int bcz = chunk.getZ() >> 4;
-        int tcx = bcx + 15;
-        int tcz = bcz + 15;
-        if (contains(bcx, bcz) && contains(tcx, tcz)) {
-            filter(chunk, filter, block, get, set, minY, maxY, full);
+        ChunkCoverage coverage = getChunkCoverage(chunk.getX(), chunk.getZ());
+        if (coverage == ChunkCoverage.FULL) {
+            int y1 = Math.max(0, minY);
+            int y2 = Math.min(255, maxY);
+            if (y1 <= y2) {
+                block = block.initChunk(chunk.getX(), chunk.getZ());
+                filter(chunk, filter, block, get, set, y1, y2, full);
+            }
             return;
         }
-        super.filter(chunk, filter, block, get, set, full);
+        if (coverage == ChunkCoverage.PARTIAL) {
+            filterColumns(chunk, filter, block, get, set, full);
+        }
     }
     //FAWE end
 }
@@ -27,16 +27,12 @@
 import com.fastasyncworldedit.core.queue.IChunkGet;
 import com.fastasyncworldedit.core.queue.IChunkSet;
 import com.fastasyncworldedit.core.util.MathMan;
-import com.sk89q.worldedit.math.BlockVector2;
 import com.sk89q.worldedit.math.BlockVector3;
 import com.sk89q.worldedit.math.Vector3;
 import com.sk89q.worldedit.world.World;
-import com.sk89q.worldedit.world.storage.ChunkStore;
 
 import java.math.BigDecimal;
 import java.math.RoundingMode;
-import java.util.HashSet;
-import java.util.Set;
 
 /**
  * Represents an ellipsoid region.
@@ -204,6 +200,7 @@ public void setRadius(Vector3 radius) {
         //FAWE end
     }
 
+    /* FAWE start - AbstractRegion#getChunks tests whole chunks using the column spans
     @Override
     public Set<BlockVector2> getChunks() {
         final Set<BlockVector2> chunks = new HashSet<>();
@@ -227,6 +224,8 @@ public Set<BlockVector2> getChunks() {
 
         return chunks;
     }
+     */
+    //FAWE end
 
     //FAWE start
     @Override
@@ -268,6 +267,44 @@ public boolean contains(BlockVector3 position) {
         return contains(position.getX(), position.getY(), position.getZ());
     }
 
+    @Override
+    public boolean hasExactColumnSpans() {
+        return true;
+    }
+
+    @Override
+    public long getColumnSpan(int x, int z) {
+        int cx = x - center.getBlockX();
+        int cx2 = cx * cx;
+        if (cx2 > radiusSqr.getBlockX()) {
+            return EMPTY_COLUMN;
+        }
+        int cz = z - center.getBlockZ();
+        int cz2 = cz * cz;
+        if (cz2 > radiusSqr.getBlockZ()) {
+            return EMPTY_COLUMN;
+        }
+        // estimate the largest y distance from the center, then settle it with contains so the span matches exactly
+        double bound;
+        if (sphere) {
+            bound = radiusLengthSqr - cx2 - cz2;
+        } else {
+            bound = (1 - cx2 * inverseRadius.getX() - cz2 * inverseRadius.getZ()) / inverseRadius.getY();
+        }
+        if (radiusSqr.getBlockY() < getWorldMaxY()) {
+            bound = Math.min(bound, radiusSqr.getBlockY());
+        }
+        int cy = center.getBlockY();
+        int dy = bound > 0 ? (int) Math.sqrt(bound) : 0;
+        while (contains(x, cy + dy + 1, z)) {
+            dy++;
+        }
+        while (dy >= 0 && !contains(x, cy + dy, z)) {
+            dy--;
+        }
+        return dy < 0 ? EMPTY_COLUMN : MathMan.pairInt(cy - dy, cy + dy);
+    }
+
     @Override
     public boolean contains(int x, int z) {
         int cx = x - center.getBlockX();
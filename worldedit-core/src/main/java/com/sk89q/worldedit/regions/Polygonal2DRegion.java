@@ -20,6 +20,7 @@
 package com.sk89q.worldedit.regions;
 
 import com.fastasyncworldedit.core.configuration.Caption;
+import com.fastasyncworldedit.core.util.MathMan;
 import com.sk89q.worldedit.math.BlockVector2;
 import com.sk89q.worldedit.math.BlockVector3;
 import com.sk89q.worldedit.regions.iterator.FlatRegion3DIterator;
@@ -504,6 +505,19 @@ public List<BlockVector2> polygonize(int maxPoints) {
     }
 
     //FAWE start
+    @Override
+    public boolean hasExactColumnSpans() {
+        return true;
+    }
+
+    @Override
+    public long getColumnSpan(int x, int z) {
+        if (points.size() < 3 || !contains(x, z)) {
+            return EMPTY_COLUMN;
+        }
+        return MathMan.pairInt(minY, maxY);
+    }
+
     @Override
     public boolean containsEntireCuboid(int bx, int tx, int by, int ty, int bz, int tz) {
         for (int x = bx; x <= tx; x++) {
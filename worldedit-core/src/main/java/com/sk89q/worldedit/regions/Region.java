@@ -28,6 +28,8 @@
 import com.fastasyncworldedit.core.queue.IChunk;
 import com.fastasyncworldedit.core.queue.IChunkGet;
 import com.fastasyncworldedit.core.queue.IChunkSet;
+import com.fastasyncworldedit.core.regions.ChunkCoverage;
+import com.fastasyncworldedit.core.util.MathMan;
 import com.sk89q.worldedit.extent.Extent;
 import com.sk89q.worldedit.internal.util.DeprecationUtil;
 import com.sk89q.worldedit.internal.util.NonAbstractForCompatibility;
@@ -213,6 +215,11 @@ default int getArea() {
     List<BlockVector2> polygonize(int maxPoints);
 
     //FAWE start
+    /**
+     * The column span of a column that is not part of the region, see {@link #getColumnSpan(int, int)}.
+     */
+    long EMPTY_COLUMN = MathMan.pairInt(Integer.MAX_VALUE, Integer.MIN_VALUE);
+
     default boolean contains(int x, int y, int z) {
         return contains(BlockVector3.at(x, y, z));
     }
@@ -236,6 +243,73 @@ default int getMaximumY() {
         return getMaximumPoint().getY();
     }
 
+    /**
+     * Whether every column of the region is a single range of y values that {@link #getColumnSpan(int, int)} returns
+     * exactly. Otherwise, the column span is only a bound and positions have to be tested with contains.
+     *
+     * @return if column spans are exact
+     */
+    default boolean hasExactColumnSpans() {
+        return false;
+    }
+
+    /**
+     * Get the range of y values the region covers in a column. Use {@link MathMan#unpairIntX(long)} for the minimum
+     * and {@link MathMan#unpairIntY(long)} for the maximum y, a minimum greater than the maximum means the column is
+     * not part of the region.
+     *
+     * @param x the x coordinate
+     * @param z the z coordinate
+     * @return the inclusive y range, packed with {@link MathMan#pairInt(int, int)}
+     */
+    default long getColumnSpan(int x, int z) {
+        BlockVector3 min = getMinimumPoint();
+        BlockVector3 max = getMaximumPoint();
+        if (x < min.getX() || x > max.getX() || z < min.getZ() || z > max.getZ()) {
+            return EMPTY_COLUMN;
+        }
+        return MathMan.pairInt(min.getY(), max.getY());
+    }
+
+    /**
+     * Get how much of a chunk is part of the region. This is only more precise than the bounding box for regions
+     * with {@link #hasExactColumnSpans() exact column spans}.
+     *
+     * @param chunkX the chunk x coordinate
+     * @param chunkZ the chunk z coordinate
+     * @return the coverage of the chunk
+     */
+    default ChunkCoverage getChunkCoverage(int chunkX, int chunkZ) {
+        int bx = chunkX << 4;
+        int bz = chunkZ << 4;
+        BlockVector3 min = getMinimumPoint();
+        BlockVector3 max = getMaximumPoint();
+        if (bx + 15 < min.getX() || bx > max.getX() || bz + 15 < min.getZ() || bz > max.getZ()) {
+            return ChunkCoverage.EMPTY;
+        }
+        if (!hasExactColumnSpans()) {
+            return ChunkCoverage.PARTIAL;
+        }
+        long full = MathMan.pairInt(getMinimumY(), getMaximumY());
+        boolean any = false;
+        boolean all = true;
+        for (int z = bz; z <= bz + 15; z++) {
+            for (int x = bx; x <= bx + 15; x++) {
+                long span = getColumnSpan(x, z);
+                if (span == full) {
+                    any = true;
+                } else {
+                    all = false;
+                    any |= MathMan.unpairIntX(span) <= MathMan.unpairIntY(span);
+                }
+                if (any && !all) {
+                    return ChunkCoverage.PARTIAL;
+                }
+            }
+        }
+        return any ? ChunkCoverage.FULL : ChunkCoverage.EMPTY;
+    }
+
     default void filter(
             final IChunk chunk,
             final Filter filter,
@@ -244,6 +318,10 @@ default void filter(
             final IChunkSet set,
             boolean full
     ) {
+        if (hasExactColumnSpans()) {
+            filterColumns(chunk, filter, block, get, set, full);
+            return;
+        }
         int minSection = Math.max(0, getMinimumY() >> 4);
         int maxSection = Math.min(15, getMaximumY() >> 4);
         block = block.initChunk(chunk.getX(), chunk.getZ());
@@ -256,6 +334,80 @@ default void filter(
         }
     }
 
+    /**
+     * Filter a chunk using the {@link #getColumnSpan(int, int) column spans} of the region. Empty chunks are skipped,
+     * sections that are entirely inside the region are filtered as a whole and the remaining columns are filtered
+     * over their span, so contains is never called.
+     */
+    default void filterColumns(
+            final IChunk chunk,
+            final Filter filter,
+            ChunkFilterBlock block,
+            final IChunkGet get,
+            final IChunkSet set,
+            boolean full
+    ) {
+        int bx = chunk.getX() << 4;
+        int bz = chunk.getZ() << 4;
+        int[] minY = new int[256];
+        int[] maxY = new int[256];
+        int lowest = Integer.MAX_VALUE;
+        int highest = Integer.MIN_VALUE;
+        for (int z = 0, index = 0; z < 16; z++) {
+            for (int x = 0; x < 16; x++, index++) {
+                long span = getColumnSpan(bx + x, bz + z);
+                int y1 = Math.max(0, MathMan.unpairIntX(span));
+                int y2 = Math.min(255, MathMan.unpairIntY(span));
+                minY[index] = y1;
+                maxY[index] = y2;
+                if (y1 <= y2) {
+                    lowest = Math.min(lowest, y1);
+                    highest = Math.max(highest, y2);
+                }
+            }
+        }
+        if (lowest > highest) {
+            return;
+        }
+        block = block.initChunk(chunk.getX(), chunk.getZ());
+        for (int layer = lowest >> 4; layer <= highest >> 4; layer++) {
+            if ((!full && !get.hasSection(layer)) || !filter.appliesLayer(chunk, layer)) {
+                continue;
+            }
+            int by = layer << 4;
+            int ty = by + 15;
+            boolean whole = true;
+            boolean any = false;
+            for (int index = 0; index < 256; index++) {
+                int y1 = minY[index];
+                int y2 = maxY[index];
+                if (y1 > by || y2 < ty) {
+                    whole = false;
+                }
+                if (y1 <= ty && y2 >= by && y1 <= y2) {
+                    any = true;
+                }
+            }
+            if (!any) {
+                continue;
+            }
+            block = block.initLayer(get, set, layer);
+            if (whole) {
+                block.filter(filter);
+                continue;
+            }
+            for (int index = 0; index < 256; index++) {
+                int y1 = Math.max(by, minY[index]);
+                int y2 = Math.min(ty, maxY[index]);
+                if (y1 <= y2) {
+                    int x = index & 15;
+                    int z = index >> 4;
+                    block.filter(filter, x, y1 & 15, z, x, y2 & 15, z);
+                }
+            }
+        }
+    }
+
     default void filter(
             final IChunk chunk,
             final Filter filter,
@@ -357,6 +509,9 @@ && contains(tx, ty, bz)
     }
 
     default boolean containsChunk(int chunkX, int chunkZ) {
+        if (hasExactColumnSpans()) {
+            return getChunkCoverage(chunkX, chunkZ) != ChunkCoverage.EMPTY;
+        }
         int bx = chunkX << 4;
         int bz = chunkZ << 4;
         int tx = bx + 15;
@@ -19,6 +19,7 @@
 
 package com.sk89q.worldedit.regions.iterator;
 
+import com.fastasyncworldedit.core.util.MathMan;
 import com.sk89q.worldedit.math.BlockVector3;
 import com.sk89q.worldedit.regions.Region;
 
@@ -36,6 +37,11 @@ public class RegionIterator implements Iterator<BlockVector3> {
     private int nextX;
     private int nextY;
     private int nextZ;
+    //FAWE start - y spans of the columns of the current z slice, if the region has exact spans
+    private final int[] spanMinY;
+    private final int[] spanMaxY;
+    private int spanZ;
+    //FAWE end
 
     public RegionIterator(Region region) {
         checkNotNull(region);
@@ -52,6 +58,18 @@ public RegionIterator(Region region) {
         this.nextY = min.getBlockY();
         this.nextZ = min.getBlockZ();
 
+        //FAWE start
+        if (region.hasExactColumnSpans()) {
+            int width = maxX - min.getBlockX() + 1;
+            this.spanMinY = new int[width];
+            this.spanMaxY = new int[width];
+            this.spanZ = nextZ - 1;
+        } else {
+            this.spanMinY = null;
+            this.spanMaxY = null;
+        }
+        //FAWE end
+
         forward();
     }
 
@@ -61,11 +79,34 @@ public boolean hasNext() {
     }
 
     private void forward() {
+        //FAWE start
+        if (spanMinY != null) {
+            while (hasNext() && !containsSpan()) {
+                forwardOne();
+            }
+            return;
+        }
+        //FAWE end
         while (hasNext() && !region.contains(BlockVector3.at(nextX, nextY, nextZ))) {
             forwardOne();
         }
     }
 
+    //FAWE start
+    private boolean containsSpan() {
+        if (spanZ != nextZ) {
+            spanZ = nextZ;
+            for (int i = 0; i < spanMinY.length; i++) {
+                long span = region.getColumnSpan(min.getBlockX() + i, nextZ);
+                spanMinY[i] = MathMan.unpairIntX(span);
+                spanMaxY[i] = MathMan.unpairIntY(span);
+            }
+        }
+        int i = nextX - min.getBlockX();
+        return nextY >= spanMinY[i] && nextY <= spanMaxY[i];
+    }
+    //FAWE end
+
     @Override
     public BlockVector3 next() {
         if (!hasNext()) {
@@ -93,6 +93,26 @@ public boolean above(Vector3 pt) {
         return normal.dot(pt) > maxDotProduct;
     }
 
+    //FAWE start
+    /**
+     * Get the unit normal of the plane the triangle is in, pointing outwards.
+     *
+     * @return the normal
+     */
+    public Vector3 getNormal() {
+        return normal;
+    }
+
+    /**
+     * Get the largest dot product of the normal with a vertex. Points with a larger dot product are above the plane.
+     *
+     * @return the max dot product
+     */
+    public double getMaxDotProduct() {
+        return maxDotProduct;
+    }
+    //FAWE end
+
     /**
      * Set the triangle's tag.
      *
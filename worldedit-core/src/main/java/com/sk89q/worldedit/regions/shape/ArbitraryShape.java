@@ -19,13 +19,20 @@
 
 package com.sk89q.worldedit.regions.shape;
 
+import com.fastasyncworldedit.core.configuration.Settings;
+import com.fastasyncworldedit.core.extent.filter.ForkedFilter;
+import com.fastasyncworldedit.core.extent.filter.block.FilterBlock;
+import com.fastasyncworldedit.core.queue.Filter;
 import com.sk89q.worldedit.EditSession;
 import com.sk89q.worldedit.MaxChangedBlocksException;
+import com.sk89q.worldedit.extent.Extent;
 import com.sk89q.worldedit.function.pattern.Pattern;
 import com.sk89q.worldedit.math.BlockVector3;
 import com.sk89q.worldedit.regions.Region;
 import com.sk89q.worldedit.world.block.BaseBlock;
 
+import javax.annotation.Nullable;
+
 /**
  * Generates solid and hollow shapes according to materials returned by the
  * {@link #getMaterial} method.
@@ -70,6 +77,45 @@ public ArbitraryShape(Region extent) {
         cache = new byte[cacheSizeX * cacheSizeY * cacheSizeZ];
     }
 
+    //FAWE start
+    /**
+     * Create a shape sharing the region and cache of another shape, see {@link #fork()}.
+     *
+     * @param parent the shape to share the cache of
+     */
+    protected ArbitraryShape(ArbitraryShape parent) {
+        this.extent = parent.extent;
+        this.cacheOffsetX = parent.cacheOffsetX;
+        this.cacheOffsetY = parent.cacheOffsetY;
+        this.cacheOffsetZ = parent.cacheOffsetZ;
+        this.cacheSizeX = parent.cacheSizeX;
+        this.cacheSizeY = parent.cacheSizeY;
+        this.cacheSizeZ = parent.cacheSizeZ;
+        this.cache = parent.cache;
+    }
+
+    /**
+     * Create a copy of this shape for another thread, sharing the cache. Shapes that can be copied are generated in
+     * parallel, chunk by chunk, with one copy per thread calling {@link #getMaterial}. Only shapes whose material only
+     * depends on the position and default material may be copied, as the shared cache assumes every thread gets the
+     * same result for a position.
+     *
+     * @return the copy, or null if the shape can't be generated in parallel
+     */
+    @Nullable
+    protected ArbitraryShape fork() {
+        return null;
+    }
+
+    /**
+     * Called on a copy of this shape before it generates the blocks of a chunk in parallel, see {@link #fork()}.
+     *
+     * @param extent the extent of the chunk, which is only valid on the calling thread
+     */
+    protected void setChunkExtent(Extent extent) {
+    }
+    //FAWE end
+
     protected Region getExtent() {
         return extent;
     }
@@ -95,6 +141,12 @@ protected Region getExtent() {
      * @throws MaxChangedBlocksException if the maximum blocks changed is exceeded
      */
     public int generate(EditSession editSession, Pattern pattern, boolean hollow) throws MaxChangedBlocksException {
+        //FAWE start - generate in parallel if possible
+        ArbitraryShape fork = Settings.IMP.QUEUE.PARALLEL_THREADS > 1 ? fork() : null;
+        if (fork != null) {
+            return editSession.apply(getExtent(), new ShapeFilter(fork, pattern, hollow), true).affected;
+        }
+        //FAWE end
         int affected = 0;
 
         for (BlockVector3 position : getExtent()) {
@@ -158,6 +210,21 @@ public int generate(EditSession editSession, Pattern pattern, boolean hollow) th
         return affected;
     }
 
+    //FAWE start
+    private boolean isOnSurface(int x, int y, int z, Pattern pattern) {
+        return !isInsideCached(x + 1, y, z, pattern)
+                || !isInsideCached(x - 1, y, z, pattern)
+                || !isInsideCached(x, y, z + 1, pattern)
+                || !isInsideCached(x, y, z - 1, pattern)
+                || !isInsideCached(x, y + 1, z, pattern)
+                || !isInsideCached(x, y - 1, z, pattern);
+    }
+
+    private int getCacheIndex(int x, int y, int z) {
+        return (y - cacheOffsetY) + (z - cacheOffsetZ) * cacheSizeY + (x - cacheOffsetX) * cacheSizeY * cacheSizeZ;
+    }
+    //FAWE end
+
     private boolean isInsideCached(int x, int y, int z, Pattern pattern) {
         final int index = (y - cacheOffsetY) + (z - cacheOffsetZ) * cacheSizeY + (x - cacheOffsetX) * cacheSizeY * cacheSizeZ;
 
@@ -181,4 +248,71 @@ private boolean isInsideCached(int x, int y, int z, Pattern pattern) {
         }
     }
 
+    //FAWE start
+    /**
+     * Generates a shape chunk by chunk, with a fork of the shape and pattern per thread. The cache is shared, as every
+     * entry can only ever be set to the same value for shapes that can be forked, and byte writes are atomic.
+     */
+    private static final class ShapeFilter extends ForkedFilter<ShapeFilter> {
+
+        private final ArbitraryShape shape;
+        private final Pattern pattern;
+        private final boolean hollow;
+
+        // per fork
+        private int affected;
+        private Extent chunkExtent;
+
+        private ShapeFilter(ArbitraryShape shape, Pattern pattern, boolean hollow) {
+            super(null);
+            this.shape = shape;
+            this.pattern = pattern;
+            this.hollow = hollow;
+        }
+
+        private ShapeFilter(ShapeFilter root, ArbitraryShape shape, Pattern pattern) {
+            super(root);
+            this.shape = shape;
+            this.pattern = pattern;
+            this.hollow = root.hollow;
+        }
+
+        @Override
+        public ShapeFilter init() {
+            Filter pattern = this.pattern.fork();
+            return new ShapeFilter(this, shape.fork(), pattern instanceof Pattern ? (Pattern) pattern : this.pattern);
+        }
+
+        @Override
+        public void join(ShapeFilter filter) {
+            this.affected += filter.affected;
+        }
+
+        @Override
+        public void applyBlock(FilterBlock block) {
+            int x = block.getX();
+            int y = block.getY();
+            int z = block.getZ();
+            if (block != chunkExtent) {
+                // the same block is reused for all chunks of a thread
+                chunkExtent = block;
+                shape.setChunkExtent(block);
+            }
+            BaseBlock material = shape.getMaterial(x, y, z, pattern.applyBlock(BlockVector3.at(x, y, z)));
+            if (material == null) {
+                if (hollow) {
+                    shape.cache[shape.getCacheIndex(x, y, z)] = -1;
+                }
+                return;
+            }
+            if (hollow && !shape.isOnSurface(x, y, z, pattern)) {
+                return;
+            }
+            block.setFullBlock(material);
+            affected++;
+        }
+
+    }
+    //FAWE end
+
 }
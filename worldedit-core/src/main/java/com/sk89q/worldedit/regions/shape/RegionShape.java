@@ -33,6 +33,17 @@ public RegionShape(Region extent) {
         super(extent);
     }
 
+    //FAWE start - generate in parallel
+    private RegionShape(RegionShape parent) {
+        super(parent);
+    }
+
+    @Override
+    protected ArbitraryShape fork() {
+        return new RegionShape(this);
+    }
+    //FAWE end
+
     @Override
     protected BaseBlock getMaterial(int x, int y, int z, BaseBlock defaultMaterial) {
         if (!this.extent.contains(BlockVector3.at(x, y, z))) {
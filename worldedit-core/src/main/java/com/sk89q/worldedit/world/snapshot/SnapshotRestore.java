@@ -19,32 +19,26 @@
 
 package com.sk89q.worldedit.world.snapshot;
 
-import com.fastasyncworldedit.core.math.LocalBlockVectorSet;
+import com.fastasyncworldedit.core.extent.filter.RestoreFilter;
 import com.sk89q.worldedit.EditSession;
 import com.sk89q.worldedit.MaxChangedBlocksException;
 import com.sk89q.worldedit.math.BlockVector2;
-import com.sk89q.worldedit.math.BlockVector3;
-import com.sk89q.worldedit.regions.CuboidRegion;
 import com.sk89q.worldedit.regions.Region;
-import com.sk89q.worldedit.world.DataException;
-import com.sk89q.worldedit.world.chunk.Chunk;
+import com.sk89q.worldedit.world.World;
 import com.sk89q.worldedit.world.storage.ChunkStore;
-import com.sk89q.worldedit.world.storage.MissingChunkException;
 
-import java.io.IOException;
 import java.util.ArrayList;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
 /**
  * A snapshot restore operation.
  */
 public class SnapshotRestore {
 
-    //FAWE start - Set instead of ArrayList
-    private final Map<BlockVector2, Set<BlockVector3>> neededChunks = new LinkedHashMap<>();
+    //FAWE start - blocks are checked while restoring instead of being collected up front
+    private final Region region;
+    private int chunksAffected = -1;
     //FAWE end
     private final ChunkStore chunkStore;
     private final EditSession editSession;
@@ -62,61 +56,9 @@ public class SnapshotRestore {
     public SnapshotRestore(ChunkStore chunkStore, EditSession editSession, Region region) {
         this.chunkStore = chunkStore;
         this.editSession = editSession;
-
-        if (region instanceof CuboidRegion) {
-            findNeededCuboidChunks(region);
-        } else {
-            findNeededChunks(region);
-        }
-    }
-
-    /**
-     * Find needed chunks in the axis-aligned bounding box of the region.
-     *
-     * @param region The {@link Region} to iterate
-     */
-    private void findNeededCuboidChunks(Region region) {
-        BlockVector3 min = region.getMinimumPoint();
-        BlockVector3 max = region.getMaximumPoint();
-
-        // First, we need to group points by chunk so that we only need
-        // to keep one chunk in memory at any given moment
-        for (int x = min.getBlockX(); x <= max.getBlockX(); ++x) {
-            for (int y = min.getBlockY(); y <= max.getBlockY(); ++y) {
-                for (int z = min.getBlockZ(); z <= max.getBlockZ(); ++z) {
-                    BlockVector3 pos = BlockVector3.at(x, y, z);
-                    checkAndAddBlock(pos);
-                }
-            }
-        }
-    }
-
-    /**
-     * Find needed chunks in the region.
-     *
-     * @param region The {@link Region} to iterate
-     */
-    private void findNeededChunks(Region region) {
-        // First, we need to group points by chunk so that we only need
-        // to keep one chunk in memory at any given moment
-        for (BlockVector3 pos : region) {
-            checkAndAddBlock(pos);
-        }
-    }
-
-    private void checkAndAddBlock(BlockVector3 pos) {
-        if (editSession.getMask() != null && !editSession.getMask().test(pos)) {
-            return;
-        }
-
-        BlockVector2 chunkPos = ChunkStore.toChunk(pos);
-
-        // Unidentified chunk
-        if (!neededChunks.containsKey(chunkPos)) {
-            neededChunks.put(chunkPos, new LocalBlockVectorSet());
-        }
-
-        neededChunks.get(chunkPos).add(pos);
+        //FAWE start
+        this.region = region;
+        //FAWE end
     }
 
     /**
@@ -125,7 +67,13 @@ private void checkAndAddBlock(BlockVector3 pos) {
      * @return a number of chunks
      */
     public int getChunksAffected() {
-        return neededChunks.size();
+        //FAWE start - the chunks with blocks matching the mask are only known once restored, until then all chunks
+        // of the region are counted
+        if (chunksAffected == -1) {
+            return region.getChunks().size();
+        }
+        return chunksAffected;
+        //FAWE end
     }
 
     /**
@@ -134,34 +82,23 @@ public int getChunksAffected() {
      * @throws MaxChangedBlocksException if the max block change limit is exceeded
      */
     public void restore() throws MaxChangedBlocksException {
-
-        missingChunks = new ArrayList<>();
-        errorChunks = new ArrayList<>();
-
-        // Now let's start restoring!
-        for (Map.Entry<BlockVector2, Set<BlockVector3>> entry : neededChunks.entrySet()) {
-            BlockVector2 chunkPos = entry.getKey();
-            Chunk chunk;
-
-            try {
-                chunk = chunkStore.getChunk(chunkPos, editSession.getWorld());
-                // Good, the chunk could be at least loaded
-
-                // Now just copy blocks!
-                for (BlockVector3 pos : entry.getValue()) {
-                    try {
-                        editSession.setBlock(pos, chunk.getBlock(pos));
-                    } catch (DataException e) {
-                        // this is a workaround: just ignore for now
-                    }
-                }
-            } catch (MissingChunkException me) {
-                missingChunks.add(chunkPos);
-            } catch (IOException | DataException me) {
-                errorChunks.add(chunkPos);
-                lastErrorMessage = me.getMessage();
-            }
+        //FAWE start - restore through the parallel queue one region file at a time, chunks are read and
+        // decompressed by the threads of the queue
+        World world = editSession.getWorld();
+        RestoreFilter filter = new RestoreFilter(
+                position -> chunkStore.getChunk(position, world),
+                region,
+                editSession.getMask()
+        ).restore(editSession);
+
+        chunksAffected = filter.getChunksAffected();
+        missingChunks = new ArrayList<>(filter.getMissingChunks());
+        Map<BlockVector2, String> errors = filter.getErrorChunks();
+        errorChunks = new ArrayList<>(errors.keySet());
+        if (!errors.isEmpty()) {
+            lastErrorMessage = errors.values().iterator().next();
         }
+        //FAWE end
     }
 
     /**
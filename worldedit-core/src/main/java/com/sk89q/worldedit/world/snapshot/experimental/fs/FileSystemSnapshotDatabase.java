@@ -90,6 +90,9 @@ public static FileSystemSnapshotDatabase maybeCreate(
 
     private final Path root;
     private final ArchiveNioSupport archiveNioSupport;
+    //FAWE start
+    private final SnapshotCatalogue catalogue;
+    //FAWE end
 
     public FileSystemSnapshotDatabase(Path root, ArchiveNioSupport archiveNioSupport) {
         checkArgument(Files.isDirectory(root), "Database root is not a directory");
@@ -99,6 +102,9 @@ public FileSystemSnapshotDatabase(Path root, ArchiveNioSupport archiveNioSupport
             throw new RuntimeException("Failed to resolve snapshot database path", e);
         }
         this.archiveNioSupport = archiveNioSupport;
+        //FAWE start
+        this.catalogue = new SnapshotCatalogue(this);
+        //FAWE end
     }
 
     /*
@@ -139,7 +145,9 @@ public Optional<Snapshot> getSnapshot(URI name) throws IOException {
         return getSnapshot(name.getSchemeSpecificPart());
     }
 
-    private Optional<Snapshot> getSnapshot(String id) throws IOException {
+    //FAWE start - used by the catalogue
+    Optional<Snapshot> getSnapshot(String id) throws IOException {
+        //FAWE end
         Path rawResolved = root.resolve(id);
         // Catch trickery with paths:
         Path ioPath = rawResolved.normalize();
@@ -216,29 +224,36 @@ public Stream<Snapshot> getSnapshots(String worldName) throws IOException {
            minus the extensions. Due to extension detection methods, this won't work properly
            with some files, e.g. world.qux.zip/world.qux is invalid, but world.qux.zip/world isn't.
          */
-        return SafeFiles.noLeakFileList(root)
-                .flatMap(IOFunction.unchecked(entry -> {
-                    String worldEntry = getWorldEntry(worldName, entry);
-                    if (worldEntry != null) {
-                        return Stream.of(worldEntry);
-                    }
-                    String fileName = SafeFiles.canonicalFileName(entry);
-                    if (fileName.equals(worldName)
-                            && Files.isDirectory(entry)
-                            && !Files.exists(entry.resolve("level.dat"))) {
-                        // world dir with timestamp entries
-                        return listTimestampedEntries(worldName, entry)
-                                .map(id -> worldName + "/" + id);
-                    }
-                    return getTimestampedEntries(worldName, entry);
-                }))
-                .map(IOFunction.unchecked(id ->
-                        getSnapshot(id)
-                                .orElseThrow(() ->
-                                        new AssertionError("Could not find discovered snapshot: " + id)
-                                )
-                ));
+        //FAWE start - list from the catalogue, which only searches entries that changed
+        return catalogue.getSnapshots(worldName);
+        //FAWE end
+    }
+
+    //FAWE start - search of a single root entry, for the catalogue
+    /**
+     * Find the ids of the snapshots of a world in an entry of the root. The stream must be closed.
+     *
+     * @param worldName the world name
+     * @param entry the entry of the root
+     * @return the snapshot ids
+     * @throws IOException if the entry can't be read
+     */
+    Stream<String> findSnapshotIds(String worldName, Path entry) throws IOException {
+        String worldEntry = getWorldEntry(worldName, entry);
+        if (worldEntry != null) {
+            return Stream.of(worldEntry);
+        }
+        String fileName = SafeFiles.canonicalFileName(entry);
+        if (fileName.equals(worldName)
+                && Files.isDirectory(entry)
+                && !Files.exists(entry.resolve("level.dat"))) {
+            // world dir with timestamp entries
+            return listTimestampedEntries(worldName, entry)
+                    .map(id -> worldName + "/" + id);
+        }
+        return getTimestampedEntries(worldName, entry);
     }
+    //FAWE end
 
     private Stream<String> listTimestampedEntries(String worldName, Path directory) throws IOException {
         return SafeFiles.noLeakFileList(directory)
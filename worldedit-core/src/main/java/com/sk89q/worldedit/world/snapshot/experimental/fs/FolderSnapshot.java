@@ -19,17 +19,18 @@
 
 package com.sk89q.worldedit.world.snapshot.experimental.fs;
 
+import com.fastasyncworldedit.core.anvil.MCABuffer;
 import com.sk89q.jnbt.CompoundTag;
 import com.sk89q.worldedit.math.BlockVector2;
 import com.sk89q.worldedit.math.BlockVector3;
 import com.sk89q.worldedit.util.io.Closer;
 import com.sk89q.worldedit.world.DataException;
+import com.sk89q.worldedit.world.chunk.Chunk;
 import com.sk89q.worldedit.world.snapshot.experimental.Snapshot;
 import com.sk89q.worldedit.world.snapshot.experimental.SnapshotInfo;
 import com.sk89q.worldedit.world.storage.ChunkStoreHelper;
 import com.sk89q.worldedit.world.storage.LegacyChunkStore;
 import com.sk89q.worldedit.world.storage.McRegionChunkStore;
-import com.sk89q.worldedit.world.storage.McRegionReader;
 import com.sk89q.worldedit.world.storage.MissingChunkException;
 
 import javax.annotation.Nullable;
@@ -37,6 +38,8 @@
 import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.AbstractMap;
+import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Stream;
@@ -97,6 +100,10 @@ private static Object getRegionFolder(Path folder) throws IOException {
     private final AtomicReference<Object> regionFolder = new AtomicReference<>();
     @Nullable
     private final Closer closeCallback;
+    //FAWE start - keep the last region file in memory, restores read all of its chunks one after another
+    private final Object regionLock = new Object();
+    private volatile Map.Entry<Path, MCABuffer> cachedRegion;
+    //FAWE end
 
     public FolderSnapshot(SnapshotInfo info, Path folder, @Nullable Closer closeCallback) {
         this.info = info;
@@ -131,35 +138,74 @@ private Optional<Path> getRegionFolder() throws IOException {
 
     @Override
     public CompoundTag getChunkTag(BlockVector3 position) throws DataException, IOException {
-        BlockVector2 pos = position.toBlockVector2();
+        //FAWE start - shared with getChunk
+        return ChunkStoreHelper.readCompoundTag(getChunkInput(position.toBlockVector2()));
+    }
+
+    @Override
+    public Chunk getChunk(BlockVector3 position) throws DataException, IOException {
+        return ChunkStoreHelper.getChunk(ChunkStoreHelper.readChunkTag(getChunkInput(position.toBlockVector2())));
+    }
+
+    private ChunkStoreHelper.ChunkDataInputSupplier getChunkInput(BlockVector2 pos) throws DataException, IOException {
+        //FAWE end
         Optional<Path> regFolder = getRegionFolder();
         if (!regFolder.isPresent()) {
             Path chunkFile = getFolder().resolve(LegacyChunkStore.getFilename(pos, "/"));
             if (!Files.exists(chunkFile)) {
                 throw new MissingChunkException();
             }
-            return ChunkStoreHelper.readCompoundTag(() ->
-                    new GZIPInputStream(Files.newInputStream(chunkFile))
-            );
+            //FAWE start
+            return () -> new GZIPInputStream(Files.newInputStream(chunkFile));
+            //FAWE end
         }
         Path regionFile = regFolder.get().resolve(McRegionChunkStore.getFilename(pos));
+        //FAWE start - read each region file once, the chunks can then be read from several threads at once
+        MCABuffer region = getRegion(regionFile);
+        return () -> region.getChunkInputStream(pos.getX(), pos.getZ());
+        //FAWE end
+    }
+
+    //FAWE start
+    private MCABuffer getRegion(Path regionFile) throws DataException, IOException {
+        Map.Entry<Path, MCABuffer> cached = cachedRegion;
+        if (cached == null || !cached.getKey().equals(regionFile)) {
+            synchronized (regionLock) {
+                cached = cachedRegion;
+                if (cached == null || !cached.getKey().equals(regionFile)) {
+                    cached = new AbstractMap.SimpleImmutableEntry<>(regionFile, readRegion(regionFile));
+                    cachedRegion = cached;
+                }
+            }
+        }
+        if (cached.getValue() == null) {
+            throw new MissingChunkException();
+        }
+        return cached.getValue();
+    }
+
+    @Nullable
+    private static MCABuffer readRegion(Path regionFile) throws IOException {
         if (!Files.exists(regionFile)) {
             // Try mcr as well
             regionFile = regionFile.resolveSibling(
                     regionFile.getFileName().toString().replace(".mca", ".mcr")
             );
             if (!Files.exists(regionFile)) {
-                throw new MissingChunkException();
+                return null;
             }
         }
         try (InputStream stream = Files.newInputStream(regionFile)) {
-            McRegionReader regionReader = new McRegionReader(stream);
-            return ChunkStoreHelper.readCompoundTag(() -> regionReader.getChunkInputStream(pos));
+            return MCABuffer.read(stream);
         }
     }
+    //FAWE end
 
     @Override
     public void close() throws IOException {
+        //FAWE start
+        cachedRegion = null;
+        //FAWE end
         if (closeCallback != null) {
             closeCallback.close();
         }
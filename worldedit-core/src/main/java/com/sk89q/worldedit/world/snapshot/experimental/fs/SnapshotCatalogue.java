@@ -0,0 +1,263 @@
+package com.sk89q.worldedit.world.snapshot.experimental.fs;
+
+import com.sk89q.jnbt.CompoundTag;
+import com.sk89q.worldedit.internal.util.LogManagerCompat;
+import com.sk89q.worldedit.math.BlockVector3;
+import com.sk89q.worldedit.util.io.file.SafeFiles;
+import com.sk89q.worldedit.world.DataException;
+import com.sk89q.worldedit.world.chunk.Chunk;
+import com.sk89q.worldedit.world.snapshot.experimental.Snapshot;
+import com.sk89q.worldedit.world.snapshot.experimental.SnapshotInfo;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+/**
+ * Remembers which snapshots each entry of a {@link FileSystemSnapshotDatabase} root contains, per world, so that
+ * archives don't have to be opened to list snapshots. Entries are searched again when their modification time or
+ * size changed, and the catalogue is stored in the root to survive restarts.
+ *
+ * <p>Snapshots listed from the catalogue only open their archive once chunks are read from them.</p>
+ */
+class SnapshotCatalogue {
+
+    private static final Logger LOGGER = LogManagerCompat.getLogger();
+
+    static final String FILE_NAME = ".snapshot-catalogue";
+    private static final int VERSION = 1;
+
+    private final FileSystemSnapshotDatabase database;
+    private final Path file;
+    // world name -> root entry name -> contents
+    private final Map<String, Map<String, Entry>> worlds = new HashMap<>();
+    private boolean loaded;
+
+    SnapshotCatalogue(FileSystemSnapshotDatabase database) {
+        this.database = database;
+        this.file = database.getRoot().resolve(FILE_NAME);
+    }
+
+    /**
+     * Get the snapshots of a world, searching the entries of the root which changed since the last call.
+     *
+     * @param worldName the world name
+     * @return the snapshots
+     * @throws IOException if the root can't be listed
+     */
+    synchronized Stream<Snapshot> getSnapshots(String worldName) throws IOException {
+        load();
+        Map<String, Entry> entries = worlds.computeIfAbsent(worldName, k -> new HashMap<>());
+        Map<String, Entry> updated = new HashMap<>();
+        boolean changed = false;
+        List<Path> paths;
+        try (Stream<Path> list = SafeFiles.noLeakFileList(database.getRoot())) {
+            paths = new ArrayList<>();
+            list.forEach(paths::add);
+        }
+        for (Path path : paths) {
+            String name = SafeFiles.canonicalFileName(path);
+            if (name.startsWith(FILE_NAME)) {
+                continue;
+            }
+            BasicFileAttributes attributes;
+            try {
+                attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            } catch (NoSuchFileException e) {
+                continue;
+            }
+            long modified = attributes.lastModifiedTime().toMillis();
+            long size = attributes.isDirectory() ? -1 : attributes.size();
+            Entry entry = entries.get(name);
+            if (entry == null || entry.modified != modified || entry.size != size) {
+                entry = new Entry(modified, size, index(worldName, path));
+                changed = true;
+            }
+            updated.put(name, entry);
+        }
+        changed |= updated.size() != entries.size();
+        worlds.put(worldName, updated);
+        if (changed) {
+            save();
+        }
+        List<Snapshot> snapshots = new ArrayList<>();
+        for (Entry entry : updated.values()) {
+            for (Item item : entry.items) {
+                // named like the snapshots the database opens, with the separator of the file system
+                String name = database.getRoot().getFileSystem().getPath(item.id).toString();
+                SnapshotInfo info = SnapshotInfo.create(FileSystemSnapshotDatabase.createUri(name), item.date);
+                snapshots.add(new LazySnapshot(info, item.id));
+            }
+        }
+        return snapshots.stream();
+    }
+
+    private List<Item> index(String worldName, Path path) throws IOException {
+        List<Item> items = new ArrayList<>();
+        try (Stream<String> ids = database.findSnapshotIds(worldName, path)) {
+            for (String id : (Iterable<String>) ids::iterator) {
+                Optional<Snapshot> snapshot = database.getSnapshot(id);
+                if (!snapshot.isPresent()) {
+                    throw new AssertionError("Could not find discovered snapshot: " + id);
+                }
+                try (Snapshot opened = snapshot.get()) {
+                    items.add(new Item(id, opened.getInfo().getDateTime()));
+                }
+            }
+        }
+        return items;
+    }
+
+    private void load() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        if (!Files.exists(file)) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != VERSION) {
+                return;
+            }
+            int worldCount = in.readInt();
+            for (int i = 0; i < worldCount; i++) {
+                Map<String, Entry> entries = new HashMap<>();
+                worlds.put(in.readUTF(), entries);
+                int entryCount = in.readInt();
+                for (int j = 0; j < entryCount; j++) {
+                    String name = in.readUTF();
+                    long modified = in.readLong();
+                    long size = in.readLong();
+                    int itemCount = in.readInt();
+                    List<Item> items = new ArrayList<>(itemCount);
+                    for (int k = 0; k < itemCount; k++) {
+                        items.add(new Item(in.readUTF(), ZonedDateTime.parse(in.readUTF())));
+                    }
+                    entries.put(name, new Entry(modified, size, items));
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // search everything again
+            LOGGER.warn("Failed to read the snapshot catalogue {}", file, e);
+            worlds.clear();
+        }
+    }
+
+    private void save() {
+        Path temp = file.resolveSibling(FILE_NAME + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(VERSION);
+                out.writeInt(worlds.size());
+                for (Map.Entry<String, Map<String, Entry>> world : worlds.entrySet()) {
+                    out.writeUTF(world.getKey());
+                    out.writeInt(world.getValue().size());
+                    for (Map.Entry<String, Entry> entry : world.getValue().entrySet()) {
+                        out.writeUTF(entry.getKey());
+                        out.writeLong(entry.getValue().modified);
+                        out.writeLong(entry.getValue().size);
+                        out.writeInt(entry.getValue().items.size());
+                        for (Item item : entry.getValue().items) {
+                            out.writeUTF(item.id);
+                            out.writeUTF(item.date.toString());
+                        }
+                    }
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            // e.g. a read only backup store, the catalogue still works for this session
+            LOGGER.debug("Failed to write the snapshot catalogue {}", file, e);
+        }
+    }
+
+    private static final class Entry {
+
+        private final long modified;
+        private final long size;
+        private final List<Item> items;
+
+        private Entry(long modified, long size, List<Item> items) {
+            this.modified = modified;
+            this.size = size;
+            this.items = items;
+        }
+
+    }
+
+    private static final class Item {
+
+        private final String id;
+        private final ZonedDateTime date;
+
+        private Item(String id, ZonedDateTime date) {
+            this.id = id;
+            this.date = date;
+        }
+
+    }
+
+    /**
+     * A snapshot which is only opened when chunks are read from it.
+     */
+    private class LazySnapshot implements Snapshot {
+
+        private final SnapshotInfo info;
+        private final String id;
+        private Snapshot snapshot;
+
+        private LazySnapshot(SnapshotInfo info, String id) {
+            this.info = info;
+            this.id = id;
+        }
+
+        @Override
+        public SnapshotInfo getInfo() {
+            return info;
+        }
+
+        private synchronized Snapshot open() throws IOException {
+            if (snapshot == null) {
+                snapshot = database.getSnapshot(id)
+                        .orElseThrow(() -> new NoSuchFileException(info.getDisplayName()));
+            }
+            return snapshot;
+        }
+
+        @Override
+        public CompoundTag getChunkTag(BlockVector3 position) throws DataException, IOException {
+            return open().getChunkTag(position);
+        }
+
+        @Override
+        public Chunk getChunk(BlockVector3 position) throws DataException, IOException {
+            return open().getChunk(position);
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            if (snapshot != null) {
+                snapshot.close();
+                snapshot = null;
+            }
+        }
+
+    }
+
+}
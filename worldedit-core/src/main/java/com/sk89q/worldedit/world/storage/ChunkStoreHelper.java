@@ -19,8 +19,12 @@
 
 package com.sk89q.worldedit.world.storage;
 
+import com.fastasyncworldedit.core.jnbt.NBTCursor;
+import com.google.common.collect.ImmutableSet;
 import com.sk89q.jnbt.AdventureNBTConverter;
 import com.sk89q.jnbt.CompoundTag;
+import com.sk89q.jnbt.ListTag;
+import com.sk89q.jnbt.NBTConstants;
 import com.sk89q.jnbt.NBTInputStream;
 import com.sk89q.jnbt.Tag;
 import com.sk89q.worldedit.WorldEdit;
@@ -37,7 +41,11 @@
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 public class ChunkStoreHelper {
 
@@ -61,6 +69,59 @@ public static CompoundTag readCompoundTag(ChunkDataInputSupplier input) throws D
         }
     }
 
+    //FAWE start - chunk tags without the parts no chunk implementation reads
+    private static final Set<String> UNUSED_LEVEL_TAGS = ImmutableSet.of(
+            "Entities", "TileTicks", "LiquidTicks", "Structures", "PostProcessing", "ToBeTicked",
+            "LiquidsToBeTicked", "CarvingMasks", "Lights"
+    );
+    private static final Set<String> UNUSED_SECTION_TAGS = ImmutableSet.of("BlockLight", "SkyLight");
+
+    /**
+     * Read the root tag of a chunk for {@link #getChunk(CompoundTag)}. Entities, scheduled ticks, structures and
+     * lighting are skipped without being parsed, which is most of the data of a typical chunk.
+     *
+     * @param input the supplier of the uncompressed chunk data
+     * @return the root tag, without the unused parts
+     * @throws DataException if the data isn't a chunk
+     * @throws IOException   if the data can't be read
+     */
+    public static CompoundTag readChunkTag(ChunkDataInputSupplier input) throws DataException, IOException {
+        NBTCursor root;
+        try (InputStream stream = input.openInputStream()) {
+            root = NBTCursor.read(stream);
+        }
+        if (root.getType() != NBTConstants.TYPE_COMPOUND) {
+            throw new ChunkStoreException("CompoundTag expected for chunk; got type " + root.getType());
+        }
+        Map<String, Tag> tags = new HashMap<>();
+        for (Map.Entry<String, NBTCursor> entry : root.getEntries().entrySet()) {
+            NBTCursor value = entry.getValue();
+            if (entry.getKey().equals("Level") && value.getType() == NBTConstants.TYPE_COMPOUND) {
+                tags.put("Level", readLevelTag(value));
+            } else {
+                tags.put(entry.getKey(), value.toTag());
+            }
+        }
+        return new CompoundTag(tags);
+    }
+
+    private static CompoundTag readLevelTag(NBTCursor level) throws IOException {
+        NBTCursor sections = level.get("Sections");
+        if (sections == null || sections.getType() != NBTConstants.TYPE_LIST
+                || sections.getElementType() != NBTConstants.TYPE_COMPOUND) {
+            return level.toCompoundTagWithout(UNUSED_LEVEL_TAGS);
+        }
+        Map<String, Tag> tags = new HashMap<>(level.toCompoundTag(name ->
+                !name.equals("Sections") && !UNUSED_LEVEL_TAGS.contains(name)).getValue());
+        List<Tag> sectionTags = new ArrayList<>();
+        for (NBTCursor section : sections.getElements()) {
+            sectionTags.add(section.toCompoundTagWithout(UNUSED_SECTION_TAGS));
+        }
+        tags.put("Sections", new ListTag(CompoundTag.class, sectionTags));
+        return new CompoundTag(tags);
+    }
+    //FAWE end
+
     /**
      * Convert a chunk NBT tag into a {@link Chunk} implementation.
      *
@@ -19,10 +19,12 @@
 
 package com.sk89q.worldedit.world.storage;
 
+import com.fastasyncworldedit.core.anvil.MCABuffer;
 import com.sk89q.jnbt.CompoundTag;
 import com.sk89q.worldedit.math.BlockVector2;
 import com.sk89q.worldedit.world.DataException;
 import com.sk89q.worldedit.world.World;
+import com.sk89q.worldedit.world.chunk.Chunk;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -31,6 +33,10 @@ public abstract class McRegionChunkStore extends ChunkStore {
 
     protected String curFilename = null;
     protected McRegionReader cachedReader = null;
+    //FAWE start - keep the last region file in memory, the reader can only seek forwards
+    protected String cachedRegionName = null;
+    protected MCABuffer cachedRegion = null;
+    //FAWE end
 
     /**
      * Get the filename of a region file.
@@ -63,14 +69,37 @@ protected McRegionReader getReader(BlockVector2 pos, String worldname) throws Da
         return cachedReader;
     }
 
+    //FAWE start - read each region file once, the chunks can then be read from several threads at once
+    protected synchronized MCABuffer getRegion(BlockVector2 pos, String worldname) throws DataException, IOException {
+        String filename = getFilename(pos);
+        if (!filename.equals(cachedRegionName)) {
+            cachedRegion = null;
+            cachedRegionName = null;
+            try (InputStream stream = getInputStream(filename, worldname)) {
+                cachedRegion = MCABuffer.read(stream);
+            }
+            cachedRegionName = filename;
+        }
+        return cachedRegion;
+    }
+    //FAWE end
+
     @Override
     public CompoundTag getChunkTag(BlockVector2 position, World world) throws DataException, IOException {
-        return ChunkStoreHelper.readCompoundTag(() -> {
-            McRegionReader reader = getReader(position, world.getName());
+        //FAWE start
+        MCABuffer region = getRegion(position, world.getName());
+        return ChunkStoreHelper.readCompoundTag(() -> region.getChunkInputStream(position.getX(), position.getZ()));
+        //FAWE end
+    }
 
-            return reader.getChunkInputStream(position);
-        });
+    //FAWE start - skip the parts of the chunk restoring doesn't read
+    @Override
+    public Chunk getChunk(BlockVector2 position, World world) throws DataException, IOException {
+        MCABuffer region = getRegion(position, world.getName());
+        return ChunkStoreHelper.getChunk(ChunkStoreHelper.readChunkTag(() ->
+                region.getChunkInputStream(position.getX(), position.getZ())));
     }
+    //FAWE end
 
     /**
      * Get the input stream for a chunk file.
@@ -84,6 +113,10 @@ public CompoundTag getChunkTag(BlockVector2 position, World world) throws DataEx
 
     @Override
     public void close() throws IOException {
+        //FAWE start
+        cachedRegion = null;
+        cachedRegionName = null;
+        //FAWE end
         if (cachedReader != null) {
             cachedReader.close();
         }
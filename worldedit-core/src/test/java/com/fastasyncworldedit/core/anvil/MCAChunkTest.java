@@ -0,0 +1,247 @@
+package com.fastasyncworldedit.core.anvil;
+
+import com.fastasyncworldedit.core.extent.processor.heightmap.HeightMapType;
+import com.fastasyncworldedit.core.queue.implementation.blocks.CharSetBlocks;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.sk89q.jnbt.ByteTag;
+import com.sk89q.jnbt.CompoundTag;
+import com.sk89q.jnbt.IntArrayTag;
+import com.sk89q.jnbt.IntTag;
+import com.sk89q.jnbt.ListTag;
+import com.sk89q.jnbt.LongArrayTag;
+import com.sk89q.jnbt.StringTag;
+import com.sk89q.jnbt.Tag;
+import com.sk89q.worldedit.internal.Constants;
+import com.sk89q.worldedit.world.biome.BiomeType;
+import com.sk89q.worldedit.world.biome.BiomeTypes;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MCAChunkTest {
+
+    private static final int CHUNK_X = 1;
+    private static final int CHUNK_Z = 2;
+    private static final int SECTION = 3;
+    private static final int PALETTE_SIZE = 20;
+
+    private static BiomeType plains;
+    private static BiomeType desert;
+
+    @BeforeAll
+    static void setUp() {
+        plains = register("fawe:test_plains", 201);
+        desert = register("fawe:test_desert", 202);
+    }
+
+    private static BiomeType register(String id, int legacyId) {
+        BiomeType biome = BiomeTypes.get(id);
+        if (biome == null) {
+            biome = new BiomeType(id);
+            biome.setLegacyId(legacyId);
+            BiomeTypes.register(biome);
+        }
+        return biome;
+    }
+
+    private static int[] indices(long seed) {
+        int[] indices = new int[4096];
+        Random random = new Random(seed);
+        for (int i = 0; i < indices.length; i++) {
+            indices[i] = random.nextInt(PALETTE_SIZE);
+        }
+        return indices;
+    }
+
+    private static int[] heights() {
+        int[] heights = new int[256];
+        for (int i = 0; i < heights.length; i++) {
+            heights[i] = (i * 7) % 257;
+        }
+        return heights;
+    }
+
+    private static CompoundTag tile(String id, int x, int y, int z) {
+        return new CompoundTag(ImmutableMap.of(
+                "id", new StringTag(id),
+                "x", new IntTag(x),
+                "y", new IntTag(y),
+                "z", new IntTag(z)
+        ));
+    }
+
+    private static CompoundTag createChunk(int dataVersion, int[] indices, int biomeCount) {
+        boolean padded = dataVersion >= Constants.DATA_VERSION_MC_1_16;
+        ImmutableList.Builder<CompoundTag> palette = ImmutableList.builder();
+        for (int i = 0; i < PALETTE_SIZE; i++) {
+            palette.add(new CompoundTag(ImmutableMap.of("Name", new StringTag("minecraft:test_" + i))));
+        }
+        CompoundTag section = new CompoundTag(ImmutableMap.of(
+                "Y", new ByteTag((byte) SECTION),
+                "Palette", new ListTag(CompoundTag.class, palette.build()),
+                "BlockStates", new LongArrayTag(MCAChunk.pack(indices, 4096, MCAChunk.bitsFor(PALETTE_SIZE), padded))
+        ));
+        // light only section below the world
+        CompoundTag light = new CompoundTag(ImmutableMap.of("Y", new ByteTag((byte) -1)));
+        int[] biomes = new int[biomeCount];
+        Arrays.fill(biomes, plains.getLegacyId());
+        CompoundTag heightMaps = new CompoundTag(ImmutableMap.of(
+                HeightMapType.MOTION_BLOCKING.name(), new LongArrayTag(MCAChunk.pack(heights(), 256, 9, padded))
+        ));
+        CompoundTag level = new CompoundTag(ImmutableMap.<String, Tag>builder()
+                .put("xPos", new IntTag(CHUNK_X))
+                .put("zPos", new IntTag(CHUNK_Z))
+                .put("Sections", new ListTag(CompoundTag.class, ImmutableList.of(light, section)))
+                .put("TileEntities", new ListTag(CompoundTag.class, ImmutableList.of(
+                        tile("minecraft:chest", (CHUNK_X << 4) + 5, 50, (CHUNK_Z << 4) + 6)
+                )))
+                .put("Biomes", new IntArrayTag(biomes))
+                .put("Heightmaps", heightMaps)
+                .build());
+        return new CompoundTag(ImmutableMap.of(
+                "DataVersion", new IntTag(dataVersion),
+                "Level", level
+        ));
+    }
+
+    private static int[] readIndices(CompoundTag root, boolean padded) {
+        CompoundTag level = (CompoundTag) root.getValue().get("Level");
+        List<CompoundTag> sections = level.getList("Sections", CompoundTag.class);
+        for (CompoundTag section : sections) {
+            if (section.getByte("Y") == SECTION) {
+                assertEquals(PALETTE_SIZE, section.getList("Palette", CompoundTag.class).size());
+                int[] indices = new int[4096];
+                assertTrue(MCAChunk.unpack(section.getLongArray("BlockStates"), MCAChunk.bitsFor(PALETTE_SIZE),
+                        indices, 4096, padded));
+                return indices;
+            }
+        }
+        throw new AssertionError("Section " + SECTION + " is missing");
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {false, true})
+    @DisplayName("packed values unpack to the same values, spanning longs before 1.16 and padded since")
+    void packRoundTrip(boolean padded) {
+        for (int size : new int[]{1, 2, 16, 17, 255, 4096}) {
+            int bits = MCAChunk.bitsFor(size);
+            int[] values = new int[4096];
+            Random random = new Random(size);
+            for (int i = 0; i < values.length; i++) {
+                values[i] = random.nextInt(size);
+            }
+            long[] packed = MCAChunk.pack(values, 4096, bits, padded);
+            int perLong = 64 / bits;
+            assertEquals(padded ? (4096 + perLong - 1) / perLong : 4096 * bits / 64, packed.length);
+            int[] unpacked = new int[4096];
+            assertTrue(MCAChunk.unpack(packed, bits, unpacked, 4096, padded));
+            assertArrayEquals(values, unpacked);
+        }
+        // 9 bit height maps don't divide a long
+        long[] packed = MCAChunk.pack(heights(), 256, 9, padded);
+        assertEquals(padded ? 37 : 36, packed.length);
+        int[] unpacked = new int[256];
+        assertTrue(MCAChunk.unpack(packed, 9, unpacked, 256, padded));
+        assertArrayEquals(heights(), unpacked);
+        assertFalse(MCAChunk.unpack(new long[packed.length - 1], 9, unpacked, 256, padded));
+    }
+
+    @Test
+    @DisplayName("missing chunks read as empty chunks")
+    void missingChunk(@TempDir Path dir) throws IOException {
+        try (MCAFile file = new MCAFile(Files.createFile(dir.resolve("r.0.0.mca")))) {
+            MCAChunk chunk = MCAChunk.read(file, CHUNK_X, CHUNK_Z);
+            assertFalse(chunk.exists());
+            assertFalse(chunk.hasSection(SECTION));
+            assertTrue(chunk.getTiles().isEmpty());
+            assertNull(chunk.getBiomeType(0, 0, 0));
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {Constants.DATA_VERSION_MC_1_13_2, 2230, 2586})
+    @DisplayName("chunks read back their blocks, tiles and biomes and keep them when saving other changes")
+    void chunkRoundTrip(int dataVersion, @TempDir Path dir) throws IOException {
+        boolean padded = dataVersion >= Constants.DATA_VERSION_MC_1_16;
+        // 2D biomes before 1.15
+        int biomeCount = dataVersion < Constants.DATA_VERSION_MC_1_15 ? 256 : 1024;
+        int[] indices = indices(dataVersion);
+        try (MCAFile file = new MCAFile(Files.createFile(dir.resolve("r.0.0.mca")))) {
+            file.writeChunk(CHUNK_X, CHUNK_Z, createChunk(dataVersion, indices, biomeCount));
+
+            MCAChunk chunk = MCAChunk.read(file, CHUNK_X, CHUNK_Z);
+            assertTrue(chunk.exists());
+            assertEquals(dataVersion, chunk.getDataVersion());
+            for (int layer = 0; layer < 16; layer++) {
+                assertEquals(layer == SECTION, chunk.hasSection(layer));
+            }
+            assertArrayEquals(heights(), chunk.getHeightMap(HeightMapType.MOTION_BLOCKING));
+            assertEquals("minecraft:chest", chunk.getTile(5, 50, 6).getString("id"));
+            assertEquals(plains, chunk.getBiomeType(15, 255, 15));
+            assertArrayEquals(indices, readIndices(file.readChunk(CHUNK_X, CHUNK_Z), padded));
+
+            CharSetBlocks set = CharSetBlocks.newInstance();
+            try {
+                set.setTile(1, 20, 2, tile("minecraft:furnace", 0, 0, 0));
+                // without an id the tile keeps the id of the one it replaces
+                set.setTile(5, 50, 6, new CompoundTag(ImmutableMap.of("Lock", new StringTag("key"))));
+                set.setBiome(4, 64, 8, desert);
+                chunk.call(set, () -> {
+                });
+            } finally {
+                set.reset();
+                set.recycle();
+            }
+        }
+
+        try (MCAFile file = new MCAFile(dir.resolve("r.0.0.mca"))) {
+            MCAChunk chunk = MCAChunk.read(file, CHUNK_X, CHUNK_Z);
+            assertEquals(dataVersion, chunk.getDataVersion());
+            assertTrue(chunk.hasSection(SECTION));
+            // the blocks didn't change, so the section and height maps are kept as they are
+            assertArrayEquals(indices, readIndices(file.readChunk(CHUNK_X, CHUNK_Z), padded));
+            assertArrayEquals(heights(), chunk.getHeightMap(HeightMapType.MOTION_BLOCKING));
+
+            assertEquals(2, chunk.getTiles().size());
+            CompoundTag furnace = chunk.getTile(1, 20, 2);
+            assertNotNull(furnace);
+            assertEquals("minecraft:furnace", furnace.getString("id"));
+            assertEquals((CHUNK_X << 4) + 1, furnace.getInt("x"));
+            assertEquals(20, furnace.getInt("y"));
+            assertEquals((CHUNK_Z << 4) + 2, furnace.getInt("z"));
+            CompoundTag chest = chunk.getTile(5, 50, 6);
+            assertEquals("minecraft:chest", chest.getString("id"));
+            assertEquals("key", chest.getString("Lock"));
+            assertEquals((CHUNK_X << 4) + 5, chest.getInt("x"));
+
+            assertEquals(desert, chunk.getBiomeType(5, 66, 9));
+            if (biomeCount == 256) {
+                // the whole column changes
+                assertEquals(desert, chunk.getBiomeType(7, 0, 11));
+            } else {
+                assertEquals(plains, chunk.getBiomeType(5, 60, 9));
+            }
+            assertEquals(plains, chunk.getBiomeType(0, 64, 8));
+            assertEquals(plains, chunk.getBiomeType(4, 64, 12));
+        }
+    }
+
+}
@@ -0,0 +1,162 @@
+package com.fastasyncworldedit.core.anvil;
+
+import com.google.common.collect.ImmutableMap;
+import com.sk89q.jnbt.ByteArrayTag;
+import com.sk89q.jnbt.CompoundTag;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MCAFileTest {
+
+    private static final int SECTOR_BYTES = 4096;
+
+    // random bytes don't compress, so the payload size decides the number of sectors
+    private static byte[] payload(int size, long seed) {
+        byte[] bytes = new byte[size];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static CompoundTag chunk(byte[] payload) {
+        return new CompoundTag(ImmutableMap.of("Data", new ByteArrayTag(payload)));
+    }
+
+    private static void assertChunk(MCAFile file, int chunkX, int chunkZ, byte[] payload) throws IOException {
+        CompoundTag root = file.readChunk(chunkX, chunkZ);
+        assertNotNull(root);
+        assertArrayEquals(payload, root.getByteArray("Data"));
+    }
+
+    private static Path create(Path dir) throws IOException {
+        return Files.createFile(dir.resolve("r.0.0.mca"));
+    }
+
+    @Test
+    @DisplayName("files must be named like region files")
+    void regionName(@TempDir Path dir) throws IOException {
+        Path path = Files.createFile(dir.resolve("region.mca"));
+        assertFalse(MCAFile.isRegionFile(path));
+        assertThrows(IOException.class, () -> new MCAFile(path));
+        assertTrue(MCAFile.isRegionFile(dir.resolve("r.-1.2.mca")));
+    }
+
+    @Test
+    @DisplayName("written chunks read back and persist when the file is opened again")
+    void writeRoundTrip(@TempDir Path dir) throws IOException {
+        Path path = create(dir);
+        byte[] first = payload(1000, 1);
+        byte[] second = payload(5000, 2);
+        try (MCAFile file = new MCAFile(path)) {
+            assertFalse(file.hasChunk(0, 0));
+            assertNull(file.readChunk(0, 0));
+            file.writeChunk(0, 0, chunk(first));
+            // absolute coordinates map into the region
+            file.writeChunk(31, 31, chunk(second));
+            assertTrue(file.hasChunk(0, 0));
+            assertTrue(file.getTimestamp(31, 31) > 0);
+            // 2 header sectors, 1 for the first chunk and 2 for the second
+            assertEquals(5, file.getUsedSectors());
+            assertChunk(file, 0, 0, first);
+            assertChunk(file, 31, 31, second);
+        }
+        assertEquals(0, Files.size(path) % SECTOR_BYTES);
+        try (MCAFile file = new MCAFile(path)) {
+            assertEquals(5, file.getUsedSectors());
+            assertChunk(file, 0, 0, first);
+            assertChunk(file, 31, 31, second);
+            assertFalse(file.hasChunk(1, 0));
+        }
+    }
+
+    @Test
+    @DisplayName("a chunk which outgrows its sectors moves and frees them once the header is written")
+    void rewriteRelocates(@TempDir Path dir) throws IOException {
+        Path path = create(dir);
+        byte[] grown = payload(10000, 3);
+        byte[] reused = payload(5000, 4);
+        try (MCAFile file = new MCAFile(path)) {
+            file.writeChunk(0, 0, chunk(payload(5000, 1)));
+            file.writeChunk(1, 0, chunk(payload(5000, 2)));
+            file.flush();
+            assertEquals(6, file.getUsedSectors());
+
+            file.writeChunk(0, 0, chunk(grown));
+            // the old sectors stay used until the header no longer points to them
+            assertEquals(9, file.getUsedSectors());
+            assertChunk(file, 0, 0, grown);
+            file.flush();
+            assertEquals(7, file.getUsedSectors());
+            long size = Files.size(path);
+            assertEquals(9 * SECTOR_BYTES, size);
+
+            // the freed sectors are reused rather than growing the file
+            file.writeChunk(2, 0, chunk(reused));
+            assertEquals(9, file.getUsedSectors());
+            assertEquals(size, Files.size(path));
+            assertChunk(file, 0, 0, grown);
+            assertChunk(file, 2, 0, reused);
+        }
+        try (MCAFile file = new MCAFile(path)) {
+            assertEquals(9, file.getUsedSectors());
+            assertChunk(file, 0, 0, grown);
+            assertChunk(file, 2, 0, reused);
+        }
+    }
+
+    @Test
+    @DisplayName("deleted chunks free their sectors once the header is written")
+    void deleteFrees(@TempDir Path dir) throws IOException {
+        Path path = create(dir);
+        byte[] kept = payload(5000, 1);
+        byte[] reused = payload(5000, 3);
+        try (MCAFile file = new MCAFile(path)) {
+            file.writeChunk(0, 0, chunk(kept));
+            file.writeChunk(1, 0, chunk(payload(5000, 2)));
+            file.flush();
+
+            assertTrue(file.deleteChunk(1, 0));
+            assertFalse(file.deleteChunk(1, 0));
+            assertFalse(file.hasChunk(1, 0));
+            assertEquals(0, file.getTimestamp(1, 0));
+            assertNull(file.readChunk(1, 0));
+            assertEquals(6, file.getUsedSectors());
+            file.flush();
+            assertEquals(4, file.getUsedSectors());
+
+            long size = Files.size(path);
+            file.writeChunk(2, 0, chunk(reused));
+            assertEquals(size, Files.size(path));
+        }
+        try (MCAFile file = new MCAFile(path)) {
+            assertFalse(file.hasChunk(1, 0));
+            assertEquals(6, file.getUsedSectors());
+            assertChunk(file, 0, 0, kept);
+            assertChunk(file, 2, 0, reused);
+        }
+    }
+
+    @Test
+    @DisplayName("chunks larger than 255 sectors are rejected")
+    void tooLarge(@TempDir Path dir) throws IOException {
+        try (MCAFile file = new MCAFile(create(dir))) {
+            assertThrows(IOException.class, () -> file.writeChunk(0, 0, chunk(payload(256 * SECTOR_BYTES, 1))));
+            assertFalse(file.hasChunk(0, 0));
+            assertEquals(2, file.getUsedSectors());
+        }
+    }
+
+}
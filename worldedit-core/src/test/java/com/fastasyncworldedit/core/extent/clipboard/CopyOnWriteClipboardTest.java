@@ -0,0 +1,156 @@
+package com.fastasyncworldedit.core.extent.clipboard;
+
+import com.google.common.collect.ImmutableMap;
+import com.sk89q.jnbt.CompoundTag;
+import com.sk89q.jnbt.StringTag;
+import com.sk89q.worldedit.math.BlockVector3;
+import com.sk89q.worldedit.regions.CuboidRegion;
+import com.sk89q.worldedit.regions.Region;
+import com.sk89q.worldedit.world.biome.BiomeType;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collection;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CopyOnWriteClipboardTest {
+
+    // 3x2x3 tiles, the last of each axis partially filled
+    private static final Region REGION = new CuboidRegion(BlockVector3.ZERO, BlockVector3.at(39, 19, 35));
+    private static final BiomeType PLAINS = new BiomeType("fawe:test_plains");
+    private static final BiomeType DESERT = new BiomeType("fawe:test_desert");
+
+    private static CPUOptimizedClipboard createBacking() {
+        CPUOptimizedClipboard backing = new CPUOptimizedClipboard(REGION);
+        Random random = new Random(1);
+        for (int index = 0; index < backing.getVolume(); index++) {
+            backing.setOrdinal(index, (char) (random.nextInt(1000) + 1));
+        }
+        backing.setOrigin(BlockVector3.at(5, 6, 7));
+        return backing;
+    }
+
+    private static char[] snapshot(LinearClipboard clipboard) {
+        char[] ordinals = new char[clipboard.getVolume()];
+        for (int index = 0; index < ordinals.length; index++) {
+            ordinals[index] = clipboard.getOrdinalChar(index);
+        }
+        return ordinals;
+    }
+
+    private static void assertBlocks(char[] expected, LinearClipboard clipboard) {
+        BlockVector3 size = REGION.getDimensions();
+        for (int y = 0; y < size.getY(); y++) {
+            for (int z = 0; z < size.getZ(); z++) {
+                for (int x = 0; x < size.getX(); x++) {
+                    int index = x + y * size.getX() * size.getZ() + z * size.getX();
+                    assertEquals(expected[index], clipboard.getOrdinalChar(x, y, z), "at " + x + "," + y + "," + z);
+                    assertEquals(expected[index], clipboard.getOrdinalChar(index));
+                }
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("views read the backing clipboard until written to")
+    void readsBacking() {
+        CPUOptimizedClipboard backing = createBacking();
+        assertTrue(CopyOnWriteClipboard.view(backing) instanceof CopyOnWriteClipboard);
+        CopyOnWriteClipboard view = new CopyOnWriteClipboard(backing);
+        assertSame(backing, view.getBacking());
+        assertEquals(backing.getDimensions(), view.getDimensions());
+        assertEquals(backing.getOrigin(), view.getOrigin());
+        assertBlocks(snapshot(backing), view);
+        assertEquals(0, view.getCopiedTiles());
+        assertEquals(0, view.getHeapSize());
+    }
+
+    @Test
+    @DisplayName("block writes to a view don't reach the backing clipboard or other views of it")
+    void blockWritesStayInView() {
+        CPUOptimizedClipboard backing = createBacking();
+        char[] original = snapshot(backing);
+        CopyOnWriteClipboard view = new CopyOnWriteClipboard(backing);
+        CopyOnWriteClipboard other = new CopyOnWriteClipboard(backing);
+
+        char[] expected = original.clone();
+        Random random = new Random(2);
+        // only the bottom layer of tiles, the top layer stays shared
+        for (int i = 0; i < 200; i++) {
+            int x = random.nextInt(REGION.getWidth());
+            int y = random.nextInt(16);
+            int z = random.nextInt(REGION.getLength());
+            char ordinal = (char) (random.nextInt(1000) + 2000);
+            view.setOrdinal(x, y, z, ordinal);
+            expected[view.getIndex(x, y, z)] = ordinal;
+        }
+        // air is stored as the reserved state
+        view.setOrdinal(39, 19, 35, (char) 0);
+        expected[view.getIndex(39, 19, 35)] = 1;
+
+        assertBlocks(expected, view);
+        assertBlocks(original, backing);
+        assertBlocks(original, other);
+        assertEquals(0, other.getCopiedTiles());
+        assertTrue(view.getCopiedTiles() > 1);
+        assertTrue(view.getCopiedTiles() < 18);
+
+        // the view keeps its origin, which the backing clipboard doesn't see either
+        view.setOrigin(BlockVector3.ZERO);
+        assertEquals(BlockVector3.at(5, 6, 7), backing.getOrigin());
+
+        view.close();
+        assertBlocks(original, backing);
+        assertBlocks(original, other);
+    }
+
+    @Test
+    @DisplayName("biome writes to a view don't reach the backing clipboard")
+    void biomeWritesStayInView() {
+        CPUOptimizedClipboard backing = createBacking();
+        backing.setBiome(0, 0, 0, PLAINS);
+        backing.setBiome(20, 8, 20, PLAINS);
+        CopyOnWriteClipboard view = new CopyOnWriteClipboard(backing);
+        assertTrue(view.hasBiomes());
+        assertSame(PLAINS, view.getBiomeType(20, 8, 20));
+
+        view.setBiome(20, 8, 20, DESERT);
+        view.setBiome(4, 4, 4, DESERT);
+        assertSame(DESERT, view.getBiomeType(20, 8, 20));
+        assertSame(DESERT, view.getBiomeType(4, 4, 4));
+        // biomes that weren't written are copied from the backing clipboard
+        assertSame(PLAINS, view.getBiomeType(0, 0, 0));
+
+        assertSame(PLAINS, backing.getBiomeType(20, 8, 20));
+        assertNull(backing.getBiomeType(4, 4, 4));
+        assertSame(PLAINS, new CopyOnWriteClipboard(backing).getBiomeType(20, 8, 20));
+    }
+
+    @Test
+    @DisplayName("tile entities set in a view don't reach the backing clipboard")
+    void tileWritesStayInView() {
+        CPUOptimizedClipboard backing = createBacking();
+        CopyOnWriteClipboard view = new CopyOnWriteClipboard(backing);
+        view.setTile(3, 4, 5, new CompoundTag(ImmutableMap.of("id", new StringTag("minecraft:chest"))));
+
+        Collection<CompoundTag> tiles = view.getTileEntities();
+        assertEquals(1, tiles.size());
+        CompoundTag tile = tiles.iterator().next();
+        assertEquals("minecraft:chest", tile.getString("id"));
+        assertEquals(3, tile.getInt("x"));
+        assertEquals(4, tile.getInt("y"));
+        assertEquals(5, tile.getInt("z"));
+        assertEquals(1, view.getCopiedTiles());
+
+        assertTrue(backing.getTileEntities().isEmpty());
+        assertTrue(new CopyOnWriteClipboard(backing).getTileEntities().isEmpty());
+        // the block itself was copied but not changed
+        assertBlocks(snapshot(backing), view);
+    }
+
+}
@@ -0,0 +1,102 @@
+package com.fastasyncworldedit.core.extent.clipboard;
+
+import com.fastasyncworldedit.core.FaweCache;
+import com.sk89q.worldedit.math.BlockVector3;
+import com.sk89q.worldedit.regions.CuboidRegion;
+import com.sk89q.worldedit.regions.Region;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SectionedClipboardTest {
+
+    // 3x3x3 sections, the last of each axis partially filled
+    private static final Region REGION = new CuboidRegion(BlockVector3.ZERO, BlockVector3.at(39, 35, 41));
+    // distinct states written to a section, so palettes of every entry size are encoded
+    private static final int[] DISTINCT = {1, 2, 3, 5, 17, 300, 5000};
+
+    @BeforeEach
+    void setUp() {
+        // sized by the block state registry otherwise, which needs a platform
+        int[] palette = new int[Character.MAX_VALUE + 1];
+        Arrays.fill(palette, Integer.MAX_VALUE);
+        FaweCache.IMP.BLOCK_TO_PALETTE.set(palette);
+    }
+
+    @AfterEach
+    void tearDown() {
+        FaweCache.IMP.BLOCK_TO_PALETTE.clean();
+    }
+
+    private static void write(SectionedClipboard sectioned, CPUOptimizedClipboard linear, int count, long seed) {
+        Random random = new Random(seed);
+        BlockVector3 size = REGION.getDimensions();
+        for (int i = 0; i < count; i++) {
+            int x = random.nextInt(size.getX());
+            int y = random.nextInt(size.getY());
+            int z = random.nextInt(size.getZ());
+            int section = (x >> 4) + 3 * ((z >> 4) + 3 * (y >> 4));
+            // air is stored as the reserved state in both
+            char ordinal = (char) (random.nextInt(DISTINCT[section % DISTINCT.length]) + 1000 * (section & 1));
+            sectioned.setOrdinal(x, y, z, ordinal);
+            linear.setOrdinal(linear.getIndex(x, y, z), ordinal);
+        }
+    }
+
+    private static void assertSameBlocks(CPUOptimizedClipboard expected, SectionedClipboard actual) {
+        BlockVector3 size = REGION.getDimensions();
+        for (int y = 0; y < size.getY(); y++) {
+            for (int z = 0; z < size.getZ(); z++) {
+                for (int x = 0; x < size.getX(); x++) {
+                    int index = expected.getIndex(x, y, z);
+                    assertEquals(index, actual.getIndex(x, y, z));
+                    char ordinal = expected.getOrdinalChar(index);
+                    assertEquals(ordinal, actual.getOrdinalChar(x, y, z), "at " + x + "," + y + "," + z);
+                    assertEquals(ordinal, actual.getOrdinalChar(index));
+                }
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("sections hold the same blocks as a linear clipboard while decoded, evicted and flushed")
+    void sameBlocksAsLinear() {
+        CPUOptimizedClipboard linear = new CPUOptimizedClipboard(REGION);
+        // the smallest cache keeps one layer of sections decoded, so random writes evict constantly
+        SectionedClipboard sectioned = new SectionedClipboard(REGION, 1);
+        write(sectioned, linear, 40000, 1);
+        assertSameBlocks(linear, sectioned);
+
+        sectioned.flush();
+        assertSameBlocks(linear, sectioned);
+        // encoded sections are smaller than the decoded ordinals
+        assertTrue(sectioned.getHeapSize() < REGION.getVolume() * 2L);
+
+        // writes to encoded sections decode them again without losing their blocks
+        write(sectioned, linear, 5000, 2);
+        assertSameBlocks(linear, sectioned);
+        sectioned.flush();
+        assertSameBlocks(linear, sectioned);
+    }
+
+    @Test
+    @DisplayName("sections that are never written read as air")
+    void unwrittenSections() {
+        CPUOptimizedClipboard linear = new CPUOptimizedClipboard(REGION);
+        SectionedClipboard sectioned = new SectionedClipboard(REGION, 1);
+        sectioned.setOrdinal(20, 20, 20, (char) 0);
+        linear.setOrdinal(linear.getIndex(20, 20, 20), (char) 0);
+        sectioned.flush();
+        assertEquals(1, sectioned.getOrdinalChar(20, 20, 20));
+        assertEquals(0, sectioned.getOrdinalChar(0, 0, 0));
+        assertSameBlocks(linear, sectioned);
+    }
+
+}
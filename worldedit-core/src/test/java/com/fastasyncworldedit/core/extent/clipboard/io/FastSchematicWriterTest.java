@@ -0,0 +1,145 @@
+package com.fastasyncworldedit.core.extent.clipboard.io;
+
+import com.google.common.collect.ImmutableMap;
+import com.sk89q.jnbt.CompoundTag;
+import com.sk89q.jnbt.IntArrayTag;
+import com.sk89q.worldedit.math.BlockVector3;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FastSchematicWriterTest {
+
+    private static final int STATES = 1 << 16;
+
+    private static ForkJoinPool pool;
+
+    @BeforeAll
+    static void setUp() {
+        pool = new ForkJoinPool(4);
+    }
+
+    @AfterAll
+    static void tearDown() {
+        pool.shutdown();
+    }
+
+    /**
+     * Blocks read from arrays, with a tile entity for every 97th state.
+     */
+    private static final class ArraySource implements FastSchematicWriter.BlockSource {
+
+        private final BlockVector3 dimensions;
+        private final int[] ordinals;
+        private final CompoundTag[] tiles;
+
+        private ArraySource(BlockVector3 dimensions, int distinct, long seed) {
+            this.dimensions = dimensions;
+            int volume = dimensions.getX() * dimensions.getY() * dimensions.getZ();
+            this.ordinals = new int[volume];
+            this.tiles = new CompoundTag[volume];
+            Random random = new Random(seed);
+            for (int i = 0; i < volume; i++) {
+                // half of the blocks are a few common states, the rest are spread out so palette indices of every
+                // varint length appear
+                int ordinal = random.nextBoolean() ? random.nextInt(distinct) : random.nextInt(Math.min(8, distinct));
+                ordinals[i] = ordinal;
+                if (ordinal % 97 == 0 && ordinal != 0) {
+                    tiles[i] = new CompoundTag(ImmutableMap.of("Pos", new IntArrayTag(new int[]{i})));
+                }
+            }
+        }
+
+        private int index(int x, int y, int z) {
+            return (y * dimensions.getZ() + z) * dimensions.getX() + x;
+        }
+
+        @Override
+        public int getOrdinal(int x, int y, int z) {
+            return ordinals[index(x, y, z)];
+        }
+
+        @Override
+        public CompoundTag getTile(int ordinal, int x, int y, int z) {
+            assertEquals(ordinals[index(x, y, z)], ordinal);
+            return tiles[index(x, y, z)];
+        }
+
+    }
+
+    private static final class Output {
+
+        private final List<CompoundTag> tiles = new ArrayList<>();
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream data = new DataOutputStream(bytes);
+        private List<Integer> palette;
+        private int dataLength = -1;
+
+        private void header(List<Integer> palette, int dataLength) {
+            assertEquals(0, bytes.size(), "the header is written before the block data");
+            this.palette = palette;
+            this.dataLength = dataLength;
+        }
+
+    }
+
+    private static Output writeSerial(ArraySource source) throws IOException {
+        Output output = new Output();
+        FastSchematicWriter.writeBlockData(source, source.dimensions, STATES, output::header, output.data,
+                output.tiles);
+        return output;
+    }
+
+    private static Output writeParallel(ArraySource source, int layers) throws IOException {
+        Output output = new Output();
+        FastSchematicWriter.writeBlockDataParallel(source, source.dimensions, layers, STATES, pool, output::header,
+                output.data, output.tiles);
+        return output;
+    }
+
+    private static void assertSameOutput(Output expected, Output actual) {
+        assertEquals(expected.palette, actual.palette);
+        assertEquals(expected.dataLength, actual.dataLength);
+        assertEquals(actual.dataLength, actual.bytes.size());
+        assertArrayEquals(expected.bytes.toByteArray(), actual.bytes.toByteArray());
+        assertEquals(expected.tiles, actual.tiles);
+    }
+
+    @Test
+    @DisplayName("parallel stripes write the same palette, block data and tiles as the serial writer")
+    void parallelMatchesSerial() throws IOException {
+        ArraySource source = new ArraySource(BlockVector3.at(63, 23, 65), 30000, 1);
+        Output serial = writeSerial(source);
+        // palette indices of one, two and three bytes
+        assertTrue(serial.palette.size() > 1 << 14);
+        assertTrue(serial.tiles.size() > 0);
+        assertEquals(serial.dataLength, serial.bytes.size());
+        for (int layers : new int[]{1, 2, 5, 22, 23, 100}) {
+            assertSameOutput(serial, writeParallel(source, layers));
+        }
+    }
+
+    @Test
+    @DisplayName("air is written as the reserved state in both writers")
+    void reservedState() throws IOException {
+        ArraySource source = new ArraySource(BlockVector3.at(16, 16, 16), 2, 2);
+        Output serial = writeSerial(source);
+        assertEquals(1, serial.palette.size());
+        assertEquals(1, (int) serial.palette.get(0));
+        assertSameOutput(serial, writeParallel(source, 3));
+    }
+
+}
@@ -0,0 +1,325 @@
+package com.fastasyncworldedit.core.extent.clipboard.io;
+
+import com.fastasyncworldedit.core.FaweCache;
+import com.fastasyncworldedit.core.extent.clipboard.DirtyTiles;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.sk89q.jnbt.CompoundTag;
+import com.sk89q.jnbt.IntTag;
+import com.sk89q.jnbt.StringTag;
+import com.sk89q.worldedit.math.BlockVector3;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Round trips the parts of the tiled schematic format. Block states need a platform, so tiles are encoded with
+ * arbitrary ordinals.
+ */
+class TiledSchematicTest {
+
+    @BeforeEach
+    void setUp() {
+        // sized by the block state registry otherwise, which needs a platform
+        int[] palette = new int[Character.MAX_VALUE + 1];
+        Arrays.fill(palette, Integer.MAX_VALUE);
+        FaweCache.IMP.BLOCK_TO_PALETTE.set(palette);
+    }
+
+    @AfterEach
+    void tearDown() {
+        FaweCache.IMP.BLOCK_TO_PALETTE.clean();
+    }
+
+    private static TiledSchematic.TileData createTile(int paletteSize, boolean biomes, long seed) {
+        Random random = new Random(seed);
+        TiledSchematic.TileData tile = new TiledSchematic.TileData();
+        for (int i = 0; i < TiledSchematic.TILE_VOLUME; i++) {
+            // every palette entry is used at least once
+            int entry = i < paletteSize ? i : random.nextInt(paletteSize);
+            tile.blocks[i] = (char) (entry * 3 + 1);
+        }
+        if (biomes) {
+            tile.biomes = new int[TiledSchematic.BIOME_CELLS];
+            for (int i = 0; i < tile.biomes.length; i++) {
+                tile.biomes[i] = random.nextInt(80);
+            }
+        }
+        tile.nbt.put(TiledSchematic.index(15, 15, 15), new CompoundTag(ImmutableMap.of(
+                "id", new StringTag("minecraft:chest"),
+                "Count", new IntTag(paletteSize)
+        )));
+        return tile;
+    }
+
+    private static TiledSchematic.TileData roundTrip(TiledSchematic.TileData tile) throws IOException {
+        // ids in the file are shifted, the decoder maps them back
+        byte[] data = TiledSchematic.encodeTile(tile, ordinal -> ordinal + 5, biome -> biome + 2);
+        char[] blocks = new char[Character.MAX_VALUE + 6];
+        for (int ordinal = 0; ordinal <= Character.MAX_VALUE; ordinal++) {
+            blocks[ordinal + 5] = (char) ordinal;
+        }
+        int[] biomes = new int[82];
+        for (int biome = 0; biome < 80; biome++) {
+            biomes[biome + 2] = biome;
+        }
+        return TiledSchematic.decodeTile(data, blocks, biomes, TiledSchematic.VERSION);
+    }
+
+    private static void assertSameTile(TiledSchematic.TileData expected, TiledSchematic.TileData actual) {
+        assertArrayEquals(expected.blocks, actual.blocks);
+        assertArrayEquals(expected.biomes, actual.biomes);
+        assertEquals(expected.nbt.keySet(), actual.nbt.keySet());
+        expected.nbt.forEach((index, tag) -> {
+            CompoundTag read = actual.nbt.get(index);
+            assertEquals(tag.getString("id"), read.getString("id"));
+            assertEquals(tag.getInt("Count"), read.getInt("Count"));
+        });
+    }
+
+    @Test
+    @DisplayName("tiles decode to the encoded blocks, biomes and tile entities for any palette size")
+    void tileRoundTrip() throws IOException {
+        for (int paletteSize : new int[]{1, 2, 255, 256, 257, 4096}) {
+            for (boolean biomes : new boolean[]{false, true}) {
+                TiledSchematic.TileData tile = createTile(paletteSize, biomes, paletteSize);
+                assertSameTile(tile, roundTrip(tile));
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("tiles without tile entities decode without any")
+    void tileWithoutNbt() throws IOException {
+        TiledSchematic.TileData tile = createTile(3, false, 0);
+        tile.nbt.clear();
+        TiledSchematic.TileData read = roundTrip(tile);
+        assertNull(read.biomes);
+        assertEquals(0, read.nbt.size());
+        assertArrayEquals(tile.blocks, read.blocks);
+    }
+
+    @Test
+    @DisplayName("the footer reads back the bounds, palettes, tile index and entities")
+    void footerRoundTrip() throws IOException {
+        TiledSchematic schematic = new TiledSchematic();
+        schematic.dataVersion = 2586;
+        schematic.min = BlockVector3.at(-40, 0, 7);
+        schematic.max = BlockVector3.at(20, 255, 100);
+        schematic.origin = BlockVector3.at(-1, 64, 30);
+        schematic.grid = BlockVector3.at(-48, 0, 0);
+        schematic.palette.addAll(ImmutableList.of("minecraft:air", "minecraft:oak_stairs[facing=east,half=top]"));
+        schematic.biomePalette.addAll(ImmutableList.of("minecraft:plains", "minecraft:desert"));
+        schematic.tiles.put(BlockVector3.at(0, 0, 0), new TiledSchematic.Tile(TiledSchematic.HEADER_SIZE, 100));
+        schematic.tiles.put(BlockVector3.at(3, 15, 6), new TiledSchematic.Tile(TiledSchematic.HEADER_SIZE + 100, 7));
+        schematic.tiles.put(BlockVector3.at(1, 0, 2), new TiledSchematic.Tile(1L << 33, Integer.MAX_VALUE));
+        schematic.entities.add(new CompoundTag(ImmutableMap.of("id", new StringTag("minecraft:cow"))));
+        schematic.entities.add(new CompoundTag(ImmutableMap.of("id", new StringTag("minecraft:pig"))));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            schematic.writeFooter(out);
+        }
+        TiledSchematic read = new TiledSchematic();
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            read.readFooter(in);
+            assertEquals(-1, in.read());
+        }
+
+        assertEquals(schematic.dataVersion, read.dataVersion);
+        assertEquals(schematic.min, read.min);
+        assertEquals(schematic.max, read.max);
+        assertEquals(schematic.origin, read.origin);
+        assertEquals(schematic.grid, read.grid);
+        assertEquals(schematic.palette, read.palette);
+        assertEquals(schematic.biomePalette, read.biomePalette);
+        assertEquals(new ArrayList<>(schematic.tiles.keySet()), new ArrayList<>(read.tiles.keySet()));
+        schematic.tiles.forEach((position, tile) -> {
+            assertEquals(tile.offset, read.tiles.get(position).offset);
+            assertEquals(tile.length, read.tiles.get(position).length);
+        });
+        assertEquals(schematic.entities.size(), read.entities.size());
+        for (int i = 0; i < schematic.entities.size(); i++) {
+            assertEquals(schematic.entities.get(i).getString("id"), read.entities.get(i).getString("id"));
+        }
+        assertEquals(schematic.getUsedBytes(), read.getUsedBytes());
+    }
+
+    @Test
+    @DisplayName("positions map to their tile and index within it")
+    void tileIndices() {
+        TiledSchematic schematic = new TiledSchematic();
+        schematic.grid = BlockVector3.at(-20, -64, 5);
+        BlockVector3 position = BlockVector3.at(-5, 0, 40);
+        BlockVector3 tile = schematic.getTile(position.getX(), position.getY(), position.getZ());
+        assertEquals(BlockVector3.at(0, 4, 2), tile);
+        BlockVector3 min = schematic.getTileMin(tile);
+        assertEquals(BlockVector3.at(-20, 0, 37), min);
+        BlockVector3 local = position.subtract(min);
+        assertEquals(
+                (local.getY() << 8) | (local.getZ() << 4) | local.getX(),
+                TiledSchematic.index(local.getX(), local.getY(), local.getZ())
+        );
+        assertEquals(TiledSchematic.TILE_VOLUME - 1, TiledSchematic.index(15, 15, 15));
+        assertEquals(TiledSchematic.BIOME_CELLS - 1, TiledSchematic.biomeIndex(15, 15, 15));
+        assertEquals(1 + 4 + 16, TiledSchematic.biomeIndex(4, 7, 5));
+    }
+
+
+    private static byte[] encode(TiledSchematic.TileData tile) throws IOException {
+        return TiledSchematic.encodeTile(tile, ordinal -> ordinal, biome -> biome);
+    }
+
+    private static TiledSchematic.TileData readTile(FileChannel channel, TiledSchematic schematic, BlockVector3 tile)
+            throws IOException {
+        TiledSchematic.Tile entry = schematic.tiles.get(tile);
+        ByteBuffer buffer = ByteBuffer.allocate(entry.length);
+        while (buffer.hasRemaining()) {
+            channel.read(buffer, entry.offset + buffer.position());
+        }
+        char[] blocks = new char[Character.MAX_VALUE + 1];
+        for (int ordinal = 0; ordinal < blocks.length; ordinal++) {
+            blocks[ordinal] = (char) ordinal;
+        }
+        int[] biomes = new int[80];
+        Arrays.setAll(biomes, biome -> biome);
+        return TiledSchematic.decodeTile(buffer.array(), blocks, biomes, schematic.version);
+    }
+
+    /**
+     * Write a 32x16x32 schematic the way {@link TiledSchematicWriter#write} streams it.
+     */
+    private static Map<BlockVector3, TiledSchematic.TileData> save(Path file) throws IOException {
+        TiledSchematic schematic = new TiledSchematic();
+        schematic.dataVersion = 2586;
+        schematic.min = BlockVector3.ZERO;
+        schematic.max = BlockVector3.at(31, 15, 31);
+        schematic.origin = BlockVector3.ZERO;
+        schematic.grid = BlockVector3.ZERO;
+        schematic.palette.add("minecraft:air");
+        Map<BlockVector3, TiledSchematic.TileData> tiles = new HashMap<>();
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(file))) {
+            TiledSchematic.writeHeader(out);
+            long position = TiledSchematic.HEADER_SIZE;
+            for (BlockVector3 tile : TiledSchematicWriter.getTiles(schematic, schematic.min, schematic.max, null)) {
+                TiledSchematic.TileData data = createTile(4, true, tile.hashCode());
+                byte[] encoded = encode(data);
+                out.write(encoded);
+                schematic.tiles.put(tile, new TiledSchematic.Tile(position, encoded.length));
+                position += encoded.length;
+                tiles.put(tile, data);
+            }
+            schematic.footerOffset = position;
+            schematic.writeFooter(out);
+            out.writeLong(position);
+        }
+        return tiles;
+    }
+
+    /**
+     * Append the tiles changed in a clipboard of the size of the schematic the way {@link TiledSchematicWriter} does,
+     * setting a block in each of them.
+     *
+     * @param complete false to stop before the footer is written
+     */
+    private static void append(Path file, DirtyTiles changes, Map<BlockVector3, TiledSchematic.TileData> tiles,
+                               boolean complete) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            TiledSchematic schematic = new TiledSchematicReader(channel).getSchematic();
+            long position = schematic.startAppend(channel);
+            for (BlockVector3 tile : TiledSchematicWriter.getTiles(schematic, schematic.min, schematic.max, changes)) {
+                TiledSchematic.TileData data = readTile(channel, schematic, tile);
+                data.blocks[TiledSchematic.index(5, 5, 5)] = 4000;
+                position = schematic.writeTile(channel, tile, encode(data), position);
+                if (complete) {
+                    tiles.put(tile, data);
+                }
+            }
+            if (complete) {
+                schematic.writeFooter(channel, position);
+            }
+        }
+    }
+
+    private static void assertSchematic(Path file, Map<BlockVector3, TiledSchematic.TileData> tiles) throws
+            IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            TiledSchematic schematic = new TiledSchematicReader(channel).getSchematic();
+            assertEquals(tiles.keySet(), schematic.tiles.keySet());
+            for (Map.Entry<BlockVector3, TiledSchematic.TileData> entry : tiles.entrySet()) {
+                assertSameTile(entry.getValue(), readTile(channel, schematic, entry.getKey()));
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("an append only replaces the changed tiles")
+    void appendRoundTrip(@TempDir Path dir) throws IOException {
+        Path file = dir.resolve("test.tiled");
+        Map<BlockVector3, TiledSchematic.TileData> tiles = save(file);
+        assertEquals(4, tiles.size());
+        assertSchematic(file, tiles);
+
+        DirtyTiles changes = new DirtyTiles(BlockVector3.at(32, 16, 32));
+        changes.mark(20, 3, 17);
+        DirtyTiles drained = changes.drain();
+        assertTrue(changes.isEmpty());
+        TiledSchematic.TileData before = tiles.get(BlockVector3.at(1, 0, 1));
+        append(file, drained, tiles, true);
+        assertNotSame(before, tiles.get(BlockVector3.at(1, 0, 1)));
+        assertSchematic(file, tiles);
+
+        changes.mark(0, 0, 0);
+        changes.mark(31, 15, 31);
+        append(file, changes.drain(), tiles, true);
+        assertSchematic(file, tiles);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            TiledSchematic schematic = new TiledSchematicReader(channel).getSchematic();
+            assertEquals(channel.size(), schematic.dataEnd);
+            assertTrue(schematic.getUnusedBytes() > 0);
+        }
+    }
+
+    @Test
+    @DisplayName("an interrupted append leaves the previous content in use")
+    void interruptedAppend(@TempDir Path dir) throws IOException {
+        Path file = dir.resolve("test.tiled");
+        Map<BlockVector3, TiledSchematic.TileData> tiles = save(file);
+        DirtyTiles changes = new DirtyTiles(BlockVector3.at(32, 16, 32));
+        changes.markAll();
+        append(file, changes, tiles, false);
+        assertSchematic(file, tiles);
+
+        changes.mark(16, 0, 0);
+        append(file, changes, tiles, true);
+        assertSchematic(file, tiles);
+        append(file, changes, tiles, false);
+        assertSchematic(file, tiles);
+    }
+
+}
@@ -0,0 +1,200 @@
+package com.fastasyncworldedit.core.jnbt;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.sk89q.jnbt.ByteArrayTag;
+import com.sk89q.jnbt.ByteTag;
+import com.sk89q.jnbt.CompoundTag;
+import com.sk89q.jnbt.DoubleTag;
+import com.sk89q.jnbt.FloatTag;
+import com.sk89q.jnbt.IntArrayTag;
+import com.sk89q.jnbt.IntTag;
+import com.sk89q.jnbt.ListTag;
+import com.sk89q.jnbt.LongArrayTag;
+import com.sk89q.jnbt.LongTag;
+import com.sk89q.jnbt.NBTConstants;
+import com.sk89q.jnbt.NBTInputStream;
+import com.sk89q.jnbt.NBTOutputStream;
+import com.sk89q.jnbt.NamedTag;
+import com.sk89q.jnbt.ShortTag;
+import com.sk89q.jnbt.StringTag;
+import com.sk89q.jnbt.Tag;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class NBTCursorTest {
+
+    private static CompoundTag createChunk() {
+        CompoundTag section = new CompoundTag(ImmutableMap.of(
+                "Y", new ByteTag((byte) -1),
+                "Palette", new ListTag(CompoundTag.class, ImmutableList.of(
+                        new CompoundTag(ImmutableMap.of("Name", new StringTag("minecraft:air"))),
+                        new CompoundTag(ImmutableMap.of("Name", new StringTag("minecraft:stone")))
+                )),
+                "BlockStates", new LongArrayTag(new long[]{0, -1, Long.MIN_VALUE, Long.MAX_VALUE})
+        ));
+        CompoundTag level = new CompoundTag(ImmutableMap.<String, Tag>builder()
+                .put("xPos", new IntTag(-7))
+                .put("zPos", new IntTag(Integer.MAX_VALUE))
+                .put("LastUpdate", new LongTag(123456789012L))
+                .put("Status", new StringTag("full \u00e9\u4e16"))
+                .put("Sections", new ListTag(CompoundTag.class, ImmutableList.of(section, section)))
+                .put("Biomes", new IntArrayTag(new int[]{1, 2, -3}))
+                .put("Heights", new ByteArrayTag(new byte[]{1, -2, 3}))
+                .put("Entities", new ListTag(CompoundTag.class, ImmutableList.of()))
+                .put("Scale", new FloatTag(0.5f))
+                .put("Offset", new DoubleTag(-1e300))
+                .put("Light", new ShortTag((short) -300))
+                .put("Nested", new ListTag(ListTag.class, ImmutableList.of(
+                        new ListTag(IntTag.class, ImmutableList.of(new IntTag(1), new IntTag(2))),
+                        new ListTag(StringTag.class, ImmutableList.of(new StringTag("a")))
+                )))
+                .build());
+        return new CompoundTag(ImmutableMap.of(
+                "DataVersion", new IntTag(2586),
+                "Level", level
+        ));
+    }
+
+    private static byte[] write(Tag tag) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (NBTOutputStream out = new NBTOutputStream(bytes)) {
+            out.writeNamedTag("", tag);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Tag readWithStream(byte[] data) throws IOException {
+        try (NBTInputStream in = new NBTInputStream(new ByteArrayInputStream(data))) {
+            NamedTag tag = in.readNamedTag();
+            assertEquals("", tag.getName());
+            return tag.getTag();
+        }
+    }
+
+    private static void assertSameTag(Tag expected, Tag actual, String path) {
+        assertEquals(expected.getClass(), actual.getClass(), path);
+        if (expected instanceof CompoundTag) {
+            Map<String, Tag> expectedEntries = ((CompoundTag) expected).getValue();
+            Map<String, Tag> actualEntries = ((CompoundTag) actual).getValue();
+            assertEquals(expectedEntries.keySet(), actualEntries.keySet(), path);
+            expectedEntries.forEach((name, tag) -> assertSameTag(tag, actualEntries.get(name), path + "." + name));
+        } else if (expected instanceof ListTag) {
+            List<Tag> expectedElements = ((ListTag) expected).getValue();
+            List<Tag> actualElements = ((ListTag) actual).getValue();
+            assertEquals(expectedElements.size(), actualElements.size(), path);
+            if (!expectedElements.isEmpty()) {
+                assertEquals(((ListTag) expected).getType(), ((ListTag) actual).getType(), path);
+            }
+            for (int i = 0; i < expectedElements.size(); i++) {
+                assertSameTag(expectedElements.get(i), actualElements.get(i), path + "[" + i + "]");
+            }
+        } else if (expected instanceof ByteArrayTag) {
+            assertArrayEquals(((ByteArrayTag) expected).getValue(), ((ByteArrayTag) actual).getValue(), path);
+        } else if (expected instanceof IntArrayTag) {
+            assertArrayEquals(((IntArrayTag) expected).getValue(), ((IntArrayTag) actual).getValue(), path);
+        } else if (expected instanceof LongArrayTag) {
+            assertArrayEquals(((LongArrayTag) expected).getValue(), ((LongArrayTag) actual).getValue(), path);
+        } else {
+            assertEquals(expected.getValue(), actual.getValue(), path);
+        }
+    }
+
+    @Test
+    @DisplayName("toTag() parses the same tags as NBTInputStream")
+    void sameTagsAsInputStream() throws IOException {
+        byte[] data = write(createChunk());
+        Tag expected = readWithStream(data);
+        assertSameTag(expected, NBTCursor.root(data).toTag(), "root");
+        assertSameTag(expected, NBTCursor.read(new ByteArrayInputStream(data)).toTag(), "root");
+        // and writes back to data NBTInputStream reads the same way
+        assertSameTag(expected, readWithStream(write(NBTCursor.root(data).toTag())), "root");
+    }
+
+    @Test
+    @DisplayName("values read in place match the values parsed by NBTInputStream")
+    void sameValuesAsInputStream() throws IOException {
+        byte[] data = write(createChunk());
+        CompoundTag expected = (CompoundTag) readWithStream(data);
+        CompoundTag expectedLevel = (CompoundTag) expected.getValue().get("Level");
+        NBTCursor root = NBTCursor.root(data);
+        assertEquals(NBTConstants.TYPE_COMPOUND, root.getType());
+        assertEquals(expected.getInt("DataVersion"), root.get("DataVersion").getInt());
+        assertEquals(expected.getInt("DataVersion"), root.get("DataVersion").asLong());
+        assertNull(root.get("Missing"));
+
+        NBTCursor level = root.get("Level");
+        Map<String, NBTCursor> entries = level.getEntries();
+        assertEquals(expectedLevel.getValue().keySet(), entries.keySet());
+        assertEquals(expectedLevel.getInt("xPos"), entries.get("xPos").getInt());
+        assertEquals(expectedLevel.getInt("zPos"), level.get("zPos").getInt());
+        assertEquals(expectedLevel.getLong("LastUpdate"), entries.get("LastUpdate").getLong());
+        assertEquals(expectedLevel.getString("Status"), entries.get("Status").getString());
+        assertEquals(expectedLevel.getFloat("Scale"), entries.get("Scale").getFloat());
+        assertEquals(expectedLevel.getDouble("Offset"), entries.get("Offset").getDouble());
+        assertEquals(expectedLevel.getShort("Light"), entries.get("Light").getShort());
+        assertArrayEquals(expectedLevel.getIntArray("Biomes"), entries.get("Biomes").getIntArray());
+        assertArrayEquals(expectedLevel.getByteArray("Heights"), entries.get("Heights").getByteArray());
+        assertTrue(entries.get("Entities").getElements().isEmpty());
+
+        List<Tag> expectedSections = expectedLevel.getList("Sections");
+        List<NBTCursor> sections = entries.get("Sections").getElements();
+        assertEquals(NBTConstants.TYPE_COMPOUND, entries.get("Sections").getElementType());
+        assertEquals(expectedSections.size(), sections.size());
+        for (int i = 0; i < sections.size(); i++) {
+            CompoundTag expectedSection = (CompoundTag) expectedSections.get(i);
+            NBTCursor section = sections.get(i);
+            assertEquals(expectedSection.getByte("Y"), section.get("Y").getByte());
+            assertArrayEquals(expectedSection.getLongArray("BlockStates"), section.get("BlockStates").getLongArray());
+            List<NBTCursor> palette = section.get("Palette").getElements();
+            List<Tag> expectedPalette = expectedSection.getList("Palette");
+            assertEquals(expectedPalette.size(), palette.size());
+            for (int j = 0; j < palette.size(); j++) {
+                assertEquals(((CompoundTag) expectedPalette.get(j)).getString("Name"), palette.get(j).get("Name").getString());
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("toCompoundTagWithout leaves out the skipped entries only")
+    void skipEntries() throws IOException {
+        byte[] data = write(createChunk());
+        CompoundTag expected = (CompoundTag) ((CompoundTag) readWithStream(data)).getValue().get("Level");
+        CompoundTag level = NBTCursor.root(data).get("Level")
+                .toCompoundTagWithout(ImmutableSet.of("Sections", "Biomes"));
+        assertFalse(level.containsKey("Sections"));
+        assertFalse(level.containsKey("Biomes"));
+        assertEquals(expected.getValue().size() - 2, level.getValue().size());
+        level.getValue().forEach((name, tag) -> assertSameTag(expected.getValue().get(name), tag, name));
+    }
+
+    @Test
+    @DisplayName("truncated data and wrong types throw an IOException")
+    void rejectCorruptData() throws IOException {
+        byte[] data = write(createChunk());
+        NBTCursor root = NBTCursor.root(data);
+        assertThrows(IOException.class, () -> root.get("DataVersion").getString());
+        assertThrows(IOException.class, () -> root.get("Level").getElements());
+        for (int length : new int[]{0, 2, data.length / 2, data.length - 1}) {
+            byte[] truncated = Arrays.copyOf(data, length);
+            assertThrows(IOException.class, () -> NBTCursor.root(truncated).toTag(), () -> "length " + length);
+        }
+        assertTrue(NBTCursor.root(data).toTag() instanceof CompoundTag);
+    }
+
+}
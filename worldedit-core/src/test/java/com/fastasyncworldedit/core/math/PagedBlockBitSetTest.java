@@ -0,0 +1,163 @@
+package com.fastasyncworldedit.core.math;
+
+import com.sk89q.worldedit.math.BlockVector3;
+import com.sk89q.worldedit.util.test.VariedVectorGenerator;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PagedBlockBitSetTest {
+
+    private static List<BlockVector3> positions() {
+        List<BlockVector3> positions = new VariedVectorGenerator(true).makeVectorsStream()
+                .collect(Collectors.toCollection(ArrayList::new));
+        // a cube spanning the edges of eight sections
+        for (int x = -3; x < 3; x++) {
+            for (int y = -3; y < 3; y++) {
+                for (int z = -3; z < 3; z++) {
+                    positions.add(BlockVector3.at(x + 16, y + 32, z - 16));
+                }
+            }
+        }
+        return positions;
+    }
+
+    @Test
+    @DisplayName("contains(pos) is true only for added positions")
+    void containsAddedPositions() {
+        PagedBlockBitSet set = new PagedBlockBitSet();
+        Set<BlockVector3> expected = new HashSet<>();
+        for (BlockVector3 pos : positions()) {
+            assertEquals(expected.add(pos), set.add(pos), pos::toString);
+        }
+        assertEquals(expected.size(), set.size());
+        for (BlockVector3 pos : expected) {
+            assertTrue(set.contains(pos), pos::toString);
+            assertTrue(set.containsConcurrently(pos.getX(), pos.getY(), pos.getZ()), pos::toString);
+            BlockVector3 above = pos.add(0, 1, 0);
+            assertEquals(expected.contains(above), set.contains(above), above::toString);
+        }
+    }
+
+    @Test
+    @DisplayName("remove(pos) removes only that position")
+    void removeAddedPositions() {
+        PagedBlockBitSet set = new PagedBlockBitSet();
+        List<BlockVector3> positions = positions();
+        set.addAll(positions);
+        Set<BlockVector3> expected = new HashSet<>(positions);
+        for (BlockVector3 pos : positions) {
+            assertEquals(expected.remove(pos), set.remove(pos), pos::toString);
+            assertFalse(set.contains(pos), pos::toString);
+            assertEquals(expected.size(), set.size());
+        }
+        assertTrue(set.isEmpty());
+    }
+
+    @Test
+    @DisplayName("iterating returns every position once, and get(index) follows the iteration order")
+    void iterateAddedPositions() {
+        PagedBlockBitSet set = new PagedBlockBitSet();
+        set.addAll(positions());
+        Set<BlockVector3> iterated = new HashSet<>();
+        int index = 0;
+        for (BlockVector3 pos : set) {
+            // the iterator reuses a mutable vector
+            assertTrue(iterated.add(pos.toImmutable()), pos::toString);
+            assertEquals(pos.toImmutable(), set.get(index++).toImmutable());
+        }
+        assertEquals(new HashSet<>(positions()), iterated);
+        assertNull(set.get(index));
+    }
+
+    @Test
+    @DisplayName("removing through the iterator removes the last returned position")
+    void removeWhileIterating() {
+        PagedBlockBitSet set = new PagedBlockBitSet();
+        set.addAll(positions());
+        Set<BlockVector3> kept = new HashSet<>();
+        boolean remove = false;
+        for (Iterator<BlockVector3> iter = set.iterator(); iter.hasNext(); remove = !remove) {
+            BlockVector3 pos = iter.next().toImmutable();
+            if (remove) {
+                iter.remove();
+            } else {
+                kept.add(pos);
+            }
+        }
+        assertEquals(kept.size(), set.size());
+        for (BlockVector3 pos : positions()) {
+            assertEquals(kept.contains(pos), set.contains(pos), pos::toString);
+        }
+    }
+
+    @Test
+    @DisplayName("clear() removes all positions and pages")
+    void clearRemovesPages() {
+        PagedBlockBitSet set = new PagedBlockBitSet();
+        set.addAll(positions());
+        set.clear();
+        assertTrue(set.isEmpty());
+        assertEquals(0, set.getPageCount());
+        assertFalse(set.iterator().hasNext());
+        for (BlockVector3 pos : positions()) {
+            assertFalse(set.contains(pos), pos::toString);
+        }
+    }
+
+    @Test
+    @DisplayName("concurrent add(pos) succeeds for exactly one thread per position")
+    void concurrentAddClaimsOnce() throws Exception {
+        ConcurrentPagedBlockBitSet set = new ConcurrentPagedBlockBitSet();
+        List<BlockVector3> positions = positions();
+        int threads = 4;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<Integer>> claims = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                claims.add(executor.submit(() -> {
+                    start.await();
+                    int claimed = 0;
+                    for (BlockVector3 pos : positions) {
+                        if (set.add(pos.getX(), pos.getY(), pos.getZ())) {
+                            claimed++;
+                        }
+                    }
+                    return claimed;
+                }));
+            }
+            start.countDown();
+            int claimed = 0;
+            for (Future<Integer> future : claims) {
+                claimed += future.get(30, TimeUnit.SECONDS);
+            }
+            assertEquals(new HashSet<>(positions).size(), claimed);
+        } finally {
+            executor.shutdownNow();
+        }
+        for (BlockVector3 pos : positions) {
+            assertTrue(set.contains(pos.getX(), pos.getY(), pos.getZ()), pos::toString);
+            assertFalse(set.add(pos.getX(), pos.getY(), pos.getZ()), pos::toString);
+        }
+        set.clear();
+        assertFalse(set.contains(0, 0, 0));
+    }
+
+}
@@ -0,0 +1,37 @@
+package com.sk89q.worldedit.internal.expression;
+
+import com.fastasyncworldedit.core.configuration.Settings;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs the {@link ExpressionTest} cases with expressions compiled to bytecode.
+ */
+class BytecodeExpressionTest extends ExpressionTest {
+
+    private boolean bytecodeExpressions;
+
+    @BeforeEach
+    void enableBytecode() {
+        bytecodeExpressions = Settings.IMP.EXPERIMENTAL.BYTECODE_EXPRESSIONS;
+        Settings.IMP.EXPERIMENTAL.BYTECODE_EXPRESSIONS = true;
+    }
+
+    @AfterEach
+    void restoreBytecode() {
+        Settings.IMP.EXPERIMENTAL.BYTECODE_EXPRESSIONS = bytecodeExpressions;
+    }
+
+    @Test
+    void testCompiledToBytecode() throws ExpressionException {
+        Expression expression = compile("x * 2 + y", "x", "y");
+        String name = expression.getCompiledExpression().getClass().getName();
+        assertTrue(name.contains("GeneratedExpression"), () -> "Compiled to method handles: " + name);
+        assertEquals(7, expression.evaluate(3, 1), 0);
+    }
+
+}
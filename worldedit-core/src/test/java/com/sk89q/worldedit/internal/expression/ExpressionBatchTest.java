@@ -0,0 +1,39 @@
+package com.sk89q.worldedit.internal.expression;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ExpressionBatchTest extends BaseExpressionTest {
+
+    // loops long enough to time out when x is positive
+    private static final String SLOW =
+            "s = 0; for (i = 0; i < x; i++) { for (j = 0; j < 100000000; j++) { s += sin(j * x); } } x * 2";
+
+    @Test
+    void testEvaluate() {
+        ExpressionBatch batch = compile("x * y + z", "x", "y", "z").batch(1_000);
+        assertEquals(7, batch.evaluate(2, 3, 1), 0);
+        double[] results = new double[2];
+        assertEquals(0, batch.evaluate(new double[]{1, 1, 1, 2, 2, 2}, 3, results, 2));
+        assertEquals(2, results[0], 0);
+        assertEquals(6, results[1], 0);
+    }
+
+    @Test
+    void testTimeoutPerEvaluation() {
+        ExpressionBatch batch = compile(SLOW, "x").batch(50);
+        double[] results = new double[3];
+        assertEquals(1, batch.evaluate(new double[]{0, 1, 0}, 1, results, 3));
+        assertEquals(0, results[0], 0);
+        assertTrue(Double.isNaN(results[1]));
+        // the next evaluation gets its own deadline
+        assertEquals(0, results[2], 0);
+
+        assertThrows(ExpressionTimeoutException.class, () -> batch.evaluate(1));
+        assertEquals(0, batch.evaluate(0), 0);
+    }
+
+}
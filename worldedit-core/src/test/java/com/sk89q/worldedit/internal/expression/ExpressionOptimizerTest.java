@@ -0,0 +1,114 @@
+package com.sk89q.worldedit.internal.expression;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.jupiter.api.DynamicNode;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestFactory;
+
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.DynamicTest.dynamicTest;
+
+/**
+ * Checks that {@link Expression#optimize()} doesn't change the results of expressions.
+ */
+class ExpressionOptimizerTest extends BaseExpressionTest {
+
+    private static final double[] VALUES = {-2, 0, 0.5, 3};
+
+    @TestFactory
+    Stream<DynamicNode> testSameResults() {
+        List<String> expressions = ImmutableList.of(
+                // constant folding and simplification
+                "2 * 3 + x * 1 + y ^ 2 - pi",
+                "x == 0 ? pi : e * x",
+                "0 / x + -(-y) + !!z",
+                "min(x, y) + max(y, z) + atan2(x, 1) + sqrt(abs(z))",
+                // unused assignments and statements
+                "a = x * 2; a = y; a + 1",
+                "x + 1; y * 2; z",
+                "a = x; a++; --a; a += y; a",
+                // loop invariants
+                "s = 0; for (i = 0; i < 10; i++) { s += sin(x) * cos(y) + i; } s",
+                "r = 0; while (r < 5) { r += abs(x) + 1; } r",
+                "n = 0; for (i = 0, 3) { n += x * y + i; } n",
+                "do { x -= 1; } while (x > 0); x",
+                // common subexpressions
+                "(x * y + z) / (x * y + z + 1) + sqrt(abs(x * y + z))",
+                "x = x * y + z; y = x * y + z; x + y",
+                // query functions and buffers must keep their effects
+                "a = 1; b = 2; query(x, y, z, a, b); a + b",
+                "megabuf(0, x); megabuf(1, y); megabuf(0) + megabuf(1)"
+        );
+        return expressions.stream().map(expression -> dynamicTest(expression, () -> {
+            Expression original = Expression.compile(expression, "x", "y", "z");
+            Expression optimized = compile(expression, "x", "y", "z");
+            for (double x : VALUES) {
+                for (double y : VALUES) {
+                    for (double z : VALUES) {
+                        assertSameResult(original, optimized, x, y, z);
+                    }
+                }
+            }
+        }));
+    }
+
+    private void assertSameResult(Expression original, Expression optimized, double x, double y, double z) {
+        String inputs = "x=" + x + ", y=" + y + ", z=" + z;
+        setEnvironment(original);
+        setEnvironment(optimized);
+        assertEquals(original.evaluate(x, y, z), optimized.evaluate(x, y, z), 0, inputs);
+        for (String slot : new String[]{"x", "y", "z"}) {
+            assertEquals(readSlot(original, slot), readSlot(optimized, slot), 0, () -> slot + " with " + inputs);
+        }
+    }
+
+    private static void setEnvironment(Expression expression) {
+        expression.setEnvironment(new ExpressionEnvironment() {
+            @Override
+            public int getBlockType(double x, double y, double z) {
+                return (int) x;
+            }
+
+            @Override
+            public int getBlockData(double x, double y, double z) {
+                return (int) y;
+            }
+
+            @Override
+            public int getBlockTypeAbs(double x, double y, double z) {
+                return (int) x * 10;
+            }
+
+            @Override
+            public int getBlockDataAbs(double x, double y, double z) {
+                return (int) y * 10;
+            }
+
+            @Override
+            public int getBlockTypeRel(double x, double y, double z) {
+                return (int) x * 100;
+            }
+
+            @Override
+            public int getBlockDataRel(double x, double y, double z) {
+                return (int) y * 100;
+            }
+        });
+    }
+
+    @Test
+    void testErrorPositions() {
+        // the optimized expression is printed differently, errors must still point at the original
+        String expression = "if (x > 0) b = 1; 2 * 3 + b";
+        Expression optimized = compile(expression, "x");
+        EvaluationException ex = assertThrows(EvaluationException.class, () -> optimized.evaluate(-1));
+        assertTrue(ex.getMessage().contains("not initialized yet"));
+        assertEquals(expression.lastIndexOf('b'), ex.getPosition());
+    }
+
+}
@@ -0,0 +1,172 @@
+package com.sk89q.worldedit.world.snapshot.experimental.fs;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.sk89q.worldedit.util.io.file.ZipArchiveNioSupport;
+import com.sk89q.worldedit.world.snapshot.experimental.Snapshot;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import static java.util.stream.Collectors.toList;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@DisplayName("A snapshot catalogue")
+class SnapshotCatalogueTest {
+
+    private static final String WORLD = "world";
+    private static final String OTHER_WORLD = "other";
+    private static final ZonedDateTime TIME_ONE = FileSystemSnapshotDatabaseTest.TIME_ONE;
+    private static final ZonedDateTime TIME_TWO = TIME_ONE.plusDays(1);
+    private static final String STAMP_ONE = TIME_ONE.format(FileSystemSnapshotDatabaseTest.FORMATTER);
+    private static final String STAMP_TWO = TIME_TWO.format(FileSystemSnapshotDatabaseTest.FORMATTER);
+    private static final FileTime MODIFIED = FileTime.from(Instant.parse("2020-01-01T00:00:00.00Z"));
+
+    @TempDir
+    Path root;
+
+    private FileSystemSnapshotDatabase newDatabase() {
+        return new FileSystemSnapshotDatabase(root, ZipArchiveNioSupport.getInstance());
+    }
+
+    private static void createWorld(Path directory, String worldName) throws IOException {
+        Path worldDir = directory.resolve(worldName);
+        Files.createDirectories(worldDir);
+        Files.createFile(worldDir.resolve("level.dat"));
+    }
+
+    private static void createArchive(Path zipFile, String... worldNames) throws IOException {
+        Files.deleteIfExists(zipFile);
+        try (FileSystem zipFs = FileSystems.newFileSystem(
+            URI.create("jar:" + zipFile.toUri() + "!/"),
+            ImmutableMap.of("create", "true")
+        )) {
+            for (String worldName : worldNames) {
+                createWorld(zipFs.getPath("/"), worldName);
+            }
+        }
+    }
+
+    private static Set<String> listSnapshots(FileSystemSnapshotDatabase db, String worldName) throws IOException {
+        Set<String> names = new HashSet<>();
+        try (Stream<Snapshot> snapshots = db.getSnapshots(worldName)) {
+            for (Snapshot snapshot : (Iterable<Snapshot>) snapshots::iterator) {
+                try (Snapshot closed = snapshot) {
+                    names.add(closed.getInfo().getDisplayName());
+                }
+            }
+        }
+        return names;
+    }
+
+    private static String id(String first, String second) {
+        return first + File.separator + second;
+    }
+
+    @DisplayName("lists the same snapshots as searching the root, and stores them in the root")
+    @Test
+    void listsSnapshots() throws IOException {
+        createWorld(root.resolve(STAMP_ONE), WORLD);
+        createWorld(root.resolve(STAMP_ONE), OTHER_WORLD);
+        createArchive(root.resolve(STAMP_TWO + ".zip"), WORLD);
+        FileSystemSnapshotDatabase db = newDatabase();
+
+        Set<String> expected = ImmutableSet.of(id(STAMP_ONE, WORLD), id(STAMP_TWO + ".zip", WORLD));
+        assertEquals(expected, listSnapshots(db, WORLD));
+        assertEquals(ImmutableSet.of(id(STAMP_ONE, OTHER_WORLD)), listSnapshots(db, OTHER_WORLD));
+        assertTrue(Files.isRegularFile(root.resolve(SnapshotCatalogue.FILE_NAME)));
+        // listed from the catalogue
+        assertEquals(expected, listSnapshots(db, WORLD));
+        assertEquals(expected, listSnapshots(newDatabase(), WORLD));
+
+        List<Snapshot> snapshots;
+        try (Stream<Snapshot> stream = db.getSnapshotsNewestFirst(WORLD)) {
+            snapshots = stream.collect(toList());
+        }
+        try {
+            assertEquals(TIME_TWO.toInstant(), snapshots.get(0).getInfo().getDateTime().toInstant());
+            assertEquals(TIME_ONE.toInstant(), snapshots.get(1).getInfo().getDateTime().toInstant());
+        } finally {
+            for (Snapshot snapshot : snapshots) {
+                snapshot.close();
+            }
+        }
+    }
+
+    @DisplayName("searches an entry again after its modification time changed")
+    @Test
+    void invalidatesOnModificationTime() throws IOException {
+        Path stamped = root.resolve(STAMP_ONE);
+        createWorld(stamped, OTHER_WORLD);
+        Files.setLastModifiedTime(stamped, MODIFIED);
+        FileSystemSnapshotDatabase db = newDatabase();
+        assertEquals(ImmutableSet.of(), listSnapshots(db, WORLD));
+
+        // same modification time and size, the entry isn't searched again
+        createWorld(stamped, WORLD);
+        Files.setLastModifiedTime(stamped, MODIFIED);
+        assertEquals(ImmutableSet.of(), listSnapshots(db, WORLD));
+
+        Files.setLastModifiedTime(stamped, FileTime.from(MODIFIED.toInstant().plusSeconds(60)));
+        assertEquals(ImmutableSet.of(id(STAMP_ONE, WORLD)), listSnapshots(db, WORLD));
+        // also when the catalogue is read from the root
+        assertEquals(ImmutableSet.of(id(STAMP_ONE, WORLD)), listSnapshots(newDatabase(), WORLD));
+    }
+
+    @DisplayName("searches an entry again after its size changed")
+    @Test
+    void invalidatesOnSize() throws IOException {
+        Path archive = root.resolve(STAMP_ONE + ".zip");
+        createArchive(archive, OTHER_WORLD);
+        Files.setLastModifiedTime(archive, MODIFIED);
+        long size = Files.size(archive);
+        FileSystemSnapshotDatabase db = newDatabase();
+        assertEquals(ImmutableSet.of(), listSnapshots(db, WORLD));
+
+        createArchive(archive, OTHER_WORLD, WORLD);
+        Files.setLastModifiedTime(archive, MODIFIED);
+        assertNotEquals(size, Files.size(archive));
+        assertEquals(ImmutableSet.of(id(STAMP_ONE + ".zip", WORLD)), listSnapshots(db, WORLD));
+    }
+
+    @DisplayName("forgets the snapshots of removed entries")
+    @Test
+    void removesEntries() throws IOException {
+        createWorld(root.resolve(STAMP_ONE), WORLD);
+        createWorld(root.resolve(STAMP_TWO), WORLD);
+        FileSystemSnapshotDatabase db = newDatabase();
+        assertEquals(2, listSnapshots(db, WORLD).size());
+
+        Files.delete(root.resolve(STAMP_TWO).resolve(WORLD).resolve("level.dat"));
+        Files.delete(root.resolve(STAMP_TWO).resolve(WORLD));
+        Files.delete(root.resolve(STAMP_TWO));
+        assertEquals(ImmutableSet.of(id(STAMP_ONE, WORLD)), listSnapshots(db, WORLD));
+        assertEquals(ImmutableSet.of(id(STAMP_ONE, WORLD)), listSnapshots(newDatabase(), WORLD));
+    }
+
+    @DisplayName("searches everything again if the stored catalogue is corrupt")
+    @Test
+    void ignoresCorruptCatalogue() throws IOException {
+        createWorld(root.resolve(STAMP_ONE), WORLD);
+        Files.write(root.resolve(SnapshotCatalogue.FILE_NAME), new byte[]{0, 0, 0, 1, 0, 0});
+        assertEquals(ImmutableSet.of(id(STAMP_ONE, WORLD)), listSnapshots(newDatabase(), WORLD));
+    }
+
+}